@@ -1,13 +1,21 @@
 # To be run after the simulator has finished.
 # Expects to be run from the logs directory.
 
+import gzip
+import os
 import numpy
 import matplotlib.pyplot as plt
 
+def openSpeciesLog():
+    # The log may have been compressed with --compress PRINTED_SPECIES:GZIP
+    if os.path.exists('output_Species.csv.gz'):
+        return gzip.open('output_Species.csv.gz', 'rt')
+    return open('output_Species.csv')
+
 def makeGraph():
     print('Creating graph...')
     
-    with open('output_Species.csv') as f:
+    with openSpeciesLog() as f:
         # Get headings from first line
         headings = [ entry.strip() for entry in f.readline().split(',')[1:] ]
         print('Headings: ' + ', '.join(headings))
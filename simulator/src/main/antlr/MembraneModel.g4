@@ -11,6 +11,8 @@ line
     |  speciesDefinition
     |  parameterDefinition
     |  reactionDefinition
+    |  observableDefinition
+    |  stopCondition
     |  locationContextBlock
     |  NEWLINE
     ;
@@ -36,6 +38,18 @@ parameterDefinition
     : 'parameter' name=IDENTIFIER '=' value=equation parameterUnits=units
     ;
 
+// Definition of an observable, computed from the numbers of species and printed as the simulation runs
+// Species names and species tags count every membrane, and located species count every membrane with that type or tag
+observableDefinition
+    : 'observable' name=IDENTIFIER '=' value=equation
+    ;
+
+// A condition that ends the simulation early, e.g. "stop when LD contained spleen == 0"
+// Species are added up in the same way as in observables
+stopCondition
+    : 'stop' NEWLINE* 'when' left=equation comparison=COMPARISON right=equation
+    ;
+
 // A location context block
 locationContextBlock
 	:  locationContextBlockStart '{' 
@@ -134,6 +148,10 @@ ARROW
     :  '<=>' | '=>'
     ;
 
+COMPARISON
+    :  '==' | '!=' | '<=' | '>=' | '<' | '>'
+    ;
+
 FLOAT
 	:  (INTEGER EXPONENT)   // An integer with scientific notation counts as a float
 	|  (DECIMAL EXPONENT?)  // Decimal numbers count as floats, and the scientific notation is optional
@@ -0,0 +1,201 @@
+package com.simomics.leishsim;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.parsing.ModelCache;
+import com.simomics.leishsim.parsing.SimulationFactory.InvalidModelException;
+import com.simomics.leishsim.simulation.Simulation.InvalidSimulationException;
+
+/**
+ * Runs many simulations listed in a manifest file, in one JVM, several at a time.
+ * Each line of the manifest contains the command line arguments for one simulation. Blank lines and lines starting with # are ignored.
+ * Arguments are separated by spaces, as in a shell. An argument containing spaces, such as a file path, can be wrapped in double or single quotes.
+ * Simulations that use the same model file share the parsed model.
+ */
+public class BatchRunner {
+
+	/** The file listing the simulations to run */
+	private final File manifestFile;
+
+	/** How many simulations to run at the same time */
+	private final int numWorkers;
+
+	/** The directory for the logs of the batch as a whole. Also contains the logs of simulations that don't give a log directory. */
+	private final File logsDirectory;
+
+	/** How much logging to print about the batch as a whole */
+	private final LogType logLevel;
+
+	/** The number of lines in the manifest that could not be run */
+	private int numInvalidJobs;
+
+	/** Parsed models, shared by all the simulations in the batch */
+	private final ModelCache modelCache = new ModelCache();
+
+	/**
+	 * @throws IllegalArgumentException If numWorkers is less than 1.
+	 */
+	public BatchRunner(File manifestFile, int numWorkers, File logsDirectory, LogType logLevel) {
+		if (numWorkers < 1) {
+			throw new IllegalArgumentException("Number of workers must be at least 1, but was " + numWorkers);
+		}
+		this.manifestFile = manifestFile;
+		this.numWorkers = numWorkers;
+		this.logsDirectory = logsDirectory;
+		this.logLevel = logLevel;
+	}
+
+	/**
+	 * Run all the simulations in the manifest, and wait for them to finish.
+	 * A simulation that fails is reported in the error log, and does not stop the other simulations.
+	 * @return The number of simulations that failed, including any that could not be read from the manifest.
+	 * @throws IOException If the manifest file could not be read, in which case no simulations are run.
+	 */
+	public int run() throws IOException {
+		Logging.resetLogging(logsDirectory, logLevel);
+
+		// Read all the jobs before starting any, so that mistakes in the manifest are found straight away
+		Map<Integer, Driver> jobs = readManifest();
+		int numFailed = numInvalidJobs;
+
+		Logging.getLogger(LogType.PROGRESS).log(String.format("Running %d simulations from %s with %d workers", jobs.size(), manifestFile, numWorkers));
+		ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+		Map<Integer, Future<?>> results = new LinkedHashMap<>();
+		for (Map.Entry<Integer, Driver> job: jobs.entrySet()) {
+			Driver driver = job.getValue();
+			results.put(job.getKey(), workers.submit(() -> {
+				try {
+					driver.run(modelCache);
+				} catch (InvalidModelException | InvalidSimulationException e) {
+					// Write the error to this simulation's own logs, as well as reporting it for the batch
+					Logging.getLogger(LogType.ERROR).log(e.getMessage());
+					throw e;
+				} finally {
+					Logging.closeLogs();
+				}
+				return null;
+			}));
+		}
+		workers.shutdown();
+
+		// Report on each simulation in manifest order
+		for (Map.Entry<Integer, Future<?>> result: results.entrySet()) {
+			String jobDescription = String.format("Simulation on line %d (%s)", result.getKey(), jobs.get(result.getKey()).getLogsDirectoryName());
+			try {
+				result.getValue().get();
+				Logging.getLogger(LogType.PROGRESS).log(jobDescription + " finished");
+			} catch (ExecutionException e) {
+				numFailed += 1;
+				Logging.getLogger(LogType.ERROR).log(jobDescription + " failed: " + e.getCause().getMessage(), e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				Logging.getLogger(LogType.ERROR).log("Interrupted while waiting for simulations to finish");
+				workers.shutdownNow();
+				return numFailed;
+			}
+		}
+		Logging.getLogger(LogType.PROGRESS).log(String.format("Batch finished: %d of %d simulations failed", numFailed, jobs.size() + numInvalidJobs));
+		return numFailed;
+	}
+
+	/**
+	 * @return The simulations in the manifest, indexed by line number.
+	 *   Lines that are not valid command line arguments are reported in the error log and left out.
+	 * @throws IOException If the manifest file could not be read.
+	 */
+	private Map<Integer, Driver> readManifest() throws IOException {
+		List<String> lines = Files.readAllLines(manifestFile.toPath());
+
+		Map<Integer, Driver> jobs = new LinkedHashMap<>();
+		numInvalidJobs = 0;
+		for (int lineNumber = 1; lineNumber <= lines.size(); lineNumber++) {
+			String line = lines.get(lineNumber - 1).trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] args = splitArguments(line);
+			if (args == null) {
+				numInvalidJobs += 1;
+				Logging.getLogger(LogType.ERROR).log(String.format("Line %d of batch manifest has an unclosed quote: %s", lineNumber, line));
+				continue;
+			}
+			Driver driver = Driver.parseArguments(args);
+			if (driver == null) {
+				numInvalidJobs += 1;
+				Logging.getLogger(LogType.ERROR).log(String.format("Line %d of batch manifest is not valid: %s", lineNumber, line));
+				continue;
+			}
+			if (driver.isBatch()) {
+				numInvalidJobs += 1;
+				Logging.getLogger(LogType.ERROR).log(String.format("Line %d of batch manifest cannot itself be a batch: %s", lineNumber, line));
+				continue;
+			}
+			if (!Arrays.asList(args).contains("--log-dir")) {
+				// Keep each simulation's logs separate
+				driver.setLogsDirectoryName(new File(logsDirectory, "job" + lineNumber).getPath());
+			}
+			jobs.put(lineNumber, driver);
+		}
+		return jobs;
+	}
+
+	/**
+	 * Split a line of the manifest into arguments at spaces and tabs, as a shell would.
+	 * Text inside double or single quotes is kept in one argument, without the quotes, so that file paths can contain spaces.
+	 * Backslashes are not treated specially, so that Windows paths can be written as they are.
+	 * @return The arguments, or null if a quote is not closed.
+	 */
+	static String[] splitArguments(String line) {
+		List<String> args = new ArrayList<>();
+		StringBuilder arg = null;
+		char quote = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+				else {
+					arg.append(c);
+				}
+			}
+			else if (c == ' ' || c == '\t') {
+				if (arg != null) {
+					args.add(arg.toString());
+					arg = null;
+				}
+			}
+			else {
+				if (arg == null) {
+					// Start a new argument, which may be an empty quoted string
+					arg = new StringBuilder();
+				}
+				if (c == '"' || c == '\'') {
+					quote = c;
+				}
+				else {
+					arg.append(c);
+				}
+			}
+		}
+		if (quote != 0) {
+			return null;
+		}
+		if (arg != null) {
+			args.add(arg.toString());
+		}
+		return args.toArray(new String[args.size()]);
+	}
+}
@@ -0,0 +1,155 @@
+package com.simomics.leishsim;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.output.ColumnType;
+import com.simomics.leishsim.output.ColumnarFileWriter;
+
+/**
+ * Writes a time series log as a binary columnar file, rather than as CSV text.
+ * The simulation gives it headings and rows of numbers, instead of formatted lines.
+ * Text messages can't be written to it, and are reported as errors instead.
+ * @see ColumnarFileWriter
+ */
+public class ColumnarFileLogger implements FileLogger {
+
+	/** The directory in which this log file will be written */
+	private File outputDir;
+
+	/** The name of the file into which this log will be written */
+	private final String logName;
+
+	/** True if the CSV version of this log has a timestamp column */
+	private final boolean timestampColumn;
+
+	/** The open file, or null if it has not been written to since it was last closed */
+	private ColumnarFileWriter writer;
+
+	/**
+	 * @param logName The name of the log file, which has the extension .bin.
+	 * @param timestampColumn True if the CSV version of this log starts each line with a timestamp.
+	 */
+	public ColumnarFileLogger(String logName, boolean timestampColumn) {
+		this.logName = logName;
+		this.timestampColumn = timestampColumn;
+	}
+
+	/**
+	 * Start the file, replacing any earlier rows.
+	 * @param columnNames The names of all the columns, including the time column.
+	 * @param columnTypes The type of each column. Exactly one must be {@link ColumnType#TIME}.
+	 */
+	public synchronized void logHeadings(List<String> columnNames, List<ColumnType> columnTypes) {
+		close();
+		try {
+			writer = ColumnarFileWriter.create(getLogFile(), columnNames, columnTypes, timestampColumn);
+			OpenLogFiles.opened(this);
+		} catch (IOException e) {
+			// Failed to start the log file
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Add a row to a log of int columns.
+	 * @param time The time of the row.
+	 * @param values The value of each column, in heading order, not including the time column.
+	 */
+	public synchronized void logRow(long time, int[] values) {
+		try {
+			getWriter().writeRow(time, values);
+		} catch (IOException e) {
+			// Failed to write the row
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Add a row to a log of double columns.
+	 * @param time The time of the row.
+	 * @param values The value of each column, in heading order, not including the time column.
+	 */
+	public synchronized void logRow(long time, double[] values) {
+		try {
+			getWriter().writeRow(time, values);
+		} catch (IOException e) {
+			// Failed to write the row
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return The writer for the log file, opening the existing file (e.g. when resuming from a checkpoint) if necessary.
+	 */
+	private ColumnarFileWriter getWriter() throws IOException {
+		if (writer == null) {
+			writer = ColumnarFileWriter.append(getLogFile());
+			OpenLogFiles.opened(this);
+		}
+		return writer;
+	}
+
+	/**
+	 * Binary logs only hold rows of numbers, so text messages are reported as errors rather than written to the file.
+	 */
+	@Override
+	public void log(String message) {
+		Logging.getLogger(LogType.ERROR).log(String.format("Can't write text to binary log %s: %s", getLogFile(), message));
+	}
+
+	@Override
+	public void log(String message, Throwable exception) {
+		Logging.getLogger(LogType.ERROR).log(String.format("Can't write text to binary log %s: %s", getLogFile(), message), exception);
+	}
+
+	@Override
+	public void logBytes(byte[] bytes, int offset, int length) {
+		log(new String(bytes, offset, length, StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public synchronized void setOutputDir(File newOutputDir) {
+		close();
+		outputDir = newOutputDir;
+		File logFile = getLogFile();
+		try {
+			logFile.createNewFile();
+		} catch (IOException e) {
+			Logging.getLogger(LogType.ERROR).log(String.format("Could not create output file %s. Maybe the directory is not writeable?", logFile.getAbsolutePath()));
+		}
+	}
+
+	@Override
+	public File getLogFile() {
+		String fileName = FILE_PREFIX + logName + ".bin";
+		return outputDir != null ? new File(outputDir, fileName) : new File(fileName);
+	}
+
+	@Override
+	public synchronized void flush() {
+		if (writer != null) {
+			try {
+				writer.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			writer = null;
+			OpenLogFiles.closed(this);
+		}
+	}
+}
@@ -13,17 +13,41 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
+import com.simomics.leishsim.Logging.Compression;
 import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.Logging.OutputFormat;
+import com.simomics.leishsim.ensemble.EnsembleOrchestrator;
+import com.simomics.leishsim.ensemble.EnsembleStatistics;
+import com.simomics.leishsim.ensemble.EnsembleStatistics.ReplicateStatistics;
+import com.simomics.leishsim.ensemble.PrecisionTarget;
+import com.simomics.leishsim.ensemble.SharedResultsFile;
+import com.simomics.leishsim.ensemble.SharedResultsFile.ReplicateWriter;
+import com.simomics.leishsim.model.MembraneModel;
 import com.simomics.leishsim.model.Reaction;
+import com.simomics.leishsim.output.CsvExporter;
+import com.simomics.leishsim.output.CsvRowWriter;
+import com.simomics.leishsim.parsing.CompiledModel;
+import com.simomics.leishsim.parsing.ModelCache;
 import com.simomics.leishsim.parsing.SimulationFactory;
 import com.simomics.leishsim.parsing.SimulationFactory.InvalidModelException;
+import com.simomics.leishsim.simulation.RandomGeneratorType;
 import com.simomics.leishsim.simulation.Simulation;
 import com.simomics.leishsim.simulation.Simulation.InvalidSimulationException;
 
@@ -43,12 +67,21 @@ public class Driver {
 	@Parameter(names = "--random-seed", description = "Seed for the random number generator", required = false)
 	private Integer randomSeed = null;
 
-	@Parameter(names = "--model-file", description = "MDSL file containing the model to simulate", required = true)
+	@Parameter(names = "--rng", description = "Random number generator to use. Values are: MERSENNE_TWISTER, XOSHIRO256. XOSHIRO256 guarantees that replicates have separate streams of random numbers.", required = false)
+	private RandomGeneratorType randomGeneratorType = RandomGeneratorType.MERSENNE_TWISTER;
+	
+	@Parameter(names = "--replicate", description = "Which replicate this run is, among runs with the same seed. Each replicate uses its own stream of random numbers.", required = false)
+	private int replicate = 0;
+
+	@Parameter(names = "--model-file", description = "MDSL file containing the model to simulate. Required unless running a batch.", required = false)
 	private String modelFileName;
 
 	@Parameter(names = {"--print", "-p"}, description = "Print this species to the output")
 	private List<String> namesToPrint = Arrays.asList(new String[] {"LD", "INFg", "IL10"});
 
+	@Parameter(names = "--print-membranes", description = "Only print these membranes in the species per membrane log, separated by commas. Each is a membrane type, a tag, a unique tag, or a range of unique tags such as redpulp_macrophage_1..10. Defaults to every membrane.", required = false)
+	private List<String> membranesToPrint = null;
+
 	@Parameter(names = {"--hours-before-print"}, description = "Print out the results in chunks of this many hours", required = false)
 	private Integer hoursBeforePrint = null;
 	
@@ -58,9 +91,131 @@ public class Driver {
 	@Parameter(names = "--log-level", description = "How much logging to print. Values are: ERROR, WARNING, WARNING_FIX, PROGRESS, PARAMETERS, TAGS, FULL_STATE_AT_END, PRINTED_SPECIES, PRINTED_SPECIES_PER_MEMBRANE, REACTION_NUMBERS, PRINTED_PROPENSITIES, DETAIL, DEBUG, FULL.", required = false)
 	private LogType logLevel = LogType.PRINTED_SPECIES;
 	
+	@Parameter(names = "--observables", description = "Write the observables defined in the model to the observables log at each print time, whatever the log level")
+	private boolean printObservables = false;
+	
+	@Parameter(names = "--species-envelope", description = "Write the minimum, maximum, time weighted mean and last number of each printed species since the previous print time to the species envelope log, whatever the log level")
+	private boolean printSpeciesEnvelope = false;
+	
+	@Parameter(names = "--species-distribution", description = "Write summaries of the numbers of each species across all the membranes of each type to the species distribution log, whatever the log level")
+	private boolean printSpeciesDistribution = false;
+	
+	@Parameter(names = "--firing-counts", description = "Write the number of times each reaction fired in each membrane since the previous print time to the firing counts log, whatever the log level")
+	private boolean printFiringCounts = false;
+	
 	@Parameter(names = "--log-dir", description = "The directory into which to write the log files. Any pervious log files in this directory will be deleted.", required = false)
 	private String logsDirectoryName = "logs";
 	
+	@Parameter(names = "--model-cache-dir", description = "Directory in which to keep compiled models. A model file that has been compiled before, by the same version of the simulator, is read from here instead of being parsed again.", required = false)
+	private String modelCacheDirectoryName = null;
+	
+	@Parameter(names = "--checkpoint-every", description = "Write a checkpoint of the full simulation state every this many print chunks, and at the end of the run", required = false)
+	private Integer checkpointEvery = null;
+	
+	@Parameter(names = "--checkpoint-file", description = "The file to write checkpoints to. Defaults to checkpoint.bin in the log directory.", required = false)
+	private String checkpointFileName = null;
+	
+	@Parameter(names = "--resume", description = "Continue a run from a checkpoint file. Use the same model file, log directory and print options as the original run.", required = false)
+	private String resumeFileName = null;
+	
+	@Parameter(names = "--output-format", description = "File format of the printed species, species per membrane and propensities logs. Values are: CSV, BINARY, SPARSE. SPARSE is CSV, except that each line of the species per membrane log only has the numbers that changed. Binary and sparse files can be converted to CSV with com.simomics.leishsim.OutputExporter.", required = false)
+	private OutputFormat outputFormat = OutputFormat.CSV;
+	
+	@Parameter(names = "--compress", description = "Compress a log file as it is written, given as LOG_TYPE:CODEC, e.g. PRINTED_SPECIES:GZIP. Use ALL as the log type for every text log. Codecs are: NONE, GZIP, GZIP_FAST. Can be given more than once.", required = false)
+	private List<String> compressionStrings = new ArrayList<>();
+	
+	/** How to compress each log, parsed from {@link #compressionStrings} */
+	private Map<LogType, Compression> compression = new EnumMap<>(LogType.class);
+	
+	@Parameter(names = "--distribution-quantiles", description = "Quantiles to print in the species distribution log, separated by commas, each between 0 and 1. Defaults to 0.05,0.5,0.95.", required = false)
+	private List<String> distributionQuantileStrings = new ArrayList<>();
+	
+	/** Parsed from {@link #distributionQuantileStrings}, or null for the default quantiles */
+	private double[] distributionQuantiles = null;
+	
+	@Parameter(names = "--histogram-bins", description = "Number of histogram bins to print in the species distribution log. Bins double in width (0, 1, 2-3, 4-7, ...), and the last bin holds every larger number. Defaults to 8.", required = false)
+	private Integer histogramBins = null;
+	
+	@Parameter(names = "--steady-state-tolerance", description = "Stop the run once it reaches a steady state: when the mean of each watched number over the last --steady-state-window print chunks is within this fraction of its mean over the window before", required = false)
+	private Double steadyStateTolerance = null;
+	
+	@Parameter(names = "--steady-state-window", description = "Number of print chunks in each window compared by --steady-state-tolerance. Defaults to 10.", required = false)
+	private Integer steadyStateWindow = null;
+	
+	@Parameter(names = "--steady-state-species", description = "Species whose totals over all membranes are watched by --steady-state-tolerance, separated by commas. Defaults to the total propensity of all reactions.", required = false)
+	private List<String> steadyStateSpecies = null;
+	
+	@Parameter(names = "--async-output", description = "Format and write the printed species, species per membrane and propensities logs on a background thread while the simulation runs")
+	private boolean asyncOutput = false;
+	
+	@Parameter(names = "--event-trace", description = "Write a compact binary trace of every reaction firing and delayed event to output_Events.trace in the log directory. Decode it with com.simomics.leishsim.TraceDecoder.")
+	private boolean eventTrace = false;
+	
+	@Parameter(names = "--replay", description = "Instead of simulating, replay an event trace written by an earlier run of the same model with --event-trace, to write its logs again with different print options. Runs no further than the end of the trace.")
+	private String replayFileName = null;
+	
+	@Parameter(names = "--batch", description = "Run all the simulations listed in this manifest file, one per line, each line containing the command line arguments for that simulation. Arguments containing spaces can be quoted. Simulations without --log-dir write to a numbered directory inside this run's log directory.", required = false)
+	private String batchFileName = null;
+	
+	@Parameter(names = "--workers", description = "Number of simulations from the --batch manifest, or replicates of a --target-precision ensemble, to run at the same time", required = false)
+	private int numWorkers = 1;
+	
+	@Parameter(names = "--replicates", description = "Run this many replicates of the simulation, each with its own random number stream, writing their printed species into a single results file instead of the printed species log", required = false)
+	private Integer numReplicates = null;
+	
+	@Parameter(names = "--processes", description = "Run the --replicates on this many worker processes. Workers that stop before finishing are restarted.", required = false)
+	private Integer numProcesses = null;
+	
+	@Parameter(names = "--max-restarts", description = "How many times each worker process can be restarted before its remaining replicates are abandoned", required = false)
+	private int maxRestarts = 3;
+	
+	@Parameter(names = "--results-file", description = "The file into which to write the results of --replicates. Defaults to results.bin in the log directory.", required = false)
+	private String resultsFileName = null;
+	
+	@Parameter(names = "--no-results-file", description = "Don't keep the results of each of the --replicates, only the ensemble summary. Can't be used with --processes.")
+	private boolean noResultsFile = false;
+	
+	@Parameter(names = "--quantiles", description = "Quantiles of each printed species to include in the ensemble summary, separated by commas, each between 0 and 1. Defaults to 0.05,0.5,0.95.", required = false)
+	private List<String> summaryQuantileStrings = new ArrayList<>();
+	
+	/** Parsed from {@link #summaryQuantileStrings}, or null for the default quantiles */
+	private double[] summaryQuantiles = null;
+	
+	@Parameter(names = "--quantile-accuracy", description = "Maximum relative error of the quantiles in the ensemble summary", required = false)
+	private double quantileAccuracy = 0.01;
+	
+	@Parameter(names = "--target-species", description = "Stop running --replicates once the mean of this printed species is known to --target-precision", required = false)
+	private String targetSpecies = null;
+	
+	@Parameter(names = "--target-time", description = "The time at which to measure the --target-species, in hours if printing in hours, otherwise in seconds. Must be a print time.", required = false)
+	private Long targetTime = null;
+	
+	@Parameter(names = "--target-precision", description = "Largest allowed half-width of the confidence interval of the --target-species mean, as a fraction of the mean. --replicates is then the most replicates to run.", required = false)
+	private Double targetPrecision = null;
+	
+	@Parameter(names = "--target-confidence", description = "Confidence level of the --target-precision interval", required = false)
+	private double targetConfidence = 0.95;
+	
+	/** Used by worker processes to find out which replicates to run, as start:end (end is not included) */
+	@Parameter(names = EnsembleOrchestrator.REPLICATE_RANGE_OPTION, description = "Which replicates this worker process should run", required = false, hidden = true)
+	private String replicateRange = null;
+	
+	/** Options that the ensemble orchestrator sets for each worker, rather than passing on from its own arguments. Flags have no values. */
+	private static final List<String> ORCHESTRATOR_OPTIONS = Arrays.asList("--processes", "--max-restarts", "--log-dir", "--random-seed", "--results-file");
+	private static final List<String> ORCHESTRATOR_FLAGS = Arrays.asList("--run-analysis");
+	
+	/** The command line arguments that this driver was created from */
+	private String[] commandLineArguments;
+	
+	/** How long a shutdown hook waits for the simulation to write its checkpoint */
+	private static final long CHECKPOINT_ON_EXIT_TIMEOUT_SECONDS = 60;
+	
+	/** The number of print chunks in each window compared by --steady-state-tolerance, if not given */
+	private static final int DEFAULT_STEADY_STATE_WINDOW = 10;
+	
+	/** The quantiles in the ensemble summary, if --quantiles is not given */
+	private static final double[] DEFAULT_SUMMARY_QUANTILES = {0.05, 0.5, 0.95};
+	
 	/** Off by default, so that running tests doesn't send loads of files to AWS. */
 	@Parameter(names = "--run-analysis", description = "Whether to run the analysis script after the simulation finishes")
 	private boolean runAnalysis = false;
@@ -84,34 +239,217 @@ public class Driver {
 	public static void main(String... args) {
 
 		// Parse command line arguments
+		Driver driver = parseArguments(args);
+		if (driver == null) {
+			Logging.closeLogs();
+			return;
+		}
+		
+		// Run a batch of simulations
+		if (driver.batchFileName != null) {
+			try {
+				new BatchRunner(new File(driver.batchFileName), driver.numWorkers, new File(driver.logsDirectoryName), driver.logLevel).run();
+			} catch (IOException e) {
+				Logging.getLogger(LogType.ERROR).log("Could not read batch manifest file: " + driver.batchFileName, e);
+			} finally {
+				Logging.closeLogs();
+			}
+			return;
+		}
+		
+		// Start the simulation
+		try {
+			driver.run(null);
+		} catch (InvalidModelException | InvalidSimulationException e) {
+			Logging.getLogger(LogType.ERROR).log(e.getMessage());
+		} finally {
+			Logging.closeLogs();
+		}
+	}
+	
+	/**
+	 * @param args Command line arguments. See the member variables of this class annotated with @Parameter.
+	 * @return A driver for the given arguments, or null if the arguments were not valid.
+	 */
+	static Driver parseArguments(String... args) {
 		Driver driver = new Driver();
 		JCommander commandLineArgs = new JCommander(driver);
 		try {
 			commandLineArgs.parse(args);
+			if (driver.modelFileName == null && driver.batchFileName == null) {
+				throw new ParameterException("The following option is required: --model-file");
+			}
+			if (driver.numProcesses != null && driver.numReplicates == null) {
+				throw new ParameterException("--processes can only be used with --replicates");
+			}
+			if (driver.numProcesses != null && driver.noResultsFile) {
+				throw new ParameterException("--no-results-file can't be used with --processes, because worker processes send their results through the results file");
+			}
+			boolean anyTarget = driver.targetSpecies != null || driver.targetTime != null || driver.targetPrecision != null;
+			boolean allTarget = driver.targetSpecies != null && driver.targetTime != null && driver.targetPrecision != null;
+			if (anyTarget && !allTarget) {
+				throw new ParameterException("--target-species, --target-time and --target-precision must be used together");
+			}
+			if (anyTarget && (driver.numReplicates == null || driver.numProcesses != null)) {
+				throw new ParameterException("--target-precision needs --replicates, and runs the replicates in this process using --workers instead of --processes");
+			}
+			if (driver.numWorkers < 1) {
+				throw new ParameterException("--workers must be at least 1");
+			}
+			driver.compression = parseCompression(driver.compressionStrings);
+			driver.distributionQuantiles = parseQuantiles("--distribution-quantiles", driver.distributionQuantileStrings);
+			driver.summaryQuantiles = parseQuantiles("--quantiles", driver.summaryQuantileStrings);
+			if (driver.histogramBins != null && driver.histogramBins < 1) {
+				throw new ParameterException("--histogram-bins must be at least 1");
+			}
+			if (driver.steadyStateTolerance == null && (driver.steadyStateWindow != null || driver.steadyStateSpecies != null)) {
+				throw new ParameterException("--steady-state-window and --steady-state-species need --steady-state-tolerance");
+			}
+			if (driver.steadyStateTolerance != null && driver.steadyStateTolerance < 0) {
+				throw new ParameterException("--steady-state-tolerance can't be negative");
+			}
+			if (driver.steadyStateWindow != null && driver.steadyStateWindow < 1) {
+				throw new ParameterException("--steady-state-window must be at least 1");
+			}
+			if ((driver.numReplicates != null || driver.replicateRange != null) && driver.steadyStateTolerance != null) {
+				throw new ParameterException("--steady-state-tolerance can't be used with --replicates");
+			}
+			if ((driver.numReplicates != null || driver.replicateRange != null) && driver.eventTrace) {
+				throw new ParameterException("--event-trace can't be used with --replicates");
+			}
+			if (driver.replayFileName != null && (driver.numReplicates != null || driver.replicateRange != null || driver.resumeFileName != null || driver.checkpointEvery != null || driver.checkpointFileName != null)) {
+				throw new ParameterException("--replay can't be used with --replicates or checkpoints");
+			}
+			if ((driver.numReplicates != null || driver.replicateRange != null) && (driver.resumeFileName != null || driver.checkpointEvery != null || driver.checkpointFileName != null)) {
+				throw new ParameterException("Checkpoints can't be used with --replicates");
+			}
 		}
 		catch(ParameterException e) {
 			// Could not parse command line arguments
 			Logging.getLogger(LogType.ERROR).log(e.getMessage());
 			commandLineArgs.usage();
-			return;
+			return null;
 		}
-		
-		// Start the simulation
-		try {
-			driver.run();
-		} catch (InvalidModelException | InvalidSimulationException e) {
-			Logging.getLogger(LogType.ERROR).log(e.getMessage());
+		driver.commandLineArguments = args;
+		return driver;
+	}
+	
+	/**
+	 * @param compressionStrings Values of the --compress option.
+	 * @return The compression for each log type.
+	 * @throws ParameterException If any of the values are not LOG_TYPE:CODEC.
+	 */
+	private static Map<LogType, Compression> parseCompression(List<String> compressionStrings) {
+		Map<LogType, Compression> compression = new EnumMap<>(LogType.class);
+		for (String compressionString: compressionStrings) {
+			String[] parts = compressionString.split(":");
+			if (parts.length != 2) {
+				throw new ParameterException("--compress must be given as LOG_TYPE:CODEC, but was " + compressionString);
+			}
+			Compression codec;
+			try {
+				codec = Compression.valueOf(parts[1].trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new ParameterException(String.format("Unknown compression codec %s. Codecs are: %s", parts[1], Arrays.toString(Compression.values())));
+			}
+			String logName = parts[0].trim().toUpperCase();
+			if (logName.equals("ALL")) {
+				for (LogType logType: LogType.values()) {
+					compression.put(logType, codec);
+				}
+				continue;
+			}
+			try {
+				compression.put(LogType.valueOf(logName), codec);
+			} catch (IllegalArgumentException e) {
+				throw new ParameterException(String.format("Unknown log type %s. Log types are: ALL, %s", parts[0], StringUtils.join(LogType.values(), ", ")));
+			}
 		}
+		return compression;
+	}
+	
+	/**
+	 * @param optionName The option that the quantiles were given with, for error messages.
+	 * @param quantileStrings Values of a quantiles option. Blank values are ignored, so that an empty value asks for no quantiles.
+	 * @return The quantiles as numbers, or null if the option was not given.
+	 * @throws ParameterException If any of the values are not numbers between 0 and 1.
+	 */
+	private static double[] parseQuantiles(String optionName, List<String> quantileStrings) {
+		if (quantileStrings.isEmpty()) {
+			return null;
+		}
+		return quantileStrings.stream().map(String::trim).filter(quantile -> !quantile.isEmpty()).mapToDouble(quantileString -> {
+			double quantile;
+			try {
+				quantile = Double.parseDouble(quantileString);
+			} catch (NumberFormatException e) {
+				throw new ParameterException(optionName + " must be numbers, but was " + quantileString);
+			}
+			if (!(quantile >= 0 && quantile <= 1)) {
+				throw new ParameterException(optionName + " must be between 0 and 1, but was " + quantileString);
+			}
+			return quantile;
+		}).toArray();
+	}
+	
+	/**
+	 * @return The directory into which this simulation will write its log files, as given on the command line.
+	 */
+	String getLogsDirectoryName() {
+		return logsDirectoryName;
+	}
+	
+	/**
+	 * @param logsDirectoryName The directory into which this simulation will write its log files.
+	 */
+	void setLogsDirectoryName(String logsDirectoryName) {
+		this.logsDirectoryName = logsDirectoryName;
+	}
+	
+	/**
+	 * @return The optional logs asked for by their own options.
+	 */
+	private Set<LogType> getOptionalLogs() {
+		Set<LogType> optionalLogs = EnumSet.noneOf(LogType.class);
+		if (printObservables) {
+			optionalLogs.add(LogType.PRINTED_OBSERVABLES);
+		}
+		if (printSpeciesEnvelope) {
+			optionalLogs.add(LogType.PRINTED_SPECIES_ENVELOPE);
+		}
+		if (printSpeciesDistribution) {
+			optionalLogs.add(LogType.PRINTED_SPECIES_DISTRIBUTION);
+		}
+		if (printFiringCounts) {
+			optionalLogs.add(LogType.PRINTED_FIRING_COUNTS);
+		}
+		return optionalLogs;
+	}
+	
+	/**
+	 * @return True if this driver is for a batch of simulations, rather than a single simulation.
+	 */
+	boolean isBatch() {
+		return batchFileName != null;
 	}
 
 	/**
 	 * Starts the simulation running.
+	 * @param modelCache Already parsed models to share with other simulations, or null to always parse the model file.
 	 * @throws InvalidModelException if the model file could not be parsed.
 	 * @throws InvalidSimulationException If anything went wrong when running the simulation.
 	 */
-	private void run() throws InvalidModelException, InvalidSimulationException {
+	void run(ModelCache modelCache) throws InvalidModelException, InvalidSimulationException {
+		Set<LogType> optionalLogs = getOptionalLogs();
+		if (numReplicates != null || replicateRange != null) {
+			// Replicates only write their printed species to the results file, so don't create any per replicate logs
+			if (logLevel.compareTo(LogType.TAGS) > 0) {
+				logLevel = LogType.TAGS;
+			}
+			optionalLogs.clear();
+		}
 		logsDirectory = new File(logsDirectoryName);
-		Logging.resetLogging(logsDirectory, logLevel);
+		Logging.resetLogging(logsDirectory, logLevel, resumeFileName == null, outputFormat, compression, optionalLogs); // keep the earlier output when resuming
 		
 		// Check the input parameters
 		tidyInputParameters();
@@ -121,25 +459,74 @@ public class Driver {
 		File mdslFile = preprocessMdslFile(new File(modelFileName));
 		
 		// Read the model file and initialise the simulation
-		simulation = new SimulationFactory().createSimulation(mdslFile, randomSeed);
-
+		CompiledModel compiledModel;
+		File modelCacheDirectory = modelCacheDirectoryName != null ? new File(modelCacheDirectoryName) : null;
+		if (modelCache != null) {
+			compiledModel = modelCache.getModel(mdslFile, modelCacheDirectory);
+		}
+		else {
+			compiledModel = new SimulationFactory().compileModel(mdslFile, modelCacheDirectory);
+		}
 		// Update any parameters after parsing the model file
-		tidySimulationParameters();
+		tidySimulationParameters(compiledModel);
+		
+		// Run many replicates, rather than a single simulation
+		if (replicateRange != null) {
+			runReplicateRange(compiledModel);
+			return;
+		}
+		if (numReplicates != null) {
+			runEnsemble(compiledModel);
+			return;
+		}
+		
+		if (replayFileName != null) {
+			simulation = compiledModel.createReplay(new File(replayFileName));
+		}
+		else {
+			simulation = SimulationFactory.createSimulation(compiledModel, randomSeed, randomGeneratorType, replicate);
+		}
+		simulation.setAsyncOutput(asyncOutput);
+		simulation.setMembranesToPrint(membranesToPrint);
+		if (distributionQuantiles != null) {
+			simulation.setDistributionQuantiles(distributionQuantiles);
+		}
+		if (histogramBins != null) {
+			simulation.setDistributionHistogramBins(histogramBins);
+		}
+		if (steadyStateTolerance != null) {
+			simulation.setSteadyStateDetection(steadyStateTolerance, steadyStateWindow != null ? steadyStateWindow : DEFAULT_STEADY_STATE_WINDOW, steadyStateSpecies);
+		}
+		if (eventTrace) {
+			simulation.setEventTrace(new File(logsDirectory, Logger.FILE_PREFIX + "Events.trace"));
+		}
 		
 		// Print out reaction numbers for linking to propensities file
 		if (Logging.isLoggable(LogType.REACTION_NUMBERS)) {
 			Logger reactionNumbersLogger = Logging.getLogger(LogType.REACTION_NUMBERS);
 			reactionNumbersLogger.log("Propensities file heading,MDSL line number,reaction");
-			int reactionNumber = -1;
-			for (Reaction reaction: simulation.getModel().getReactions()) {
-				reactionNumber += 1;
-				reactionNumbersLogger.log(String.format("reaction%d,%d,%s", reactionNumber, reaction.getMdslLineNumber(), reaction));
+			CsvRowWriter line = new CsvRowWriter();
+			MembraneModel model = simulation.getModel();
+			for (Reaction reaction: model.getReactionList()) {
+				line.clear().append("reaction").append(model.getReactionId(reaction)).append(',').append(String.valueOf(reaction.getMdslLineNumber())).append(',').append(reaction.toString());
+				line.writeTo(reactionNumbersLogger);
 			}
 		}
 		
+		// Restore the state of an earlier run
+		if (resumeFileName != null) {
+			simulation.readCheckpoint(new File(resumeFileName));
+		}
+		
 		// Run the simulation
 		Logging.getLogger(LogType.PROGRESS).log("Starting simulation");
-		boolean stoppedEarly = simulation.runSeconds(numSeconds, secondsBeforePrint, namesToPrint, printHours);
+		boolean stoppedEarly;
+		if (checkpointEvery != null || checkpointFileName != null) {
+			stoppedEarly = runWithCheckpoints();
+		}
+		else {
+			stoppedEarly = simulation.runSeconds(numSeconds, secondsBeforePrint, namesToPrint, printHours);
+		}
 		
 		if (stoppedEarly) {
 			Logging.getLogger(LogType.PROGRESS).log("Simulation stopped early at " + simulation.getCurrentSeconds() + " seconds");
@@ -156,10 +543,263 @@ public class Driver {
 		
 		// Analyse the simulation results
 		if (runAnalysis) {
+			Logging.flushLogs();
+			if (outputFormat == OutputFormat.BINARY) {
+				// The analysis script reads the CSV version of the printed species
+				exportPrintedSpecies();
+			}
 			runAnalysisScript();
 		}
 	}
 	
+	/**
+	 * Create the results file for all the replicates, run the replicates either in this process or on worker processes,
+	 *   then write a summary of the whole ensemble.
+	 */
+	private void runEnsemble(CompiledModel compiledModel) throws InvalidSimulationException, InvalidModelException {
+		if (randomSeed == null) {
+			// All the replicates must share a seed, so that each has its own stream derived from it
+			randomSeed = Math.abs(new Random().nextInt());
+			Logging.getLogger(LogType.PROGRESS).log("Random seed for all replicates is " + randomSeed);
+		}
+		double[] quantiles = summaryQuantiles != null ? summaryQuantiles : DEFAULT_SUMMARY_QUANTILES;
+		int numRows = (int) Math.ceil((double) numSeconds / secondsBeforePrint) + 1;
+		EnsembleStatistics statistics = new EnsembleStatistics(numRows, namesToPrint.size(), quantileAccuracy);
+		PrecisionTarget precisionTarget = targetPrecision != null ? createPrecisionTarget(numRows) : null;
+		int replicatesRun = numReplicates;
+		
+		File resultsFile = resultsFileName != null ? new File(resultsFileName) : new File(logsDirectory, "results.bin");
+		SharedResultsFile results = null;
+		if (!noResultsFile) {
+			try {
+				results = SharedResultsFile.create(resultsFile, numReplicates, numRows, namesToPrint, secondsBeforePrint, printHours);
+			} catch (IOException e) {
+				throw new InvalidSimulationException("Could not create results file: " + resultsFile, e);
+			}
+		}
+		
+		if (precisionTarget != null) {
+			replicatesRun = runUntilPrecise(compiledModel, results, statistics, precisionTarget);
+		}
+		else if (numProcesses == null) {
+			runReplicates(compiledModel, results, statistics, 0, numReplicates);
+		}
+		else {
+			// Pass on the options that are the same for every worker
+			List<String> workerArguments = new ArrayList<>();
+			for (int i = 0; i < commandLineArguments.length; i++) {
+				if (ORCHESTRATOR_OPTIONS.contains(commandLineArguments[i])) {
+					i += 1; // skip the option's value too
+				}
+				else if (!ORCHESTRATOR_FLAGS.contains(commandLineArguments[i])) {
+					workerArguments.add(commandLineArguments[i]);
+				}
+			}
+			workerArguments.addAll(Arrays.asList("--random-seed", randomSeed.toString(), "--results-file", resultsFile.getAbsolutePath()));
+			
+			try {
+				int numUnfinished = new EnsembleOrchestrator(results, workerArguments, numProcesses, maxRestarts, logsDirectory).run();
+				if (numUnfinished > 0) {
+					throw new InvalidSimulationException(String.format("%d of %d replicates did not finish", numUnfinished, numReplicates), null);
+				}
+				// Summarise the replicates that the workers wrote
+				for (int replicateNumber = 0; replicateNumber < numReplicates; replicateNumber++) {
+					statistics.addReplicate(results.readReplicate(replicateNumber), results.getRowsWritten(replicateNumber));
+				}
+			} catch (IOException e) {
+				throw new InvalidSimulationException("Could not read results file: " + resultsFile, e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InvalidSimulationException("Interrupted while waiting for worker processes", e);
+			}
+		}
+		if (results != null) {
+			Logging.getLogger(LogType.PROGRESS).log(String.format("Wrote %d replicates to %s", replicatesRun, resultsFile));
+		}
+		
+		File summaryFile = new File(logsDirectory, Logger.FILE_PREFIX + "Summary.csv");
+		try {
+			statistics.writeSummary(summaryFile, namesToPrint, secondsBeforePrint, printHours, quantiles);
+		} catch (IOException e) {
+			throw new InvalidSimulationException("Could not write ensemble summary file: " + summaryFile, e);
+		}
+		Logging.getLogger(LogType.PROGRESS).log("Wrote ensemble summary to " + summaryFile);
+	}
+	
+	/**
+	 * @param numRows The number of print times in each replicate.
+	 * @return The precision target given on the command line.
+	 * @throws InvalidSimulationException If the target species is not printed, or the target time is not a print time.
+	 */
+	private PrecisionTarget createPrecisionTarget(int numRows) throws InvalidSimulationException {
+		int species = namesToPrint.indexOf(targetSpecies);
+		if (species < 0) {
+			throw new InvalidSimulationException(String.format("Target species %s is not one of the printed species: %s", targetSpecies, StringUtils.join(namesToPrint, ", ")), null);
+		}
+		long targetSeconds = printHours ? targetTime * 60 * 60 : targetTime;
+		if (targetSeconds < 0 || targetSeconds % secondsBeforePrint != 0 || targetSeconds / secondsBeforePrint >= numRows) {
+			throw new InvalidSimulationException(String.format("Target time %d is not one of the print times", targetTime), null);
+		}
+		try {
+			return new PrecisionTarget(targetSpecies, species, (int) (targetSeconds / secondsBeforePrint), targetPrecision, targetConfidence);
+		} catch (IllegalArgumentException e) {
+			throw new InvalidSimulationException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Run waves of replicates, with each replicate of a wave on its own thread, until the statistics meet the precision target
+	 *   or the maximum number of replicates have been run.
+	 * Each wave is as big as the number of workers. Replicates are added to the statistics in order, 
+	 *   so the same seed and number of workers always give the same ensemble.
+	 * @param results The results file, or null to not keep the results of each replicate.
+	 * @return The number of replicates that were run.
+	 */
+	private int runUntilPrecise(CompiledModel compiledModel, SharedResultsFile results, EnsembleStatistics statistics, PrecisionTarget target) throws InvalidSimulationException, InvalidModelException {
+		Map<String, Logger> loggers = Logging.getLoggers();
+		ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+		try {
+			int replicatesRun = 0;
+			while (replicatesRun < numReplicates) {
+				int waveEnd = Math.min(replicatesRun + numWorkers, numReplicates);
+				List<Future<EnsembleStatistics>> wave = new ArrayList<>();
+				for (int replicateNumber = replicatesRun; replicateNumber < waveEnd; replicateNumber++) {
+					int waveReplicate = replicateNumber;
+					wave.add(workers.submit(() -> {
+						Logging.useLoggers(loggers);
+						EnsembleStatistics replicateStatistics = new EnsembleStatistics(statistics.getNumRows(), statistics.getNumSpecies(), statistics.getRelativeAccuracy());
+						runReplicate(compiledModel, results, replicateStatistics, waveReplicate);
+						return replicateStatistics;
+					}));
+				}
+				for (Future<EnsembleStatistics> replicateStatistics: wave) {
+					statistics.merge(replicateStatistics.get());
+				}
+				replicatesRun = waveEnd;
+				
+				Logging.getLogger(LogType.PROGRESS).log("Precision: " + target.describe(statistics));
+				if (target.isMet(statistics)) {
+					Logging.getLogger(LogType.PROGRESS).log(String.format("Precision target met after %d replicates", replicatesRun));
+					return replicatesRun;
+				}
+			}
+			Logging.getLogger(LogType.WARNING).log(String.format("Precision target not met after the maximum of %d replicates", replicatesRun));
+			return replicatesRun;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof InvalidSimulationException) {
+				throw (InvalidSimulationException) e.getCause();
+			}
+			if (e.getCause() instanceof InvalidModelException) {
+				throw (InvalidModelException) e.getCause();
+			}
+			throw new InvalidSimulationException("Replicate failed: " + e.getCause().getMessage(), e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InvalidSimulationException("Interrupted while waiting for replicates", e);
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Run the replicates given by {@link #replicateRange}, as a worker process for an ensemble.
+	 */
+	private void runReplicateRange(CompiledModel compiledModel) throws InvalidSimulationException, InvalidModelException {
+		String[] range = replicateRange.split(":");
+		if (range.length != 2 || resultsFileName == null) {
+			throw new InvalidSimulationException("Worker needs a replicate range as start:end, and a results file", null);
+		}
+		File resultsFile = new File(resultsFileName);
+		SharedResultsFile results;
+		try {
+			results = SharedResultsFile.open(resultsFile);
+		} catch (IOException e) {
+			throw new InvalidSimulationException("Could not open results file: " + resultsFile, e);
+		}
+		if (!results.getSpeciesNames().equals(namesToPrint)) {
+			throw new InvalidSimulationException(String.format("Results file %s is for species %s, but printing species %s", resultsFile, results.getSpeciesNames(), namesToPrint), null);
+		}
+		runReplicates(compiledModel, results, null, Integer.parseInt(range[0]), Integer.parseInt(range[1]));
+	}
+	
+	/**
+	 * Run the given replicates one after another, writing each into its slot of the results file and adding it to the statistics.
+	 * @param results The results file, or null to not keep the results of each replicate.
+	 * @param statistics The statistics to add each replicate to, or null to not summarise the replicates.
+	 * @param start The first replicate to run.
+	 * @param end One more than the last replicate to run.
+	 */
+	private void runReplicates(CompiledModel compiledModel, SharedResultsFile results, EnsembleStatistics statistics, int start, int end) throws InvalidSimulationException, InvalidModelException {
+		for (int replicateNumber = start; replicateNumber < end; replicateNumber++) {
+			runReplicate(compiledModel, results, statistics, replicateNumber);
+		}
+	}
+	
+	/**
+	 * Run one replicate, writing it into its slot of the results file and adding it to the statistics.
+	 * Only uses the given statistics and results slot, so replicates can be run on several threads at once if each has its own statistics.
+	 * @param results The results file, or null to not keep the results of the replicate.
+	 * @param statistics The statistics to add the replicate to, or null to not summarise the replicate.
+	 */
+	private void runReplicate(CompiledModel compiledModel, SharedResultsFile results, EnsembleStatistics statistics, int replicateNumber) throws InvalidSimulationException, InvalidModelException {
+		Simulation replicateSimulation = SimulationFactory.createSimulation(compiledModel, randomSeed, randomGeneratorType, replicateNumber);
+		ReplicateWriter writer = null;
+		if (results != null) {
+			try {
+				writer = results.startReplicate(replicateNumber);
+			} catch (IOException e) {
+				throw new InvalidSimulationException("Could not write to results file: " + results.getFile(), e);
+			}
+		}
+		ReplicateStatistics replicateStatistics = statistics != null ? statistics.startReplicate() : null;
+		ReplicateWriter finalWriter = writer;
+		replicateSimulation.setSpeciesRowSink((rowIndex, nominalSeconds, speciesCounts) -> {
+			if (finalWriter != null) {
+				finalWriter.addRow(rowIndex, nominalSeconds, speciesCounts);
+			}
+			if (replicateStatistics != null) {
+				replicateStatistics.addRow(rowIndex, nominalSeconds, speciesCounts);
+			}
+		});
+		replicateSimulation.runSeconds(numSeconds, secondsBeforePrint, namesToPrint, printHours);
+		if (writer != null) {
+			writer.finish();
+		}
+		if (replicateStatistics != null) {
+			replicateStatistics.finish();
+		}
+		Logging.getLogger(LogType.PROGRESS).log(String.format("Finished replicate %d at %f seconds", replicateNumber, replicateSimulation.getCurrentSeconds()));
+	}
+	
+	/**
+	 * Run the simulation, writing checkpoints periodically, at the end of the run, 
+	 *   and if the program is stopped part way through (e.g. by Ctrl-C).
+	 * @return true if the simulation finished early, or false if the requested number of seconds were run.
+	 */
+	private boolean runWithCheckpoints() throws InvalidSimulationException {
+		File checkpointFile = checkpointFileName != null ? new File(checkpointFileName) : new File(logsDirectory, "checkpoint.bin");
+		simulation.setCheckpointing(checkpointFile, checkpointEvery != null ? checkpointEvery : 0);
+		Thread checkpointOnExit = new Thread(() -> {
+			simulation.requestStop();
+			try {
+				simulation.awaitStop(CHECKPOINT_ON_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		Runtime.getRuntime().addShutdownHook(checkpointOnExit);
+		try {
+			return simulation.runSeconds(numSeconds, secondsBeforePrint, namesToPrint, printHours);
+		}
+		finally {
+			try {
+				Runtime.getRuntime().removeShutdownHook(checkpointOnExit);
+			} catch (IllegalStateException e) {
+				// Already shutting down, so the hook is running
+			}
+		}
+	}
+	
 	/**
 	 * Preprocess an MDSL file, to remove all includes.
 	 * @param mdslFile The file to preprocess.
@@ -265,11 +905,11 @@ public class Driver {
 	/**
 	 * Compute any input parameters that depend on having parsed the model file
 	 */
-	private void tidySimulationParameters() {
+	private void tidySimulationParameters(CompiledModel compiledModel) {
 		// "Print all"
 		if (namesToPrint.size() == 1 && namesToPrint.get(0).equalsIgnoreCase("all")) {
 			namesToPrint.clear();
-			namesToPrint.addAll(simulation.getModel().getSpeciesNames());
+			namesToPrint.addAll(compiledModel.getModel().getSpeciesNames());
 		}
 	}
 	
@@ -279,6 +919,9 @@ public class Driver {
 	private void logInputParameters() {
 		Logging.getLogger(LogType.PROGRESS).log("Input parameters: ");
 		Logging.getLogger(LogType.PROGRESS).log("  Model file: " + modelFileName);
+		if (modelCacheDirectoryName != null) {
+			Logging.getLogger(LogType.PROGRESS).log("  Compiled model cache directory: " + modelCacheDirectoryName);
+		}
 		if (runHours) {
 			Logging.getLogger(LogType.PROGRESS).log("  Number of hours: " + numHours);
 		}
@@ -292,8 +935,83 @@ public class Driver {
 			Logging.getLogger(LogType.PROGRESS).log("  Seconds before printing: " + secondsBeforePrint);
 		}
 		Logging.getLogger(LogType.PROGRESS).log("  Names to print: " + StringUtils.join(namesToPrint, ", "));
+		if (membranesToPrint != null) {
+			Logging.getLogger(LogType.PROGRESS).log("  Membranes to print: " + StringUtils.join(membranesToPrint, ", "));
+		}
 		Logging.getLogger(LogType.PROGRESS).log("  Log directory: " + logsDirectoryName);
 		Logging.getLogger(LogType.PROGRESS).log("  Log level: " + logLevel.name());
+		if (outputFormat != OutputFormat.CSV) {
+			Logging.getLogger(LogType.PROGRESS).log("  Output format: " + outputFormat.name());
+		}
+		Logging.getLogger(LogType.PROGRESS).log("  Random number generator: " + randomGeneratorType.name());
+		if (replicate != 0) {
+			Logging.getLogger(LogType.PROGRESS).log("  Replicate: " + replicate);
+		}
+		if (distributionQuantiles != null) {
+			Logging.getLogger(LogType.PROGRESS).log("  Distribution quantiles: " + Arrays.toString(distributionQuantiles));
+		}
+		if (histogramBins != null) {
+			Logging.getLogger(LogType.PROGRESS).log("  Distribution histogram bins: " + histogramBins);
+		}
+		if (steadyStateTolerance != null) {
+			Logging.getLogger(LogType.PROGRESS).log(String.format("  Stopping at a steady state of %s within %s over windows of %d print chunks", 
+					steadyStateSpecies != null ? StringUtils.join(steadyStateSpecies, ", ") : "the total propensity", 
+					steadyStateTolerance, steadyStateWindow != null ? steadyStateWindow : DEFAULT_STEADY_STATE_WINDOW));
+		}
+		if (asyncOutput) {
+			Logging.getLogger(LogType.PROGRESS).log("  Writing output on a background thread");
+		}
+		if (eventTrace) {
+			Logging.getLogger(LogType.PROGRESS).log("  Writing event trace");
+		}
+		if (replayFileName != null) {
+			Logging.getLogger(LogType.PROGRESS).log("  Replaying event trace: " + replayFileName);
+		}
+		for (Map.Entry<LogType, Compression> entry: compression.entrySet()) {
+			if (entry.getValue() != Compression.NONE && entry.getKey().compareTo(logLevel) <= 0) {
+				Logging.getLogger(LogType.PROGRESS).log(String.format("  Compression of %s: %s", entry.getKey().name(), entry.getValue().name()));
+			}
+		}
+		if (checkpointEvery != null) {
+			Logging.getLogger(LogType.PROGRESS).log("  Chunks between checkpoints: " + checkpointEvery);
+		}
+		if (resumeFileName != null) {
+			Logging.getLogger(LogType.PROGRESS).log("  Resuming from: " + resumeFileName);
+		}
+		if (numReplicates != null) {
+			Logging.getLogger(LogType.PROGRESS).log("  Replicates: " + numReplicates);
+		}
+		if (numProcesses != null) {
+			Logging.getLogger(LogType.PROGRESS).log("  Worker processes: " + numProcesses);
+		}
+		if (targetPrecision != null) {
+			Logging.getLogger(LogType.PROGRESS).log(String.format("  Precision target: %s at %d within %s of the mean, with confidence %s, using %d workers",
+					targetSpecies, targetTime, targetPrecision, targetConfidence, numWorkers));
+		}
+		if (numReplicates != null) {
+			Logging.getLogger(LogType.PROGRESS).log("  Summary quantiles: " + Arrays.toString(summaryQuantiles != null ? summaryQuantiles : DEFAULT_SUMMARY_QUANTILES) + " (relative accuracy " + quantileAccuracy + ")");
+			if (noResultsFile) {
+				Logging.getLogger(LogType.PROGRESS).log("  Not keeping the results of each replicate");
+			}
+		}
+		if (replicateRange != null) {
+			Logging.getLogger(LogType.PROGRESS).log("  Replicate range: " + replicateRange);
+		}
+	}
+	
+	/**
+	 * Write the binary printed species log as CSV.
+	 */
+	private void exportPrintedSpecies() {
+		Logger logger = Logging.getLogger(LogType.PRINTED_SPECIES);
+		if (logger instanceof ColumnarFileLogger) {
+			File binaryFile = ((ColumnarFileLogger) logger).getLogFile();
+			try {
+				CsvExporter.export(binaryFile, CsvExporter.getCsvFile(binaryFile));
+			} catch (IOException e) {
+				Logging.getLogger(LogType.ERROR).log("Could not export printed species to CSV: " + binaryFile, e);
+			}
+		}
 	}
 	
 	private void runAnalysisScript() {
@@ -0,0 +1,20 @@
+package com.simomics.leishsim;
+
+import java.io.File;
+
+/**
+ * A log that is written to a file in the output directory, whether as text or in a binary format.
+ */
+public interface FileLogger extends Logger {
+
+	/**
+	 * Set the directory into which this log file will be written.
+	 * @param newOutputDir
+	 */
+	public void setOutputDir(File newOutputDir);
+
+	/**
+	 * @return The file that this log is written to.
+	 */
+	public File getLogFile();
+}
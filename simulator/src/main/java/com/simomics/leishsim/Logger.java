@@ -1,5 +1,9 @@
 package com.simomics.leishsim;
 
+import java.nio.charset.StandardCharsets;
+
+import com.simomics.leishsim.output.CsvRowWriter;
+
 /**
  * Writes log messages generated by the simulation.
  */
@@ -20,4 +24,30 @@ public interface Logger {
 	 * @param exception
 	 */
 	public void log(String message, Throwable exception);
+	
+	/**
+	 * Write a message that has already been encoded as UTF-8 to this log, e.g. a line formatted by {@link CsvRowWriter}.
+	 * Logs that write to files can write the bytes directly, rather than decoding them into a string and encoding them again.
+	 * @param bytes
+	 * @param offset The position of the message in bytes.
+	 * @param length The length of the message, not including a newline.
+	 */
+	public default void logBytes(byte[] bytes, int offset, int length) {
+		log(new String(bytes, offset, length, StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Make sure that all messages logged so far have been written out.
+	 */
+	public default void flush() {
+		// nothing buffered by default
+	}
+	
+	/**
+	 * Write out all messages logged so far, and release any open files.
+	 * Logging more messages afterwards opens the files again.
+	 */
+	public default void close() {
+		flush();
+	}
 }
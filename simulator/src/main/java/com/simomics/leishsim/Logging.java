@@ -1,11 +1,20 @@
 package com.simomics.leishsim;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Static methods to manage logging throughout the program. 
+ * Log settings apply to the thread that sets them, so each simulation in a batch writes to its own log directory.
  */
 public final class Logging {
 	
@@ -34,17 +43,29 @@ public final class Logging {
 		/** Full state of the simulation when the simulation ends */
 		FULL_STATE_AT_END,
 		
+		/** The observables defined in the model, kept up to date as species change. Only written when asked for, see {@link Logging#setLogLevel(LogType, OutputFormat, Set)}. */
+		PRINTED_OBSERVABLES(true),
+		
 		/** Simulator output aggregated over membranes */
-		PRINTED_SPECIES, 
+		PRINTED_SPECIES(true), 
+		
+		/** The minimum, maximum, mean and last number of each printed species between print times. Only written when asked for. */
+		PRINTED_SPECIES_ENVELOPE(true),
+		
+		/** Summaries of the numbers of each species across all the membranes of each type. Only written when asked for. */
+		PRINTED_SPECIES_DISTRIBUTION(true),
 		
 		/** Simulator output per membrane */
-		PRINTED_SPECIES_PER_MEMBRANE,
+		PRINTED_SPECIES_PER_MEMBRANE(true),
 		
 		/** The reactions in order with their numbers, for linking to propensities file */
 		REACTION_NUMBERS,
 		
+		/** The number of times each reaction fired in each membrane between print times, naming reactions as in the reaction numbers file. Only written when asked for. */
+		PRINTED_FIRING_COUNTS(true),
+		
 		/** Output of reaction propensities over time */
-		PRINTED_PROPENSITIES,
+		PRINTED_PROPENSITIES(true),
 		
 		/** Details about what the simulator is doing */
 		DETAIL,
@@ -54,6 +75,82 @@ public final class Logging {
 		
 		/** Full trace of very low level steps - can only be taken in very small doses */
 		FULL;
+		
+		/** @see #isTimeSeries() */
+		private final boolean timeSeries;
+		
+		private LogType() {
+			this(false);
+		}
+		
+		private LogType(boolean timeSeries) {
+			this.timeSeries = timeSeries;
+		}
+		
+		/**
+		 * @return True if this log has one row per print time, so must be rolled back when resuming from a checkpoint.
+		 */
+		public boolean isTimeSeries() {
+			return timeSeries;
+		}
+	}
+	
+	/**
+	 * File formats for the time series logs (printed species, species per membrane and propensities).
+	 */
+	public static enum OutputFormat {
+		/** Text, with one line per print time */
+		CSV,
+		
+		/** Binary columns of numbers, see {@link ColumnarFileLogger} */
+		BINARY,
+		
+		/** Text, with the species per membrane log only recording the numbers that changed since the previous line, see {@link SparseFileLogger} */
+		SPARSE
+	}
+	
+	/**
+	 * Ways of compressing the text log files as they are written.
+	 * Compressed files are gzip files, so can be read with standard tools (e.g. Python's gzip module), even while they are being written.
+	 */
+	public static enum Compression {
+		/** Plain text */
+		NONE(null),
+		
+		/** gzip with the default compression level */
+		GZIP(Deflater.DEFAULT_COMPRESSION),
+		
+		/** gzip with the fastest compression level, for logs that are written faster than they can be compressed well */
+		GZIP_FAST(Deflater.BEST_SPEED);
+		
+		/** The deflate level, or null for no compression */
+		private final Integer level;
+		
+		private Compression(Integer level) {
+			this.level = level;
+		}
+		
+		/**
+		 * @return The extension to add to the names of files compressed this way, including the dot, or an empty string.
+		 */
+		public String getFileExtension() {
+			return level == null ? "" : ".gz";
+		}
+		
+		/**
+		 * @return A stream that compresses data before writing it to the given stream.
+		 *   Flushing the returned stream writes out all data so far, so that it can be read back before the stream is closed.
+		 */
+		public OutputStream wrap(OutputStream output, int bufferSize) throws IOException {
+			if (level == null) {
+				return output;
+			}
+			return new GZIPOutputStream(output, bufferSize, true) {
+				{
+					def.setLevel(level);
+				}
+			};
+		}
 	}
 	
 	/**
@@ -69,17 +166,18 @@ public final class Logging {
 		public void log(String message, Throwable exception) {
 			// do nothing
 		}
+		@Override
+		public void logBytes(byte[] bytes, int offset, int length) {
+			// do nothing
+		}
 	};
 	
 	/**
 	 * The types of message that will be logged. Any massages of different types will be ignored. 
+	 * Each thread has its own loggers, so that several simulations can run at once in batch mode.
+	 * Defaults to basic logging.
 	 */
-	private static Map<String, Logger> enabledLogs = new HashMap<>();
-	
-	// Default to basic logging
-	static {
-		setLogLevel(LogType.PRINTED_SPECIES);
-	}
+	private static final ThreadLocal<Map<String, Logger>> enabledLogs = ThreadLocal.withInitial(() -> createLoggers(LogType.PRINTED_SPECIES, OutputFormat.CSV, EnumSet.noneOf(LogType.class)));
 	
 	/** 
 	 * Static class - not allowed to instantiate.
@@ -87,51 +185,137 @@ public final class Logging {
 	private Logging() {}
 	
 	/**
-	 * Set the level at which we want to see log messages.
+	 * Set the level at which we want to see log messages, for the current thread.
 	 * @param newLvl
 	 */
 	public static void setLogLevel(LogType newLvl) {
-		// Add loggers for the given level and all levels above the given level
-		enabledLogs.clear();
+		setLogLevel(newLvl, OutputFormat.CSV);
+	}
+	
+	/**
+	 * Set the level at which we want to see log messages, and the format of the time series logs, for the current thread.
+	 * @param newLvl
+	 * @param outputFormat
+	 */
+	public static void setLogLevel(LogType newLvl, OutputFormat outputFormat) {
+		setLogLevel(newLvl, outputFormat, EnumSet.noneOf(LogType.class));
+	}
+	
+	/**
+	 * Set the level at which we want to see log messages, the format of the time series logs, and which optional logs to write, for the current thread.
+	 * Optional logs, such as the observables log, are not written at the levels below them unless they are asked for,
+	 *   so that turning up the log level doesn't add their files and the cost of keeping them up to date.
+	 * @param newLvl
+	 * @param outputFormat
+	 * @param optionalLogs The optional logs to write, whatever the level.
+	 */
+	public static void setLogLevel(LogType newLvl, OutputFormat outputFormat, Set<LogType> optionalLogs) {
+		closeLogs();
+		enabledLogs.set(createLoggers(newLvl, outputFormat, optionalLogs));
+	}
+	
+	/**
+	 * Make sure that all messages logged so far on the current thread have been written to their files.
+	 */
+	public static void flushLogs() {
+		for (Logger logger: enabledLogs.get().values()) {
+			logger.flush();
+		}
+	}
+	
+	/**
+	 * Write out all messages logged so far on the current thread, and close the log files, e.g. at the end of a simulation.
+	 * Logging more messages afterwards opens the files again.
+	 */
+	public static void closeLogs() {
+		for (Logger logger: enabledLogs.get().values()) {
+			logger.close();
+		}
+	}
+	
+	/**
+	 * @return The loggers of the current thread, for sharing with other threads that work on the same simulation.
+	 * @see #useLoggers(Map)
+	 */
+	public static Map<String, Logger> getLoggers() {
+		return enabledLogs.get();
+	}
+	
+	/**
+	 * Make the current thread write to the given loggers, e.g. so that a thread running one of several replicates
+	 *   writes to the logs of the run that started it.
+	 * @param loggers Loggers previously returned by {@link #getLoggers()} on another thread.
+	 */
+	public static void useLoggers(Map<String, Logger> loggers) {
+		enabledLogs.set(loggers);
+	}
+	
+	/**
+	 * @return Loggers for the given level and all levels above the given level, leaving out the optional logs that were not asked for.
+	 *   The given level itself is always included, even if it is optional.
+	 */
+	private static Map<String, Logger> createLoggers(LogType newLvl, OutputFormat outputFormat, Set<LogType> optionalLogs) {
+		Set<LogType> askedFor = EnumSet.of(newLvl);
+		askedFor.addAll(optionalLogs);
+		boolean binary = outputFormat == OutputFormat.BINARY;
+		boolean sparse = outputFormat == OutputFormat.SPARSE;
+		Map<String, Logger> loggers = new HashMap<>();
 		switch (newLvl) {
 		case FULL:
-			enabledLogs.put(LogType.FULL.name(), new TextFileLogger("Full", true));
+			loggers.put(LogType.FULL.name(), new TextFileLogger("Full", true));
 		case DEBUG:
-			enabledLogs.put(LogType.DEBUG.name(), new TextFileAndScreenLogger("Debug", System.out, true));
+			loggers.put(LogType.DEBUG.name(), new TextFileAndScreenLogger("Debug", System.out, true));
 		case DETAIL:
-			enabledLogs.put(LogType.DETAIL.name(), new TextFileAndScreenLogger("Detail", System.out, true));
+			loggers.put(LogType.DETAIL.name(), new TextFileAndScreenLogger("Detail", System.out, true));
 		case PRINTED_PROPENSITIES:
-			enabledLogs.put(LogType.PRINTED_PROPENSITIES.name(), new TextFileLogger("Propensities", "csv", false));
+			loggers.put(LogType.PRINTED_PROPENSITIES.name(), binary ? new ColumnarFileLogger("Propensities", false) : new TextFileLogger("Propensities", "csv", false));
+		case PRINTED_FIRING_COUNTS:
+			if (askedFor.contains(LogType.PRINTED_FIRING_COUNTS)) {
+				loggers.put(LogType.PRINTED_FIRING_COUNTS.name(), new TextFileLogger("FiringCounts", "csv", false));
+			}
 		case REACTION_NUMBERS:
-			enabledLogs.put(LogType.REACTION_NUMBERS.name(), new TextFileLogger("Reaction Numbers", "csv", false));
+			loggers.put(LogType.REACTION_NUMBERS.name(), new TextFileLogger("Reaction Numbers", "csv", false));
 		case PRINTED_SPECIES_PER_MEMBRANE:
-			enabledLogs.put(LogType.PRINTED_SPECIES_PER_MEMBRANE.name(), new TextFileLogger("SpeciesPerMembrane", "csv", false));
+			loggers.put(LogType.PRINTED_SPECIES_PER_MEMBRANE.name(), binary ? new ColumnarFileLogger("SpeciesPerMembrane", false)
+					: sparse ? new SparseFileLogger("SpeciesPerMembrane") : new TextFileLogger("SpeciesPerMembrane", "csv", false));
+		case PRINTED_SPECIES_DISTRIBUTION:
+			if (askedFor.contains(LogType.PRINTED_SPECIES_DISTRIBUTION)) {
+				loggers.put(LogType.PRINTED_SPECIES_DISTRIBUTION.name(), new TextFileLogger("SpeciesDistribution", "csv", false));
+			}
+		case PRINTED_SPECIES_ENVELOPE:
+			if (askedFor.contains(LogType.PRINTED_SPECIES_ENVELOPE)) {
+				loggers.put(LogType.PRINTED_SPECIES_ENVELOPE.name(), new TextFileLogger("SpeciesEnvelope", "csv", false));
+			}
 		case PRINTED_SPECIES:
-			enabledLogs.put(LogType.PRINTED_SPECIES.name(), new TextFileAndScreenLogger("Species", "csv", System.out, true) {
+			loggers.put(LogType.PRINTED_SPECIES.name(), binary ? new ColumnarFileLogger("Species", true) : new TextFileAndScreenLogger("Species", "csv", System.out, true) {
 				@Override
 				protected String getTimestamp() {
 					return super.getTimestamp() + ",";
 				}
 			});
+		case PRINTED_OBSERVABLES:
+			if (askedFor.contains(LogType.PRINTED_OBSERVABLES)) {
+				loggers.put(LogType.PRINTED_OBSERVABLES.name(), new TextFileLogger("Observables", "csv", false));
+			}
 		case FULL_STATE_AT_END:
-			enabledLogs.put(LogType.FULL_STATE_AT_END.name(), new TextFileAndScreenLogger("FullState", "mdsl", System.out, false));
+			loggers.put(LogType.FULL_STATE_AT_END.name(), new TextFileAndScreenLogger("FullState", "mdsl", System.out, false));
 		case TAGS:
-			enabledLogs.put(LogType.TAGS.name(), new TextFileAndScreenLogger("Tags", System.out, false));
+			loggers.put(LogType.TAGS.name(), new TextFileAndScreenLogger("Tags", System.out, false));
 		case PARAMETERS:
-			enabledLogs.put(LogType.PARAMETERS.name(), new TextFileAndScreenLogger("Parameters", System.out, false));
+			loggers.put(LogType.PARAMETERS.name(), new TextFileAndScreenLogger("Parameters", System.out, false));
 		case PROGRESS:
-			enabledLogs.put(LogType.PROGRESS.name(), new TextFileAndScreenLogger("Progress", System.out, true));
+			loggers.put(LogType.PROGRESS.name(), new TextFileAndScreenLogger("Progress", System.out, true));
 		case WARNING_FIX:
-			enabledLogs.put(LogType.WARNING_FIX.name(), new TextFileLogger("FixWarnings", "mdsl", false));
+			loggers.put(LogType.WARNING_FIX.name(), new TextFileLogger("FixWarnings", "mdsl", false));
 		case WARNING:
-			enabledLogs.put(LogType.WARNING.name(), new TextFileAndScreenLogger("Warnings", System.err, true) {
+			loggers.put(LogType.WARNING.name(), new TextFileAndScreenLogger("Warnings", System.err, true) {
 				@Override
 				public void log(String message) {
 					super.log("WARNING: " + message);
 				}
 			});
 		case ERROR:
-			enabledLogs.put(LogType.ERROR.name(), new TextFileAndScreenLogger("Errors", System.err, true) {
+			loggers.put(LogType.ERROR.name(), new TextFileAndScreenLogger("Errors", System.err, true) {
 				@Override
 				public void log(String message) {
 					super.log("ERROR: " + message);
@@ -139,8 +323,9 @@ public final class Logging {
 			});
 			break;
 		default:
-			getLogger(LogType.ERROR).log("Unknown log level: " + newLvl);
+			throw new IllegalArgumentException("Unknown log level: " + newLvl);
 		}
+		return loggers;
 	}
 	
 	/**
@@ -149,7 +334,7 @@ public final class Logging {
 	 * So it is safe to do: getLogger(name).log(...) even if "name" might not be an enabled logger. 
 	 */
 	public static Logger getLogger(String loggerName) {
-		return enabledLogs.getOrDefault(loggerName, nullLogger);
+		return enabledLogs.get().getOrDefault(loggerName, nullLogger);
 	}
 	
 	/**
@@ -167,25 +352,87 @@ public final class Logging {
 	 * @param level
 	 */
 	public static void resetLogging(File newOutputDir, LogType level) {
+		resetLogging(newOutputDir, level, true);
+	}
+	
+	/**
+	 * Reset the logs.
+	 * Creates blank files for each enabled log level, optionally clearing all previous output files from the directory first.
+	 * @param newOutputDir
+	 * @param level
+	 * @param deletePreviousFiles False to keep the existing output files, e.g. when resuming from a checkpoint.
+	 */
+	public static void resetLogging(File newOutputDir, LogType level, boolean deletePreviousFiles) {
+		resetLogging(newOutputDir, level, deletePreviousFiles, OutputFormat.CSV);
+	}
+	
+	/**
+	 * Reset the logs.
+	 * Creates blank files for each enabled log level, optionally clearing all previous output files from the directory first.
+	 * @param newOutputDir
+	 * @param level
+	 * @param deletePreviousFiles False to keep the existing output files, e.g. when resuming from a checkpoint.
+	 * @param outputFormat The format of the time series logs.
+	 */
+	public static void resetLogging(File newOutputDir, LogType level, boolean deletePreviousFiles, OutputFormat outputFormat) {
+		resetLogging(newOutputDir, level, deletePreviousFiles, outputFormat, new EnumMap<>(LogType.class));
+	}
+	
+	/**
+	 * Reset the logs.
+	 * Creates blank files for each enabled log level, optionally clearing all previous output files from the directory first.
+	 * @param newOutputDir
+	 * @param level
+	 * @param deletePreviousFiles False to keep the existing output files, e.g. when resuming from a checkpoint.
+	 * @param outputFormat The format of the time series logs.
+	 * @param compression How to compress each type of log. Logs that are not included are not compressed.
+	 */
+	public static void resetLogging(File newOutputDir, LogType level, boolean deletePreviousFiles, OutputFormat outputFormat, Map<LogType, Compression> compression) {
+		resetLogging(newOutputDir, level, deletePreviousFiles, outputFormat, compression, EnumSet.noneOf(LogType.class));
+	}
+	
+	/**
+	 * Reset the logs.
+	 * Creates blank files for each enabled log level, optionally clearing all previous output files from the directory first.
+	 * @param newOutputDir
+	 * @param level
+	 * @param deletePreviousFiles False to keep the existing output files, e.g. when resuming from a checkpoint.
+	 * @param outputFormat The format of the time series logs.
+	 * @param compression How to compress each type of log. Logs that are not included are not compressed.
+	 * @param optionalLogs The optional logs to write, whatever the level, see {@link #setLogLevel(LogType, OutputFormat, Set)}.
+	 */
+	public static void resetLogging(File newOutputDir, LogType level, boolean deletePreviousFiles, OutputFormat outputFormat, Map<LogType, Compression> compression,
+			Set<LogType> optionalLogs) {
 		// Set new logging level
-		setLogLevel(level);
+		setLogLevel(level, outputFormat, optionalLogs);
+		for (Map.Entry<LogType, Compression> entry: compression.entrySet()) {
+			Logger logger = getLogger(entry.getKey());
+			if (logger instanceof ColumnarFileLogger) {
+				getLogger(LogType.WARNING).log(String.format("Not compressing %s, because it is written in binary", entry.getKey()));
+			}
+			else if (logger instanceof TextFileLogger) {
+				((TextFileLogger) logger).setCompression(entry.getValue());
+			}
+		}
 		// Create output directory if it doesn't exist
 		if (!newOutputDir.isDirectory()) {
-			boolean created = newOutputDir.mkdir();
+			boolean created = newOutputDir.mkdirs();
 			if (!created) {
 				getLogger(LogType.ERROR).log("Could not create logging output directory: " + newOutputDir);
 			}
 		}
 		// Delete any previous output files in this directory
-		for(File file: newOutputDir.listFiles()) {
-			if (file.getName().startsWith(Logger.FILE_PREFIX)) {
-				file.delete();
+		if (deletePreviousFiles) {
+			for(File file: newOutputDir.listFiles()) {
+				if (file.getName().startsWith(Logger.FILE_PREFIX)) {
+					file.delete();
+				}
 			}
 		}
 		// Create blank files for each enabled logging level
-		for (Logger logger: enabledLogs.values()) {
-			if (logger instanceof TextFileLogger) {
-				((TextFileLogger) logger).setOutputDir(newOutputDir);
+		for (Logger logger: enabledLogs.get().values()) {
+			if (logger instanceof FileLogger) {
+				((FileLogger) logger).setOutputDir(newOutputDir);
 			}
 		}
 	}
@@ -195,6 +442,43 @@ public final class Logging {
 	 * @return True if a message at level will be printed.
 	 */
 	public static boolean isLoggable(LogType level) {
-		return enabledLogs.containsKey(level.name());
+		return enabledLogs.get().containsKey(level.name());
+	}
+	
+	/**
+	 * @return The current length of the file of each enabled time series log, so that they can be rolled back later.
+	 * @see #truncateTimeSeriesFiles(Map)
+	 */
+	public static Map<LogType, Long> getTimeSeriesFileLengths() {
+		Map<LogType, Long> fileLengths = new HashMap<>();
+		for (LogType logType: LogType.values()) {
+			Logger logger = getLogger(logType);
+			if (logType.isTimeSeries() && logger instanceof FileLogger) {
+				// Close rather than flush, so that a compressed file ends with a complete gzip member that later rows can follow
+				logger.close();
+				fileLengths.put(logType, ((FileLogger) logger).getLogFile().length());
+			}
+		}
+		return fileLengths;
+	}
+	
+	/**
+	 * Roll back time series logs to the given lengths, discarding any rows written after those lengths were measured.
+	 * @param fileLengths Lengths previously returned by {@link #getTimeSeriesFileLengths()}.
+	 * @throws IOException If any of the files could not be truncated.
+	 */
+	public static void truncateTimeSeriesFiles(Map<LogType, Long> fileLengths) throws IOException {
+		for (Map.Entry<LogType, Long> entry: fileLengths.entrySet()) {
+			Logger logger = getLogger(entry.getKey());
+			if (logger instanceof FileLogger) {
+				logger.close();
+				File logFile = ((FileLogger) logger).getLogFile();
+				if (logFile.length() > entry.getValue()) {
+					try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+						file.setLength(entry.getValue());
+					}
+				}
+			}
+		}
 	}
 }
@@ -0,0 +1,43 @@
+package com.simomics.leishsim;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps track of the logs that have an open file, so that their buffered messages are written out when the program exits.
+ */
+final class OpenLogFiles {
+
+	private static final Set<Logger> openLoggers = Collections.synchronizedSet(new HashSet<>());
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			// Copy the set before flushing, as a logger that is closing holds its own lock while it removes itself from the set
+			Logger[] loggers;
+			synchronized (openLoggers) {
+				loggers = openLoggers.toArray(new Logger[openLoggers.size()]);
+			}
+			for (Logger logger: loggers) {
+				logger.flush();
+			}
+		}));
+	}
+
+	private OpenLogFiles() {
+	}
+
+	/**
+	 * @param logger A log that has just opened its file.
+	 */
+	static void opened(Logger logger) {
+		openLoggers.add(logger);
+	}
+
+	/**
+	 * @param logger A log that has just closed its file.
+	 */
+	static void closed(Logger logger) {
+		openLoggers.remove(logger);
+	}
+}
@@ -0,0 +1,64 @@
+package com.simomics.leishsim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.output.CsvExporter;
+
+/**
+ * Main class for converting binary or sparse output files (written with --output-format BINARY or SPARSE) to CSV files.
+ */
+public final class OutputExporter {
+
+	@Parameter(description = "Binary or sparse output files to convert. Each is written as a CSV file with the same name.", required = true)
+	private List<String> fileNames = new ArrayList<>();
+
+	@Parameter(names = "--output-dir", description = "Directory into which to write the CSV files. Defaults to the directory of each file.")
+	private String outputDirectory = null;
+
+	private OutputExporter() {}
+
+	/**
+	 * Entry point for the program.
+	 * @param args Command line arguments. See the member variables of this class annotated with @Parameter.
+	 */
+	public static void main(String... args) {
+		OutputExporter exporter = new OutputExporter();
+		JCommander jcommander = new JCommander(exporter);
+		try {
+			jcommander.parse(args);
+		}
+		catch(ParameterException e) {
+			// Could not parse command line arguments
+			Logging.getLogger(LogType.ERROR).log(e.getMessage());
+			jcommander.usage();
+			return;
+		}
+		
+		for (String fileName: exporter.fileNames) {
+			File binaryFile = new File(fileName);
+			File csvFile = CsvExporter.getCsvFile(binaryFile);
+			if (exporter.outputDirectory != null) {
+				csvFile = new File(exporter.outputDirectory, csvFile.getName());
+			}
+			try {
+				if (CsvExporter.isSparseFile(binaryFile)) {
+					CsvExporter.exportSparse(binaryFile, csvFile);
+				}
+				else {
+					CsvExporter.export(binaryFile, csvFile);
+				}
+				Logging.getLogger(LogType.PROGRESS).log(String.format("Exported %s to %s", binaryFile, csvFile));
+			} catch (IOException e) {
+				Logging.getLogger(LogType.ERROR).log(String.format("Could not export %s: %s", binaryFile, e.getMessage()));
+			}
+		}
+		Logging.closeLogs();
+	}
+}
@@ -0,0 +1,44 @@
+package com.simomics.leishsim;
+
+import com.simomics.leishsim.output.CsvRowWriter;
+import com.simomics.leishsim.output.SparseRowReader;
+
+/**
+ * Writes the species per membrane log as text, recording only the numbers that have changed since the previous line.
+ * Models with thousands of membranes mostly change a few numbers between print times, so this is much smaller than the full CSV file.
+ *
+ * The first line holds the same headings as the CSV file. Each later line is the time, followed by a comma separated
+ *   column:value pair for each number that changed, where column is the position of the number among the headings, not counting the time.
+ * The first line of numbers, and the first line after resuming from a checkpoint, record every number.
+ * @see SparseRowReader
+ */
+public class SparseFileLogger extends TextFileLogger {
+
+	/** The extension of sparse log files, which are not plain CSV files */
+	public static final String FILE_EXTENSION = "sparse.csv";
+
+	/** Reused for formatting each line */
+	private final CsvRowWriter line = new CsvRowWriter();
+
+	/**
+	 * @param logName The name of the log file, which has the extension {@value #FILE_EXTENSION}.
+	 */
+	public SparseFileLogger(String logName) {
+		super(logName, FILE_EXTENSION, false);
+	}
+
+	/**
+	 * Add a line for the numbers that changed at one print time.
+	 * @param time The time of the line.
+	 * @param columns The positions of the numbers that changed, not counting the time column, in increasing order.
+	 * @param values The new value of each number that changed.
+	 * @param numChanged The number of entries of columns and values to write.
+	 */
+	public synchronized void logRow(long time, int[] columns, int[] values, int numChanged) {
+		line.clear().append(time);
+		for (int i = 0; i < numChanged; i++) {
+			line.append(',').append(columns[i]).append(':').append(values[i]);
+		}
+		line.writeTo(this);
+	}
+}
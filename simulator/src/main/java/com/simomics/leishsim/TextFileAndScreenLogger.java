@@ -1,6 +1,7 @@
 package com.simomics.leishsim;
 
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Logger that prints to the screen as well as writing to a file.
@@ -38,6 +39,12 @@ public class TextFileAndScreenLogger extends TextFileLogger {
 		screenOutput.println(message);
 	}
 
+	@Override
+	public void logBytes(byte[] bytes, int offset, int length) {
+		// The screen needs the message as text anyway
+		log(new String(bytes, offset, length, StandardCharsets.UTF_8));
+	}
+
 	@Override
 	public void log(String message, Throwable exception) {
 		super.log(message, exception);
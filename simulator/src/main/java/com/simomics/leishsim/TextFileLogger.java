@@ -1,22 +1,38 @@
 package com.simomics.leishsim;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
+import com.simomics.leishsim.Logging.Compression;
 import com.simomics.leishsim.Logging.LogType;
 
 /**
  * Writes log messages to a text file.
+ * The file is kept open and messages are buffered, so that logs with a message per reaction don't spend all their time opening files.
+ * Buffered messages are written to the file when the buffer is full, when a message is logged a while after the last write,
+ *   when the log is flushed or closed, and when the program exits.
+ * The file can be compressed as it is written, on whichever thread logs the messages.
  */
-public class TextFileLogger implements Logger {
+public class TextFileLogger implements FileLogger {
+	
+	/** How many bytes of messages to hold in memory before writing them to the file */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/** How long messages can be held in memory before writing them to the file, as long as another message is logged */
+	private static final long FLUSH_INTERVAL_MILLIS = 1000;
+	
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("'['yyyy/MM/dd HH:mm:ss']'").withZone(ZoneId.systemDefault());
 	
 	/** The directory in which this log file will be written */
 	private File outputDir;
@@ -30,11 +46,29 @@ public class TextFileLogger implements Logger {
 	/** Whether to add a timestamp to log messages */
 	private boolean addTimestamp;
 	
+	/** How to compress the log file */
+	private Compression compression = Compression.NONE;
+	
+	/** The open log file, or null if it has not been written to since it was last closed */
+	private OutputStream output;
+	
+	/** When the buffered messages were last written to the file */
+	private long lastFlushMillis;
+	
+	/** The most recent timestamp, and the second that it shows, as timestamps only change once a second */
+	private String timestamp;
+	private long timestampSecond = -1;
+	
 	/**
 	 * @return A timestamp formatted as a string, for including with log messages.
 	 */
 	protected String getTimestamp() {
-		return new SimpleDateFormat("[yyyy/MM/dd HH:mm:ss]").format(new Date());
+		long second = System.currentTimeMillis() / 1000;
+		if (second != timestampSecond) {
+			timestamp = TIMESTAMP_FORMAT.format(Instant.ofEpochSecond(second));
+			timestampSecond = second;
+		}
+		return timestamp;
 	}
 	
 	/**
@@ -58,10 +92,18 @@ public class TextFileLogger implements Logger {
 	}
 	
 	/**
-	 * Set the directory into which this log file will be written.
-	 * @param newOutputDir
+	 * Compress the log file as it is written. Compressed files have an extra extension, e.g. .gz.
+	 * Call before {@link #setOutputDir(File)}.
+	 * @param compression
 	 */
-	public void setOutputDir(File newOutputDir) {
+	public synchronized void setCompression(Compression compression) {
+		close();
+		this.compression = compression;
+	}
+	
+	@Override
+	public synchronized void setOutputDir(File newOutputDir) {
+		close();
 		outputDir = newOutputDir;
 		File logFile = getLogFile();
 		try {
@@ -72,36 +114,113 @@ public class TextFileLogger implements Logger {
 	}
 
 	@Override
-	public void log(String message) {
+	public synchronized void log(String message) {
 		// Write message to its log file
-		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(getLogFile(), true), "utf-8"))) {
-			if (addTimestamp) {
-				writer.write(getTimestamp());
-				writer.write(' ');
-			}
-			writer.write(message);
-			writer.write('\n');
+		try {
+			OutputStream output = getOutput();
+			writeTimestamp(output);
+			output.write(message.getBytes(StandardCharsets.UTF_8));
+			output.write('\n');
+			flushIfOld();
+		} catch (IOException e) {
+			// Failed to write the log message
+			e.printStackTrace();
+		}
+	}
+	
+	@Override
+	public synchronized void logBytes(byte[] bytes, int offset, int length) {
+		// Write message to its log file, without decoding it
+		try {
+			OutputStream output = getOutput();
+			writeTimestamp(output);
+			output.write(bytes, offset, length);
+			output.write('\n');
+			flushIfOld();
 		} catch (IOException e) {
 			// Failed to write the log message
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * Start a message with a timestamp, if this log has timestamps.
+	 */
+	private void writeTimestamp(OutputStream output) throws IOException {
+		if (addTimestamp) {
+			output.write(getTimestamp().getBytes(StandardCharsets.UTF_8));
+			output.write(' ');
+		}
+	}
+	
 	@Override
-	public void log(String message, Throwable exception) {
+	public synchronized void log(String message, Throwable exception) {
 		// Log exception
 		log(message);
 		
 		// Write stack trace to the log file
-		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(getLogFile(), true), "utf-8"))) {
-			writer.write(ExceptionUtils.getStackTrace(exception));
-			writer.write('\n');
+		try {
+			OutputStream output = getOutput();
+			output.write(ExceptionUtils.getStackTrace(exception).getBytes(StandardCharsets.UTF_8));
+			output.write('\n');
+			flushIfOld();
 		} catch (IOException e) {
 			// Failed to write to the file
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * @return The stream for the log file, opening the file if necessary.
+	 */
+	private OutputStream getOutput() throws IOException {
+		if (output == null) {
+			FileChannel channel = FileChannel.open(getLogFile().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			// Each time a compressed file is opened, a new gzip member is appended, which gzip readers treat as one stream
+			output = new BufferedOutputStream(compression.wrap(Channels.newOutputStream(channel), BUFFER_SIZE), BUFFER_SIZE);
+			lastFlushMillis = System.currentTimeMillis();
+			OpenLogFiles.opened(this);
+		}
+		return output;
+	}
+	
+	/**
+	 * Write the buffered messages to the file if they have been waiting a while.
+	 */
+	private void flushIfOld() throws IOException {
+		long now = System.currentTimeMillis();
+		if (now - lastFlushMillis > FLUSH_INTERVAL_MILLIS) {
+			output.flush();
+			lastFlushMillis = now;
+		}
+	}
+	
+	@Override
+	public synchronized void flush() {
+		if (output != null) {
+			try {
+				output.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			lastFlushMillis = System.currentTimeMillis();
+		}
+	}
+	
+	@Override
+	public synchronized void close() {
+		if (output != null) {
+			try {
+				output.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			output = null;
+			OpenLogFiles.closed(this);
+		}
+	}
+	
+	@Override
 	public File getLogFile() {
 		if (outputDir != null) {
 			return new File(outputDir, getLogFileName());
@@ -112,6 +231,6 @@ public class TextFileLogger implements Logger {
 	}
 	
 	private String getLogFileName() {
-		return FILE_PREFIX + logName + '.' + fileExtension;
+		return FILE_PREFIX + logName + '.' + fileExtension + compression.getFileExtension();
 	}
 }
@@ -0,0 +1,73 @@
+package com.simomics.leishsim;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.output.EventTraceFormatter;
+import com.simomics.leishsim.output.EventTraceReader;
+
+/**
+ * Main class for converting an event trace (written with --event-trace) to the text of the FULL log.
+ */
+public final class TraceDecoder {
+
+	@Parameter(names = "--trace-file", description = "The event trace file to decode", required = true)
+	private String traceFileName;
+
+	@Parameter(names = "--from", description = "Simulation time, in seconds, of the first event to decode")
+	private double fromSeconds = 0;
+
+	@Parameter(names = "--to", description = "Simulation time, in seconds, of the last event to decode")
+	private double toSeconds = Double.POSITIVE_INFINITY;
+
+	@Parameter(names = "--output-file", description = "File into which to write the text. Defaults to the screen.")
+	private String outputFileName = null;
+
+	private TraceDecoder() {}
+
+	/**
+	 * Entry point for the program.
+	 * @param args Command line arguments. See the member variables of this class annotated with @Parameter.
+	 */
+	public static void main(String... args) {
+		TraceDecoder decoder = new TraceDecoder();
+		JCommander jcommander = new JCommander(decoder);
+		try {
+			jcommander.parse(args);
+		}
+		catch(ParameterException e) {
+			// Could not parse command line arguments
+			Logging.getLogger(LogType.ERROR).log(e.getMessage());
+			jcommander.usage();
+			return;
+		}
+
+		File traceFile = new File(decoder.traceFileName);
+		try (EventTraceReader reader = new EventTraceReader(traceFile);
+				Writer writer = decoder.outputFileName != null
+					? Files.newBufferedWriter(new File(decoder.outputFileName).toPath(), StandardCharsets.UTF_8)
+					: new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+						@Override
+						public void close() throws IOException {
+							flush(); // don't close the screen
+						}
+					}) {
+			long numEvents = EventTraceFormatter.format(reader, decoder.fromSeconds, decoder.toSeconds, writer);
+			if (decoder.outputFileName != null) {
+				Logging.getLogger(LogType.PROGRESS).log(String.format("Decoded %d events from %s to %s", numEvents, traceFile, decoder.outputFileName));
+			}
+		} catch (IOException e) {
+			Logging.getLogger(LogType.ERROR).log(String.format("Could not decode %s: %s", traceFile, e.getMessage()));
+		}
+		Logging.closeLogs();
+	}
+}
@@ -0,0 +1,174 @@
+package com.simomics.leishsim.ensemble;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.simomics.leishsim.Driver;
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+
+/**
+ * Runs an ensemble of replicates on several worker JVMs, each writing its replicates into a shared results file.
+ * Each worker is given a range of replicates. If a worker exits before finishing its range (e.g. it crashed or ran out of memory),
+ *   it is started again from its first unfinished replicate. Each replicate has its own random number stream,
+ *   so a replicate that is run again gives the same results.
+ */
+public class EnsembleOrchestrator {
+
+	/** The command line option that tells a worker which replicates to run */
+	public static final String REPLICATE_RANGE_OPTION = "--replicate-range";
+
+	/** The results file that the workers write to, already created at full size */
+	private final SharedResultsFile resultsFile;
+
+	/** The arguments that are the same for every worker */
+	private final List<String> workerArguments;
+
+	/** How many worker JVMs to run at once */
+	private final int numProcesses;
+
+	/** How many times each worker can be restarted before giving up on its replicates */
+	private final int maxRestarts;
+
+	/** The directory in which each worker writes its own logs */
+	private final File logsDirectory;
+
+	/**
+	 * @param resultsFile The results file that the workers write to.
+	 * @param workerArguments The Driver command line arguments for a worker, not including the replicate range or log directory.
+	 * @param numProcesses How many worker JVMs to run at once.
+	 * @param maxRestarts How many times each worker can be restarted.
+	 * @param logsDirectory The directory in which each worker writes its own logs.
+	 */
+	public EnsembleOrchestrator(SharedResultsFile resultsFile, List<String> workerArguments, int numProcesses, int maxRestarts, File logsDirectory) {
+		this.resultsFile = resultsFile;
+		this.workerArguments = workerArguments;
+		this.numProcesses = numProcesses;
+		this.maxRestarts = maxRestarts;
+		this.logsDirectory = logsDirectory;
+	}
+
+	/**
+	 * Run all the replicates, and wait for the workers to finish.
+	 * @return The number of replicates that did not finish.
+	 * @throws IOException If the results file could not be read.
+	 * @throws InterruptedException If interrupted while waiting for the workers, in which case the workers are stopped.
+	 */
+	public int run() throws IOException, InterruptedException {
+		int numReplicates = resultsFile.getNumReplicates();
+		int numWorkers = Math.min(numProcesses, numReplicates);
+		Logging.getLogger(LogType.PROGRESS).log(String.format("Running %d replicates on %d worker processes", numReplicates, numWorkers));
+
+		// Split the replicates as evenly as possible between the workers
+		List<Worker> workers = new ArrayList<>();
+		for (int i = 0; i < numWorkers; i++) {
+			int start = (int) ((long) numReplicates * i / numWorkers);
+			int end = (int) ((long) numReplicates * (i + 1) / numWorkers);
+			workers.add(new Worker(i, start, end));
+		}
+
+		try {
+			for (Worker worker: workers) {
+				worker.start();
+			}
+			// Wait for each worker, restarting it until its replicates are all finished
+			boolean running = true;
+			while (running) {
+				running = false;
+				for (Worker worker: workers) {
+					if (worker.process == null) {
+						continue;
+					}
+					if (worker.process.isAlive()) {
+						running = true;
+						continue;
+					}
+					int exitCode = worker.process.exitValue();
+					int firstUnfinished = resultsFile.firstUnfinished(worker.start, worker.end);
+					if (firstUnfinished == worker.end) {
+						Logging.getLogger(LogType.PROGRESS).log(String.format("Worker %d finished replicates %d to %d", worker.index, worker.start, worker.end - 1));
+						worker.process = null;
+					}
+					else if (worker.restarts < maxRestarts) {
+						Logging.getLogger(LogType.WARNING).log(String.format("Worker %d stopped with exit code %d before finishing replicate %d. Restarting it.",
+								worker.index, exitCode, firstUnfinished));
+						worker.restarts += 1;
+						worker.start();
+						running = true;
+					}
+					else {
+						Logging.getLogger(LogType.ERROR).log(String.format("Worker %d stopped with exit code %d before finishing replicate %d, and has been restarted too many times. See its logs in %s",
+								worker.index, exitCode, firstUnfinished, worker.getLogsDirectory()));
+						worker.process = null;
+					}
+				}
+				if (running) {
+					Thread.sleep(100);
+				}
+			}
+		}
+		finally {
+			for (Worker worker: workers) {
+				if (worker.process != null) {
+					worker.process.destroy();
+				}
+			}
+		}
+
+		int numUnfinished = 0;
+		for (int replicate = 0; replicate < numReplicates; replicate++) {
+			if (!resultsFile.isFinished(replicate)) {
+				numUnfinished += 1;
+			}
+		}
+		return numUnfinished;
+	}
+
+	/**
+	 * One worker JVM, and the range of replicates that it is responsible for.
+	 */
+	private class Worker {
+		private final int index;
+		private final int start;
+		private final int end;
+		private int restarts = 0;
+		private Process process;
+
+		private Worker(int index, int start, int end) {
+			this.index = index;
+			this.start = start;
+			this.end = end;
+		}
+
+		private File getLogsDirectory() {
+			return new File(logsDirectory, "worker" + index);
+		}
+
+		/**
+		 * Start (or restart) the worker from its first unfinished replicate.
+		 */
+		private void start() throws IOException {
+			int firstUnfinished = resultsFile.firstUnfinished(start, end);
+			List<String> command = new ArrayList<>();
+			command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(Driver.class.getName());
+			command.addAll(workerArguments);
+			command.add(REPLICATE_RANGE_OPTION);
+			command.add(firstUnfinished + ":" + end);
+			command.add("--log-dir");
+			command.add(getLogsDirectory().getPath());
+
+			getLogsDirectory().mkdirs();
+			ProcessBuilder processBuilder = new ProcessBuilder(command);
+			processBuilder.redirectOutput(Redirect.appendTo(new File(getLogsDirectory(), "stdout.txt")));
+			processBuilder.redirectError(Redirect.appendTo(new File(getLogsDirectory(), "stderr.txt")));
+			process = processBuilder.start();
+		}
+	}
+}
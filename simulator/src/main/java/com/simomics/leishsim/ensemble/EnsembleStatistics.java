@@ -0,0 +1,216 @@
+package com.simomics.leishsim.ensemble;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import com.simomics.leishsim.simulation.SpeciesRowSink;
+
+/**
+ * Summary statistics of the printed species over an ensemble of replicates, at each print time.
+ * Replicates are added one row at a time as they run, so the individual replicates never need to be stored.
+ * Means and variances use Welford's algorithm, and quantiles use a {@link QuantileSketch}.
+ * Statistics from different sets of replicates can be merged, so each thread or process can keep its own.
+ */
+public class EnsembleStatistics {
+
+	private final int numRows;
+	private final int numSpecies;
+	private final double relativeAccuracy;
+
+	/** Statistics for each (row, species), indexed by row * numSpecies + species */
+	private final long[] counts;
+	private final double[] means;
+	private final double[] sumsOfSquaredDifferences;
+	private final QuantileSketch[] sketches;
+
+	/**
+	 * @param numRows The number of print times, including time 0.
+	 * @param numSpecies The number of printed species.
+	 * @param relativeAccuracy The maximum relative error of the quantiles.
+	 */
+	public EnsembleStatistics(int numRows, int numSpecies, double relativeAccuracy) {
+		this.numRows = numRows;
+		this.numSpecies = numSpecies;
+		this.relativeAccuracy = relativeAccuracy;
+		int numCells = numRows * numSpecies;
+		counts = new long[numCells];
+		means = new double[numCells];
+		sumsOfSquaredDifferences = new double[numCells];
+		sketches = new QuantileSketch[numCells];
+		for (int i = 0; i < numCells; i++) {
+			sketches[i] = new QuantileSketch(relativeAccuracy);
+		}
+	}
+
+	public int getNumRows() {
+		return numRows;
+	}
+
+	public int getNumSpecies() {
+		return numSpecies;
+	}
+
+	/**
+	 * Add one row of one replicate.
+	 * @param row
+	 * @param speciesCounts The number of each printed species at this row.
+	 */
+	public void add(int row, int[] speciesCounts) {
+		for (int species = 0; species < numSpecies; species++) {
+			int cell = row * numSpecies + species;
+			double value = speciesCounts[species];
+			counts[cell] += 1;
+			double delta = value - means[cell];
+			means[cell] += delta / counts[cell];
+			sumsOfSquaredDifferences[cell] += delta * (value - means[cell]);
+			sketches[cell].add(value);
+		}
+	}
+
+	/**
+	 * Add a whole replicate, e.g. read back from a {@link SharedResultsFile}.
+	 * @param columns The replicate's results, indexed by species then row.
+	 * @param rowsWritten The number of rows that the replicate printed. Later rows are filled with the last row printed.
+	 */
+	public void addReplicate(int[][] columns, int rowsWritten) {
+		int[] speciesCounts = new int[numSpecies];
+		for (int row = 0; row < numRows; row++) {
+			if (row < rowsWritten) {
+				for (int species = 0; species < numSpecies; species++) {
+					speciesCounts[species] = columns[species][row];
+				}
+			}
+			add(row, speciesCounts);
+		}
+	}
+
+	/**
+	 * @return A sink that adds the rows of one replicate to these statistics, as the replicate runs.
+	 *   Not thread safe, so replicates that run at the same time should each add to their own statistics, which are merged afterwards.
+	 */
+	public ReplicateStatistics startReplicate() {
+		return new ReplicateStatistics();
+	}
+
+	/**
+	 * Add all the replicates in other statistics to these statistics, using Chan et al's method for combining variances.
+	 * @param other Statistics of the same shape.
+	 */
+	public void merge(EnsembleStatistics other) {
+		if (other.numRows != numRows || other.numSpecies != numSpecies) {
+			throw new IllegalArgumentException(String.format("Can't merge statistics with %d rows and %d species into statistics with %d rows and %d species",
+					other.numRows, other.numSpecies, numRows, numSpecies));
+		}
+		for (int cell = 0; cell < counts.length; cell++) {
+			if (other.counts[cell] == 0) {
+				continue;
+			}
+			long totalCount = counts[cell] + other.counts[cell];
+			double delta = other.means[cell] - means[cell];
+			means[cell] += delta * other.counts[cell] / totalCount;
+			sumsOfSquaredDifferences[cell] += other.sumsOfSquaredDifferences[cell] + delta * delta * counts[cell] * other.counts[cell] / totalCount;
+			counts[cell] = totalCount;
+			sketches[cell].merge(other.sketches[cell]);
+		}
+	}
+
+	/**
+	 * @return The number of replicates that have been added for the given row and species.
+	 */
+	public long getCount(int row, int species) {
+		return counts[row * numSpecies + species];
+	}
+
+	public double getMean(int row, int species) {
+		return means[row * numSpecies + species];
+	}
+
+	/**
+	 * @return The sample variance, or NaN if fewer than two replicates have been added.
+	 */
+	public double getVariance(int row, int species) {
+		int cell = row * numSpecies + species;
+		if (counts[cell] < 2) {
+			return Double.NaN;
+		}
+		return sumsOfSquaredDifferences[cell] / (counts[cell] - 1);
+	}
+
+	/**
+	 * @param quantile Between 0 and 1.
+	 * @return An estimate of the given quantile, within the relative accuracy given to the constructor.
+	 */
+	public double getQuantile(int row, int species, double quantile) {
+		return sketches[row * numSpecies + species].getQuantile(quantile);
+	}
+
+	public double getRelativeAccuracy() {
+		return relativeAccuracy;
+	}
+
+	/**
+	 * Write the statistics as a CSV file, with one line per print time and species.
+	 * @param file
+	 * @param speciesNames The names of the printed species, in print order.
+	 * @param secondsBeforePrint The time between rows.
+	 * @param runHours True to show times in hours, or false for seconds.
+	 * @param quantiles The quantiles to include.
+	 * @throws IOException If the file could not be written.
+	 */
+	public void writeSummary(File file, List<String> speciesNames, long secondsBeforePrint, boolean runHours, double[] quantiles) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+			writer.write(runHours ? "Hours" : "Seconds");
+			writer.write(",Species,Replicates,Mean,Variance");
+			for (double quantile: quantiles) {
+				writer.write(",Q" + quantile);
+			}
+			writer.write("\n");
+			for (int row = 0; row < numRows; row++) {
+				long seconds = row * secondsBeforePrint;
+				long time = runHours ? seconds / (60 * 60) : seconds;
+				for (int species = 0; species < numSpecies; species++) {
+					writer.write(String.format("%d,%s,%d,%s,%s", time, speciesNames.get(species), getCount(row, species), getMean(row, species), getVariance(row, species)));
+					for (double quantile: quantiles) {
+						writer.write(",");
+						writer.write(Double.toString(getQuantile(row, species, quantile)));
+					}
+					writer.write("\n");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the rows of one replicate to the statistics as it runs.
+	 */
+	public class ReplicateStatistics implements SpeciesRowSink {
+
+		/** The most recent row added, for filling in any rows after the replicate ran out of reactions */
+		private int[] lastCounts;
+		private int rowsAdded = 0;
+
+		private ReplicateStatistics() {
+		}
+
+		@Override
+		public void addRow(int rowIndex, long nominalSeconds, int[] speciesCounts) {
+			add(rowIndex, speciesCounts);
+			lastCounts = speciesCounts.clone();
+			rowsAdded = rowIndex + 1;
+		}
+
+		/**
+		 * Call when the replicate has finished. If it stopped early, its final state is counted for all the remaining rows.
+		 */
+		public void finish() {
+			for (int row = rowsAdded; row < numRows && lastCounts != null; row++) {
+				add(row, lastCounts);
+			}
+			rowsAdded = numRows;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.simomics.leishsim.ensemble;
+
+import org.apache.commons.math3.distribution.TDistribution;
+
+/**
+ * A target for how precisely an ensemble should estimate the mean of one printed species at one print time,
+ *   so that an ensemble can stop adding replicates as soon as it is big enough.
+ * The target is met when the confidence interval of the mean is narrower than a given fraction of the mean.
+ */
+public class PrecisionTarget {
+
+	/** The fewest replicates for which the target can be met, so that a few similar early replicates can't stop the ensemble */
+	public static final int MIN_REPLICATES = 10;
+
+	private final String speciesName;
+	private final int species;
+	private final int row;
+
+	/** The largest allowed half-width of the confidence interval, as a fraction of the mean */
+	private final double relativeHalfWidth;
+
+	/** The confidence level of the interval, e.g. 0.95 */
+	private final double confidence;
+
+	/**
+	 * @param speciesName The name of the printed species, for reporting.
+	 * @param species The index of the species among the printed species.
+	 * @param row The print time, as a row of the ensemble statistics.
+	 * @param relativeHalfWidth The largest allowed half-width of the confidence interval, as a fraction of the mean, e.g. 0.02 for 2%.
+	 * @param confidence The confidence level of the interval, e.g. 0.95.
+	 */
+	public PrecisionTarget(String speciesName, int species, int row, double relativeHalfWidth, double confidence) {
+		if (relativeHalfWidth <= 0) {
+			throw new IllegalArgumentException("Target precision must be more than 0, but was " + relativeHalfWidth);
+		}
+		if (confidence <= 0 || confidence >= 1) {
+			throw new IllegalArgumentException("Target confidence must be between 0 and 1, but was " + confidence);
+		}
+		this.speciesName = speciesName;
+		this.species = species;
+		this.row = row;
+		this.relativeHalfWidth = relativeHalfWidth;
+		this.confidence = confidence;
+	}
+
+	/**
+	 * @return The half-width of the confidence interval of the mean, using Student's t distribution,
+	 *   or NaN if fewer than two replicates have been added.
+	 */
+	public double getHalfWidth(EnsembleStatistics statistics) {
+		long count = statistics.getCount(row, species);
+		if (count < 2) {
+			return Double.NaN;
+		}
+		double t = new TDistribution(null, count - 1).inverseCumulativeProbability(0.5 + confidence / 2);
+		return t * Math.sqrt(statistics.getVariance(row, species) / count);
+	}
+
+	/**
+	 * @return True if the statistics estimate the mean at least as precisely as this target requires.
+	 */
+	public boolean isMet(EnsembleStatistics statistics) {
+		if (statistics.getCount(row, species) < MIN_REPLICATES) {
+			return false;
+		}
+		return getHalfWidth(statistics) <= relativeHalfWidth * Math.abs(statistics.getMean(row, species));
+	}
+
+	/**
+	 * @return A description of how close the statistics are to this target, for progress messages.
+	 */
+	public String describe(EnsembleStatistics statistics) {
+		double mean = statistics.getMean(row, species);
+		double halfWidth = getHalfWidth(statistics);
+		return String.format("%s mean %f +/- %f (%.2f%% of the mean, target %.2f%%) after %d replicates",
+				speciesName, mean, halfWidth, 100 * halfWidth / Math.abs(mean), 100 * relativeHalfWidth, statistics.getCount(row, species));
+	}
+}
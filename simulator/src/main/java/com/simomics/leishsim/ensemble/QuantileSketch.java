@@ -0,0 +1,134 @@
+package com.simomics.leishsim.ensemble;
+
+import java.util.Arrays;
+
+/**
+ * An approximate distribution of non-negative numbers, for estimating quantiles without storing every number.
+ * Numbers are counted in buckets whose bounds grow geometrically, so every quantile is within a fixed relative error of the true value
+ *   (the same approach as the DDSketch algorithm). Sketches with the same accuracy can be merged by adding their buckets,
+ *   so replicates can be summarised separately and combined later.
+ */
+public class QuantileSketch {
+
+	/** The maximum relative error of the quantiles */
+	private final double relativeAccuracy;
+
+	/** Ratio between the upper and lower bounds of each bucket */
+	private final double gamma;
+	private final double logGamma;
+
+	/** How many zeros have been added. Zero has its own bucket, as it can't be placed on a log scale. */
+	private long zeroCount = 0;
+
+	/** How many numbers are in each bucket, starting from the bucket numbered {@link #minIndex} */
+	private long[] bucketCounts = new long[0];
+	private int minIndex = 0;
+
+	/** The total number of numbers added */
+	private long count = 0;
+
+	/**
+	 * @param relativeAccuracy The maximum relative error of the quantiles, e.g. 0.01 for 1%.
+	 */
+	public QuantileSketch(double relativeAccuracy) {
+		if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+			throw new IllegalArgumentException("Relative accuracy must be between 0 and 1, but was " + relativeAccuracy);
+		}
+		this.relativeAccuracy = relativeAccuracy;
+		this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+		this.logGamma = Math.log(gamma);
+	}
+
+	/**
+	 * @param value A number that is at least 0.
+	 */
+	public void add(double value) {
+		add(value, 1);
+	}
+
+	private void add(double value, long howMany) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Quantile sketch only holds non-negative numbers, but was given " + value);
+		}
+		count += howMany;
+		if (value == 0) {
+			zeroCount += howMany;
+			return;
+		}
+		int index = (int) Math.ceil(Math.log(value) / logGamma);
+		ensureBucket(index);
+		bucketCounts[index - minIndex] += howMany;
+	}
+
+	/**
+	 * Grow the bucket array so that it includes the given bucket.
+	 */
+	private void ensureBucket(int index) {
+		if (bucketCounts.length == 0) {
+			bucketCounts = new long[1];
+			minIndex = index;
+		}
+		else if (index < minIndex) {
+			long[] newCounts = new long[bucketCounts.length + (minIndex - index)];
+			System.arraycopy(bucketCounts, 0, newCounts, minIndex - index, bucketCounts.length);
+			bucketCounts = newCounts;
+			minIndex = index;
+		}
+		else if (index >= minIndex + bucketCounts.length) {
+			bucketCounts = Arrays.copyOf(bucketCounts, index - minIndex + 1);
+		}
+	}
+
+	/**
+	 * Add all the numbers in another sketch to this sketch.
+	 * @param other A sketch with the same relative accuracy.
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.relativeAccuracy != relativeAccuracy) {
+			throw new IllegalArgumentException(String.format("Can't merge sketches with relative accuracy %f and %f", relativeAccuracy, other.relativeAccuracy));
+		}
+		count += other.count;
+		zeroCount += other.zeroCount;
+		for (int i = 0; i < other.bucketCounts.length; i++) {
+			if (other.bucketCounts[i] != 0) {
+				int index = other.minIndex + i;
+				ensureBucket(index);
+				bucketCounts[index - minIndex] += other.bucketCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * @return The number of numbers added to this sketch.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param quantile Between 0 and 1, e.g. 0.5 for the median.
+	 * @return An estimate of the given quantile, or NaN if the sketch is empty.
+	 */
+	public double getQuantile(double quantile) {
+		if (quantile < 0 || quantile > 1) {
+			throw new IllegalArgumentException("Quantile must be between 0 and 1, but was " + quantile);
+		}
+		if (count == 0) {
+			return Double.NaN;
+		}
+		double rank = quantile * (count - 1);
+		long seen = zeroCount;
+		if (seen > rank) {
+			return 0;
+		}
+		for (int i = 0; i < bucketCounts.length; i++) {
+			seen += bucketCounts[i];
+			if (seen > rank) {
+				// Middle of the bucket (in relative terms)
+				return 2 * Math.pow(gamma, minIndex + i) / (gamma + 1);
+			}
+		}
+		// Only reached through rounding errors
+		return 2 * Math.pow(gamma, minIndex + bucketCounts.length - 1) / (gamma + 1);
+	}
+}
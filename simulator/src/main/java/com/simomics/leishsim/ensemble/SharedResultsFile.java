@@ -0,0 +1,315 @@
+package com.simomics.leishsim.ensemble;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.simomics.leishsim.simulation.SpeciesRowSink;
+
+/**
+ * A single binary file holding the printed species of every replicate in an ensemble.
+ * The file is created at full size before any replicates run, with one fixed-size slot per replicate,
+ *   so that worker processes can write their replicates straight into the file through memory maps, without any merging afterwards.
+ *
+ * Layout (all numbers big-endian):
+ * <pre>
+ * header: magic, version, numReplicates, numRows, numSpecies (ints), dataOffset (long), secondsBeforePrint (long),
+ *         runHours (boolean), species names (UTF)
+ * slots:  one per replicate, starting at dataOffset. Each slot is:
+ *         finished flag (int), rows written (int), then one column of numRows ints per species.
+ * </pre>
+ */
+public class SharedResultsFile {
+
+	private static final int MAGIC = 0x4d445352; // "MDSR"
+	private static final int VERSION = 1;
+
+	/** Position of the data offset in the header */
+	private static final int DATA_OFFSET_POSITION = 4 * 5;
+
+	/** Size of the finished flag and rows written count at the start of each slot */
+	private static final int SLOT_HEADER_BYTES = 8;
+
+	/** The largest slot that can be mapped into memory */
+	private static final long MAX_SLOT_BYTES = Integer.MAX_VALUE;
+
+	private final File file;
+	private final int numReplicates;
+	private final int numRows;
+	private final List<String> speciesNames;
+	private final long secondsBeforePrint;
+	private final boolean runHours;
+	private final long dataOffset;
+
+	private SharedResultsFile(File file, int numReplicates, int numRows, List<String> speciesNames, long secondsBeforePrint, boolean runHours, long dataOffset) {
+		this.file = file;
+		this.numReplicates = numReplicates;
+		this.numRows = numRows;
+		this.speciesNames = Collections.unmodifiableList(new ArrayList<>(speciesNames));
+		this.secondsBeforePrint = secondsBeforePrint;
+		this.runHours = runHours;
+		this.dataOffset = dataOffset;
+	}
+
+	/**
+	 * Create a new results file, replacing any existing file, with an empty slot for each replicate.
+	 * @param file
+	 * @param numReplicates
+	 * @param numRows The number of print times in each replicate, including time 0.
+	 * @param speciesNames The printed species, in print order.
+	 * @param secondsBeforePrint The time between rows.
+	 * @param runHours True if the times of the rows are shown in hours, or false for seconds.
+	 * @throws IOException If the file could not be created, or a replicate's results would be too big for a slot.
+	 */
+	public static SharedResultsFile create(File file, int numReplicates, int numRows, List<String> speciesNames, long secondsBeforePrint, boolean runHours) throws IOException {
+		checkSlotBytes(file, numRows, speciesNames.size());
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		try (DataOutputStream header = new DataOutputStream(headerBytes)) {
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeInt(numReplicates);
+			header.writeInt(numRows);
+			header.writeInt(speciesNames.size());
+			header.writeLong(0); // data offset, filled in below
+			header.writeLong(secondsBeforePrint);
+			header.writeBoolean(runHours);
+			for (String speciesName: speciesNames) {
+				header.writeUTF(speciesName);
+			}
+		}
+		// Start the slots on an 8 byte boundary
+		long dataOffset = (headerBytes.size() + 7) / 8 * 8;
+
+		SharedResultsFile results = new SharedResultsFile(file, numReplicates, numRows, speciesNames, secondsBeforePrint, runHours, dataOffset);
+		try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+			output.setLength(0);
+			output.write(headerBytes.toByteArray());
+			output.seek(DATA_OFFSET_POSITION);
+			output.writeLong(dataOffset);
+			// Slots are all zeros (not finished, no rows) until they are written
+			output.setLength(dataOffset + numReplicates * results.getSlotBytes());
+		}
+		return results;
+	}
+
+	/**
+	 * Open an existing results file.
+	 * @param file
+	 * @throws IOException If the file could not be read, or is not a results file.
+	 */
+	public static SharedResultsFile open(File file) throws IOException {
+		try (DataInputStream header = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (header.readInt() != MAGIC) {
+				throw new IOException("Not a results file: " + file);
+			}
+			int version = header.readInt();
+			if (version != VERSION) {
+				throw new IOException(String.format("Results file %s has version %d, but expected version %d", file, version, VERSION));
+			}
+			int numReplicates = header.readInt();
+			int numRows = header.readInt();
+			int numSpecies = header.readInt();
+			checkSlotBytes(file, numRows, numSpecies);
+			long dataOffset = header.readLong();
+			long secondsBeforePrint = header.readLong();
+			boolean runHours = header.readBoolean();
+			List<String> speciesNames = new ArrayList<>();
+			for (int i = 0; i < numSpecies; i++) {
+				speciesNames.add(header.readUTF());
+			}
+			return new SharedResultsFile(file, numReplicates, numRows, speciesNames, secondsBeforePrint, runHours, dataOffset);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getNumReplicates() {
+		return numReplicates;
+	}
+
+	/**
+	 * @return The number of print times in each replicate, including time 0.
+	 */
+	public int getNumRows() {
+		return numRows;
+	}
+
+	public List<String> getSpeciesNames() {
+		return speciesNames;
+	}
+
+	public long getSecondsBeforePrint() {
+		return secondsBeforePrint;
+	}
+
+	public boolean isRunHours() {
+		return runHours;
+	}
+
+	/**
+	 * @return The simulation time of the given row, in hours or seconds as chosen when the file was created.
+	 */
+	public long getRowTime(int row) {
+		long seconds = row * secondsBeforePrint;
+		return runHours ? seconds / (60 * 60) : seconds;
+	}
+
+	private long getSlotBytes() {
+		return getSlotBytes(numRows, speciesNames.size());
+	}
+
+	private static long getSlotBytes(int numRows, int numSpecies) {
+		return SLOT_HEADER_BYTES + 4L * numSpecies * numRows;
+	}
+
+	/**
+	 * Check that each replicate's slot is small enough to be mapped into memory, so that positions within a slot fit in an int.
+	 * @throws IOException If the slot would be too big.
+	 */
+	private static void checkSlotBytes(File file, int numRows, int numSpecies) throws IOException {
+		long slotBytes = getSlotBytes(numRows, numSpecies);
+		if (numRows < 0 || numSpecies < 0 || slotBytes > MAX_SLOT_BYTES) {
+			throw new IOException(String.format("Results file %s can't hold %d rows of %d species for each replicate, which would take %d bytes, as the most is %d bytes. "
+					+ "Print fewer species or print less often, or don't write a results file.", file, numRows, numSpecies, slotBytes, MAX_SLOT_BYTES));
+		}
+	}
+
+	/**
+	 * @return The position of a species' number in a row, within its replicate's slot.
+	 */
+	private int getPositionInSlot(int species, int rowIndex) {
+		// Never overflows, as the size of a slot has been checked
+		return (int) (SLOT_HEADER_BYTES + 4L * ((long) species * numRows + rowIndex));
+	}
+
+	private long getSlotOffset(int replicate) {
+		if (replicate < 0 || replicate >= numReplicates) {
+			throw new IndexOutOfBoundsException(String.format("Replicate %d is not in results file with %d replicates", replicate, numReplicates));
+		}
+		return dataOffset + (long) replicate * getSlotBytes();
+	}
+
+	/**
+	 * Map the slot of one replicate into memory.
+	 */
+	private MappedByteBuffer mapSlot(int replicate, boolean writeable) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, writeable ? "rw" : "r");
+				FileChannel channel = randomAccessFile.getChannel()) {
+			// The mapping stays valid after the channel is closed
+			return channel.map(writeable ? MapMode.READ_WRITE : MapMode.READ_ONLY, getSlotOffset(replicate), getSlotBytes());
+		}
+	}
+
+	/**
+	 * @return True if all of the given replicate's rows have been written.
+	 * @throws IOException If the file could not be read.
+	 */
+	public boolean isFinished(int replicate) throws IOException {
+		return readSlotHeader(replicate, 0) != 0;
+	}
+	
+	/**
+	 * Read one of the numbers at the start of a slot, without mapping the whole slot.
+	 */
+	private int readSlotHeader(int replicate, int position) throws IOException {
+		try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			input.seek(getSlotOffset(replicate) + position);
+			return input.readInt();
+		}
+	}
+
+	/**
+	 * @return The index of the first replicate in the given range that has not finished, or end if they have all finished.
+	 * @throws IOException If the file could not be read.
+	 */
+	public int firstUnfinished(int start, int end) throws IOException {
+		for (int replicate = start; replicate < end; replicate++) {
+			if (!isFinished(replicate)) {
+				return replicate;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * @return The results of the given replicate, as a matrix indexed by species then row.
+	 *   Rows after the simulation ran out of reactions are all zero - see {@link #getRowsWritten(int)}.
+	 * @throws IOException If the file could not be read.
+	 */
+	public int[][] readReplicate(int replicate) throws IOException {
+		MappedByteBuffer slot = mapSlot(replicate, false);
+		int[][] results = new int[speciesNames.size()][numRows];
+		for (int species = 0; species < speciesNames.size(); species++) {
+			slot.position(getPositionInSlot(species, 0));
+			slot.asIntBuffer().get(results[species]);
+		}
+		return results;
+	}
+
+	/**
+	 * @return The number of rows of the given replicate that have been written.
+	 *   Can be less than the number of rows for a finished replicate if the simulation ran out of reactions.
+	 * @throws IOException If the file could not be read.
+	 */
+	public int getRowsWritten(int replicate) throws IOException {
+		return readSlotHeader(replicate, 4);
+	}
+
+	/**
+	 * Start writing the results of one replicate, discarding anything previously written for it (e.g. by a worker that crashed).
+	 * @return A sink to give to the replicate's simulation.
+	 * @throws IOException If the file could not be written.
+	 */
+	public ReplicateWriter startReplicate(int replicate) throws IOException {
+		MappedByteBuffer slot = mapSlot(replicate, true);
+		slot.putInt(0, 0);
+		slot.putInt(4, 0);
+		return new ReplicateWriter(slot);
+	}
+
+	/**
+	 * Writes the rows of one replicate into its slot of the file.
+	 */
+	public class ReplicateWriter implements SpeciesRowSink {
+
+		private final MappedByteBuffer slot;
+
+		private ReplicateWriter(MappedByteBuffer slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		public void addRow(int rowIndex, long nominalSeconds, int[] speciesCounts) {
+			if (rowIndex >= numRows) {
+				throw new IndexOutOfBoundsException(String.format("Row %d does not fit in results file with %d rows", rowIndex, numRows));
+			}
+			for (int species = 0; species < speciesCounts.length; species++) {
+				slot.putInt(getPositionInSlot(species, rowIndex), speciesCounts[species]);
+			}
+			// Count the row after writing it, so that a crash part way through never counts a half written row
+			slot.putInt(4, rowIndex + 1);
+		}
+
+		/**
+		 * Mark the replicate as finished, and make sure that all its rows have reached the file.
+		 */
+		public void finish() {
+			slot.force();
+			slot.putInt(0, 1);
+			slot.force();
+		}
+	}
+}
@@ -1,12 +1,16 @@
 package com.simomics.leishsim.model;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multiset;
@@ -29,20 +33,55 @@ public class MembraneModel {
 	private final Multimap<String, String> speciesToTags;
 	private final Multimap<String, String> tagsToSpecies;
 	
+	/** The equation of each observable, in the order they are defined */
+	private final Map<String, Equation> observables;
+	
+	/** The conditions that end the simulation early, in the order they are defined */
+	private final List<StopCondition> stopConditions;
+	
+	/** The reactions in the order they are defined in the model file, which is the order of their ids */
+	private final List<Reaction> reactionList;
+	
 	/** The reactions that must have their rates re-calculated when a reaction fires */
 	private final Map<Reaction, Set<Reaction>> reactionDependencies;
 	
 	public MembraneModel(Set<String> membraneNames, Set<String> speciesNames, Multiset<LocatedSpecies> initialSpecies, Map<String, Double> parameterValues, 
 			Set<Reaction> reactions,
-			Multimap<String, String> speciesToTags, Multimap<String, String> tagsToSpecies) {
+			Multimap<String, String> speciesToTags, Multimap<String, String> tagsToSpecies,
+			Map<String, Equation> observables, List<StopCondition> stopConditions) {
+		this(membraneNames, speciesNames, initialSpecies, parameterValues, reactions, speciesToTags, tagsToSpecies, observables, stopConditions, null);
+	}
+	
+	/**
+	 * @param reactionDependencies The reactions that depend on each reaction, as given by {@link #getDependentReactions(Reaction)} of an earlier copy of this model,
+	 *   or null to work them out.
+	 */
+	public MembraneModel(Set<String> membraneNames, Set<String> speciesNames, Multiset<LocatedSpecies> initialSpecies, Map<String, Double> parameterValues, 
+			Set<Reaction> reactions,
+			Multimap<String, String> speciesToTags, Multimap<String, String> tagsToSpecies,
+			Map<String, Equation> observables, List<StopCondition> stopConditions,
+			Map<Reaction, Set<Reaction>> reactionDependencies) {
 		this.membraneNames = membraneNames;
 		this.speciesNames = speciesNames;
 		this.initialSpecies = initialSpecies;
 		this.parameterValues = parameterValues;
 		this.reactions = reactions;
-		this.reactionDependencies = calculateReactionDependencies();
+		this.reactionList = ImmutableList.copyOf(reactions);
+		for (int reactionId = 0; reactionId < reactionList.size(); reactionId++) {
+			reactionList.get(reactionId).setId(reactionId);
+		}
+		this.reactionDependencies = reactionDependencies != null ? reactionDependencies : calculateReactionDependencies();
 		this.speciesToTags = speciesToTags;
 		this.tagsToSpecies = tagsToSpecies;
+		this.observables = Collections.unmodifiableMap(new LinkedHashMap<>(observables));
+		this.stopConditions = ImmutableList.copyOf(stopConditions);
+	}
+	
+	/**
+	 * @return The membrane names used in reactions.
+	 */
+	public Set<String> getMembraneNames() {
+		return membraneNames;
 	}
 	
 	public Set<String> getSpeciesNames() {
@@ -61,6 +100,20 @@ public class MembraneModel {
 		return speciesToTags.get(speciesName);
 	}
 	
+	/**
+	 * @return The equation of each observable, in the order they are defined in the model file.
+	 */
+	public Map<String, Equation> getObservables() {
+		return observables;
+	}
+	
+	/**
+	 * @return The conditions that end the simulation early, in the order they are defined in the model file.
+	 */
+	public List<StopCondition> getStopConditions() {
+		return stopConditions;
+	}
+	
 	public Set<String> getParameterNames() {
 		return parameterValues.keySet();
 	}
@@ -73,6 +126,21 @@ public class MembraneModel {
 		return reactions;
 	}
 	
+	/**
+	 * @return The reactions in order of their ids, which is the order they are defined in the model file.
+	 *   The propensities log, the reaction numbers log, event traces and checkpoints all number the reactions in this order.
+	 */
+	public List<Reaction> getReactionList() {
+		return reactionList;
+	}
+	
+	/**
+	 * @return The position of the given reaction in {@link #getReactionList()}.
+	 */
+	public int getReactionId(Reaction reaction) {
+		return reaction.getId();
+	}
+	
 	/**
 	 * @return The value of a particular parameter, or null if that parameter is not defined in this model.
 	 */
@@ -25,6 +25,9 @@ public class Reaction {
 	/** The modifier on the rate at which the reaction happens */
 	private final Equation rateModifier;
 	
+	/** The rate modifier with its parameters replaced by their values */
+	private final Equation simplifiedRateModifier;
+	
 	/** The actual equation that is evaluated to determine the reaction rate */
 	private final Equation rateEquation;
 	
@@ -42,6 +45,9 @@ public class Reaction {
 	
 	/** The line number of this reaction in the MDSL file */
 	private final Integer mdslLineNumber;
+	
+	/** @see #getId() */
+	private int id = -1;
 
 	/**
 	 * Thrown when a reaction could not be created because the input was invalid.
@@ -63,6 +69,7 @@ public class Reaction {
 		this.consumedSpecies = consumedSpecies;
 		this.producedSpecies = producedSpecies;
 		this.rateModifier = rateModifier;
+		this.simplifiedRateModifier = simplifiedRateModifier;
 		this.membraneType = computeMembraneType();
 		this.rateEquation = writeRateEquation(simplifiedRateModifier);
 		this.delayHours = delayHours;
@@ -70,6 +77,20 @@ public class Reaction {
 		this.mdslLineNumber = mdslLineNumber;
 	}
 	
+	/**
+	 * @return The position of this reaction in the reaction list of its model, or -1 if it is not part of a model yet.
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * Called by the model that this reaction is part of.
+	 */
+	void setId(int id) {
+		this.id = id;
+	}
+	
 	/**
 	 * Create the rate equation by multiplying the modifier by the concentrations of the reactants.
 	 * e.g. reaction "3 a + 2 b modifier k -> c" has rate equation: "a^3 * b^2 * k"
@@ -108,6 +129,13 @@ public class Reaction {
 	public Equation getRateModifier() {
 		return rateModifier;
 	}
+	
+	/**
+	 * @return The modifier on the reaction rate, with its parameters replaced by their values.
+	 */
+	public Equation getSimplifiedRateModifier() {
+		return simplifiedRateModifier;
+	}
 
 	/**
 	 * @return The delay from executing this reaction before its products appear in the simulation. Measured in hours.
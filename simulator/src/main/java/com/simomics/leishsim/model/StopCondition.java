@@ -0,0 +1,107 @@
+package com.simomics.leishsim.model;
+
+import com.simomics.leishsim.model.equations.Equation;
+
+/**
+ * A condition defined by the user that ends the simulation early, e.g. "stop when LD contained spleen == 0".
+ * Species in the equations are added up over many membranes, in the same way as in observables.
+ */
+public class StopCondition {
+
+	/**
+	 * The ways of comparing the two sides of a condition.
+	 */
+	public static enum Comparison {
+		EQUAL("=="),
+		NOT_EQUAL("!="),
+		LESS("<"),
+		LESS_OR_EQUAL("<="),
+		GREATER(">"),
+		GREATER_OR_EQUAL(">=");
+		
+		/** The comparison as written in the model */
+		private final String symbol;
+		
+		private Comparison(String symbol) {
+			this.symbol = symbol;
+		}
+		
+		public String getSymbol() {
+			return symbol;
+		}
+		
+		/**
+		 * @return The comparison written as the given symbol, or null if there isn't one.
+		 */
+		public static Comparison fromSymbol(String symbol) {
+			for (Comparison comparison: values()) {
+				if (comparison.symbol.equals(symbol)) {
+					return comparison;
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * @return True if the left value compares to the right value in this way.
+		 */
+		public boolean compare(double left, double right) {
+			switch (this) {
+			case EQUAL:
+				return left == right;
+			case NOT_EQUAL:
+				return left != right;
+			case LESS:
+				return left < right;
+			case LESS_OR_EQUAL:
+				return left <= right;
+			case GREATER:
+				return left > right;
+			case GREATER_OR_EQUAL:
+				return left >= right;
+			default:
+				throw new IllegalStateException("Unknown comparison: " + this);
+			}
+		}
+	}
+	
+	private final Equation left;
+	private final Comparison comparison;
+	private final Equation right;
+	
+	/** The condition as written in the model, for reporting why the simulation stopped */
+	private final String text;
+	
+	public StopCondition(Equation left, Comparison comparison, Equation right, String text) {
+		this.left = left;
+		this.comparison = comparison;
+		this.right = right;
+		this.text = text;
+	}
+	
+	public Equation getLeft() {
+		return left;
+	}
+	
+	public Comparison getComparison() {
+		return comparison;
+	}
+	
+	public Equation getRight() {
+		return right;
+	}
+	
+	/**
+	 * @param leftValue The value of the left equation.
+	 * @param rightValue The value of the right equation.
+	 * @return True if the values meet this condition.
+	 */
+	public boolean isMet(double leftValue, double rightValue) {
+		return comparison.compare(leftValue, rightValue);
+	}
+	
+	@Override
+	public String toString() {
+		return text;
+	}
+}
@@ -25,6 +25,10 @@ public class LocatedSpeciesExpression implements Equation {
 		return locatedSpecies;
 	}
 	
+	public int getStoichiometry() {
+		return stoichiometry;
+	}
+	
 	@Override
 	public String toString() {
 		return '(' + locatedSpecies.toString() + ')';
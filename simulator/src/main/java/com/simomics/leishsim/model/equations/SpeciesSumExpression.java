@@ -0,0 +1,143 @@
+package com.simomics.leishsim.model.equations;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.simomics.leishsim.model.Location;
+import com.simomics.leishsim.simulation.Membrane;
+
+/**
+ * The number of one or more species added up over many membranes, for observables and stop conditions.
+ * Either counts the species in every location of every membrane, or in one location relative to every membrane with a given type or tag.
+ * The species are either a single species, or every species with a given tag.
+ */
+public class SpeciesSumExpression implements Equation {
+
+	/** The species name or species tag, as written in the model */
+	private final String speciesNameOrTag;
+
+	/** The species to count */
+	private final Set<String> speciesNames;
+
+	/** The location relative to each membrane to count, or null to count every location of every membrane */
+	private final Location location;
+
+	/** The membrane type or tag of the membranes to count, or null to count every membrane */
+	private final String membraneName;
+
+	/**
+	 * Count species in every location of every membrane.
+	 * @param speciesNameOrTag The species name or species tag, as written in the model.
+	 * @param speciesNames The species to count.
+	 */
+	public SpeciesSumExpression(String speciesNameOrTag, Collection<String> speciesNames) {
+		this(speciesNameOrTag, speciesNames, null, null);
+	}
+
+	/**
+	 * Count species in one location relative to each membrane with a given type or tag.
+	 * @param speciesNameOrTag The species name or species tag, as written in the model.
+	 * @param speciesNames The species to count.
+	 * @param location
+	 * @param membraneName A membrane type or tag.
+	 */
+	public SpeciesSumExpression(String speciesNameOrTag, Collection<String> speciesNames, Location location, String membraneName) {
+		this.speciesNameOrTag = speciesNameOrTag;
+		this.speciesNames = Collections.unmodifiableSet(new LinkedHashSet<>(speciesNames));
+		this.location = location;
+		this.membraneName = membraneName;
+	}
+
+	/**
+	 * @return The species name or species tag, as written in the model.
+	 */
+	public String getSpeciesNameOrTag() {
+		return speciesNameOrTag;
+	}
+
+	public Set<String> getSpeciesNames() {
+		return speciesNames;
+	}
+
+	/**
+	 * @return The location relative to each membrane to count, or null to count every location of every membrane.
+	 */
+	public Location getLocation() {
+		return location;
+	}
+
+	/**
+	 * @return The membrane type or tag of the membranes to count, or null to count every membrane.
+	 */
+	public String getMembraneName() {
+		return membraneName;
+	}
+
+	/**
+	 * @return The location of each of the {@link #getMembranes(Membrane)} to count.
+	 *   The same as {@link #getLocation()}, except that species around a membrane are counted as contained in its parent.
+	 */
+	public Location getCountedLocation() {
+		return location == Location.around ? Location.contained : location;
+	}
+
+	/**
+	 * @return The membranes in which to count the species at {@link #getCountedLocation()}.
+	 *   Only meaningful if {@link #getLocation()} is not null.
+	 */
+	public Collection<Membrane> getMembranes(Membrane state) {
+		return state.getMatchingMembranes(membraneName, location);
+	}
+
+	@Override
+	public String toString() {
+		if (location == null) {
+			return '(' + speciesNameOrTag + ')';
+		}
+		return String.format("(%s %s %s)", speciesNameOrTag, location, membraneName);
+	}
+
+	/**
+	 * Add up the species by looking at every membrane. Simulations keep observables up to date as species change instead.
+	 * @param membrane The top level membrane of the membranes to count.
+	 */
+	@Override
+	public double evaluate(Membrane membrane) {
+		double total = 0;
+		for (String speciesName: speciesNames) {
+			if (location == null) {
+				total += membrane.getAllSpecies(speciesName);
+			}
+			else {
+				for (Membrane countedMembrane: getMembranes(membrane)) {
+					total += countedMembrane.numSpecies(speciesName, getCountedLocation());
+				}
+			}
+		}
+		return total;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == null) { return false; }
+		if (obj == this) { return true; }
+		if (obj.getClass() != getClass()) { return false; }
+		SpeciesSumExpression other = (SpeciesSumExpression) obj;
+		return speciesNameOrTag.equals(other.speciesNameOrTag) && speciesNames.equals(other.speciesNames)
+				&& location == other.location && (membraneName == null ? other.membraneName == null : membraneName.equals(other.membraneName));
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder()
+				.append(speciesNameOrTag)
+				.append(speciesNames)
+				.append(location)
+				.append(membraneName)
+				.toHashCode();
+	}
+}
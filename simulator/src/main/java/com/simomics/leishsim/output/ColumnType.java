@@ -0,0 +1,26 @@
+package com.simomics.leishsim.output;
+
+/**
+ * The types of column in a columnar output file.
+ */
+public enum ColumnType {
+	/** The simulation time of each row, in hours or seconds. Every file has exactly one time column. */
+	TIME(8),
+	
+	/** Whole numbers, e.g. numbers of species */
+	INT(4),
+	
+	/** Real numbers, e.g. reaction propensities */
+	DOUBLE(8);
+	
+	/** The number of bytes taken by each value in the file */
+	private final int bytes;
+	
+	private ColumnType(int bytes) {
+		this.bytes = bytes;
+	}
+	
+	public int getBytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,226 @@
+package com.simomics.leishsim.output;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a time series written by {@link ColumnarFileWriter}, one block at a time.
+ * Blocks outside a range of times can be skipped without reading their values.
+ */
+public class ColumnarFileReader implements AutoCloseable {
+
+	private final File file;
+	private final FileChannel channel;
+	private final List<String> columnNames;
+	private final List<ColumnType> columnTypes;
+	private final boolean timestampColumn;
+	private final int timeColumn;
+
+	/** The number of bytes in each row of a block */
+	private final long rowBytes;
+
+	/**
+	 * Open a file and read its header.
+	 * @throws IOException If the file could not be read, or is not a columnar file.
+	 */
+	public ColumnarFileReader(File file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer start = read(4 + 4 + 1 + 4);
+			if (start.getInt() != ColumnarFileWriter.MAGIC) {
+				throw new IOException("Not a columnar output file: " + file);
+			}
+			int version = start.getInt();
+			if (version != ColumnarFileWriter.VERSION) {
+				throw new IOException(String.format("Columnar output file %s has version %d, but expected version %d", file, version, ColumnarFileWriter.VERSION));
+			}
+			timestampColumn = start.get() != 0;
+			int numColumns = start.getInt();
+			List<String> names = new ArrayList<>();
+			List<ColumnType> types = new ArrayList<>();
+			long bytes = 0;
+			for (int i = 0; i < numColumns; i++) {
+				ByteBuffer columnHeader = read(1 + 2);
+				ColumnType type = ColumnType.values()[columnHeader.get()];
+				byte[] name = new byte[columnHeader.getShort() & 0xffff];
+				read(name.length).get(name);
+				types.add(type);
+				names.add(new String(name, StandardCharsets.UTF_8));
+				bytes += type.getBytes();
+			}
+			columnNames = Collections.unmodifiableList(names);
+			columnTypes = Collections.unmodifiableList(types);
+			timeColumn = types.indexOf(ColumnType.TIME);
+			rowBytes = bytes;
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The names of all the columns, including the time column, in the order they were written.
+	 */
+	public List<String> getColumnNames() {
+		return columnNames;
+	}
+
+	public List<ColumnType> getColumnTypes() {
+		return columnTypes;
+	}
+
+	/**
+	 * @return The index of the time column among all the columns.
+	 */
+	public int getTimeColumn() {
+		return timeColumn;
+	}
+
+	/**
+	 * @return True if the same log written as CSV would start each line with a timestamp.
+	 */
+	public boolean hasTimestampColumn() {
+		return timestampColumn;
+	}
+
+	/**
+	 * @return The next block of rows, or null at the end of the file.
+	 * @throws IOException If the file could not be read.
+	 */
+	public Block nextBlock() throws IOException {
+		return nextBlock(Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param fromTime The earliest time of interest.
+	 * @param toTime The latest time of interest.
+	 * @return The next block that has any rows between the given times, or null at the end of the file.
+	 *   Blocks that are skipped are not read.
+	 * @throws IOException If the file could not be read.
+	 */
+	public Block nextBlock(long fromTime, long toTime) throws IOException {
+		while (channel.position() < channel.size()) {
+			ByteBuffer blockHeader = read(ColumnarFileWriter.BLOCK_HEADER_BYTES);
+			int numRows = blockHeader.getInt();
+			long firstTime = blockHeader.getLong();
+			long lastTime = blockHeader.getLong();
+			long blockBytes = (long) numRows * rowBytes;
+			if (lastTime < fromTime || firstTime > toTime) {
+				channel.position(channel.position() + blockBytes);
+				continue;
+			}
+			if (numRows < 0 || blockBytes > Integer.MAX_VALUE) {
+				throw new IOException(String.format("Columnar output file %s has a block of %d rows, which is too big to read", file, numRows));
+			}
+			ByteBuffer values = read((int) blockBytes);
+			return new Block(numRows, firstTime, lastTime, values);
+		}
+		return null;
+	}
+
+	/**
+	 * Read exactly the given number of bytes from the current position.
+	 */
+	private ByteBuffer read(int bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Columnar output file ends part way through: " + file);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * The rows of one block, with each column as an array.
+	 */
+	public class Block {
+		private final int numRows;
+		private final long firstTime;
+		private final long lastTime;
+		private final ByteBuffer values;
+
+		/** The position of each column in the values */
+		private final int[] columnOffsets;
+
+		private Block(int numRows, long firstTime, long lastTime, ByteBuffer values) {
+			this.numRows = numRows;
+			this.firstTime = firstTime;
+			this.lastTime = lastTime;
+			this.values = values;
+			columnOffsets = new int[columnTypes.size()];
+			int offset = 0;
+			for (int column = 0; column < columnTypes.size(); column++) {
+				columnOffsets[column] = offset;
+				offset += columnTypes.get(column).getBytes() * numRows;
+			}
+		}
+
+		public int getNumRows() {
+			return numRows;
+		}
+
+		public long getFirstTime() {
+			return firstTime;
+		}
+
+		public long getLastTime() {
+			return lastTime;
+		}
+
+		/**
+		 * @return The time of each row.
+		 */
+		public long[] getTimes() {
+			long[] times = new long[numRows];
+			column(timeColumn, ColumnType.TIME).asLongBuffer().get(times);
+			return times;
+		}
+
+		/**
+		 * @param column The index of an int column among all the columns.
+		 * @return The value of the column in each row.
+		 */
+		public int[] getInts(int column) {
+			int[] ints = new int[numRows];
+			column(column, ColumnType.INT).asIntBuffer().get(ints);
+			return ints;
+		}
+
+		/**
+		 * @param column The index of a double column among all the columns.
+		 * @return The value of the column in each row.
+		 */
+		public double[] getDoubles(int column) {
+			double[] doubles = new double[numRows];
+			column(column, ColumnType.DOUBLE).asDoubleBuffer().get(doubles);
+			return doubles;
+		}
+
+		private ByteBuffer column(int column, ColumnType type) {
+			if (columnTypes.get(column) != type) {
+				throw new IllegalArgumentException(String.format("Column %s has type %s, not %s", columnNames.get(column), columnTypes.get(column), type));
+			}
+			ByteBuffer columnValues = values.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			columnValues.position(columnOffsets[column]);
+			return columnValues;
+		}
+	}
+}
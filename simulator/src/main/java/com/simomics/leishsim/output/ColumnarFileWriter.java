@@ -0,0 +1,265 @@
+package com.simomics.leishsim.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes a time series in a binary columnar file, which is much smaller and faster to read than CSV for wide logs.
+ * Rows are collected into blocks, and each block is written column by column.
+ * Blocks are kept to a few megabytes however many columns there are, so wide logs have fewer rows in each block.
+ *
+ * Layout (all numbers little-endian):
+ * <pre>
+ * header: magic (int), version (int), has timestamp column (byte), number of columns (int),
+ *         then for each column: type (byte, the ordinal of {@link ColumnType}), name (short length then UTF-8 bytes)
+ * blocks: number of rows (int), time of first row (long), time of last row (long),
+ *         then for each column in header order: one value per row (long for times, int or double for values)
+ * </pre>
+ * @see ColumnarFileReader
+ */
+public class ColumnarFileWriter implements AutoCloseable {
+
+	static final int MAGIC = 0x4353444d; // "MDSC" when read little-endian
+	static final int VERSION = 1;
+
+	/** The most rows to hold in memory before writing a block */
+	static final int BLOCK_ROWS = 1024;
+
+	/** The most bytes of rows to hold in memory before writing a block, unless a single row is bigger */
+	static final long BLOCK_BYTES = 4 * 1024 * 1024;
+
+	/** The bytes before the rows of each block: number of rows, first time and last time */
+	static final int BLOCK_HEADER_BYTES = 4 + 8 + 8;
+
+	private final FileChannel channel;
+	private final List<String> columnNames;
+	private final List<ColumnType> columnTypes;
+
+	/** The column of the header that holds the times */
+	private final int timeColumn;
+
+	/** The type of all the columns other than the time column */
+	private final ColumnType valueType;
+
+	/** The number of rows in each block */
+	private final int blockRows;
+
+	/** The rows of the current block, one array per value column */
+	private final long[] times;
+	private final int[][] intColumns;
+	private final double[][] doubleColumns;
+	private int numRows = 0;
+
+	/**
+	 * Create a new file, replacing any existing file, and write its header.
+	 * @param file
+	 * @param columnNames The names of all the columns, including the time column.
+	 * @param columnTypes The type of each column. Exactly one must be {@link ColumnType#TIME}, and the others must all have the same type.
+	 * @param timestampColumn True if the same log written as CSV starts each line with a timestamp, so that exported CSV files can have a matching column.
+	 * @throws IOException If the file could not be written.
+	 */
+	public static ColumnarFileWriter create(File file, List<String> columnNames, List<ColumnType> columnTypes, boolean timestampColumn) throws IOException {
+		ByteArrayBuilder header = new ByteArrayBuilder();
+		header.buffer.putInt(MAGIC);
+		header.buffer.putInt(VERSION);
+		header.buffer.put((byte) (timestampColumn ? 1 : 0));
+		header.buffer.putInt(columnNames.size());
+		for (int i = 0; i < columnNames.size(); i++) {
+			byte[] name = columnNames.get(i).getBytes(StandardCharsets.UTF_8);
+			header.ensureSpace(1 + 2 + name.length);
+			header.buffer.put((byte) columnTypes.get(i).ordinal());
+			header.buffer.putShort((short) name.length);
+			header.buffer.put(name);
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		ColumnarFileWriter writer = new ColumnarFileWriter(channel, columnNames, columnTypes);
+		header.buffer.flip();
+		writer.writeFully(header.buffer);
+		return writer;
+	}
+
+	/**
+	 * Open an existing file to add more rows to it, e.g. when resuming from a checkpoint.
+	 * @throws IOException If the file could not be read, or is not a columnar file.
+	 */
+	public static ColumnarFileWriter append(File file) throws IOException {
+		List<String> columnNames;
+		List<ColumnType> columnTypes;
+		try (ColumnarFileReader reader = new ColumnarFileReader(file)) {
+			columnNames = reader.getColumnNames();
+			columnTypes = reader.getColumnTypes();
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		return new ColumnarFileWriter(channel, columnNames, columnTypes);
+	}
+
+	private ColumnarFileWriter(FileChannel channel, List<String> columnNames, List<ColumnType> columnTypes) {
+		if (columnNames.size() != columnTypes.size()) {
+			throw new IllegalArgumentException(String.format("%d column names but %d column types", columnNames.size(), columnTypes.size()));
+		}
+		if (Collections.frequency(columnTypes, ColumnType.TIME) != 1) {
+			throw new IllegalArgumentException("Columnar files must have exactly one time column: " + columnTypes);
+		}
+		this.channel = channel;
+		this.columnNames = Collections.unmodifiableList(new ArrayList<>(columnNames));
+		this.columnTypes = Collections.unmodifiableList(new ArrayList<>(columnTypes));
+		this.timeColumn = columnTypes.indexOf(ColumnType.TIME);
+
+		ColumnType valueType = null;
+		for (ColumnType type: columnTypes) {
+			if (type != ColumnType.TIME) {
+				if (valueType != null && type != valueType) {
+					throw new IllegalArgumentException("Columnar files must have only one type of value column: " + columnTypes);
+				}
+				valueType = type;
+			}
+		}
+		this.valueType = valueType;
+		long rowBytes = 0;
+		for (ColumnType type: columnTypes) {
+			rowBytes += type.getBytes();
+		}
+		if (BLOCK_HEADER_BYTES + rowBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("Columnar files can't have rows of more than 2GB, but %d columns need %d bytes", columnTypes.size(), rowBytes));
+		}
+		blockRows = (int) Math.max(1, Math.min(BLOCK_ROWS, BLOCK_BYTES / rowBytes));
+		int numValueColumns = columnTypes.size() - 1;
+		times = new long[blockRows];
+		intColumns = new int[valueType == ColumnType.INT ? numValueColumns : 0][blockRows];
+		doubleColumns = new double[valueType == ColumnType.DOUBLE ? numValueColumns : 0][blockRows];
+	}
+
+	public List<String> getColumnNames() {
+		return columnNames;
+	}
+
+	public List<ColumnType> getColumnTypes() {
+		return columnTypes;
+	}
+
+	/**
+	 * Add a row to a file of int columns.
+	 * @param time The time of the row.
+	 * @param values The value of each column, in header order, not including the time column.
+	 * @throws IOException If a full block could not be written.
+	 */
+	public void writeRow(long time, int[] values) throws IOException {
+		checkRow(ColumnType.INT, values.length);
+		for (int column = 0; column < values.length; column++) {
+			intColumns[column][numRows] = values[column];
+		}
+		addTime(time);
+	}
+
+	/**
+	 * Add a row to a file of double columns.
+	 * @param time The time of the row.
+	 * @param values The value of each column, in header order, not including the time column.
+	 * @throws IOException If a full block could not be written.
+	 */
+	public void writeRow(long time, double[] values) throws IOException {
+		checkRow(ColumnType.DOUBLE, values.length);
+		for (int column = 0; column < values.length; column++) {
+			doubleColumns[column][numRows] = values[column];
+		}
+		addTime(time);
+	}
+
+	private void checkRow(ColumnType type, int numValues) {
+		if (numValues > 0 && type != valueType) {
+			throw new IllegalArgumentException(String.format("Can't write %s values to a file of %s columns", type, valueType));
+		}
+		if (numValues != columnTypes.size() - 1) {
+			throw new IllegalArgumentException(String.format("Row has %d values, but file has %d value columns", numValues, columnTypes.size() - 1));
+		}
+	}
+
+	private void addTime(long time) throws IOException {
+		times[numRows] = time;
+		numRows += 1;
+		if (numRows == blockRows) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write the rows added so far as a block, even if the block is not full.
+	 * @throws IOException If the block could not be written.
+	 */
+	public void flush() throws IOException {
+		if (numRows == 0) {
+			return;
+		}
+		long blockBytes = BLOCK_HEADER_BYTES;
+		for (ColumnType type: columnTypes) {
+			blockBytes += (long) type.getBytes() * numRows;
+		}
+		ByteBuffer block = ByteBuffer.allocate((int) blockBytes).order(ByteOrder.LITTLE_ENDIAN);
+		block.putInt(numRows);
+		block.putLong(times[0]);
+		block.putLong(times[numRows - 1]);
+		int valueColumn = 0;
+		for (int column = 0; column < columnTypes.size(); column++) {
+			if (column == timeColumn) {
+				block.asLongBuffer().put(times, 0, numRows);
+				block.position(block.position() + 8 * numRows);
+				continue;
+			}
+			if (valueType == ColumnType.INT) {
+				block.asIntBuffer().put(intColumns[valueColumn], 0, numRows);
+				block.position(block.position() + 4 * numRows);
+			}
+			else {
+				block.asDoubleBuffer().put(doubleColumns[valueColumn], 0, numRows);
+				block.position(block.position() + 8 * numRows);
+			}
+			valueColumn += 1;
+		}
+		block.flip();
+		writeFully(block);
+		numRows = 0;
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Write any remaining rows, and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * A little-endian buffer that grows as needed, for building the header.
+	 */
+	private static class ByteArrayBuilder {
+		private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+		private void ensureSpace(int bytes) {
+			if (buffer.remaining() < bytes) {
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes)).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.flip();
+				bigger.put(buffer);
+				buffer = bigger;
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.simomics.leishsim.output;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import com.simomics.leishsim.SparseFileLogger;
+
+/**
+ * Converts a columnar or sparse output file back into the CSV file that the simulator would have written, so that existing scripts can read it.
+ * Logs that have a timestamp column in CSV get an empty first column, as the times that the rows were written are not stored.
+ */
+public final class CsvExporter {
+
+	/**
+	 * Static class - not allowed to instantiate.
+	 */
+	private CsvExporter() {}
+
+	/**
+	 * @param binaryFile A file written by {@link ColumnarFileWriter}.
+	 * @param csvFile The CSV file to write, which is replaced if it exists.
+	 * @throws IOException If either file could not be read or written.
+	 */
+	public static void export(File binaryFile, File csvFile) throws IOException {
+		try (ColumnarFileReader reader = new ColumnarFileReader(binaryFile);
+				OutputStream output = new BufferedOutputStream(Files.newOutputStream(csvFile.toPath()))) {
+			int numColumns = reader.getColumnNames().size();
+			CsvRowWriter line = new CsvRowWriter();
+			if (reader.hasTimestampColumn()) {
+				line.append(',');
+			}
+			line.append(String.join(",", reader.getColumnNames()));
+			line.writeLineTo(output);
+			
+			for (ColumnarFileReader.Block block = reader.nextBlock(); block != null; block = reader.nextBlock()) {
+				long[] times = block.getTimes();
+				int[][] ints = new int[numColumns][];
+				double[][] doubles = new double[numColumns][];
+				for (int column = 0; column < numColumns; column++) {
+					if (reader.getColumnTypes().get(column) == ColumnType.INT) {
+						ints[column] = block.getInts(column);
+					}
+					else if (reader.getColumnTypes().get(column) == ColumnType.DOUBLE) {
+						doubles[column] = block.getDoubles(column);
+					}
+				}
+				for (int row = 0; row < block.getNumRows(); row++) {
+					line.clear();
+					if (reader.hasTimestampColumn()) {
+						line.append(',');
+					}
+					for (int column = 0; column < numColumns; column++) {
+						if (column > 0) {
+							line.append(',');
+						}
+						if (column == reader.getTimeColumn()) {
+							line.append(times[row]);
+						}
+						else if (ints[column] != null) {
+							line.append(ints[column][row]);
+						}
+						else {
+							line.append(doubles[column][row]);
+						}
+					}
+					line.writeLineTo(output);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param sparseFile A file written by {@link SparseFileLogger}, which can be compressed.
+	 * @param csvFile The CSV file to write, with every number of every row, which is replaced if it exists.
+	 * @throws IOException If either file could not be read or written.
+	 */
+	public static void exportSparse(File sparseFile, File csvFile) throws IOException {
+		try (SparseRowReader reader = new SparseRowReader(sparseFile);
+				OutputStream output = new BufferedOutputStream(Files.newOutputStream(csvFile.toPath()))) {
+			CsvRowWriter line = new CsvRowWriter();
+			line.append(String.join(",", reader.getColumnNames()));
+			line.writeLineTo(output);
+			
+			while (reader.next()) {
+				line.clear().append(reader.getTime());
+				for (int value: reader.getValues()) {
+					line.append(',').append(value);
+				}
+				line.writeLineTo(output);
+			}
+		}
+	}
+	
+	/**
+	 * @return True if the given file was written by {@link SparseFileLogger}, judging by its name.
+	 */
+	public static boolean isSparseFile(File file) {
+		return file.getName().contains("." + SparseFileLogger.FILE_EXTENSION);
+	}
+	
+	/**
+	 * @return The name of the CSV file to export the given columnar or sparse file to: the same name with a .csv extension.
+	 */
+	public static File getCsvFile(File binaryFile) {
+		String name = binaryFile.getName();
+		int extension = isSparseFile(binaryFile) ? name.indexOf("." + SparseFileLogger.FILE_EXTENSION) : name.lastIndexOf('.');
+		return new File(binaryFile.getParentFile(), (extension >= 0 ? name.substring(0, extension) : name) + ".csv");
+	}
+}
@@ -0,0 +1,182 @@
+package com.simomics.leishsim.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.simomics.leishsim.Logger;
+
+/**
+ * Formats one line of a CSV log at a time, straight into a byte buffer that is reused for every line,
+ *   so that writing wide logs doesn't create a string for each number and each line.
+ *
+ * Whole numbers are written digit by digit. Decimal numbers are written the same way as {@link Double#toString(double)}
+ *   (plain between 0.001 and 10 million, otherwise in scientific notation), with the fewest digits that read back as the same number.
+ * Plain numbers find those digits by trying more and more decimal places, which is exact because the check divides two whole numbers
+ *   that doubles can hold exactly. Other numbers are rare in these logs, and are formatted by the JDK.
+ */
+public class CsvRowWriter {
+
+	/** Powers of ten that doubles can hold exactly */
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17};
+
+	/** Whole numbers up to this size can be held exactly by a double */
+	private static final double MAX_EXACT_WHOLE_NUMBER = 1L << 53;
+
+	private byte[] buffer = new byte[256];
+	private int length;
+
+	/** Reused for the numbers that are formatted by the JDK */
+	private final StringBuilder scratch = new StringBuilder(32);
+
+	/**
+	 * Start a new line.
+	 * @return This writer.
+	 */
+	public CsvRowWriter clear() {
+		length = 0;
+		return this;
+	}
+
+	/**
+	 * @param c A character in the ASCII range, such as a comma.
+	 * @return This writer.
+	 */
+	public CsvRowWriter append(char c) {
+		ensureSpace(1);
+		buffer[length++] = (byte) c;
+		return this;
+	}
+
+	/**
+	 * @param text Any text, which is encoded as UTF-8.
+	 * @return This writer.
+	 */
+	public CsvRowWriter append(CharSequence text) {
+		int textLength = text.length();
+		ensureSpace(textLength);
+		for (int i = 0; i < textLength; i++) {
+			char c = text.charAt(i);
+			if (c >= 0x80) {
+				byte[] encoded = text.subSequence(i, textLength).toString().getBytes(StandardCharsets.UTF_8);
+				ensureSpace(encoded.length);
+				System.arraycopy(encoded, 0, buffer, length, encoded.length);
+				length += encoded.length;
+				return this;
+			}
+			buffer[length++] = (byte) c;
+		}
+		return this;
+	}
+
+	/**
+	 * @return This writer.
+	 */
+	public CsvRowWriter append(long value) {
+		if (value == Long.MIN_VALUE) {
+			return append(Long.toString(value));
+		}
+		ensureSpace(20);
+		if (value < 0) {
+			buffer[length++] = '-';
+			value = -value;
+		}
+		int end = length + numDigits(value);
+		for (int position = end - 1; position >= length; position--) {
+			buffer[position] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		length = end;
+		return this;
+	}
+
+	/**
+	 * @return This writer.
+	 */
+	public CsvRowWriter append(double value) {
+		double magnitude = Math.abs(value);
+		if (magnitude >= 1e-3 && magnitude < 1e7) {
+			for (int decimalPlaces = 0; decimalPlaces < POWERS_OF_TEN.length; decimalPlaces++) {
+				double scale = POWERS_OF_TEN[decimalPlaces];
+				double scaled = Math.rint(magnitude * scale);
+				if (scaled >= MAX_EXACT_WHOLE_NUMBER) {
+					break;
+				}
+				if (scaled / scale == magnitude) {
+					appendPlain(value < 0, (long) scaled, decimalPlaces);
+					return this;
+				}
+			}
+		}
+		else if (value == 0) {
+			return append(Double.doubleToRawLongBits(value) == 0 ? "0.0" : "-0.0");
+		}
+		scratch.setLength(0);
+		scratch.append(value);
+		return append(scratch);
+	}
+
+	/**
+	 * Append a decimal number, written as a whole number of units of the given number of decimal places.
+	 */
+	private void appendPlain(boolean negative, long units, int decimalPlaces) {
+		ensureSpace(22);
+		if (negative) {
+			buffer[length++] = '-';
+		}
+		long unitsPerOne = (long) POWERS_OF_TEN[decimalPlaces];
+		append(units / unitsPerOne);
+		buffer[length++] = '.';
+		if (decimalPlaces == 0) {
+			buffer[length++] = '0';
+			return;
+		}
+		long fraction = units % unitsPerOne;
+		int end = length + decimalPlaces;
+		for (int position = end - 1; position >= length; position--) {
+			buffer[position] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		length = end;
+	}
+
+	/**
+	 * @return The number of digits in a number that is not negative.
+	 */
+	private static int numDigits(long value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			digits++;
+		}
+		return digits;
+	}
+
+	private void ensureSpace(int extra) {
+		if (length + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+		}
+	}
+
+	/**
+	 * Write the line to a log.
+	 */
+	public void writeTo(Logger logger) {
+		logger.logBytes(buffer, 0, length);
+	}
+
+	/**
+	 * Write the line to a stream, followed by a newline.
+	 */
+	public void writeLineTo(OutputStream output) throws IOException {
+		append('\n');
+		output.write(buffer, 0, length);
+		length--;
+	}
+
+	@Override
+	public String toString() {
+		return new String(buffer, 0, length, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,51 @@
+package com.simomics.leishsim.output;
+
+import java.io.IOException;
+
+/**
+ * Renders the events of a trace as the text that the FULL log writes for them.
+ * The state of the membranes after each event is not stored in the trace, so is not included.
+ */
+public final class EventTraceFormatter {
+
+	/**
+	 * Static class - not allowed to instantiate.
+	 */
+	private EventTraceFormatter() {}
+
+	/**
+	 * Write the text of all the events in a window of simulation time.
+	 * @param reader A trace, positioned before the first event to consider.
+	 * @param fromSeconds The earliest simulation time to include.
+	 * @param toSeconds The latest simulation time to include. Reading stops at the first event after this.
+	 * @param output Where to write the text.
+	 * @return The number of events written.
+	 * @throws IOException If the trace could not be read, or the output could not be written.
+	 */
+	public static long format(EventTraceReader reader, double fromSeconds, double toSeconds, Appendable output) throws IOException {
+		long numEvents = 0;
+		while (reader.next()) {
+			double seconds = reader.getSeconds();
+			if (seconds > toSeconds) {
+				break;
+			}
+			if (seconds < fromSeconds) {
+				continue;
+			}
+			String membraneType = reader.getMembraneTypes().get(reader.getMembraneId());
+			switch (reader.getKind()) {
+			case REACTION_FIRED:
+				output.append(String.format("Fired reaction: %s in membrane: %s\n\n",
+						reader.getReactionDescriptions().get(reader.getReactionId()), membraneType));
+				break;
+			case PRODUCTS_ADDED:
+				output.append(String.format("Executed queue event: At time %f, Add products: (%s) to membrane: %s\n\n",
+						seconds, reader.getReactionProducts().get(reader.getReactionId()), membraneType));
+				break;
+			}
+			output.append("Current time: ").append(Double.toString(seconds)).append("\n");
+			numEvents += 1;
+		}
+		return numEvents;
+	}
+}
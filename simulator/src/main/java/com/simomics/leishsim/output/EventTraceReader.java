@@ -0,0 +1,219 @@
+package com.simomics.leishsim.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a trace written by {@link EventTraceWriter}, one event at a time.
+ * A trace whose last event is incomplete (e.g. because the simulation is still running) ends at the last complete event.
+ */
+public class EventTraceReader implements AutoCloseable {
+
+	private final File file;
+	private final FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+	private final List<String> reactionDescriptions;
+	private final List<String> reactionProducts;
+	private final List<String> membraneTypes;
+	private final List<String> membraneTags;
+
+	/** The event most recently read by {@link #next()} */
+	private TraceEventKind kind;
+	private double secondsElapsed;
+	private double seconds = 0;
+	private int reactionId;
+	private int membraneId;
+
+	/**
+	 * Open a file and read its header.
+	 * @throws IOException If the file could not be read, or is not a trace file.
+	 */
+	public EventTraceReader(File file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		buffer.flip();
+		try {
+			fill(4 + 4);
+			if (buffer.getInt() != EventTraceWriter.MAGIC) {
+				throw new IOException("Not an event trace file: " + file);
+			}
+			int version = buffer.getInt();
+			if (version != EventTraceWriter.VERSION) {
+				throw new IOException(String.format("Event trace file %s has version %d, but expected version %d", file, version, EventTraceWriter.VERSION));
+			}
+			fill(4);
+			int numReactions = buffer.getInt();
+			List<String> descriptions = new ArrayList<>();
+			List<String> products = new ArrayList<>();
+			for (int i = 0; i < numReactions; i++) {
+				descriptions.add(readString());
+				products.add(readString());
+			}
+			fill(4);
+			int numMembranes = buffer.getInt();
+			List<String> types = new ArrayList<>();
+			List<String> tags = new ArrayList<>();
+			for (int i = 0; i < numMembranes; i++) {
+				types.add(readString());
+				tags.add(readString());
+			}
+			reactionDescriptions = Collections.unmodifiableList(descriptions);
+			reactionProducts = Collections.unmodifiableList(products);
+			membraneTypes = Collections.unmodifiableList(types);
+			membraneTags = Collections.unmodifiableList(tags);
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The text of each reaction, in id order.
+	 */
+	public List<String> getReactionDescriptions() {
+		return reactionDescriptions;
+	}
+
+	/**
+	 * @return The products of each reaction as text, in id order.
+	 */
+	public List<String> getReactionProducts() {
+		return reactionProducts;
+	}
+
+	/**
+	 * @return The type of each membrane, in id order.
+	 */
+	public List<String> getMembraneTypes() {
+		return membraneTypes;
+	}
+
+	/**
+	 * @return The unique tag of each membrane, in id order.
+	 */
+	public List<String> getMembraneTags() {
+		return membraneTags;
+	}
+
+	/**
+	 * Read the next event, which is then available from the getters.
+	 * @return False at the end of the trace.
+	 * @throws IOException If the file could not be read.
+	 */
+	public boolean next() throws IOException {
+		if (!fillUpTo(EventTraceWriter.MAX_EVENT_BYTES)) {
+			return false;
+		}
+		int start = buffer.position();
+		try {
+			int first = readVarint();
+			int membrane = readVarint();
+			double elapsed = buffer.getDouble();
+			kind = TraceEventKind.values()[first & ((1 << EventTraceWriter.KIND_BITS) - 1)];
+			reactionId = first >>> EventTraceWriter.KIND_BITS;
+			membraneId = membrane;
+			secondsElapsed = elapsed;
+			seconds += elapsed;
+			return true;
+		}
+		catch (BufferUnderflowException e) {
+			// Incomplete last event
+			buffer.position(start);
+			return false;
+		}
+	}
+
+	public TraceEventKind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return The number of seconds that the simulation added to its clock for the current event.
+	 */
+	public double getSecondsElapsed() {
+		return secondsElapsed;
+	}
+
+	/**
+	 * @return The simulation time after the current event, in seconds, added up in the same way as the simulation's clock.
+	 */
+	public double getSeconds() {
+		return seconds;
+	}
+
+	public int getReactionId() {
+		return reactionId;
+	}
+
+	public int getMembraneId() {
+		return membraneId;
+	}
+
+	private int readVarint() {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	private String readString() throws IOException {
+		fill(4);
+		int length = buffer.getInt();
+		fill(length);
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Make sure that the buffer holds at least the given number of bytes.
+	 * @throws IOException If the file ends first.
+	 */
+	private void fill(int bytes) throws IOException {
+		if (!fillUpTo(bytes) || buffer.remaining() < bytes) {
+			throw new IOException("Event trace file ends part way through its header: " + file);
+		}
+	}
+
+	/**
+	 * Read from the file until the buffer holds the given number of bytes, or the file ends.
+	 * @return False if the buffer is empty at the end of the file.
+	 */
+	private boolean fillUpTo(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return true;
+		}
+		if (buffer.capacity() < bytes) {
+			ByteBuffer bigger = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+			bigger.put(buffer);
+			bigger.flip();
+			buffer = bigger;
+		}
+		buffer.compact();
+		while (buffer.position() < bytes && channel.read(buffer) > 0) {
+			// keep reading
+		}
+		buffer.flip();
+		return buffer.hasRemaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,175 @@
+package com.simomics.leishsim.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes a binary trace of every event in a simulation, at a few bytes per event,
+ *   so that a full trace of a long run is practical where the text of the FULL log is not.
+ * The header holds the text of every reaction and the name of every membrane, so that the trace can be decoded without the model.
+ *
+ * Layout (all numbers little-endian):
+ * <pre>
+ * header: magic (int), version (int),
+ *         number of reactions (int), then for each reaction: description (string), products (string),
+ *         number of membranes (int), then for each membrane: type (string), unique tag (string)
+ *         where each string is its length (int) then UTF-8 bytes
+ * events: reaction id shifted left by {@link #KIND_BITS} plus the ordinal of the {@link TraceEventKind} (unsigned varint),
+ *         membrane id (unsigned varint), seconds since the previous event (double)
+ * </pre>
+ * Reaction and membrane ids are their positions in the header.
+ * Storing the exact number of seconds that the simulation added to its clock at each event, rather than the time itself,
+ *   means that adding them up in order gives exactly the same times as the simulation, so that a replay prints at exactly the same points.
+ * @see EventTraceReader
+ */
+public class EventTraceWriter implements AutoCloseable {
+
+	static final int MAGIC = 0x5453444d; // "MDST" when read little-endian
+	static final int VERSION = 2;
+
+	/** The number of low bits of an event's first number that hold the kind of event */
+	static final int KIND_BITS = 2;
+
+	/** The most bytes that one event can take */
+	static final int MAX_EVENT_BYTES = 5 + 5 + 8;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Create a new trace file, replacing any existing file, and write its header.
+	 * @param file
+	 * @param reactionDescriptions The text of each reaction, in id order.
+	 * @param reactionProducts The products of each reaction as text, in id order, for describing delayed products.
+	 * @param membraneTypes The type of each membrane, in id order.
+	 * @param membraneTags The unique tag of each membrane, in id order.
+	 * @throws IOException If the file could not be written.
+	 */
+	public static EventTraceWriter create(File file, List<String> reactionDescriptions, List<String> reactionProducts,
+			List<String> membraneTypes, List<String> membraneTags) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		EventTraceWriter writer = new EventTraceWriter(channel);
+		writer.buffer.putInt(MAGIC);
+		writer.buffer.putInt(VERSION);
+		writer.buffer.putInt(reactionDescriptions.size());
+		for (int i = 0; i < reactionDescriptions.size(); i++) {
+			writer.putString(reactionDescriptions.get(i));
+			writer.putString(reactionProducts.get(i));
+		}
+		writer.ensureSpace(4);
+		writer.buffer.putInt(membraneTypes.size());
+		for (int i = 0; i < membraneTypes.size(); i++) {
+			writer.putString(membraneTypes.get(i));
+			writer.putString(membraneTags.get(i));
+		}
+		return writer;
+	}
+
+	/**
+	 * Open an existing trace file to add more events to it, e.g. when resuming from a checkpoint.
+	 * @param file
+	 * @param length The length of the file when the checkpoint was written. Any events after this are discarded.
+	 * @throws IOException If the file could not be read, or is not a trace file.
+	 */
+	public static EventTraceWriter append(File file, long length) throws IOException {
+		// Only reading the header, to check that this is a trace file
+		new EventTraceReader(file).close();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+		if (channel.size() < length) {
+			channel.close();
+			throw new IOException(String.format("Event trace file %s has %d bytes, but the checkpoint expects at least %d", file, channel.size(), length));
+		}
+		channel.truncate(length);
+		channel.position(length);
+		return new EventTraceWriter(channel);
+	}
+
+	private EventTraceWriter(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Add one event to the trace.
+	 * @param kind
+	 * @param secondsElapsed The number of seconds that the simulation added to its clock for this event.
+	 * @param reactionId The position of the reaction in the header.
+	 * @param membraneId The position of the membrane in which the event happened in the header.
+	 * @throws IOException If the buffer was full and could not be written.
+	 */
+	public void write(TraceEventKind kind, double secondsElapsed, int reactionId, int membraneId) throws IOException {
+		ensureSpace(MAX_EVENT_BYTES);
+		putVarint((reactionId << KIND_BITS) | kind.ordinal());
+		putVarint(membraneId);
+		buffer.putDouble(secondsElapsed);
+	}
+
+	/**
+	 * @return The length of the file once all the events so far have been written.
+	 *   Call {@link #flush()} first if the length is being stored for resuming from a checkpoint.
+	 */
+	public long getLength() throws IOException {
+		return channel.position() + buffer.position();
+	}
+
+	private void putVarint(int value) {
+		while ((value & ~0x7f) != 0) {
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private void putString(String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		ensureSpace(4);
+		buffer.putInt(bytes.length);
+		int written = 0;
+		while (written < bytes.length) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			int chunk = Math.min(buffer.remaining(), bytes.length - written);
+			buffer.put(bytes, written, chunk);
+			written += chunk;
+		}
+	}
+
+	private void ensureSpace(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write the buffered events to the file.
+	 * @throws IOException If the events could not be written.
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Write any buffered events, and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		}
+		finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.simomics.leishsim.output;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.simomics.leishsim.SparseFileLogger;
+
+/**
+ * Reads a log written by {@link SparseFileLogger}, reconstructing every number of each row from the numbers that changed.
+ * Files ending in .gz are decompressed as they are read.
+ */
+public class SparseRowReader implements AutoCloseable {
+
+	private final File file;
+	private final BufferedReader reader;
+
+	/** The headings, including the time column first */
+	private final List<String> columnNames;
+
+	/** The numbers of the current row, not including the time */
+	private final int[] values;
+	private long time;
+
+	/** True once a row with every number has been read, so that the numbers are all known */
+	private boolean complete = false;
+
+	/**
+	 * Open a file and read its headings.
+	 * @throws IOException If the file could not be read, or has no headings.
+	 */
+	public SparseRowReader(File file) throws IOException {
+		this.file = file;
+		InputStream input = new FileInputStream(file);
+		try {
+			if (file.getName().endsWith(".gz")) {
+				input = new GZIPInputStream(input);
+			}
+			reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+			String headingLine = reader.readLine();
+			if (headingLine == null) {
+				throw new IOException("Sparse output file has no headings: " + file);
+			}
+			columnNames = Collections.unmodifiableList(Arrays.asList(headingLine.split(",", -1)));
+		}
+		catch (IOException | RuntimeException e) {
+			input.close();
+			throw e;
+		}
+		values = new int[columnNames.size() - 1];
+	}
+
+	/**
+	 * @return The headings of the file, starting with the time column.
+	 */
+	public List<String> getColumnNames() {
+		return columnNames;
+	}
+
+	/**
+	 * Read the next row, which is then available from {@link #getTime()} and {@link #getValues()}.
+	 * @return False at the end of the file.
+	 * @throws IOException If the file could not be read, or a line is not a valid sparse row.
+	 */
+	public boolean next() throws IOException {
+		String line = reader.readLine();
+		if (line == null || line.isEmpty()) {
+			return false;
+		}
+		try {
+			int end = line.indexOf(',');
+			time = Long.parseLong(end < 0 ? line : line.substring(0, end));
+			int numChanged = 0;
+			while (end >= 0) {
+				int start = end + 1;
+				int separator = line.indexOf(':', start);
+				end = line.indexOf(',', start);
+				values[Integer.parseInt(line.substring(start, separator))] = Integer.parseInt(end < 0 ? line.substring(separator + 1) : line.substring(separator + 1, end));
+				numChanged++;
+			}
+			if (!complete) {
+				if (numChanged < values.length) {
+					throw new IOException(String.format("First row of sparse output file %s has %d of its %d numbers", file, numChanged, values.length));
+				}
+				complete = true;
+			}
+			return true;
+		}
+		catch (NumberFormatException | IndexOutOfBoundsException e) {
+			throw new IOException(String.format("Invalid row in sparse output file %s: %s", file, line), e);
+		}
+	}
+
+	/**
+	 * @return The time of the current row.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return Every number of the current row, in heading order, not including the time.
+	 *   The same array is updated by each call to {@link #next()}.
+	 */
+	public int[] getValues() {
+		return values;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,13 @@
+package com.simomics.leishsim.output;
+
+/**
+ * The kinds of event recorded in an event trace.
+ * @see EventTraceWriter
+ */
+public enum TraceEventKind {
+	/** A reaction fired: its reactants were removed, and its products added unless it has a delay */
+	REACTION_FIRED,
+
+	/** The products of a delayed reaction were added, from the simulation's event queue */
+	PRODUCTS_ADDED;
+}
@@ -0,0 +1,72 @@
+package com.simomics.leishsim.parsing;
+
+import java.io.File;
+
+import com.simomics.leishsim.model.MembraneModel;
+import com.simomics.leishsim.simulation.Membrane;
+import com.simomics.leishsim.simulation.RandomGeneratorType;
+import com.simomics.leishsim.simulation.ReactionRateTableSimulation;
+import com.simomics.leishsim.simulation.ReplaySimulation;
+import com.simomics.leishsim.simulation.Simulation;
+import com.simomics.leishsim.simulation.Simulation.InvalidSimulationException;
+
+/**
+ * A model file that has been parsed and checked, ready to create any number of simulations from.
+ * The model is shared between simulations, and each simulation gets its own copy of the initial conditions.
+ */
+public class CompiledModel {
+
+	/** The parsed model */
+	private final MembraneModel model;
+
+	/** The initial tree of membranes and species. Never run directly, only copied. */
+	private final Membrane initialConditions;
+
+	public CompiledModel(MembraneModel model, Membrane initialConditions) {
+		this.model = model;
+		this.initialConditions = initialConditions;
+	}
+
+	/**
+	 * @return The parsed model.
+	 */
+	public MembraneModel getModel() {
+		return model;
+	}
+
+	/**
+	 * @return The initial tree of membranes and species, which must not be changed. Null if the model has no initial tree.
+	 */
+	Membrane getInitialConditions() {
+		return initialConditions;
+	}
+
+	/**
+	 * @param randomSeed The seed for the simlator's random number generator. Can be null to not set the seed.
+	 * @return A new simulation of this model, starting from the initial conditions.
+	 * @throws InvalidSimulationException If the simulation could not be created (probably because initial reaction rates could not be calculated).
+	 */
+	public Simulation createSimulation(Integer randomSeed) throws InvalidSimulationException {
+		return createSimulation(randomSeed, RandomGeneratorType.MERSENNE_TWISTER, 0);
+	}
+
+	/**
+	 * @param randomSeed The seed for the simlator's random number generator. Can be null to not set the seed.
+	 * @param generatorType The random number generator to use.
+	 * @param replicate The number of this run among runs with the same seed, each of which gets its own random number stream.
+	 * @return A new simulation of this model, starting from the initial conditions.
+	 * @throws InvalidSimulationException If the simulation could not be created (probably because initial reaction rates could not be calculated).
+	 */
+	public Simulation createSimulation(Integer randomSeed, RandomGeneratorType generatorType, int replicate) throws InvalidSimulationException {
+		return new ReactionRateTableSimulation(model, initialConditions.copy(), randomSeed, generatorType, replicate);
+	}
+
+	/**
+	 * @param traceFile An event trace written by an earlier simulation of this model.
+	 * @return A simulation that replays the trace, starting from the initial conditions.
+	 * @throws InvalidSimulationException If the trace could not be read, or was written by a different model.
+	 */
+	public Simulation createReplay(File traceFile) throws InvalidSimulationException {
+		return new ReplaySimulation(model, initialConditions.copy(), traceFile);
+	}
+}
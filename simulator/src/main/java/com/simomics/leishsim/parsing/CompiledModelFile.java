@@ -0,0 +1,506 @@
+package com.simomics.leishsim.parsing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.LinkedHashMultiset;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Multiset.Entry;
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.model.LocatedSpecies;
+import com.simomics.leishsim.model.Location;
+import com.simomics.leishsim.model.MembraneModel;
+import com.simomics.leishsim.model.Reaction;
+import com.simomics.leishsim.model.Reaction.InvalidReactionException;
+import com.simomics.leishsim.model.StoichiometrySpecies;
+import com.simomics.leishsim.model.StopCondition;
+import com.simomics.leishsim.model.StopCondition.Comparison;
+import com.simomics.leishsim.model.equations.AddExpression;
+import com.simomics.leishsim.model.equations.DivideExpression;
+import com.simomics.leishsim.model.equations.Equation;
+import com.simomics.leishsim.model.equations.LocatedSpeciesExpression;
+import com.simomics.leishsim.model.equations.MultiplyExpression;
+import com.simomics.leishsim.model.equations.NaturalLogExpression;
+import com.simomics.leishsim.model.equations.NumberExpression;
+import com.simomics.leishsim.model.equations.OperationExpression;
+import com.simomics.leishsim.model.equations.ParameterExpression;
+import com.simomics.leishsim.model.equations.RoundExpression;
+import com.simomics.leishsim.model.equations.SpeciesSumExpression;
+import com.simomics.leishsim.model.equations.SubtractExpression;
+import com.simomics.leishsim.simulation.Membrane;
+
+/**
+ * Reads and writes compiled models as compact binary files, so that a model file that has not changed since it was last run
+ *   does not need to be parsed and checked again.
+ * The file holds everything in a {@link CompiledModel}: the reactions with their equations, species, parameters, tags, observables,
+ *   stop conditions, the initial tree, and the reactions that depend on each reaction, which is slow to work out for large models.
+ *
+ * Cache files are named after a hash of the preprocessed model file, this file format's version and a fingerprint of the simulator's code,
+ *   so that any change to any of them means that the model is parsed again.
+ */
+public class CompiledModelFile {
+
+	private static final int MAGIC = 0x4d44534c; // "MDSL"
+	static final int VERSION = 1;
+
+	/** The file extension of cache files */
+	public static final String EXTENSION = ".mdslc";
+
+	/** The type of each equation node */
+	private static final byte NULL_EQUATION = 0;
+	private static final byte NUMBER = 1;
+	private static final byte PARAMETER = 2;
+	private static final byte LOCATED_SPECIES = 3;
+	private static final byte SPECIES_SUM = 4;
+	private static final byte ADD = 5;
+	private static final byte SUBTRACT = 6;
+	private static final byte MULTIPLY = 7;
+	private static final byte DIVIDE = 8;
+	private static final byte ROUND = 9;
+	private static final byte NATURAL_LOG = 10;
+
+	/** Identifies the simulator's code, so that a new build of the simulator doesn't read files written by an older build. Worked out when first needed. */
+	private static String codeFingerprint;
+
+	/**
+	 * @param mdslContents The contents of a model file, with any includes already preprocessed.
+	 * @return The key of the model in a cache directory, which changes whenever the model, this file format or the simulator changes.
+	 */
+	public static String cacheKey(byte[] mdslContents) {
+		byte[] versions = String.format("%nformat %d%nsimulator %s", VERSION, getCodeFingerprint()).getBytes(StandardCharsets.UTF_8);
+		byte[] keyed = new byte[mdslContents.length + versions.length];
+		System.arraycopy(mdslContents, 0, keyed, 0, mdslContents.length);
+		System.arraycopy(versions, 0, keyed, mdslContents.length, versions.length);
+		return ModelCache.hash(keyed);
+	}
+
+	/**
+	 * The jar has no version in its manifest, so the simulator is identified by its code:
+	 *   the checksum of the jar, or the names, sizes and modification times of the class files when run from a directory of classes.
+	 * @return A fingerprint of the simulator's code, or "unknown" if the code could not be read.
+	 */
+	static synchronized String getCodeFingerprint() {
+		if (codeFingerprint == null) {
+			CRC32 checksum = new CRC32();
+			try {
+				Path codeLocation = Paths.get(CompiledModelFile.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+				if (Files.isDirectory(codeLocation)) {
+					List<Path> classFiles;
+					try (Stream<Path> paths = Files.walk(codeLocation)) {
+						classFiles = paths.filter(path -> path.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+					}
+					for (Path classFile: classFiles) {
+						String description = String.format("%s %d %d%n", codeLocation.relativize(classFile), Files.size(classFile), Files.getLastModifiedTime(classFile).toMillis());
+						checksum.update(description.getBytes(StandardCharsets.UTF_8));
+					}
+				}
+				else {
+					try (InputStream input = new CheckedInputStream(Files.newInputStream(codeLocation), checksum)) {
+						byte[] buffer = new byte[64 * 1024];
+						while (input.read(buffer) >= 0) {
+							// read the whole jar into the checksum
+						}
+					}
+				}
+				codeFingerprint = Long.toHexString(checksum.getValue());
+			} catch (IOException | URISyntaxException | RuntimeException e) {
+				Logging.getLogger(LogType.WARNING).log("Could not read the simulator's code, so compiled model cache files may be used by a different version of the simulator", e);
+				codeFingerprint = "unknown";
+			}
+		}
+		return codeFingerprint;
+	}
+
+	/**
+	 * @return The cache file for the model with the given key.
+	 */
+	public static File cacheFile(File cacheDirectory, String key) {
+		return new File(cacheDirectory, key + EXTENSION);
+	}
+
+	/**
+	 * Write a compiled model to a file.
+	 * The file is written to a temporary file first, so that other processes never read a partial cache file.
+	 * @param key The key of the model, which is checked when the file is read.
+	 */
+	public static void write(CompiledModel compiledModel, String key, File file) throws IOException {
+		File tempFile = File.createTempFile(key, ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeUTF(key);
+				writeModel(compiledModel.getModel(), output);
+				Membrane initialConditions = compiledModel.getInitialConditions();
+				output.writeBoolean(initialConditions != null);
+				if (initialConditions != null) {
+					writeMembrane(initialConditions, output);
+				}
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+	}
+
+	/**
+	 * Read a compiled model written by {@link #write(CompiledModel, String, File)}.
+	 * @param key The key that the model must have been written with.
+	 * @throws IOException If the file could not be read, or is not a cache file of this version for this key.
+	 */
+	public static CompiledModel read(File file, String key) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (input.readInt() != MAGIC) {
+				throw new IOException("Not a compiled model file: " + file);
+			}
+			int version = input.readInt();
+			if (version != VERSION) {
+				throw new IOException(String.format("Compiled model file %s has version %d, but expected version %d", file, version, VERSION));
+			}
+			if (!input.readUTF().equals(key)) {
+				throw new IOException("Compiled model file is for a different model: " + file);
+			}
+			MembraneModel model = readModel(input);
+			Membrane initialConditions = null;
+			if (input.readBoolean()) {
+				Membrane.resetUniqueTags(); // give the membranes the same unique tags as when they were parsed
+				initialConditions = readMembrane(null, input);
+			}
+			return new CompiledModel(model, initialConditions);
+		}
+	}
+
+	private static void writeModel(MembraneModel model, DataOutputStream output) throws IOException {
+		writeStrings(model.getMembraneNames(), output);
+		writeStrings(model.getSpeciesNames(), output);
+
+		List<String[]> speciesTags = new ArrayList<>();
+		for (String speciesName: model.getSpeciesNames()) {
+			for (String tag: model.getTagsForSpecies(speciesName)) {
+				speciesTags.add(new String[] {speciesName, tag});
+			}
+		}
+		output.writeInt(speciesTags.size());
+		for (String[] speciesTag: speciesTags) {
+			output.writeUTF(speciesTag[0]);
+			output.writeUTF(speciesTag[1]);
+		}
+
+		output.writeInt(model.getParameterNames().size());
+		for (String parameterName: model.getParameterNames()) {
+			output.writeUTF(parameterName);
+			output.writeDouble(model.getParameterValue(parameterName));
+		}
+
+		output.writeInt(model.getInitialSpecies().entrySet().size());
+		for (Entry<LocatedSpecies> entry: model.getInitialSpecies().entrySet()) {
+			writeLocatedSpecies(entry.getElement(), output);
+			output.writeInt(entry.getCount());
+		}
+
+		List<Reaction> reactions = model.getReactionList();
+		output.writeInt(reactions.size());
+		for (Reaction reaction: reactions) {
+			writeStoichiometrySpecies(reaction.getConsumedSpecies(), output);
+			writeStoichiometrySpecies(reaction.getProducedSpecies(), output);
+			writeEquation(reaction.getRateModifier(), output);
+			writeEquation(reaction.getSimplifiedRateModifier(), output);
+			output.writeDouble(reaction.getDelayHours());
+			output.writeBoolean(reaction.getMdslLine() != null);
+			if (reaction.getMdslLine() != null) {
+				output.writeUTF(reaction.getMdslLine());
+			}
+			output.writeInt(reaction.getMdslLineNumber() != null ? reaction.getMdslLineNumber() : -1);
+		}
+		for (Reaction reaction: reactions) {
+			Set<Reaction> dependentReactions = model.getDependentReactions(reaction);
+			output.writeInt(dependentReactions.size());
+			for (Reaction dependentReaction: dependentReactions) {
+				output.writeInt(model.getReactionId(dependentReaction));
+			}
+		}
+
+		output.writeInt(model.getObservables().size());
+		for (Map.Entry<String, Equation> observable: model.getObservables().entrySet()) {
+			output.writeUTF(observable.getKey());
+			writeEquation(observable.getValue(), output);
+		}
+
+		output.writeInt(model.getStopConditions().size());
+		for (StopCondition stopCondition: model.getStopConditions()) {
+			writeEquation(stopCondition.getLeft(), output);
+			output.writeUTF(stopCondition.getComparison().name());
+			writeEquation(stopCondition.getRight(), output);
+			output.writeUTF(stopCondition.toString());
+		}
+	}
+
+	private static MembraneModel readModel(DataInputStream input) throws IOException {
+		Set<String> membraneNames = readStrings(input);
+		Set<String> speciesNames = readStrings(input);
+
+		Multimap<String, String> speciesToTags = HashMultimap.create();
+		Multimap<String, String> tagsToSpecies = HashMultimap.create();
+		int numSpeciesTags = input.readInt();
+		for (int i = 0; i < numSpeciesTags; i++) {
+			String speciesName = input.readUTF();
+			String tag = input.readUTF();
+			speciesToTags.put(speciesName, tag);
+			tagsToSpecies.put(tag, speciesName);
+		}
+
+		Map<String, Double> parameterValues = new LinkedHashMap<>();
+		int numParameters = input.readInt();
+		for (int i = 0; i < numParameters; i++) {
+			parameterValues.put(input.readUTF(), input.readDouble());
+		}
+
+		Multiset<LocatedSpecies> initialSpecies = LinkedHashMultiset.create();
+		int numInitialSpecies = input.readInt();
+		for (int i = 0; i < numInitialSpecies; i++) {
+			initialSpecies.add(readLocatedSpecies(input), input.readInt());
+		}
+
+		List<Reaction> reactionList = new ArrayList<>();
+		int numReactions = input.readInt();
+		for (int i = 0; i < numReactions; i++) {
+			Set<StoichiometrySpecies> consumedSpecies = readStoichiometrySpecies(input);
+			Set<StoichiometrySpecies> producedSpecies = readStoichiometrySpecies(input);
+			Equation rateModifier = readEquation(input);
+			Equation simplifiedRateModifier = readEquation(input);
+			double delayHours = input.readDouble();
+			String mdslLine = input.readBoolean() ? input.readUTF() : null;
+			int mdslLineNumber = input.readInt();
+			try {
+				reactionList.add(new Reaction(consumedSpecies, producedSpecies, rateModifier, simplifiedRateModifier, delayHours,
+						mdslLine, mdslLineNumber >= 0 ? mdslLineNumber : null));
+			} catch (InvalidReactionException e) {
+				throw new IOException("Compiled model file has an invalid reaction", e);
+			}
+		}
+		Map<Reaction, Set<Reaction>> reactionDependencies = new HashMap<>();
+		for (Reaction reaction: reactionList) {
+			Set<Reaction> dependentReactions = new LinkedHashSet<>();
+			int numDependentReactions = input.readInt();
+			for (int i = 0; i < numDependentReactions; i++) {
+				dependentReactions.add(reactionList.get(input.readInt()));
+			}
+			reactionDependencies.put(reaction, dependentReactions);
+		}
+
+		Map<String, Equation> observables = new LinkedHashMap<>();
+		int numObservables = input.readInt();
+		for (int i = 0; i < numObservables; i++) {
+			observables.put(input.readUTF(), readEquation(input));
+		}
+
+		List<StopCondition> stopConditions = new ArrayList<>();
+		int numStopConditions = input.readInt();
+		for (int i = 0; i < numStopConditions; i++) {
+			Equation left = readEquation(input);
+			Comparison comparison = Comparison.valueOf(input.readUTF());
+			Equation right = readEquation(input);
+			stopConditions.add(new StopCondition(left, comparison, right, input.readUTF()));
+		}
+
+		return new MembraneModel(membraneNames, speciesNames, initialSpecies, parameterValues, new LinkedHashSet<>(reactionList),
+				speciesToTags, tagsToSpecies, observables, stopConditions, reactionDependencies);
+	}
+
+	/**
+	 * Write a membrane, then its children, in the same order that {@link MembraneBuilder#create()} creates them.
+	 */
+	private static void writeMembrane(Membrane membrane, DataOutputStream output) throws IOException {
+		output.writeUTF(membrane.getType());
+		writeStrings(membrane.getTags(), output);
+		membrane.writeSpeciesState(output);
+		output.writeInt(membrane.getContainedMembranes().size());
+		for (Membrane childMembrane: membrane.getContainedMembranes()) {
+			writeMembrane(childMembrane, output);
+		}
+	}
+
+	private static Membrane readMembrane(Membrane parent, DataInputStream input) throws IOException {
+		Membrane membrane = new Membrane(input.readUTF(), readStrings(input), parent);
+		membrane.readSpeciesState(input);
+		int numChildren = input.readInt();
+		for (int i = 0; i < numChildren; i++) {
+			membrane.addMembrane(readMembrane(membrane, input));
+		}
+		return membrane;
+	}
+
+	private static void writeEquation(Equation equation, DataOutputStream output) throws IOException {
+		if (equation == null) {
+			output.writeByte(NULL_EQUATION);
+		}
+		else if (equation instanceof NumberExpression) {
+			output.writeByte(NUMBER);
+			output.writeDouble(((NumberExpression) equation).evaluate(null));
+		}
+		else if (equation instanceof ParameterExpression) {
+			output.writeByte(PARAMETER);
+			output.writeUTF(((ParameterExpression) equation).getParameterName());
+		}
+		else if (equation instanceof LocatedSpeciesExpression) {
+			output.writeByte(LOCATED_SPECIES);
+			writeLocatedSpecies(((LocatedSpeciesExpression) equation).getLocatedSpecies(), output);
+			output.writeInt(((LocatedSpeciesExpression) equation).getStoichiometry());
+		}
+		else if (equation instanceof SpeciesSumExpression) {
+			SpeciesSumExpression speciesSum = (SpeciesSumExpression) equation;
+			output.writeByte(SPECIES_SUM);
+			output.writeUTF(speciesSum.getSpeciesNameOrTag());
+			writeStrings(speciesSum.getSpeciesNames(), output);
+			output.writeBoolean(speciesSum.getLocation() != null);
+			if (speciesSum.getLocation() != null) {
+				output.writeUTF(speciesSum.getLocation().name());
+				output.writeUTF(speciesSum.getMembraneName());
+			}
+		}
+		else if (equation instanceof AddExpression) {
+			writeOperation(ADD, (AddExpression) equation, output);
+		}
+		else if (equation instanceof SubtractExpression) {
+			writeOperation(SUBTRACT, (SubtractExpression) equation, output);
+		}
+		else if (equation instanceof MultiplyExpression) {
+			writeOperation(MULTIPLY, (MultiplyExpression) equation, output);
+		}
+		else if (equation instanceof DivideExpression) {
+			writeOperation(DIVIDE, (DivideExpression) equation, output);
+		}
+		else if (equation instanceof RoundExpression) {
+			output.writeByte(ROUND);
+			writeEquation(((RoundExpression) equation).getSubexpression(), output);
+		}
+		else if (equation instanceof NaturalLogExpression) {
+			output.writeByte(NATURAL_LOG);
+			writeEquation(((NaturalLogExpression) equation).getSubexpression(), output);
+		}
+		else {
+			throw new IOException("Unknown equation type: " + equation.getClass().getSimpleName());
+		}
+	}
+
+	private static void writeOperation(byte type, OperationExpression operation, DataOutputStream output) throws IOException {
+		output.writeByte(type);
+		writeEquation(operation.getLeft(), output);
+		writeEquation(operation.getRight(), output);
+	}
+
+	private static Equation readEquation(DataInputStream input) throws IOException {
+		byte type = input.readByte();
+		switch (type) {
+		case NULL_EQUATION:
+			return null;
+		case NUMBER:
+			return new NumberExpression(input.readDouble());
+		case PARAMETER:
+			return new ParameterExpression(input.readUTF());
+		case LOCATED_SPECIES:
+			LocatedSpecies locatedSpecies = readLocatedSpecies(input);
+			int stoichiometry = input.readInt();
+			if (stoichiometry == 1) {
+				return new LocatedSpeciesExpression(locatedSpecies);
+			}
+			return new LocatedSpeciesExpression(new StoichiometrySpecies(stoichiometry,
+					locatedSpecies.getSpeciesName(), locatedSpecies.getLocation(), locatedSpecies.getMembraneName()));
+		case SPECIES_SUM:
+			String speciesNameOrTag = input.readUTF();
+			Set<String> speciesNames = readStrings(input);
+			if (input.readBoolean()) {
+				Location location = Location.valueOf(input.readUTF());
+				return new SpeciesSumExpression(speciesNameOrTag, speciesNames, location, input.readUTF());
+			}
+			return new SpeciesSumExpression(speciesNameOrTag, speciesNames);
+		case ADD:
+			return new AddExpression(readEquation(input), readEquation(input));
+		case SUBTRACT:
+			return new SubtractExpression(readEquation(input), readEquation(input));
+		case MULTIPLY:
+			return new MultiplyExpression(readEquation(input), readEquation(input));
+		case DIVIDE:
+			return new DivideExpression(readEquation(input), readEquation(input));
+		case ROUND:
+			return new RoundExpression(readEquation(input));
+		case NATURAL_LOG:
+			return new NaturalLogExpression(readEquation(input));
+		default:
+			throw new IOException("Unknown equation type in compiled model file: " + type);
+		}
+	}
+
+	private static void writeLocatedSpecies(LocatedSpecies locatedSpecies, DataOutputStream output) throws IOException {
+		output.writeUTF(locatedSpecies.getSpeciesName());
+		output.writeUTF(locatedSpecies.getLocation().name());
+		output.writeUTF(locatedSpecies.getMembraneName());
+	}
+
+	private static LocatedSpecies readLocatedSpecies(DataInputStream input) throws IOException {
+		return new LocatedSpecies(input.readUTF(), Location.valueOf(input.readUTF()), input.readUTF());
+	}
+
+	private static void writeStoichiometrySpecies(Set<StoichiometrySpecies> species, DataOutputStream output) throws IOException {
+		output.writeInt(species.size());
+		for (StoichiometrySpecies stoichiometrySpecies: species) {
+			output.writeInt(stoichiometrySpecies.getStochiometry());
+			writeLocatedSpecies(stoichiometrySpecies, output);
+		}
+	}
+
+	private static Set<StoichiometrySpecies> readStoichiometrySpecies(DataInputStream input) throws IOException {
+		Set<StoichiometrySpecies> species = new LinkedHashSet<>();
+		int numSpecies = input.readInt();
+		for (int i = 0; i < numSpecies; i++) {
+			int stoichiometry = input.readInt();
+			LocatedSpecies locatedSpecies = readLocatedSpecies(input);
+			species.add(new StoichiometrySpecies(stoichiometry, locatedSpecies.getSpeciesName(), locatedSpecies.getLocation(), locatedSpecies.getMembraneName()));
+		}
+		return species;
+	}
+
+	private static void writeStrings(Collection<String> strings, DataOutputStream output) throws IOException {
+		output.writeInt(strings.size());
+		for (String string: strings) {
+			output.writeUTF(string);
+		}
+	}
+
+	private static Set<String> readStrings(DataInputStream input) throws IOException {
+		Set<String> strings = new LinkedHashSet<>();
+		int numStrings = input.readInt();
+		for (int i = 0; i < numStrings; i++) {
+			strings.add(input.readUTF());
+		}
+		return strings;
+	}
+}
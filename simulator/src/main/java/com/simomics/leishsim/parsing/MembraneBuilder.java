@@ -38,16 +38,26 @@ public class MembraneBuilder {
 		membranesContained = LinkedHashMultiset.create();
 	}
 	
-	public void setType(String type) {
+	/**
+	 * Create a membrane of the given type, for building a tree in code.
+	 */
+	public MembraneBuilder(String type) {
+		this();
+		setType(type);
+	}
+	
+	public MembraneBuilder setType(String type) {
 		this.type = type;
+		return this;
 	}
 	
 	private void setParent(Membrane parent) {
 		this.parent = parent;
 	}
 	
-	public void addTag(String tag) {
+	public MembraneBuilder addTag(String tag) {
 		this.tags.add(tag);
+		return this;
 	}
 	
 	public void addSpecies(LocatedSpecies locatedSpecies) {
@@ -70,8 +80,9 @@ public class MembraneBuilder {
 		}
 	}
 	
-	public void addMembrane(MembraneBuilder childMembrane, int howMany) {
+	public MembraneBuilder addMembrane(MembraneBuilder childMembrane, int howMany) {
 		membranesContained.add(childMembrane, howMany);
+		return this;
 	}
 	
 	public Membrane create() {
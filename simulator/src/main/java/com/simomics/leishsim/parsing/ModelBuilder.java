@@ -0,0 +1,234 @@
+package com.simomics.leishsim.parsing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.simomics.leishsim.model.LocatedSpecies;
+import com.simomics.leishsim.model.Location;
+import com.simomics.leishsim.model.Reaction.InvalidReactionException;
+import com.simomics.leishsim.model.StoichiometrySpecies;
+import com.simomics.leishsim.model.equations.Equation;
+import com.simomics.leishsim.model.equations.NumberExpression;
+import com.simomics.leishsim.parsing.SimulationFactory.InvalidModelException;
+
+/**
+ * Builds a model in code, for models that are generated rather than written, without writing MDSL and parsing it again.
+ * The model is made of the same objects as a parsed model file, and gets the same semantic checks, warnings and errors.
+ *
+ * e.g. the MDSL model
+ * <pre>
+ * initial tree {simulation {10 cell}}
+ * parameter k = 0.5 units
+ * species a contained cell = 100 units
+ * a contained cell modifier k => b contained cell
+ * </pre>
+ * can be built with
+ * <pre>
+ * CompiledModel model = new ModelBuilder()
+ *     .initialTree(new MembraneBuilder("simulation").addMembrane(new MembraneBuilder("cell"), 10))
+ *     .parameter("k", 0.5, "units")
+ *     .species("a", Location.contained, "cell", 100)
+ *     .reaction().consumes("a", Location.contained, "cell").produces("b", Location.contained, "cell").modifier(new ParameterExpression("k")).add()
+ *     .build();
+ * </pre>
+ * Parameters must be added before any parameter equations that use them, as in a model file.
+ * Each builder builds one model.
+ */
+public class ModelBuilder {
+
+	/** Holds the parts of the model, and checks them in the same way as for a parsed model file */
+	private final SimulationFactory factory = new SimulationFactory();
+
+	/** Errors found while adding parts of the model, which are reported when building it */
+	private final List<String> errors = new ArrayList<>();
+
+	private boolean built = false;
+
+	public ModelBuilder() {
+		factory.clearModel();
+	}
+
+	/**
+	 * Set the initial tree of membranes. Species are added to it when the model is built.
+	 * @param simulationMembrane The top level membrane of the tree.
+	 * @return This builder.
+	 */
+	public ModelBuilder initialTree(MembraneBuilder simulationMembrane) {
+		factory.setInitialConditions(simulationMembrane);
+		return this;
+	}
+
+	/**
+	 * List a species explicitly, as in the species section of a model file.
+	 * @param membraneName The type or tag of the membranes that start with this species.
+	 * @param howMany The initial number of the species in each matching membrane.
+	 * @param tags Any tags for the species name.
+	 * @return This builder.
+	 */
+	public ModelBuilder species(String speciesName, Location location, String membraneName, int howMany, String... tags) {
+		LocatedSpecies locatedSpecies = new LocatedSpecies(speciesName, location, membraneName);
+		if (!factory.addListedSpecies(locatedSpecies, howMany)) {
+			errors.add(String.format("Duplicate species definition: %s", locatedSpecies));
+		}
+		for (String tag: tags) {
+			factory.addSpeciesTag(speciesName, tag);
+		}
+		return this;
+	}
+
+	/**
+	 * List a parameter explicitly, as in the parameters section of a model file.
+	 * @param units Only used for logging.
+	 * @return This builder.
+	 */
+	public ModelBuilder parameter(String parameterName, double value, String units) {
+		return parameter(parameterName, new NumberExpression(value), units);
+	}
+
+	/**
+	 * List a parameter explicitly, as in the parameters section of a model file.
+	 * @param equation The equation for the parameter's value, which can use any parameters added before this one.
+	 * @param units Only used for logging.
+	 * @return This builder.
+	 */
+	public ModelBuilder parameter(String parameterName, Equation equation, String units) {
+		factory.addEquationNames(equation);
+		if (factory.addParameter(parameterName, equation, units) == null) {
+			errors.add(String.format("Could not evaluate equation for parameter %s: %s", parameterName, equation));
+		}
+		return this;
+	}
+
+	/**
+	 * Start a new reaction. It is not part of the model until {@link ReactionDefinition#add()} is called.
+	 * Each direction of a reversible reaction is added as a separate reaction.
+	 */
+	public ReactionDefinition reaction() {
+		return new ReactionDefinition();
+	}
+
+	/**
+	 * Check the model and create its initial conditions.
+	 * @return The checked model, from which any number of simulations can be created.
+	 * @throws InvalidModelException If any part of the model was invalid, or the model failed semantic checks.
+	 */
+	public CompiledModel build() throws InvalidModelException {
+		if (built) {
+			throw new IllegalStateException("Model has already been built");
+		}
+		built = true;
+		if (!errors.isEmpty()) {
+			throw new InvalidModelException("Failed to build model because of a semantic error: \n" + StringUtils.join(errors, "\n"), null);
+		}
+		return factory.constructModel();
+	}
+
+	/**
+	 * One reaction of the model being built, with the same parts as a reaction line in a model file.
+	 */
+	public class ReactionDefinition {
+
+		private final List<StoichiometrySpecies> consumedSpecies = new ArrayList<>();
+		private final List<StoichiometrySpecies> producedSpecies = new ArrayList<>();
+		private Equation rateModifier;
+		private double delayHours = 0;
+
+		private ReactionDefinition() {
+		}
+
+		/**
+		 * Add a species to the left hand side of the reaction.
+		 * @param stoichiometry 0 for a gene or catalyst, which is needed but not used up.
+		 * @return This reaction.
+		 */
+		public ReactionDefinition consumes(int stoichiometry, String speciesName, Location location, String membraneName) {
+			consumedSpecies.add(new StoichiometrySpecies(stoichiometry, speciesName, location, membraneName));
+			return this;
+		}
+
+		/**
+		 * Add one of a species to the left hand side of the reaction.
+		 * @return This reaction.
+		 */
+		public ReactionDefinition consumes(String speciesName, Location location, String membraneName) {
+			return consumes(1, speciesName, location, membraneName);
+		}
+
+		/**
+		 * Add a species to the right hand side of the reaction.
+		 * @return This reaction.
+		 */
+		public ReactionDefinition produces(int stoichiometry, String speciesName, Location location, String membraneName) {
+			producedSpecies.add(new StoichiometrySpecies(stoichiometry, speciesName, location, membraneName));
+			return this;
+		}
+
+		/**
+		 * Add one of a species to the right hand side of the reaction.
+		 * @return This reaction.
+		 */
+		public ReactionDefinition produces(String speciesName, Location location, String membraneName) {
+			return produces(1, speciesName, location, membraneName);
+		}
+
+		/**
+		 * @param rateModifier The equation that the numbers of the reactants are multiplied by to give the rate of the reaction.
+		 *   It can use parameters, and located species in the same way as within a location block of a model file.
+		 * @return This reaction.
+		 */
+		public ReactionDefinition modifier(Equation rateModifier) {
+			this.rateModifier = rateModifier;
+			return this;
+		}
+
+		/**
+		 * @return This reaction.
+		 */
+		public ReactionDefinition modifier(double rateModifier) {
+			return modifier(new NumberExpression(rateModifier));
+		}
+
+		/**
+		 * @param delayHours How long after the reaction fires its products are added.
+		 * @return This reaction.
+		 */
+		public ReactionDefinition delayHours(double delayHours) {
+			this.delayHours = delayHours;
+			return this;
+		}
+
+		/**
+		 * Add this reaction to the model.
+		 * @return The model builder.
+		 */
+		public ModelBuilder add() {
+			String line = String.format("%s modifier %s => %s", StringUtils.join(consumedSpecies, " binds "), rateModifier, 
+					producedSpecies.isEmpty() ? "decay" : StringUtils.join(producedSpecies, " and "));
+			if (rateModifier == null) {
+				errors.add(String.format("Reaction has no rate modifier: %s", line));
+				return ModelBuilder.this;
+			}
+			ReactionBuilder reactionBuilder = new ReactionBuilder();
+			for (StoichiometrySpecies species: consumedSpecies) {
+				factory.addReactionSpecies(species);
+				reactionBuilder.addConsumedSpecies(species);
+			}
+			for (StoichiometrySpecies species: producedSpecies) {
+				factory.addReactionSpecies(species);
+				reactionBuilder.addProducedSpecies(species);
+			}
+			factory.addEquationNames(rateModifier);
+			reactionBuilder.setRateModifier(rateModifier, factory.simplifyEquation(rateModifier));
+			reactionBuilder.setDelayHours(delayHours);
+			reactionBuilder.setMdslLine(line, null);
+			try {
+				factory.addReaction(reactionBuilder.create());
+			} catch (InvalidReactionException e) {
+				errors.add(e.getMessage());
+			}
+			return ModelBuilder.this;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.simomics.leishsim.parsing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.parsing.SimulationFactory.InvalidModelException;
+
+/**
+ * Parsed models, shared between the simulations in a batch so that each model file is only parsed once.
+ * Models are identified by the contents of their (preprocessed) file, so edited files are parsed again.
+ * Safe to use from several threads: if two threads ask for the same model at once, one parses it and the other waits.
+ * Models that fail to parse are not kept, so a failure that does not come from the file's contents, e.g. running out of memory, is not repeated.
+ * Warnings about the model are only written to the logs of the simulation that parsed it.
+ */
+public class ModelCache {
+
+	/** Parsed models (or models that are being parsed), keyed by the hash of their file contents */
+	private final ConcurrentMap<String, FutureTask<CompiledModel>> models = new ConcurrentHashMap<>();
+
+	/**
+	 * @param mdslFile A model file, with any includes already preprocessed.
+	 * @return The parsed model, from the cache if this file has been parsed before.
+	 * @throws InvalidModelException If the model could not be parsed.
+	 */
+	public CompiledModel getModel(File mdslFile) throws InvalidModelException {
+		return getModel(mdslFile, null);
+	}
+
+	/**
+	 * @param mdslFile A model file, with any includes already preprocessed.
+	 * @param cacheDirectory The directory of compiled model cache files to use if this file has not been parsed before, or null to parse it.
+	 * @return The parsed model, from the cache if this file has been parsed before.
+	 * @throws InvalidModelException If the model could not be parsed.
+	 */
+	public CompiledModel getModel(File mdslFile, File cacheDirectory) throws InvalidModelException {
+		String key;
+		try {
+			key = hash(Files.readAllBytes(mdslFile.toPath()));
+		} catch (IOException e) {
+			throw new InvalidModelException("Could not find file: " + mdslFile, e);
+		}
+
+		FutureTask<CompiledModel> newTask = new FutureTask<>(() -> new SimulationFactory().compileModel(mdslFile, cacheDirectory));
+		FutureTask<CompiledModel> task = models.putIfAbsent(key, newTask);
+		if (task == null) {
+			// Not seen this model before, so parse it in this thread
+			task = newTask;
+			task.run();
+		}
+		else {
+			Logging.getLogger(LogType.PROGRESS).log("Using already parsed model for: " + mdslFile.getAbsolutePath());
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InvalidModelException("Interrupted while waiting for model to be parsed: " + mdslFile, e);
+		} catch (ExecutionException e) {
+			// Forget the failure, so that the next simulation to ask for this model tries to parse it again
+			models.remove(key, task);
+			if (e.getCause() instanceof InvalidModelException) {
+				throw (InvalidModelException) e.getCause();
+			}
+			throw new InvalidModelException("Could not parse model file: " + mdslFile, e.getCause());
+		}
+	}
+
+	/**
+	 * @param contents
+	 * @return The SHA-256 hash of the given contents, as a hex string.
+	 */
+	public static String hash(byte[] contents) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b: digest.digest(contents)) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+}
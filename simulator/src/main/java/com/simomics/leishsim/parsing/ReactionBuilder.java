@@ -81,7 +81,7 @@ public class ReactionBuilder {
 		this.delayHours = delayHours;
 	}
 	
-	public void setMdslLine(String line, int lineNumber) {
+	public void setMdslLine(String line, Integer lineNumber) {
 		this.mdslLine = line;
 		this.mdslLineNumber = lineNumber;
 	}
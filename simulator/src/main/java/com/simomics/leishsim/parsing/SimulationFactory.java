@@ -1,12 +1,15 @@
 package com.simomics.leishsim.parsing;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -41,6 +44,8 @@ import com.simomics.leishsim.model.MembraneModel;
 import com.simomics.leishsim.model.Reaction;
 import com.simomics.leishsim.model.Reaction.InvalidReactionException;
 import com.simomics.leishsim.model.StoichiometrySpecies;
+import com.simomics.leishsim.model.StopCondition;
+import com.simomics.leishsim.model.StopCondition.Comparison;
 import com.simomics.leishsim.model.equations.AddExpression;
 import com.simomics.leishsim.model.equations.DivideExpression;
 import com.simomics.leishsim.model.equations.Equation;
@@ -52,10 +57,11 @@ import com.simomics.leishsim.model.equations.NumberExpression;
 import com.simomics.leishsim.model.equations.OperationExpression;
 import com.simomics.leishsim.model.equations.ParameterExpression;
 import com.simomics.leishsim.model.equations.RoundExpression;
+import com.simomics.leishsim.model.equations.SpeciesSumExpression;
 import com.simomics.leishsim.model.equations.SubtractExpression;
 import com.simomics.leishsim.model.equations.UnaryOperationExpression;
 import com.simomics.leishsim.simulation.Membrane;
-import com.simomics.leishsim.simulation.ReactionRateTableSimulation;
+import com.simomics.leishsim.simulation.RandomGeneratorType;
 import com.simomics.leishsim.simulation.Simulation;
 import com.simomics.leishsim.simulation.Simulation.InvalidSimulationException;
 
@@ -86,6 +92,12 @@ public class SimulationFactory {
 	/** Parameters used in reactions and equations */
 	private final Set<String> parameterNamesInferred = new LinkedHashSet<>();
 	
+	/** The equations of observables, with their parameters replaced by their values */
+	private final Map<String, Equation> observableEquations = new LinkedHashMap<>();
+	
+	/** The conditions that end the simulation early, with their parameters replaced by their values */
+	private final List<StopCondition> stopConditions = new ArrayList<>();
+	
 	/** All the parsed reactions in the file */
 	private final Set<Reaction> reactions = new LinkedHashSet<>();
 	
@@ -119,12 +131,7 @@ public class SimulationFactory {
 	 * @return The parsed model.
 	 */
 	public Simulation createSimulation(File file, Integer randomSeed) throws InvalidModelException {
-		Logging.getLogger(LogType.PROGRESS).log("Reading model file: " + file.getAbsolutePath());
-		try {
-			return createSimulation(new FileInputStream(file), randomSeed);
-		} catch (FileNotFoundException e) {
-			throw new InvalidModelException("Could not find file: " + file, e);
-		}
+		return createSimulation(compileModel(file), randomSeed);
 	}
 	
 	/**
@@ -134,18 +141,104 @@ public class SimulationFactory {
 	 * @return The parsed model.
 	 */
 	public Simulation createSimulation(InputStream input, Integer randomSeed) throws InvalidModelException {
+		return createSimulation(compileModel(input), randomSeed);
+	}
+	
+	/**
+	 * Creates a simulation from an already parsed model.
+	 * @param compiledModel
+	 * @param randomSeed The seed for the simlator's random number generator. Can be null to not set the seed.
+	 * @return A new simulation of the model.
+	 */
+	public static Simulation createSimulation(CompiledModel compiledModel, Integer randomSeed) throws InvalidModelException {
+		return createSimulation(compiledModel, randomSeed, RandomGeneratorType.MERSENNE_TWISTER, 0);
+	}
+	
+	/**
+	 * Creates a simulation from an already parsed model.
+	 * @param compiledModel
+	 * @param randomSeed The seed for the simlator's random number generator. Can be null to not set the seed.
+	 * @param generatorType The random number generator to use.
+	 * @param replicate The number of this run among runs with the same seed, each of which gets its own random number stream.
+	 * @return A new simulation of the model.
+	 */
+	public static Simulation createSimulation(CompiledModel compiledModel, Integer randomSeed, RandomGeneratorType generatorType, int replicate) throws InvalidModelException {
+		try {
+			return compiledModel.createSimulation(randomSeed, generatorType, replicate);
+		} catch (InvalidSimulationException e) {
+			throw new InvalidModelException("Could not create simulation", e);
+		}
+	}
+	
+	/**
+	 * Parses the given file and checks the model that it contains, without creating a simulation.
+	 * @param file
+	 * @return The parsed model, from which any number of simulations can be created.
+	 */
+	public CompiledModel compileModel(File file) throws InvalidModelException {
+		Logging.getLogger(LogType.PROGRESS).log("Reading model file: " + file.getAbsolutePath());
+		try (InputStream input = new FileInputStream(file)) {
+			return compileModel(input);
+		} catch (FileNotFoundException e) {
+			throw new InvalidModelException("Could not find file: " + file, e);
+		} catch (IOException e) {
+			throw new InvalidModelException("Could not read file: " + file, e);
+		}
+	}
+	
+	/**
+	 * Parses the given file and checks the model that it contains, or reads the model from a cache file if this file has been compiled before.
+	 * Models read from the cache are not checked again, so their warnings are only written to the logs of the run that compiled them.
+	 * @param file A model file, with any includes already preprocessed.
+	 * @param cacheDirectory The directory of compiled model cache files, or null to always parse the model file.
+	 * @return The parsed model, from which any number of simulations can be created.
+	 */
+	public CompiledModel compileModel(File file, File cacheDirectory) throws InvalidModelException {
+		if (cacheDirectory == null) {
+			return compileModel(file);
+		}
+		byte[] contents;
+		try {
+			contents = Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			throw new InvalidModelException("Could not read file: " + file, e);
+		}
+		String key = CompiledModelFile.cacheKey(contents);
+		File cacheFile = CompiledModelFile.cacheFile(cacheDirectory, key);
+		if (cacheFile.exists()) {
+			try {
+				CompiledModel compiledModel = CompiledModelFile.read(cacheFile, key);
+				Logging.getLogger(LogType.PROGRESS).log(String.format("Read compiled model for %s from cache file: %s", file.getAbsolutePath(), cacheFile.getAbsolutePath()));
+				return compiledModel;
+			} catch (IOException e) {
+				Logging.getLogger(LogType.WARNING).log(String.format("Could not read compiled model cache file %s, so parsing the model file again: %s", cacheFile, e.getMessage()));
+			}
+		}
+		
+		Logging.getLogger(LogType.PROGRESS).log("Reading model file: " + file.getAbsolutePath());
+		CompiledModel compiledModel = compileModel(new ByteArrayInputStream(contents));
+		try {
+			Files.createDirectories(cacheDirectory.toPath());
+			CompiledModelFile.write(compiledModel, key, cacheFile);
+			Logging.getLogger(LogType.PROGRESS).log("Wrote compiled model cache file: " + cacheFile.getAbsolutePath());
+		} catch (IOException e) {
+			Logging.getLogger(LogType.WARNING).log(String.format("Could not write compiled model cache file %s: %s", cacheFile, e.getMessage()));
+		}
+		return compiledModel;
+	}
+	
+	/**
+	 * Reads from the given input stream and checks the model that it contains, without creating a simulation.
+	 * @param input
+	 * @return The parsed model, from which any number of simulations can be created.
+	 */
+	public CompiledModel compileModel(InputStream input) throws InvalidModelException {
 		// Create the parser
 		MembraneModelParser parser = createParser(input);
 	    // Run the parser
 		runParser(parser);
 		// Transform the parsed syntax tree into a Java object
-		Simulation simulation;
-		try {
-			simulation = constructSimulation(randomSeed);
-		} catch (InvalidSimulationException e) {
-			throw new InvalidModelException("Could not create simulation", e);
-		}
-	    return simulation;
+		return constructModel();
 	}
 
 	/**
@@ -187,6 +280,9 @@ public class SimulationFactory {
 			/** The current location context that we are in */
 			private Location contextLocation;
 			private String contextMembrane;
+			
+			/** True while parsing an observable or stop condition, in which species are added up over many membranes */
+			private boolean countingSpecies = false;
 
 			@Override
 			public void enterInitialTreeDefinition(MembraneModelParser.InitialTreeDefinitionContext ctx) {
@@ -253,8 +349,7 @@ public class SimulationFactory {
 						simulationMembrane.addTag(tagValue);
 					}
 				}
-				Membrane.resetUniqueTags(); // start unique tag numbering from the beginning
-				initialConditions = simulationMembrane.create();
+				setInitialConditions(simulationMembrane);
 			}
 			
 			@Override
@@ -311,18 +406,13 @@ public class SimulationFactory {
 				String speciesName = ctx.name.getText();
 				LocatedSpecies locatedSpecies = new LocatedSpecies(speciesName, location, membrane);
 				
-				// Capture species given in the file
-				speciesLocationsListed.add(locatedSpecies);
-				allSpeciesNames.add(speciesName);
-				
-				// Add initial conditions to membrane tree
+				// Capture species given in the file, and add initial conditions to membrane tree
 				Integer numSpecies = simplifyEquationToInteger(currentEquation.pop());
 				if (numSpecies == null) {
 					parserErrors.add(String.format("Line %d: Could not evaluate species initialisation equation: %s", ctx.start.getLine(), getOriginalText(ctx)));
 					return;
 				}
-				int numBefore = initialSpecies.add(locatedSpecies, numSpecies.intValue());
-				if (numBefore != 0) {
+				if (!addListedSpecies(locatedSpecies, numSpecies.intValue())) {
 					parserErrors.add(String.format("Line %d: Duplicate species definition: %s", ctx.start.getLine(), getOriginalText(ctx)));
 					return;
 				}
@@ -335,8 +425,7 @@ public class SimulationFactory {
 						if (tagValue.startsWith("'") && tagValue.endsWith("'")) {
 							tagValue = tagValue.substring(1, tagValue.length() - 1);
 						}
-						speciesToTags.put(speciesName, tagValue);
-						tagsToSpecies.put(tagValue, speciesName);
+						addSpeciesTag(speciesName, tagValue);
 					}
 				}
 			}
@@ -348,17 +437,73 @@ public class SimulationFactory {
 					Logging.getLogger(LogType.ERROR).log(String.format("Line %d: Failed to parse equation for parameter", ctx.start.getLine()));
 					return;
 				}
-				Equation parameterEquation = currentEquation.pop();
-				Double parameterValue = simplifyEquationToDouble(parameterEquation);
 				// To be a valid equation, it must simplify to a number
-				if (parameterValue == null) {
+				if (addParameter(ctx.name.getText(), currentEquation.pop(), ctx.parameterUnits.getText()) == null) {
 					Logging.getLogger(LogType.ERROR).log(String.format("Line %d: Failed to evaluate equation for parameter", ctx.start.getLine()));
 					return;
 				}
-				String parameterName = ctx.name.getText();
-				parameterValues.put(parameterName, parameterValue);
-				parameterEquations.put(parameterName, parameterEquation);
-				parameterUnits.put(parameterName, ctx.parameterUnits.getText());
+			}
+			
+			@Override
+			public void enterObservableDefinition(MembraneModelParser.ObservableDefinitionContext ctx) {
+				countingSpecies = true;
+			}
+			
+			@Override
+			public void exitObservableDefinition(MembraneModelParser.ObservableDefinitionContext ctx) {
+				countingSpecies = false;
+				if (currentEquation.size() != 1) {
+					Logging.getLogger(LogType.ERROR).log(String.format("Line %d: Failed to parse equation for observable", ctx.start.getLine()));
+					currentEquation.clear();
+					return;
+				}
+				Equation observableEquation = simplifyEquation(currentEquation.pop());
+				String observableName = ctx.name.getText();
+				if (observableEquation == null) {
+					parserErrors.add(String.format("Line %d: Could not simplify observable equation: %s", ctx.start.getLine(), getOriginalText(ctx)));
+				}
+				else if (allSpeciesNames.contains(observableName)) {
+					parserErrors.add(String.format("Line %d: Observable has the same name as a species: %s", ctx.start.getLine(), getOriginalText(ctx)));
+				}
+				else if (observableEquations.containsKey(observableName)) {
+					parserErrors.add(String.format("Line %d: Duplicate observable definition: %s", ctx.start.getLine(), getOriginalText(ctx)));
+				}
+				else {
+					observableEquations.put(observableName, observableEquation);
+				}
+			}
+			
+			@Override
+			public void enterStopCondition(MembraneModelParser.StopConditionContext ctx) {
+				countingSpecies = true;
+			}
+			
+			@Override
+			public void exitStopCondition(MembraneModelParser.StopConditionContext ctx) {
+				countingSpecies = false;
+				if (currentEquation.size() != 2) {
+					Logging.getLogger(LogType.ERROR).log(String.format("Line %d: Failed to parse equations for stop condition", ctx.start.getLine()));
+					currentEquation.clear();
+					return;
+				}
+				Equation right = simplifyEquation(currentEquation.pop());
+				Equation left = simplifyEquation(currentEquation.pop());
+				if (left == null || right == null) {
+					parserErrors.add(String.format("Line %d: Could not simplify stop condition equations: %s", ctx.start.getLine(), getOriginalText(ctx)));
+					return;
+				}
+				String conditionText = getOriginalText(ctx.left) + " " + ctx.comparison.getText() + " " + getOriginalText(ctx.right);
+				stopConditions.add(new StopCondition(left, Comparison.fromSymbol(ctx.comparison.getText()), right, conditionText));
+			}
+			
+			/**
+			 * @return The species with the given name, or with the given tag, or nothing if there are neither.
+			 */
+			private Collection<String> speciesForNameOrTag(String speciesNameOrTag) {
+				if (allSpeciesNames.contains(speciesNameOrTag)) {
+					return Collections.singleton(speciesNameOrTag);
+				}
+				return tagsToSpecies.get(speciesNameOrTag);
 			}
 			
 			@Override
@@ -397,11 +542,6 @@ public class SimulationFactory {
 				
 				String speciesName = ctx.locSpecies.species.getText();
 
-				// Infer names of species and membranes from reactions
-				speciesLocationsInferred.add(new LocatedSpecies(speciesName, speciesLocation, membraneName));
-				allSpeciesNames.add(speciesName);
-				membraneNamesInferred.add(membraneName);
-				
 				// Add locatedSpecies to the current reaction
 				int stoichiometryInt = 1;
 				if (ctx.stoich != null) {
@@ -414,6 +554,7 @@ public class SimulationFactory {
 					}
 				}
 				StoichiometrySpecies stoichiometrySpecies = new StoichiometrySpecies(stoichiometryInt, speciesName, speciesLocation, membraneName);
+				addReactionSpecies(stoichiometrySpecies);
 				currentReaction.addSpecies(stoichiometrySpecies);
 			}
 
@@ -462,7 +603,7 @@ public class SimulationFactory {
 				Reaction forwardReaction;
 				try {
 					forwardReaction = currentReaction.create();
-					reactions.add(forwardReaction);
+					addReaction(forwardReaction);
 				} catch (InvalidReactionException e) {
 					parserErrors.add(String.format("Line %d: %s", reactionLineNumber, e.getMessage()));
 					return;
@@ -479,7 +620,7 @@ public class SimulationFactory {
 						try {
 							Reaction reverseReaction = new Reaction(forwardReaction.getProducedSpecies(), forwardReaction.getConsumedSpecies(), 
 									reverseRateModifier, simplifyEquation(reverseRateModifier), reverseDelayHours, mdslLine, reactionLineNumber);
-							reactions.add(reverseReaction);
+							addReaction(reverseReaction);
 						} catch (InvalidReactionException e) {
 							parserErrors.add(String.format("Line %d: %s", reactionLineNumber, e.getMessage()));
 							return;
@@ -500,7 +641,11 @@ public class SimulationFactory {
 			public void exitParameterOrSpeciesExpression(MembraneModelParser.ParameterOrSpeciesExpressionContext ctx) {
 				String itemName = ctx.parameterOrSpecies.getText();
 				
-				if (allSpeciesNames.contains(itemName)) {
+				if (countingSpecies && !speciesForNameOrTag(itemName).isEmpty()) {
+					// Observables and stop conditions add up species and tagged species over every membrane
+					currentEquation.push(new SpeciesSumExpression(itemName, speciesForNameOrTag(itemName)));
+				}
+				else if (allSpeciesNames.contains(itemName)) {
 					// This is the name of a species - so to be valid we must be within a location block
 					if (this.contextLocation != null && this.contextMembrane != null) {
 						// Inside a location block
@@ -567,6 +712,17 @@ public class SimulationFactory {
 			@Override
 			public void exitLocatedSpeciesExpression(MembraneModelParser.LocatedSpeciesExpressionContext ctx) {
 				// Don't need to check for being in a location block, because in these cases ParameterOrSpeciesExpression matches first
+				if (countingSpecies) {
+					String speciesNameOrTag = ctx.locSpecies.species.getText();
+					if (speciesForNameOrTag(speciesNameOrTag).isEmpty()) {
+						parserErrors.add(String.format("Line %d: Observable or stop condition uses a species or tag that has not been defined: %s", ctx.getStart().getLine(), speciesNameOrTag));
+						currentEquation.push(new NumberExpression(0));
+						return;
+					}
+					currentEquation.push(new SpeciesSumExpression(speciesNameOrTag, speciesForNameOrTag(speciesNameOrTag), 
+							Location.valueOf(ctx.locSpecies.location.getText()), ctx.locSpecies.membrane.getText()));
+					return;
+				}
 				LocatedSpecies locatedSpecies = new LocatedSpecies(ctx.locSpecies.species.getText(), Location.valueOf(ctx.locSpecies.location.getText()), ctx.locSpecies.membrane.getText());
 				currentEquation.push(new LocatedSpeciesExpression(locatedSpecies));
 			}
@@ -600,12 +756,12 @@ public class SimulationFactory {
 	 *   and applying all operations where possible.
 	 * @return A simplified version of the given equation.
 	 */
-	private Equation simplifyEquation(Equation equation) {
+	Equation simplifyEquation(Equation equation) {
 		if (equation instanceof NumberExpression) {
 			// Can't simplify a number - it's already simple
 			return equation;
 		}
-		else if (equation instanceof LocatedSpeciesExpression) {
+		else if (equation instanceof LocatedSpeciesExpression || equation instanceof SpeciesSumExpression) {
 			// Can't simplify a located species - it changes each time
 			return equation;
 		}
@@ -729,15 +885,7 @@ public class SimulationFactory {
 	 * @throws InvalidModelException If we could not parse the model file
 	 */
 	private void runParser(MembraneModelParser parser) throws InvalidModelException {
-		speciesLocationsListed.clear();
-		allSpeciesNames.clear();
-	    speciesLocationsInferred.clear();
-	    membraneNamesInferred.clear();
-	    parameterValues.clear();
-	    parameterNamesInferred.clear();
-	    reactions.clear();
-	    initialConditions = null;
-	    initialSpecies.clear();
+		clearModel();
 	    
 	    try {
 	    	parserErrors = new ArrayList<>();
@@ -751,6 +899,102 @@ public class SimulationFactory {
 	    }
 	}
 	
+	/**
+	 * Forget everything from the last model, ready to parse or build a new one.
+	 */
+	void clearModel() {
+		speciesLocationsListed.clear();
+		allSpeciesNames.clear();
+	    speciesLocationsInferred.clear();
+	    membraneNamesInferred.clear();
+	    parameterEquations.clear();
+	    parameterValues.clear();
+	    parameterUnits.clear();
+	    parameterNamesInferred.clear();
+	    reactions.clear();
+	    observableEquations.clear();
+	    stopConditions.clear();
+	    initialConditions = null;
+	    initialSpecies.clear();
+	    speciesToTags.clear();
+	    tagsToSpecies.clear();
+	}
+	
+	/**
+	 * Record a species that is listed explicitly, with its initial number in each matching membrane.
+	 * @return False if this species has already been listed in this location, or true if not.
+	 */
+	boolean addListedSpecies(LocatedSpecies locatedSpecies, int howMany) {
+		speciesLocationsListed.add(locatedSpecies);
+		allSpeciesNames.add(locatedSpecies.getSpeciesName());
+		return initialSpecies.add(locatedSpecies, howMany) == 0;
+	}
+	
+	/**
+	 * Record a tag applied to a species name.
+	 */
+	void addSpeciesTag(String speciesName, String tag) {
+		speciesToTags.put(speciesName, tag);
+		tagsToSpecies.put(tag, speciesName);
+	}
+	
+	/**
+	 * Record a parameter that is listed explicitly.
+	 * @param equation The equation for the parameter's value, which can use any parameters recorded before this one.
+	 * @return The value of the parameter, or null if the equation could not be simplified to a number (in which case nothing is recorded).
+	 */
+	Double addParameter(String parameterName, Equation equation, String units) {
+		Double parameterValue = simplifyEquationToDouble(equation);
+		if (parameterValue == null) {
+			return null;
+		}
+		parameterValues.put(parameterName, parameterValue);
+		parameterEquations.put(parameterName, equation);
+		parameterUnits.put(parameterName, units);
+		return parameterValue;
+	}
+	
+	/**
+	 * Infer the names of a species and a membrane from a species on either side of a reaction.
+	 */
+	void addReactionSpecies(LocatedSpecies locatedSpecies) {
+		speciesLocationsInferred.add(new LocatedSpecies(locatedSpecies.getSpeciesName(), locatedSpecies.getLocation(), locatedSpecies.getMembraneName()));
+		allSpeciesNames.add(locatedSpecies.getSpeciesName());
+		membraneNamesInferred.add(locatedSpecies.getMembraneName());
+	}
+	
+	/**
+	 * Infer the names of the parameters and located species used in an equation that was not parsed from a model file.
+	 * The parser infers these names as it reads each part of an equation instead.
+	 */
+	void addEquationNames(Equation equation) {
+		if (equation instanceof ParameterExpression) {
+			parameterNamesInferred.add(((ParameterExpression) equation).getParameterName());
+		}
+		else if (equation instanceof LocatedSpeciesExpression) {
+			speciesLocationsInferred.add(((LocatedSpeciesExpression) equation).getLocatedSpecies());
+		}
+		else if (equation instanceof UnaryOperationExpression) {
+			addEquationNames(((UnaryOperationExpression) equation).getSubexpression());
+		}
+		else if (equation instanceof OperationExpression) {
+			addEquationNames(((OperationExpression) equation).getLeft());
+			addEquationNames(((OperationExpression) equation).getRight());
+		}
+	}
+	
+	void addReaction(Reaction reaction) {
+		reactions.add(reaction);
+	}
+	
+	/**
+	 * Create the initial tree of membranes, without any species yet.
+	 */
+	void setInitialConditions(MembraneBuilder simulationMembrane) {
+		Membrane.resetUniqueTags(); // start unique tag numbering from the beginning
+		initialConditions = simulationMembrane.create();
+	}
+	
 	/**
 	 * Assumes: The model file has been parsed.
 	 * Performs semantic checks on the data parsed from the model file. 
@@ -844,6 +1088,8 @@ public class SimulationFactory {
 	    	logSet(LogType.DEBUG, "Parameter names listed explicitly but not used", parametersNotUsed);
 	    	
 	    	logSet(LogType.DEBUG, "Membrane names inferred from reactions", membraneNamesInferred);
+	    	logSet(LogType.DEBUG, "Observables", observableEquations.entrySet());
+	    	logSet(LogType.DEBUG, "Stop conditions", new LinkedHashSet<>(stopConditions));
 	    	
 	    	Logging.getLogger(LogType.DEBUG).log("Initial conditions:");
 	    	if (initialConditions == null) {
@@ -928,13 +1174,11 @@ public class SimulationFactory {
 	}
 	
 	/**
-	 * Assumes: The model file has been parsed.
-	 * @param randomSeed
+	 * Assumes: The model file has been parsed, or the model has been built by a {@link ModelBuilder}.
 	 * @return The parsed model file as a Java object.
 	 * @throws InvalidModelException If the model failed semantic checks.
-	 * @throws InvalidSimulationException If the simulation could not be created (probably because initial reaction rates could not be calculated).
 	 */
-	private Simulation constructSimulation(Integer randomSeed) throws InvalidSimulationException, InvalidModelException {
+	CompiledModel constructModel() throws InvalidModelException {
     	Set<String> allSpeciesNames = Stream.concat(speciesLocationsListed.stream(), speciesLocationsInferred.stream())
     			.map(locatedSpecies -> locatedSpecies.getSpeciesName())
     			.collect(Collectors.toCollection(LinkedHashSet::new));
@@ -957,12 +1201,12 @@ public class SimulationFactory {
     		}
     	}
     	
-		MembraneModel model = new MembraneModel(membraneNamesInferred, allSpeciesNames, initialSpecies, parameterValues, reactions, speciesToTags, tagsToSpecies);
+		MembraneModel model = new MembraneModel(membraneNamesInferred, allSpeciesNames, initialSpecies, parameterValues, reactions, speciesToTags, tagsToSpecies, observableEquations, stopConditions);
 		
 		// Perform semantic checks on the parsed model
 	    performSemanticChecks();
 		
-		return new ReactionRateTableSimulation(model, initialConditions, randomSeed);
+		return new CompiledModel(model, initialConditions);
 	}
 	
 	/**
@@ -0,0 +1,149 @@
+package com.simomics.leishsim.simulation;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.simomics.leishsim.simulation.OutputRowWriter.Row;
+import com.simomics.leishsim.simulation.Simulation.InvalidSimulationException;
+
+/**
+ * Writes the rows of the printed species, species per membrane and propensities logs on a background thread,
+ *   so that at each print time the simulation thread only has to copy numbers into a row.
+ * Rows are passed to the writer through a fixed set of preallocated rows, which are reused once written.
+ * If the writer falls behind, the simulation waits for a row to be free.
+ * If writing a row fails, the remaining rows are freed without being written, and the failure is thrown on the simulation thread.
+ */
+class AsyncOutputWriter {
+
+	/** How many print times can be waiting to be written */
+	static final int NUM_ROWS = 64;
+
+	/** Formats and writes each row */
+	private final OutputRowWriter rowWriter;
+
+	/** Marks the end of the rows */
+	private final Row lastRow;
+
+	private final BlockingQueue<Row> freeRows = new ArrayBlockingQueue<>(NUM_ROWS);
+	private final BlockingQueue<Row> fullRows = new ArrayBlockingQueue<>(NUM_ROWS + 1);
+
+	/** The number of rows given to the writer, and the number it has written. Guarded by this. */
+	private long rowsSubmitted = 0;
+	private long rowsWritten = 0;
+
+	/** Why the writer failed to write a row, or null if it has not failed */
+	private volatile Throwable failure;
+
+	private final Thread thread;
+
+	/**
+	 * Create the rows and start the writer thread.
+	 * @param rowWriter Writes each row to the logs, on the writer thread.
+	 */
+	AsyncOutputWriter(OutputRowWriter rowWriter) {
+		this.rowWriter = rowWriter;
+		this.lastRow = rowWriter.newRow();
+		for (int i = 0; i < NUM_ROWS; i++) {
+			freeRows.add(rowWriter.newRow());
+		}
+		thread = new Thread(this::writeRows, "Output writer");
+		thread.setDaemon(true); // never keep the program running just to write output
+		thread.start();
+	}
+
+	/**
+	 * @return An unused row to fill in and pass to {@link #submit(Row)}, waiting for one if the writer has fallen behind.
+	 * @throws InvalidSimulationException If interrupted while waiting, or if the writer has failed.
+	 */
+	Row nextRow() throws InvalidSimulationException {
+		Row row;
+		try {
+			row = freeRows.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InvalidSimulationException("Interrupted while waiting for output to be written", e);
+		}
+		checkFailure();
+		return row;
+	}
+
+	/**
+	 * Give a filled in row to the writer.
+	 * @throws InvalidSimulationException If the writer has failed.
+	 */
+	void submit(Row row) throws InvalidSimulationException {
+		checkFailure();
+		synchronized (this) {
+			rowsSubmitted += 1;
+		}
+		// Never blocks, as there are more places in the queue than rows
+		fullRows.add(row);
+	}
+
+	/**
+	 * Wait until all the rows submitted so far have been written to their logs, e.g. before measuring the log files for a checkpoint.
+	 * @throws InvalidSimulationException If interrupted while waiting, or if the writer has failed.
+	 */
+	synchronized void drain() throws InvalidSimulationException {
+		try {
+			while (rowsWritten < rowsSubmitted) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InvalidSimulationException("Interrupted while waiting for output to be written", e);
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Write all the rows submitted so far, then stop the writer thread.
+	 * @throws InvalidSimulationException If interrupted while waiting, or if the writer has failed.
+	 */
+	void close() throws InvalidSimulationException {
+		fullRows.add(lastRow);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InvalidSimulationException("Interrupted while waiting for output to be written", e);
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @throws InvalidSimulationException If the writer has failed to write a row.
+	 */
+	private void checkFailure() throws InvalidSimulationException {
+		Throwable failure = this.failure;
+		if (failure != null) {
+			throw new InvalidSimulationException("Failed to write output", failure);
+		}
+	}
+
+	/**
+	 * Run by the writer thread: write each row, then free it for reuse.
+	 * Once a row has failed to be written, rows are still freed and counted, so that the simulation thread never waits for them forever.
+	 */
+	private void writeRows() {
+		try {
+			for (Row row = fullRows.take(); row != lastRow; row = fullRows.take()) {
+				if (failure == null) {
+					try {
+						rowWriter.write(row);
+					} catch (Throwable e) {
+						failure = e;
+					}
+				}
+				freeRows.add(row);
+				synchronized (this) {
+					rowsWritten += 1;
+					notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			// Only interrupted if the program is stopping, in which case the rest of the output is lost
+			Thread.currentThread().interrupt();
+		}
+	}
+}
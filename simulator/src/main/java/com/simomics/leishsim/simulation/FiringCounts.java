@@ -0,0 +1,82 @@
+package com.simomics.leishsim.simulation;
+
+import java.util.Arrays;
+
+import com.simomics.leishsim.Logger;
+import com.simomics.leishsim.output.CsvRowWriter;
+
+/**
+ * Counts how many times each reaction fires in each membrane between print times, for the firing counts log.
+ *
+ * The counts are kept in an array for each reaction, indexed by membrane id, which is only allocated the first time the reaction fires,
+ *   so counting a firing costs two array reads and one increment however many reactions and membranes there are.
+ * Most pairs never fire in a given interval, so the log is written in long format: one line for each pair that fired,
+ *   giving the time, the reaction as it is named in the reaction numbers and propensities logs, the unique tag of the membrane and the count.
+ */
+class FiringCounts {
+
+	private final int numMembranes;
+
+	/** The number of firings of each reaction in each membrane in the current interval, indexed by reaction id then membrane id, or null if the reaction has not fired */
+	private final long[][] counts;
+
+	/** The pairs that have fired in the current interval, each as reaction id * number of membranes + membrane id */
+	private long[] firedPairs = new long[64];
+	private int numFiredPairs = 0;
+
+	/**
+	 * @param numReactions The number of reactions in the model.
+	 * @param numMembranes The number of membranes in the simulation.
+	 */
+	FiringCounts(int numReactions, int numMembranes) {
+		this.numMembranes = numMembranes;
+		this.counts = new long[numReactions][];
+	}
+
+	/**
+	 * Count one firing of a reaction.
+	 * @param reactionId The id of the reaction that fired.
+	 * @param membraneId The id of the membrane it fired in, as numbered by {@link StateView}.
+	 */
+	void reactionFired(int reactionId, int membraneId) {
+		long[] reactionCounts = counts[reactionId];
+		if (reactionCounts == null) {
+			reactionCounts = new long[numMembranes];
+			counts[reactionId] = reactionCounts;
+		}
+		if (reactionCounts[membraneId]++ == 0) {
+			if (numFiredPairs == firedPairs.length) {
+				firedPairs = Arrays.copyOf(firedPairs, numFiredPairs * 2);
+			}
+			firedPairs[numFiredPairs++] = (long) reactionId * numMembranes + membraneId;
+		}
+	}
+
+	/**
+	 * @return The headings of the log.
+	 */
+	static String headings(boolean runHours) {
+		return (runHours ? "Hours" : "Seconds") + ",Reaction,Membrane,Firings";
+	}
+
+	/**
+	 * Write a line for each pair that fired in the interval ending at the given time, in order of reaction id then membrane id, then start the next interval.
+	 * @param time The time column of the lines.
+	 * @param state Gives the unique tag of each membrane.
+	 * @param line Reused for formatting each line.
+	 */
+	void writeRows(long time, StateView state, CsvRowWriter line, Logger logger) {
+		Arrays.sort(firedPairs, 0, numFiredPairs);
+		for (int i = 0; i < numFiredPairs; i++) {
+			int reactionId = (int) (firedPairs[i] / numMembranes);
+			int membraneId = (int) (firedPairs[i] % numMembranes);
+			line.clear().append(time).append(',')
+				.append("reaction").append(reactionId).append(',')
+				.append(state.getMembraneTag(membraneId)).append(',')
+				.append(counts[reactionId][membraneId]);
+			line.writeTo(logger);
+			counts[reactionId][membraneId] = 0;
+		}
+		numFiredPairs = 0;
+	}
+}
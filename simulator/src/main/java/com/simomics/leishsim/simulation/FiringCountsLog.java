@@ -0,0 +1,54 @@
+package com.simomics.leishsim.simulation;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.output.CsvRowWriter;
+
+/**
+ * Writes the firing counts log, with a line for each reaction that fired in each membrane since the previous print time.
+ * @see FiringCounts
+ */
+class FiringCountsLog implements SimulationObserver {
+
+	private final FiringCounts firingCounts;
+
+	private final boolean runHours;
+
+	/** Reused for formatting each line */
+	private final CsvRowWriter line = new CsvRowWriter();
+
+	/**
+	 * @param numReactions The number of reactions in the model.
+	 * @param numMembranes The number of membranes in the simulation.
+	 * @param runHours True to write the time in hours, otherwise in seconds.
+	 */
+	FiringCountsLog(int numReactions, int numMembranes, boolean runHours) {
+		this.firingCounts = new FiringCounts(numReactions, numMembranes);
+		this.runHours = runHours;
+	}
+
+	@Override
+	public void runStarted(StateView state, boolean resumed) {
+		if (resumed) {
+			// The log already contains the headings and earlier rows.
+			// Firings before the checkpoint in the current chunk were not saved, so the first row only counts the firings after resuming.
+			return;
+		}
+		Logging.getLogger(LogType.PRINTED_FIRING_COUNTS).log(FiringCounts.headings(runHours));
+	}
+
+	@Override
+	public boolean observesFirings() {
+		return true;
+	}
+
+	@Override
+	public void reactionFired(double seconds, int reactionId, int membraneId) {
+		firingCounts.reactionFired(reactionId, membraneId);
+	}
+
+	@Override
+	public void printed(StateView state) {
+		firingCounts.writeRows(runHours ? state.getNominalSeconds() / (60 * 60) : state.getNominalSeconds(), state, line, Logging.getLogger(LogType.PRINTED_FIRING_COUNTS));
+	}
+}
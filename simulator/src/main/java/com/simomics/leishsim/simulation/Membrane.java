@@ -1,8 +1,15 @@
 package com.simomics.leishsim.simulation;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
@@ -32,8 +39,8 @@ import com.simomics.leishsim.simulation.Simulation.InvalidSimulationException;
  */
 public class Membrane {
 
-	/** Map of which index we are up to for each membrane type */
-	private final static Map<String,Integer> membraneTypeIndices = new HashMap<>();
+	/** Map of which index we are up to for each membrane type. Per thread, so that models can be parsed in parallel. */
+	private final static ThreadLocal<Map<String,Integer>> membraneTypeIndices = ThreadLocal.withInitial(HashMap::new);
 	
 	/** The name of this membrane's type */
 	private final String type;
@@ -65,6 +72,39 @@ public class Membrane {
 	/** All of the membranes within this tree (including self and all descendants) */
 	private final Multimap<String,Membrane> allMembranes;
 	
+	/**
+	 * Receives the changes to the numbers of the species that it watches.
+	 * @see Membrane#watchSpecies(Location, String, SpeciesWatcher, int)
+	 */
+	public interface SpeciesWatcher {
+		/**
+		 * @param slot The slot given when the species was watched.
+		 * @param change The number of the species added, or minus the number removed.
+		 */
+		void speciesChanged(int slot, int change);
+	}
+	
+	/** A watcher of one species, with the slot that it gave */
+	private static class Watch {
+		final SpeciesWatcher watcher;
+		final int slot;
+		
+		Watch(SpeciesWatcher watcher, int slot) {
+			this.watcher = watcher;
+			this.slot = slot;
+		}
+	}
+	
+	/** 
+	 * For each location of this membrane, the watchers to tell when the number of each species changes.
+	 * Null if no species in this membrane are watched.
+	 * @see #watchSpecies(Location, String, SpeciesWatcher, int)
+	 */
+	private Map<Location, Map<String, Watch[]>> watches;
+	
+	/** @see #getId() */
+	private int id = -1;
+	
 	/**
 	 * @param type
 	 * @param parent can be null if this is the top-LogType simulation membrane
@@ -89,20 +129,62 @@ public class Membrane {
 		allMembranes.put(type, this);
 	}
 	
+	/**
+	 * Used by {@link #copy()} to keep the unique tag of the original membrane.
+	 */
+	private Membrane(Membrane original, Membrane parent) {
+		this.type = original.type;
+		this.parent = parent;
+		this.tags = new LinkedHashSet<>(original.tags);
+		this.uniqueTag = original.uniqueTag;
+		
+		speciesOn = LinkedHashMultiset.create();
+		speciesUnder = LinkedHashMultiset.create();
+		speciesContained = LinkedHashMultiset.create();
+		membranesContained = new LinkedHashSet<>();
+		allMembranes = LinkedHashMultimap.create();
+		allMembranes.put(type, this);
+	}
+	
+	/**
+	 * @return A copy of this membrane and all its descendants, with the same tags and numbers of species.
+	 * Used to start several simulations from the same parsed initial conditions.
+	 */
+	public Membrane copy() {
+		return copy(null);
+	}
+	
+	private Membrane copy(Membrane newParent) {
+		Membrane copy = new Membrane(this, newParent);
+		copySpeciesLocation(speciesOn, copy.speciesOn);
+		copySpeciesLocation(speciesUnder, copy.speciesUnder);
+		copySpeciesLocation(speciesContained, copy.speciesContained);
+		for (Membrane childMembrane: membranesContained) {
+			copy.addMembrane(childMembrane.copy(copy));
+		}
+		return copy;
+	}
+	
+	private static void copySpeciesLocation(Multiset<String> from, Multiset<String> to) {
+		for (Entry<String> entry: from.entrySet()) {
+			to.add(entry.getElement(), entry.getCount());
+		}
+	}
+	
 	/**
 	 * Forget all the unique tags that we have generated so far.
 	 * Newly instantiated Membranes will start indexing their tags from 1.
 	 */
 	public static void resetUniqueTags() {
-		membraneTypeIndices.clear();
+		membraneTypeIndices.get().clear();
 	}
 	
 	/**
 	 * @return A new tag for this membrane type, this is different to all other tags.
 	 */
 	private String computeUniqueTag() {
-		Integer membraneTypeIndex = membraneTypeIndices.getOrDefault(type, 0) + 1;
-		membraneTypeIndices.put(type, membraneTypeIndex);
+		Integer membraneTypeIndex = membraneTypeIndices.get().getOrDefault(type, 0) + 1;
+		membraneTypeIndices.get().put(type, membraneTypeIndex);
 		return String.format("%s_%d", type, membraneTypeIndex);
 	}
 	
@@ -126,6 +208,18 @@ public class Membrane {
 		return type;
 	}
 	
+	/**
+	 * @return The position of this membrane in {@link #getAllMembranes()} of the top level membrane, 
+	 *   or -1 if the simulation has not numbered its membranes, which it does the first time an observer needs them.
+	 */
+	int getId() {
+		return id;
+	}
+	
+	void setId(int id) {
+		this.id = id;
+	}
+	
 	/**
 	 * @return The tag that uniquely identifies this membrane in the simulation.
 	 */
@@ -133,6 +227,13 @@ public class Membrane {
 		return uniqueTag;
 	}
 	
+	/**
+	 * @return The tags that can be used to refer to this membrane, not including its unique tag.
+	 */
+	public Set<String> getTags() {
+		return Collections.unmodifiableSet(tags);
+	}
+	
 	/**
 	 * @param tag A tag name to check against this membrane.
 	 * @return True if this membrane matches the given tag, or false if not.
@@ -284,11 +385,113 @@ public class Membrane {
 			Logging.getLogger(LogType.ERROR).log(String.format("Unknown location : %s", location));
 			return;
 		}
+		int change = howMany;
 		if (howMany > 0) {
 			set.add(speciesName, howMany);
 		}
 		else {
-			set.remove(speciesName, -howMany);
+			// Can't remove more than there are
+			change = -Math.min(set.remove(speciesName, -howMany), -howMany);
+		}
+		if (watches != null) {
+			notifyWatchers(location, speciesName, change);
+		}
+	}
+	
+	/**
+	 * Tell a watcher whenever the number of a species at a location relative to this membrane changes,
+	 *   e.g. so that output can be kept up to date without looking at every membrane at each print time.
+	 * Copies of this membrane do not have any watchers.
+	 * @param location
+	 * @param speciesName
+	 * @param watcher
+	 * @param slot Passed to the watcher with each change, so that one watcher can watch many species.
+	 */
+	public void watchSpecies(Location location, String speciesName, SpeciesWatcher watcher, int slot) {
+		if (location == Location.around) {
+			// The same numbers as numSpecies() reads
+			if (parent != null) {
+				parent.watchSpecies(Location.contained, speciesName, watcher, slot);
+			}
+			return;
+		}
+		if (watches == null) {
+			watches = new EnumMap<>(Location.class);
+		}
+		Watch watch = new Watch(watcher, slot);
+		watches.computeIfAbsent(location, key -> new HashMap<>()).merge(speciesName, new Watch[]{watch}, (existing, added) -> {
+			Watch[] all = Arrays.copyOf(existing, existing.length + 1);
+			all[existing.length] = watch;
+			return all;
+		});
+	}
+	
+	/**
+	 * Stop telling a watcher about changes to the species of this membrane and all the membranes within it,
+	 *   e.g. when the output that it kept up to date is finished.
+	 * Species around a membrane are watched in its parent, so call this on a membrane that contains all the watched membranes.
+	 * @param watcher A watcher given to {@link #watchSpecies(Location, String, SpeciesWatcher, int)}.
+	 */
+	public void unwatchSpecies(SpeciesWatcher watcher) {
+		for (Membrane membrane: allMembranes.values()) {
+			if (membrane.watches != null) {
+				membrane.removeWatches(watcher);
+			}
+		}
+	}
+	
+	/**
+	 * Remove all the watches of this membrane by the given watcher.
+	 */
+	private void removeWatches(SpeciesWatcher watcher) {
+		for (Iterator<Map<String, Watch[]>> locations = watches.values().iterator(); locations.hasNext(); ) {
+			Map<String, Watch[]> watchesAtLocation = locations.next();
+			for (Iterator<Map.Entry<String, Watch[]>> species = watchesAtLocation.entrySet().iterator(); species.hasNext(); ) {
+				Map.Entry<String, Watch[]> watchesOfSpecies = species.next();
+				Watch[] remaining = Arrays.stream(watchesOfSpecies.getValue()).filter(watch -> watch.watcher != watcher).toArray(Watch[]::new);
+				if (remaining.length == 0) {
+					species.remove();
+				}
+				else {
+					watchesOfSpecies.setValue(remaining);
+				}
+			}
+			if (watchesAtLocation.isEmpty()) {
+				locations.remove();
+			}
+		}
+		if (watches.isEmpty()) {
+			watches = null;
+		}
+	}
+	
+	/**
+	 * Tell the watchers of a species at a location of this membrane, if there are any, that its number has changed.
+	 */
+	private void notifyWatchers(Location location, String speciesName, int change) {
+		Map<String, Watch[]> watchesAtLocation = watches.get(location);
+		if (watchesAtLocation != null) {
+			Watch[] watchesOfSpecies = watchesAtLocation.get(speciesName);
+			if (watchesOfSpecies != null) {
+				for (Watch watch: watchesOfSpecies) {
+					watch.watcher.speciesChanged(watch.slot, change);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tell every watcher of this membrane that all of its species have been added, or all of them removed.
+	 * @param sign 1 if all the species have been added, or -1 if they have all been removed.
+	 */
+	private void notifyAllWatchers(int sign) {
+		for (Map.Entry<Location, Map<String, Watch[]>> watchesAtLocation: watches.entrySet()) {
+			for (Map.Entry<String, Watch[]> watchesOfSpecies: watchesAtLocation.getValue().entrySet()) {
+				int change = sign * numSpecies(watchesOfSpecies.getKey(), watchesAtLocation.getKey());
+				for (Watch watch: watchesOfSpecies.getValue()) {
+					watch.watcher.speciesChanged(watch.slot, change);
+				}
+			}
 		}
 	}
 	
@@ -428,6 +631,50 @@ public class Membrane {
 		return total;
 	}
 	
+	/**
+	 * Write the numbers of species in this membrane only (not its children), for a checkpoint.
+	 * The order of species within each location is preserved, so that restored output is written in the same order.
+	 * @see #readSpeciesState(DataInput)
+	 */
+	public void writeSpeciesState(DataOutput output) throws IOException {
+		writeSpeciesLocation(speciesOn, output);
+		writeSpeciesLocation(speciesUnder, output);
+		writeSpeciesLocation(speciesContained, output);
+	}
+	
+	/**
+	 * Replace the numbers of species in this membrane only (not its children) with those from a checkpoint.
+	 * @see #writeSpeciesState(DataOutput)
+	 */
+	public void readSpeciesState(DataInput input) throws IOException {
+		if (watches != null) {
+			notifyAllWatchers(-1);
+		}
+		readSpeciesLocation(speciesOn, input);
+		readSpeciesLocation(speciesUnder, input);
+		readSpeciesLocation(speciesContained, input);
+		if (watches != null) {
+			notifyAllWatchers(1);
+		}
+	}
+	
+	private static void writeSpeciesLocation(Multiset<String> speciesLocation, DataOutput output) throws IOException {
+		output.writeInt(speciesLocation.entrySet().size());
+		for (Entry<String> entry: speciesLocation.entrySet()) {
+			output.writeUTF(entry.getElement());
+			output.writeInt(entry.getCount());
+		}
+	}
+	
+	private static void readSpeciesLocation(Multiset<String> speciesLocation, DataInput input) throws IOException {
+		speciesLocation.clear();
+		int numEntries = input.readInt();
+		for (int i = 0; i < numEntries; i++) {
+			String speciesName = input.readUTF();
+			speciesLocation.add(speciesName, input.readInt());
+		}
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder output = new StringBuilder();
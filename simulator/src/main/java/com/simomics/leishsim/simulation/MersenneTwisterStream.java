@@ -0,0 +1,48 @@
+package com.simomics.leishsim.simulation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * A random number stream using the Mersenne Twister generator.
+ */
+public class MersenneTwisterStream implements RandomStream {
+	
+	private final MersenneTwisterFast rand;
+	
+	/**
+	 * @param seed The generator's full seed.
+	 */
+	public MersenneTwisterStream(int[] seed) {
+		if (seed.length == 1) {
+			// Seeding from a single number gives different numbers to seeding from an array of one number
+			this.rand = new MersenneTwisterFast(seed[0]);
+		}
+		else {
+			this.rand = new MersenneTwisterFast(seed);
+		}
+	}
+
+	@Override
+	public double nextDouble() {
+		return rand.nextDouble();
+	}
+
+	@Override
+	public RandomGeneratorType getType() {
+		return RandomGeneratorType.MERSENNE_TWISTER;
+	}
+
+	@Override
+	public void writeState(DataOutputStream output) throws IOException {
+		rand.writeState(output);
+	}
+
+	@Override
+	public void readState(DataInputStream input) throws IOException {
+		rand.readState(input);
+	}
+}
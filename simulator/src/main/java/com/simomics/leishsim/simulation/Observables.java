@@ -0,0 +1,58 @@
+package com.simomics.leishsim.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.model.equations.Equation;
+import com.simomics.leishsim.model.equations.Equation.InvalidEquationEvaluationException;
+
+/**
+ * Keeps the observables of a model up to date as species change, for the observables log.
+ * Printing an observable costs the same however many membranes there are, see {@link SpeciesSums}.
+ */
+class Observables extends SpeciesSums {
+
+	private final List<String> names = new ArrayList<>();
+	private final List<Equation> equations = new ArrayList<>();
+
+	/**
+	 * Watch all the species counted by the observables, and count them for the first time.
+	 * @param state The top level membrane of the simulation. Its tree of membranes must not change.
+	 * @param observables The equation of each observable.
+	 * @throws InvalidEquationEvaluationException If the species could not be counted.
+	 */
+	Observables(Membrane state, Map<String, Equation> observables) throws InvalidEquationEvaluationException {
+		super(state, observables.values());
+		names.addAll(observables.keySet());
+		equations.addAll(observables.values());
+	}
+
+	/**
+	 * Add the names of the observables, each preceded by a comma.
+	 */
+	void appendHeadings(StringBuilder output) {
+		for (String name: names) {
+			output.append(',').append(name);
+		}
+	}
+
+	/**
+	 * Add the current value of each observable, each preceded by a comma.
+	 * Observables that can't be evaluated, e.g. because they divide by zero, are written as NaN.
+	 */
+	void appendRow(StringBuilder output) {
+		for (int i = 0; i < equations.size(); i++) {
+			double value;
+			try {
+				value = evaluate(equations.get(i));
+			} catch (InvalidEquationEvaluationException e) {
+				Logging.getLogger(LogType.ERROR).log(String.format("Could not evaluate observable %s: %s", names.get(i), e.getMessage()));
+				value = Double.NaN;
+			}
+			output.append(',').append(value);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.simomics.leishsim.simulation;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+
+/**
+ * Writes the observables log, with the time followed by the value of each observable on each line.
+ */
+class ObservablesLog implements SimulationObserver {
+
+	private final Observables observables;
+
+	private final boolean runHours;
+
+	/**
+	 * @param observables The observables of the model, already watching the species of the simulation.
+	 * @param runHours True to write the time in hours, otherwise in seconds.
+	 */
+	ObservablesLog(Observables observables, boolean runHours) {
+		this.observables = observables;
+		this.runHours = runHours;
+	}
+
+	@Override
+	public void runStarted(StateView state, boolean resumed) {
+		if (resumed) {
+			// The log already contains the headings and earlier rows
+			return;
+		}
+		StringBuilder headingLine = new StringBuilder(runHours ? "Hours" : "Seconds");
+		observables.appendHeadings(headingLine);
+		Logging.getLogger(LogType.PRINTED_OBSERVABLES).log(headingLine.toString());
+	}
+
+	@Override
+	public void printed(StateView state) {
+		StringBuilder observablesLine = new StringBuilder();
+		observablesLine.append(runHours ? state.getNominalSeconds() / (60 * 60) : state.getNominalSeconds());
+		observables.appendRow(observablesLine);
+		Logging.getLogger(LogType.PRINTED_OBSERVABLES).log(observablesLine.toString());
+	}
+}
@@ -0,0 +1,114 @@
+package com.simomics.leishsim.simulation;
+
+import com.simomics.leishsim.ColumnarFileLogger;
+import com.simomics.leishsim.Logger;
+import com.simomics.leishsim.SparseFileLogger;
+import com.simomics.leishsim.output.CsvRowWriter;
+
+/**
+ * Writes the numbers printed at one print time to the printed species, species per membrane and propensities logs.
+ * Text logs get a formatted CSV line, and binary logs get the numbers themselves.
+ * A sparse species per membrane log only gets the numbers that changed since the previous row.
+ */
+class OutputRowWriter {
+
+	/** The numbers to print at one print time */
+	static class Row {
+		/** The time of the row, in hours or seconds */
+		long time;
+		final int[] species;
+		final int[] speciesPerMembrane;
+		final double[] propensities;
+		/** For a sparse species per membrane log, the columns of the numbers in {@link #speciesPerMembrane} that changed, otherwise null */
+		final int[] changedColumns;
+		/** The number of entries of {@link #changedColumns} and {@link #speciesPerMembrane} that are used, for a sparse species per membrane log */
+		int numChanged;
+
+		private Row(int numSpecies, int numSpeciesPerMembrane, int numPropensities, boolean sparseSpeciesPerMembrane) {
+			species = new int[numSpecies];
+			speciesPerMembrane = new int[numSpeciesPerMembrane];
+			propensities = new double[numPropensities];
+			changedColumns = sparseSpeciesPerMembrane ? new int[numSpeciesPerMembrane] : null;
+		}
+	}
+
+	private final int numSpecies;
+	private final int numSpeciesPerMembrane;
+	private final int numPropensities;
+
+	/** The logs to write to, or null for logs that are not enabled */
+	private final Logger speciesLogger;
+	private final Logger speciesPerMembraneLogger;
+	private final Logger propensitiesLogger;
+
+	/** Reused for formatting each line of the text logs */
+	private final CsvRowWriter line = new CsvRowWriter();
+
+	/**
+	 * @param numSpecies The number of printed species.
+	 * @param numSpeciesPerMembrane The number of columns of the species per membrane log.
+	 * @param numPropensities The number of reactions.
+	 * @param speciesLogger The printed species log, or null if it is not enabled.
+	 * @param speciesPerMembraneLogger The species per membrane log, or null if it is not enabled.
+	 * @param propensitiesLogger The propensities log, or null if it is not enabled.
+	 */
+	OutputRowWriter(int numSpecies, int numSpeciesPerMembrane, int numPropensities,
+			Logger speciesLogger, Logger speciesPerMembraneLogger, Logger propensitiesLogger) {
+		this.numSpecies = numSpecies;
+		this.numSpeciesPerMembrane = numSpeciesPerMembrane;
+		this.numPropensities = numPropensities;
+		this.speciesLogger = speciesLogger;
+		this.speciesPerMembraneLogger = speciesPerMembraneLogger;
+		this.propensitiesLogger = propensitiesLogger;
+	}
+
+	/**
+	 * @return A new row, with space for the numbers of each enabled log.
+	 */
+	Row newRow() {
+		return new Row(speciesLogger != null ? numSpecies : 0,
+				speciesPerMembraneLogger != null ? numSpeciesPerMembrane : 0,
+				propensitiesLogger != null ? numPropensities : 0,
+				speciesPerMembraneLogger instanceof SparseFileLogger);
+	}
+
+	/**
+	 * Write a row to each enabled log.
+	 */
+	void write(Row row) {
+		if (speciesLogger instanceof ColumnarFileLogger) {
+			((ColumnarFileLogger) speciesLogger).logRow(row.time, row.species);
+		}
+		else if (speciesLogger != null) {
+			line.clear();
+			for (int count: row.species) {
+				line.append(count).append(',');
+			}
+			line.append(row.time);
+			line.writeTo(speciesLogger);
+		}
+		if (speciesPerMembraneLogger instanceof ColumnarFileLogger) {
+			((ColumnarFileLogger) speciesPerMembraneLogger).logRow(row.time, row.speciesPerMembrane);
+		}
+		else if (speciesPerMembraneLogger instanceof SparseFileLogger) {
+			((SparseFileLogger) speciesPerMembraneLogger).logRow(row.time, row.changedColumns, row.speciesPerMembrane, row.numChanged);
+		}
+		else if (speciesPerMembraneLogger != null) {
+			line.clear().append(row.time);
+			for (int count: row.speciesPerMembrane) {
+				line.append(',').append(count);
+			}
+			line.writeTo(speciesPerMembraneLogger);
+		}
+		if (propensitiesLogger instanceof ColumnarFileLogger) {
+			((ColumnarFileLogger) propensitiesLogger).logRow(row.time, row.propensities);
+		}
+		else if (propensitiesLogger != null) {
+			line.clear().append(row.time);
+			for (double propensity: row.propensities) {
+				line.append(',').append(propensity);
+			}
+			line.writeTo(propensitiesLogger);
+		}
+	}
+}
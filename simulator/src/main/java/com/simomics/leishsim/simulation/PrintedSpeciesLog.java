@@ -0,0 +1,48 @@
+package com.simomics.leishsim.simulation;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.output.CsvRowWriter;
+
+/**
+ * Writes the printed species log as CSV text, with the total of each printed species followed by the time on each line.
+ * Binary and background thread output write this log through {@link OutputRowWriter} instead.
+ */
+class PrintedSpeciesLog implements SimulationObserver {
+
+	private final boolean runHours;
+
+	/** Reused for formatting each line */
+	private final CsvRowWriter line = new CsvRowWriter();
+
+	/**
+	 * @param runHours True to write the time in hours, otherwise in seconds.
+	 */
+	PrintedSpeciesLog(boolean runHours) {
+		this.runHours = runHours;
+	}
+
+	@Override
+	public void runStarted(StateView state, boolean resumed) {
+		if (resumed) {
+			// The log already contains the headings and earlier rows
+			return;
+		}
+		StringBuilder headingLine = new StringBuilder();
+		for (String speciesName: state.getPrintedSpeciesNames()) {
+			headingLine.append(speciesName).append(',');
+		}
+		headingLine.append(runHours ? "Hours" : "Seconds");
+		Logging.getLogger(LogType.PRINTED_SPECIES).log(headingLine.toString());
+	}
+
+	@Override
+	public void printed(StateView state) {
+		line.clear();
+		for (int count: state.getPrintedSpeciesCounts()) {
+			line.append(count).append(',');
+		}
+		line.append(runHours ? state.getNominalSeconds() / (60 * 60) : state.getNominalSeconds());
+		line.writeTo(Logging.getLogger(LogType.PRINTED_SPECIES));
+	}
+}
@@ -0,0 +1,46 @@
+package com.simomics.leishsim.simulation;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.output.CsvRowWriter;
+
+/**
+ * Writes the propensities log as CSV text, with the time followed by the propensity of each reaction on each line.
+ * Binary and background thread output write this log through {@link OutputRowWriter} instead.
+ */
+class PropensitiesLog implements SimulationObserver {
+
+	private final boolean runHours;
+
+	/** Reused for formatting each line */
+	private final CsvRowWriter line = new CsvRowWriter();
+
+	/**
+	 * @param runHours True to write the time in hours, otherwise in seconds.
+	 */
+	PropensitiesLog(boolean runHours) {
+		this.runHours = runHours;
+	}
+
+	@Override
+	public void runStarted(StateView state, boolean resumed) {
+		if (resumed) {
+			// The log already contains the headings and earlier rows
+			return;
+		}
+		StringBuilder headingLine = new StringBuilder(runHours ? "Hours" : "Seconds");
+		for (int i = 0; i < state.getNumReactions(); i++) {
+			headingLine.append(",reaction").append(i);
+		}
+		Logging.getLogger(LogType.PRINTED_PROPENSITIES).log(headingLine.toString());
+	}
+
+	@Override
+	public void printed(StateView state) {
+		line.clear().append(runHours ? state.getNominalSeconds() / (60 * 60) : state.getNominalSeconds());
+		for (int i = 0; i < state.getNumReactions(); i++) {
+			line.append(',').append(state.getReactionPropensity(i));
+		}
+		line.writeTo(Logging.getLogger(LogType.PRINTED_PROPENSITIES));
+	}
+}
@@ -0,0 +1,50 @@
+package com.simomics.leishsim.simulation;
+
+/**
+ * The random number generators that a simulation can use.
+ * Each generator derives streams from a seed, a replicate number and a partition number, 
+ *   so that the results of a set of replicates (or of the partitions of a parallel simulation) 
+ *   are the same however many threads they are run on.
+ */
+public enum RandomGeneratorType {
+	
+	/** 
+	 * The original Mersenne Twister generator. Replicate 0, partition 0 gives exactly the same numbers as earlier versions of the simulator.
+	 * Other streams are seeded from the seed, replicate and partition together, which is repeatable but gives no guarantee that streams don't overlap.
+	 */
+	MERSENNE_TWISTER {
+		@Override
+		public RandomStream createStream(long seed, int replicate, int partition) {
+			if (replicate == 0 && partition == 0) {
+				return new MersenneTwisterStream(new int[] {(int) seed});
+			}
+			return new MersenneTwisterStream(new int[] {(int) seed, (int) (seed >>> 32), replicate, partition});
+		}
+	},
+	
+	/** 
+	 * The xoshiro256++ generator. Streams are separated using jumps, so are guaranteed not to overlap:
+	 *   each replicate is 2^192 numbers apart, and each partition within a replicate is 2^128 numbers apart.
+	 */
+	XOSHIRO256 {
+		@Override
+		public RandomStream createStream(long seed, int replicate, int partition) {
+			Xoshiro256Stream stream = new Xoshiro256Stream(seed);
+			for (int i = 0; i < replicate; i++) {
+				stream.longJump();
+			}
+			for (int i = 0; i < partition; i++) {
+				stream.jump();
+			}
+			return stream;
+		}
+	};
+	
+	/**
+	 * @param seed The seed chosen by the user.
+	 * @param replicate The number of this run among a set of runs of the same model with the same seed.
+	 * @param partition The part of the simulation that will use this stream, for simulations that run on several threads.
+	 * @return The random number stream for the given replicate and partition. Always the same for the same arguments.
+	 */
+	public abstract RandomStream createStream(long seed, int replicate, int partition);
+}
@@ -0,0 +1,46 @@
+package com.simomics.leishsim.simulation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A source of random numbers for a simulation.
+ * Streams are created by a {@link RandomGeneratorType}, which can derive separate streams for each replicate 
+ *   and each partition of a simulation from the same seed.
+ * Not thread safe: each thread should use its own stream.
+ */
+public interface RandomStream {
+
+	/**
+	 * @return A random number that is at least 0 and less than 1.
+	 */
+	double nextDouble();
+	
+	/**
+	 * Fill the given array with random numbers, giving the same numbers as calling {@link #nextDouble()} once per element.
+	 * @param values Array to fill with numbers that are at least 0 and less than 1.
+	 */
+	default void nextDoubles(double[] values) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = nextDouble();
+		}
+	}
+	
+	/**
+	 * @return The type of generator that created this stream.
+	 */
+	RandomGeneratorType getType();
+	
+	/**
+	 * Write the full state of this stream, so that it can carry on from the same point later.
+	 * @throws IOException If the state could not be written.
+	 */
+	void writeState(DataOutputStream output) throws IOException;
+	
+	/**
+	 * Restore the state written by {@link #writeState(DataOutputStream)}.
+	 * @throws IOException If the state could not be read.
+	 */
+	void readState(DataInputStream input) throws IOException;
+}
@@ -1,5 +1,8 @@
 package com.simomics.leishsim.simulation;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Set;
 
@@ -30,9 +33,23 @@ public class ReactionRateTableSimulation extends Simulation {
 	/** Matrix of rates for each reaction-membrane location. Reactions are the first index; membranes the second index. */
 	private Double[][] reactionRates;
 	
+	/** 
+	 * The total of each row of {@link #reactionRates}, for the propensities log. Kept up to date as entries change.
+	 * Each row is added up again after as many changes as it has entries, so that rounding errors can't build up 
+	 *   but each change still costs the same however many membranes there are.
+	 */
+	private double[] reactionTotals;
+	private int[] changesSinceTotalled;
+	
+	/** The number of entries of each row of {@link #reactionRates} that are not zero, so that totals of all zero rates are exactly zero */
+	private int[] numNonZeroRates;
+	
 	private BiMap<Reaction, Integer> reactionIds;
 	private BiMap<Membrane, Integer> membraneIds;
 	
+	/** The two random numbers used in each step: one for the time until the next reaction, and one to choose the reaction */
+	private final double[] stepRandomNumbers = new double[2];
+	
 	/** Which (reaction,membrane) pairs depend on each other */
 	private Multimap<ReactionRateIndex, ReactionRateIndex> membraneDependencies;
 	
@@ -44,15 +61,26 @@ public class ReactionRateTableSimulation extends Simulation {
 	 * @throws InvalidSimulationException
 	 */
 	public ReactionRateTableSimulation(MembraneModel model, Membrane initialConditions, Integer randomSeed)	throws InvalidSimulationException {
-		super(model, initialConditions, randomSeed);
+		this(model, initialConditions, randomSeed, RandomGeneratorType.MERSENNE_TWISTER, 0);
+	}
+	
+	/**
+	 * Creates the table and populates it with the initial reaction rates.
+	 * @param model
+	 * @param initialConditions
+	 * @param randomSeed
+	 * @param generatorType
+	 * @param replicate
+	 * @throws InvalidSimulationException
+	 */
+	public ReactionRateTableSimulation(MembraneModel model, Membrane initialConditions, Integer randomSeed, RandomGeneratorType generatorType, int replicate) throws InvalidSimulationException {
+		super(model, initialConditions, randomSeed, generatorType, replicate);
 		
 		// Initialise data structures
 		this.reactionIds = HashBiMap.create(); // TODO: Turn these maps into properties of the membrane and reaction classes?
 		this.membraneIds = HashBiMap.create();
-		int reactionNum = 0;
-		for (Reaction reaction: model.getReactions()) {
-			this.reactionIds.put(reaction, reactionNum);
-			reactionNum += 1;
+		for (Reaction reaction: model.getReactionList()) {
+			this.reactionIds.put(reaction, model.getReactionId(reaction));
 		}
 		int membraneNum = 0;
 		for (Membrane membrane: initialConditions.getAllMembranes()) {
@@ -75,6 +103,8 @@ public class ReactionRateTableSimulation extends Simulation {
 			}
 		}
 		
+		totalAllReactions();
+		
 		if (Logging.isLoggable(LogType.FULL)) {
 			Logging.getLogger(LogType.FULL).log("Initial reaction rates table:\n" + printReactionRatesTable());
 		}
@@ -142,11 +172,11 @@ public class ReactionRateTableSimulation extends Simulation {
 			
 			// If the reaction could happen here, then calculate its rate
 			if (dependentMembrane.stoichiometryMatches(dependentReaction)) {
-				reactionRates[dependentReactionId][dependentMembraneId] = dependentMembrane.computeRate(dependentReaction);
+				setRate(dependentReactionId, dependentMembraneId, dependentMembrane.computeRate(dependentReaction));
 			}
 			// Otherwise, its rate is zero
 			else {
-				reactionRates[dependentReactionId][dependentMembraneId] = 0d;
+				setRate(dependentReactionId, dependentMembraneId, 0d);
 			}
 		}
 
@@ -155,6 +185,60 @@ public class ReactionRateTableSimulation extends Simulation {
 		}
 	}
 	
+	/**
+	 * Change one entry of the rates table, keeping the total of its row up to date.
+	 */
+	private void setRate(int reactionId, int membraneId, double rate) {
+		double previousRate = reactionRates[reactionId][membraneId];
+		reactionRates[reactionId][membraneId] = rate;
+		if (previousRate != 0) {
+			numNonZeroRates[reactionId]--;
+		}
+		if (rate != 0) {
+			numNonZeroRates[reactionId]++;
+		}
+		
+		if (numNonZeroRates[reactionId] == 0) {
+			reactionTotals[reactionId] = 0;
+		}
+		else if (++changesSinceTotalled[reactionId] >= reactionRates[reactionId].length) {
+			totalReaction(reactionId);
+		}
+		else {
+			reactionTotals[reactionId] += rate - previousRate;
+		}
+	}
+	
+	/**
+	 * Add up every row of the rates table from scratch.
+	 */
+	private void totalAllReactions() {
+		reactionTotals = new double[reactionIds.size()];
+		changesSinceTotalled = new int[reactionIds.size()];
+		numNonZeroRates = new int[reactionIds.size()];
+		for (int reactionId=0; reactionId<reactionIds.size(); reactionId++) {
+			totalReaction(reactionId);
+		}
+	}
+	
+	/**
+	 * Add up one row of the rates table from scratch.
+	 */
+	private void totalReaction(int reactionId) {
+		Double[] ratesPerMembrane = reactionRates[reactionId];
+		double totalPropensity = 0;
+		int numNonZero = 0;
+		for (int membraneId = 0; membraneId < ratesPerMembrane.length; membraneId++) {
+			totalPropensity += ratesPerMembrane[membraneId];
+			if (ratesPerMembrane[membraneId] != 0) {
+				numNonZero++;
+			}
+		}
+		reactionTotals[reactionId] = totalPropensity;
+		numNonZeroRates[reactionId] = numNonZero;
+		changesSinceTotalled[reactionId] = 0;
+	}
+	
 	/**
 	 * Rolls all the random numbers needed for one step. 
 	 * Chooses which reaction fires next, in which location and at what time.
@@ -177,11 +261,12 @@ public class ReactionRateTableSimulation extends Simulation {
 			// No viable reactions - simulation finished
 			return null;
 		}
-		double hoursToNextReaction = (double) ((1.0 / omega) * Math.log(1.0 / rand.nextDouble())); // Equation 21a in Gillespie's paper
+		rand.nextDoubles(stepRandomNumbers);
+		double hoursToNextReaction = (double) ((1.0 / omega) * Math.log(1.0 / stepRandomNumbers[0])); // Equation 21a in Gillespie's paper
 		double secondsToNextReaction = hoursToNextReaction * 60 * 60;
 		
 		// Choose which of the reactions fires
-		double whichReaction = omega * rand.nextDouble();
+		double whichReaction = omega * stepRandomNumbers[1];
 		double currentReaction = 0f;
 		Reaction chosenReaction = null;
 		Membrane chosenMembrane = null;
@@ -234,12 +319,46 @@ public class ReactionRateTableSimulation extends Simulation {
 	 */
 	@Override
 	protected double getReactionPropensity(Reaction reaction) {
-		Double[] ratesPerMembrane = reactionRates[reactionIds.get(reaction)];
-		double totalPropensity = 0;
-		for (int membraneId = 0; membraneId < ratesPerMembrane.length; membraneId++) {
-			totalPropensity += ratesPerMembrane[membraneId];
+		return reactionTotals[reactionIds.get(reaction)];
+	}
+
+	/**
+	 * Writes the whole rates table, rather than recomputing it on resume,
+	 *   because entries are only brought up to date at the start of the next step.
+	 */
+	@Override
+	protected void writeEngineState(DataOutputStream output) throws IOException {
+		output.writeInt(reactionIds.size());
+		output.writeInt(membraneIds.size());
+		for (int reactionId=0; reactionId<reactionIds.size(); reactionId++) {
+			for (int membraneId=0; membraneId<membraneIds.size(); membraneId++) {
+				output.writeDouble(reactionRates[reactionId][membraneId]);
+			}
+		}
+		output.writeInt(previousReactionId == null ? -1 : previousReactionId);
+		output.writeInt(previousMembraneId == null ? -1 : previousMembraneId);
+	}
+	
+	@Override
+	protected void readEngineState(DataInputStream input) throws IOException {
+		int numReactions = input.readInt();
+		int numMembranes = input.readInt();
+		if (numReactions != reactionIds.size() || numMembranes != membraneIds.size()) {
+			throw new IOException(String.format("Reaction rates table is %d x %d, but expected %d x %d", 
+					numReactions, numMembranes, reactionIds.size(), membraneIds.size()));
+		}
+		for (int reactionId=0; reactionId<numReactions; reactionId++) {
+			for (int membraneId=0; membraneId<numMembranes; membraneId++) {
+				reactionRates[reactionId][membraneId] = input.readDouble();
+			}
 		}
-		return totalPropensity;
+		totalAllReactions();
+		int reactionId = input.readInt();
+		int membraneId = input.readInt();
+		previousReactionId = reactionId < 0 ? null : reactionId;
+		previousMembraneId = membraneId < 0 ? null : membraneId;
+		previousReaction = reactionId < 0 ? null : reactionIds.inverse().get(reactionId);
+		previousMembrane = membraneId < 0 ? null : membraneIds.inverse().get(membraneId);
 	}
 
 	@Override
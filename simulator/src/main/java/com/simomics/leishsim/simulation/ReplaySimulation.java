@@ -0,0 +1,181 @@
+package com.simomics.leishsim.simulation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.model.MembraneModel;
+import com.simomics.leishsim.model.Reaction;
+import com.simomics.leishsim.output.EventTraceReader;
+import com.simomics.leishsim.output.TraceEventKind;
+
+/**
+ * A simulation that fires the reactions recorded in an event trace, in order, instead of choosing them at random.
+ * No random numbers are rolled and no propensities are kept up to date, so replaying a trace is much faster than the original run,
+ *   and the printed logs can be regenerated with different species, log levels or print times.
+ * Propensities are only computed at print times, from the state at that time.
+ * @see Simulation#setEventTrace(File)
+ */
+public class ReplaySimulation extends Simulation {
+
+	/** The trace being replayed, or null once it has been closed */
+	private EventTraceReader trace;
+
+	/** The file of {@link #trace} */
+	private final File traceFile;
+
+	private final List<Reaction> reactions;
+	private final List<Membrane> membranes;
+
+	/** True if the trace's next event has been read but not yet replayed */
+	private boolean eventPending = false;
+
+	/**
+	 * @param model The model that wrote the trace.
+	 * @param initialConditions The initial conditions of the run that wrote the trace.
+	 * @param traceFile The trace to replay.
+	 * @throws InvalidSimulationException If the trace could not be read, or was written by a different model.
+	 */
+	public ReplaySimulation(MembraneModel model, Membrane initialConditions, File traceFile) throws InvalidSimulationException {
+		super(model, initialConditions, 0, RandomGeneratorType.MERSENNE_TWISTER, 0); // random numbers are never used
+		this.traceFile = traceFile;
+		this.reactions = model.getReactionList();
+		this.membranes = new ArrayList<>(initialConditions.getAllMembranes());
+		try {
+			trace = new EventTraceReader(traceFile);
+		} catch (IOException e) {
+			throw new InvalidSimulationException("Could not read event trace file: " + traceFile, e);
+		}
+
+		// Check that the trace was written by the same model, so that the ids mean the same reactions and membranes
+		try {
+			if (trace.getReactionDescriptions().size() != reactions.size() || trace.getMembraneTags().size() != membranes.size()) {
+				throw new InvalidSimulationException(String.format("Event trace has %d reactions and %d membranes, but model has %d reactions and %d membranes",
+						trace.getReactionDescriptions().size(), trace.getMembraneTags().size(), reactions.size(), membranes.size()), null);
+			}
+			for (int i = 0; i < reactions.size(); i++) {
+				if (!trace.getReactionDescriptions().get(i).equals(reactions.get(i).toString())) {
+					throw new InvalidSimulationException(String.format("Event trace has reaction %s where model has reaction %s",
+							trace.getReactionDescriptions().get(i), reactions.get(i)), null);
+				}
+			}
+			for (int i = 0; i < membranes.size(); i++) {
+				if (!trace.getMembraneTags().get(i).equals(membranes.get(i).getUniqueTag())) {
+					throw new InvalidSimulationException(String.format("Event trace has membrane %s where model has membrane %s",
+							trace.getMembraneTags().get(i), membranes.get(i).getUniqueTag()), null);
+				}
+			}
+		}
+		catch (InvalidSimulationException e) {
+			closeTrace();
+			throw e;
+		}
+	}
+
+	/**
+	 * Replay the trace, and close it afterwards. A replay can only be run once.
+	 */
+	@Override
+	public boolean runSeconds(long numSeconds, long secondsBeforePrint, List<String> namesToPrint, boolean runHours) throws InvalidSimulationException {
+		try {
+			return super.runSeconds(numSeconds, secondsBeforePrint, namesToPrint, runHours);
+		}
+		finally {
+			closeTrace();
+		}
+	}
+
+	/**
+	 * @return True until the whole trace has been replayed.
+	 */
+	@Override
+	protected boolean hasMoreEvents() {
+		if (eventPending) {
+			return true;
+		}
+		if (trace == null) {
+			return false;
+		}
+		try {
+			eventPending = trace.next();
+		} catch (IOException e) {
+			Logging.getLogger(LogType.ERROR).log(String.format("Could not read event trace file %s: %s", traceFile, e.getMessage()));
+			eventPending = false;
+		}
+		return eventPending;
+	}
+
+	/**
+	 * @return The next reaction in the trace, or null if the next event in the trace is taken from the event queue.
+	 */
+	@Override
+	protected ChosenReaction chooseRandomReaction() throws InvalidSimulationException {
+		if (!hasMoreEvents()) {
+			return null;
+		}
+		eventPending = false;
+		if (trace.getKind() == TraceEventKind.PRODUCTS_ADDED) {
+			// Delayed products are already on this simulation's queue
+			return null;
+		}
+		Reaction reaction = reactions.get(trace.getReactionId());
+		Membrane membrane = membranes.get(trace.getMembraneId());
+		if (!membrane.stoichiometryMatches(reaction)) {
+			throw new InvalidSimulationException(String.format("Event trace fires reaction %s in membrane %s at %f seconds, but it can't fire there. Was the trace written by this model?",
+					reaction, membrane.getUniqueTag(), trace.getSeconds()), null);
+		}
+		return new ChosenReaction(reaction, membrane, trace.getSecondsElapsed());
+	}
+
+	private void closeTrace() {
+		if (trace == null) {
+			return;
+		}
+		try {
+			trace.close();
+		} catch (IOException e) {
+			// Only reading, so nothing is lost
+		}
+		trace = null;
+		eventPending = false;
+	}
+
+	/**
+	 * @return The propensity of the given reaction, summed over all membranes, computed from the current state.
+	 */
+	@Override
+	protected double getReactionPropensity(Reaction reaction) {
+		double totalPropensity = 0;
+		for (Membrane membrane: currentState.getMatchingMembranes(reaction)) {
+			if (membrane.stoichiometryMatches(reaction)) {
+				try {
+					totalPropensity += membrane.computeRate(reaction);
+				} catch (InvalidSimulationException e) {
+					Logging.getLogger(LogType.ERROR).log(String.format("Could not compute rate of %s in membrane %s: %s", reaction, membrane.getUniqueTag(), e.getMessage()));
+					return Double.NaN;
+				}
+			}
+		}
+		return totalPropensity;
+	}
+
+	@Override
+	protected void recalculatePropensitiesFrom(Reaction reaction, Membrane membrane) {
+		// Propensities are only computed when printed
+	}
+
+	@Override
+	protected void writeEngineState(DataOutputStream output) throws IOException {
+		throw new IOException("Replays can't be checkpointed");
+	}
+
+	@Override
+	protected void readEngineState(DataInputStream input) throws IOException {
+		throw new IOException("Replays can't be resumed from a checkpoint");
+	}
+}
@@ -1,21 +1,50 @@
 package com.simomics.leishsim.simulation;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import com.simomics.leishsim.ColumnarFileLogger;
+import com.simomics.leishsim.Logger;
 import com.simomics.leishsim.Logging;
 import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.SparseFileLogger;
 import com.simomics.leishsim.model.LocatedSpecies;
 import com.simomics.leishsim.model.Location;
 import com.simomics.leishsim.model.MembraneModel;
 import com.simomics.leishsim.model.Reaction;
 import com.simomics.leishsim.model.StoichiometrySpecies;
+import com.simomics.leishsim.model.StopCondition;
+import com.simomics.leishsim.model.equations.Equation.InvalidEquationEvaluationException;
+import com.simomics.leishsim.output.ColumnType;
+import com.simomics.leishsim.output.CsvRowWriter;
+import com.simomics.leishsim.output.EventTraceWriter;
+import com.simomics.leishsim.output.TraceEventKind;
 
 import ec.util.MersenneTwisterFast;
 
@@ -32,8 +61,14 @@ public abstract class Simulation {
 	/** The current state of the membranes and species */
 	protected final Membrane currentState;
 	
-	/** The random number generator used for all random choices */
-	protected final MersenneTwisterFast rand;
+	/** The random number stream used for all random choices */
+	protected final RandomStream rand;
+	
+	/** The seed from which {@link #rand} was derived */
+	private final long randomSeed;
+	
+	/** The replicate number from which {@link #rand} was derived */
+	private final int replicate;
 
 	/** The queue of events that are scheduled to take place at some point in the future */
 	private final PriorityQueue<QueueEvent> eventQueue;
@@ -69,6 +104,145 @@ public abstract class Simulation {
 	 */
 	private List<Location> locationsToPrint;
 	
+	/**
+	 *  The positions in {@link #membranesToPrint} of the numbers that have changed since they were last written to a sparse species per membrane log.
+	 *  Marked by the membranes as their species change. Null unless the species per membrane log is sparse.
+	 *  @see SparseFileLogger
+	 */
+	private BitSet changedSlots;
+	
+	/** Marks the changed numbers in {@link #changedSlots}, watching the printed species of {@link #membranesToPrint} */
+	private Membrane.SpeciesWatcher changedSlotsWatcher;
+	
+	/** The positions and values of the changed numbers, reused for each line of a sparse species per membrane log */
+	private int[] changedColumns;
+	private int[] changedValues;
+	
+	/**
+	 *  Membrane types, tags, unique tags and ranges of unique tags, selecting the membranes to print in the species per membrane log.
+	 *  Null to print every membrane.
+	 *  @see #setMembranesToPrint(List)
+	 */
+	private List<String> membraneSelectors;
+	
+	/** Matches a range of unique tags, e.g. macrophage_1..10, giving the start of the tags and the first and last numbers */
+	private static final Pattern MEMBRANE_RANGE = Pattern.compile("(.+_)(\\d+)\\.\\.(\\d+)");
+	
+	/** Matches a name that could be in a range of unique tags, giving the start of the name and its number, which has no leading zeros */
+	private static final Pattern NUMBERED_NAME = Pattern.compile("(.+_)(0|[1-9]\\d{0,17})");
+	
+	/** The quantiles and number of histogram bins to print in the species distribution log */
+	private double[] distributionQuantiles = SpeciesDistributions.DEFAULT_QUANTILES;
+	private int distributionHistogramBins = SpeciesDistributions.DEFAULT_HISTOGRAM_BINS;
+	
+	/** Reused for formatting each line of the species per membrane and propensities logs on the simulation thread */
+	private final CsvRowWriter csvLine = new CsvRowWriter();
+	
+	/** Follows the printed species at every step for the species envelope log, or null if that log is not enabled */
+	private SpeciesEnvelopes speciesEnvelopes;
+	
+	/** Checks the stop conditions of the model after each step, or null until each run first steps or if there are no stop conditions */
+	private StopConditions stopConditions;
+	
+	/** Keeps the observables of the model up to date for the observables log, or null if that log is not enabled or there are no observables */
+	private Observables observables;
+	
+	/** Identifies the start of a checkpoint file ("MDSL") */
+	private static final int CHECKPOINT_MAGIC = 0x4d44534c;
+	
+	/** Incremented whenever the layout of checkpoint files changes */
+	private static final int CHECKPOINT_VERSION = 3;
+	
+	/** Told about the results as the simulation runs, see {@link #addObserver(SimulationObserver)} */
+	private final List<SimulationObserver> observers = new ArrayList<>();
+	
+	/** The observers that are told about every reaction firing and every delayed product addition */
+	private final List<SimulationObserver> firingObservers = new ArrayList<>();
+	
+	/** The view of this simulation given to the observers */
+	private final ObservedState observedState = new ObservedState();
+	
+	/** Sends the printed species numbers to the sink given to {@link #setSpeciesRowSink(SpeciesRowSink)}, or null if there isn't one */
+	private SimulationObserver speciesRowSinkObserver;
+	
+	/**
+	 * The observers that write the enabled logs of the current run: the printed species and propensities logs when they are written as text,
+	 *   and the observables, species envelope, species distribution and firing counts logs.
+	 * Binary and background thread output write the printed species, species per membrane and propensities logs from one row of numbers,
+	 *   see {@link #writeOutputRow(List, boolean)}.
+	 * The species per membrane log is always written by the simulation, as its columns follow the membrane tree
+	 *   and its sparse form only writes the numbers that the simulation has seen change.
+	 */
+	private final List<SimulationObserver> logObservers = new ArrayList<>();
+	
+	/** The names of the species printed by the current run */
+	private List<String> printedSpeciesNames = Collections.emptyList();
+	
+	/** True to format and write the printed logs on a background thread */
+	private boolean asyncOutput;
+	
+	/** Writes rows of numbers to the printed logs, when writing them on a background thread or to binary logs. Created at the first print time. */
+	private OutputRowWriter outputRowWriter;
+	
+	/** The row reused for each print time when writing binary logs on the simulation thread */
+	private OutputRowWriter.Row outputRow;
+	
+	/** Writes the printed logs while the simulation runs, if {@link #asyncOutput} is set. Created at the first print time. */
+	private AsyncOutputWriter outputWriter;
+	
+	/** The file to write a binary trace of every event to, or null to not write a trace */
+	private File eventTraceFile;
+	
+	/** Writes the event trace while the simulation runs. Created at the start of each run. */
+	private EventTraceWriter eventTrace;
+	
+	/** The id of each membrane in the event trace. Reactions have the ids given by the model. */
+	private Map<Membrane, Integer> traceMembraneIds;
+	
+	/** The length of the event trace when the checkpoint we resumed from was written, or -1 if it had no trace */
+	private long resumedEventTraceLength = -1;
+	
+	/** The number of print chunks that have been run so far */
+	private int completedChunks;
+	
+	/** The print interval of the current run, stored in checkpoints so that a resumed run prints at the same times */
+	private long secondsBeforePrint;
+	
+	/** The file to write checkpoints to, or null to not write checkpoints */
+	private File checkpointFile;
+	
+	/** Write a checkpoint every this many print chunks, or 0 to only write a checkpoint at the end of the run */
+	private int chunksPerCheckpoint;
+	
+	/** 
+	 * Stop the run once it reaches a steady state, as decided by a {@link SteadyStateDetector} with this tolerance and window. 
+	 * Null to run for the whole time.
+	 * @see #setSteadyStateDetection(double, int, List)
+	 */
+	private Double steadyStateTolerance;
+	private int steadyStateWindowChunks;
+	
+	/** The species whose totals are watched for a steady state, or null to watch the total propensity of all reactions */
+	private List<String> steadyStateSpecies;
+	
+	/** True if the state was loaded from a checkpoint, so the output files already contain headings and earlier rows */
+	private boolean resumedFromCheckpoint;
+	
+	/** True if the checkpoint we resumed from was written part way through a print chunk */
+	private boolean resumeMidChunk;
+	
+	/** True while {@link #runForSeconds(long)} is part way through a print chunk */
+	private boolean midChunk;
+	
+	/** Set from another thread (e.g. a shutdown hook) to ask the simulation to write a checkpoint and stop at the next step */
+	private volatile boolean stopRequested;
+	
+	/** True once the simulation has stopped in response to {@link #requestStop()} */
+	private boolean interrupted;
+	
+	/** Released when the simulation is no longer running, so that {@link #requestStop()} callers can wait for the checkpoint */
+	private final CountDownLatch stoppedLatch = new CountDownLatch(1);
+	
 	/** 
 	 * Exception thrown if the simulation encountered a problem when running. 
 	 */
@@ -97,6 +271,15 @@ public abstract class Simulation {
 			this.executionTimeSeconds = delaySeconds + currentSeconds;
 		}
 		
+		/**
+		 * Used when restoring the queue from a checkpoint.
+		 * @param executionTimeSeconds The absolute simulation time at which this event should execute.
+		 * @param absolute Only present to distinguish this constructor.
+		 */
+		protected QueueEvent(double executionTimeSeconds, boolean absolute) {
+			this.executionTimeSeconds = executionTimeSeconds;
+		}
+		
 		/**
 		 * @return The simulation time (in seconds) at which this event should execute.
 		 */
@@ -134,6 +317,16 @@ public abstract class Simulation {
 			this.membrane = membrane;
 			this.reaction = reaction;
 		}
+		
+		/**
+		 * Used when restoring the queue from a checkpoint.
+		 */
+		public AddProductsEvent(double executionTimeSeconds, Membrane membrane, Reaction reaction) {
+			super(executionTimeSeconds, true);
+			this.speciesToAdd = reaction.getProducedSpecies();
+			this.membrane = membrane;
+			this.reaction = reaction;
+		}
 
 		@Override
 		public void execute() throws InvalidSimulationException {
@@ -149,12 +342,7 @@ public abstract class Simulation {
 		public String toString() {
 			StringBuilder result = new StringBuilder();
 			result.append(String.format("At time %f, Add products: (", executionTimeSeconds));
-			String separator = "";
-			for (StoichiometrySpecies stoichSpecies: speciesToAdd) {
-				result.append(separator);
-				separator = ", ";
-				result.append(stoichSpecies);
-			}
+			result.append(describeProducts(speciesToAdd));
 			result.append(String.format(") to membrane: %s", membrane.getType()));
 			return result.toString();
 		}
@@ -166,6 +354,17 @@ public abstract class Simulation {
 	 */
 	protected abstract double getReactionPropensity(Reaction reaction);
 	
+	/**
+	 * Write any state held by the algorithm for choosing reactions, so that it can be restored exactly.
+	 * @see #readEngineState(DataInputStream)
+	 */
+	protected abstract void writeEngineState(DataOutputStream output) throws IOException;
+	
+	/**
+	 * Restore the state written by {@link #writeEngineState(DataOutputStream)}.
+	 */
+	protected abstract void readEngineState(DataInputStream input) throws IOException;
+	
 	/**
 	 * Create a new simulation, set up with the given initial conditions.
 	 * @param model
@@ -174,18 +373,48 @@ public abstract class Simulation {
 	 * @throws InvalidSimulationException If the simulation could not be created.
 	 */
 	public Simulation(MembraneModel model, Membrane initialConditions, Integer randomSeed) throws InvalidSimulationException {
+		this(model, initialConditions, randomSeed, RandomGeneratorType.MERSENNE_TWISTER, 0);
+	}
+	
+	/**
+	 * @param model
+	 * @param initialConditions
+	 * @param randomSeed can be null, to not set the seed
+	 * @param generatorType The random number generator to use.
+	 * @param replicate The number of this run among runs of the same model with the same seed. Each replicate has its own random number stream.
+	 * @throws InvalidSimulationException If the simulation could not be created.
+	 */
+	public Simulation(MembraneModel model, Membrane initialConditions, Integer randomSeed, RandomGeneratorType generatorType, int replicate) throws InvalidSimulationException {
 		this.model = model;
 		this.currentState = initialConditions;
 		
 		if (randomSeed == null) {
 			randomSeed = Math.abs(new MersenneTwisterFast().nextInt());
 		}
-		Logging.getLogger(LogType.PROGRESS).log("Random seed is " + randomSeed);
-		this.rand = new MersenneTwisterFast(randomSeed);
+		if (replicate == 0) {
+			Logging.getLogger(LogType.PROGRESS).log("Random seed is " + randomSeed);
+		}
+		else {
+			Logging.getLogger(LogType.PROGRESS).log(String.format("Random seed is %d, replicate %d", randomSeed, replicate));
+		}
+		this.randomSeed = randomSeed;
+		this.replicate = replicate;
+		this.rand = generatorType.createStream(randomSeed, replicate, 0);
 		
 		this.eventQueue = new PriorityQueue<>();
 	}
 	
+	/**
+	 * Subclasses that run parts of the simulation on separate threads can use this to give each part its own random numbers,
+	 *   so that results don't depend on how many threads are used.
+	 * Partition 0 is {@link #rand}'s stream, so other parts should start from 1.
+	 * @param partition
+	 * @return A new random number stream for the given part of this simulation.
+	 */
+	protected RandomStream createPartitionStream(int partition) {
+		return rand.getType().createStream(randomSeed, replicate, partition);
+	}
+	
 	/**
 	 * @return The model that this simulation is running.
 	 */
@@ -222,27 +451,84 @@ public abstract class Simulation {
 	 * @throws InvalidSimulationException If anything went wrong when running the simulation.
 	 */
 	public boolean runSeconds(long numSeconds, long secondsBeforePrint, List<String> namesToPrint, boolean runHours) throws InvalidSimulationException {	
+		try {
+			boolean stoppedEarly = runSecondsInChunks(numSeconds, secondsBeforePrint, namesToPrint, runHours);
+			observedState.printedSpeciesCountsValid = false;
+			for (SimulationObserver observer: observers) {
+				observer.runFinished(observedState, stoppedEarly);
+			}
+			return stoppedEarly;
+		}
+		finally {
+			if (outputWriter != null) {
+				outputWriter.close();
+				outputWriter = null;
+			}
+			outputRowWriter = null;
+			outputRow = null;
+			closeEventTrace();
+			stoppedLatch.countDown();
+		}
+	}
+	
+	private boolean runSecondsInChunks(long numSeconds, long secondsBeforePrint, List<String> namesToPrint, boolean runHours) throws InvalidSimulationException {	
 		if (Logging.isLoggable(LogType.DETAIL)) {
 			Logging.getLogger(LogType.DETAIL).log(String.format("Seconds: %.3f", currentSeconds));
 			Logging.getLogger(LogType.DETAIL).log("\n" + currentState.toString());
 		}
 		
-		// Print out headings for the output
-		printHeadings(namesToPrint, runHours);
-
-		// Run the simulation
-		currentSeconds = 0f;
-		nominalSeconds = 0;
-		printSpecies(namesToPrint, runHours); // print out time 0
+		printedSpeciesNames = namesToPrint;
+		unwatchSpecies();
+		addLogObservers(namesToPrint, runHours);
+		observedState.printedSpeciesCountsValid = false;
+		for (SimulationObserver observer: observers) {
+			observer.runStarted(observedState, resumedFromCheckpoint);
+		}
+		
+		if (resumedFromCheckpoint) {
+			// Output files already contain the headings and earlier rows
+			if (Logging.isLoggable(LogType.PRINTED_SPECIES_PER_MEMBRANE)) {
+				computeMembranesToPrint();
+			}
+			if (secondsBeforePrint != this.secondsBeforePrint) {
+				throw new InvalidSimulationException(String.format("Checkpoint was written when printing every %d seconds, but resumed run prints every %d seconds", 
+						this.secondsBeforePrint, secondsBeforePrint), null);
+			}
+			Logging.getLogger(LogType.PROGRESS).log(String.format("Resuming simulation at %f seconds", currentSeconds));
+		}
+		else {
+			// Print out headings for the output
+			printHeadings(namesToPrint, runHours);
+	
+			// Run the simulation
+			currentSeconds = 0f;
+			nominalSeconds = 0;
+			completedChunks = 0;
+			this.secondsBeforePrint = secondsBeforePrint;
+			printSpecies(namesToPrint, runHours); // print out time 0
+		}
 		boolean stoppedEarly = false;
+		// The detector starts again after resuming, so it only sees chunks run in this process
+		SteadyStateDetector steadyStateDetector = steadyStateTolerance == null ? null 
+				: new SteadyStateDetector(steadyStateSpecies != null ? steadyStateSpecies.size() : 1, steadyStateTolerance, steadyStateWindowChunks);
+		openEventTrace();
 		
 		Logging.getLogger(LogType.PROGRESS).log(String.format("Running simulation for %d seconds", numSeconds));
 		
 		// Run in chunks of how often we are printing
 		int numUpdates = (int) Math.ceil((double)numSeconds / secondsBeforePrint);
-		for (int i = 0; i < numUpdates; i++) {
+		for (int i = completedChunks; i < numUpdates; i++) {
 			// Run one chunk
+			if (stopRequested) {
+				stopWithCheckpoint();
+				return true;
+			}
 			stoppedEarly = runForSeconds(secondsBeforePrint);
+			if (interrupted) {
+				// Checkpoint has been written part way through this chunk, so don't print it
+				return true;
+			}
+			completedChunks = i + 1;
 			
 			if (Logging.isLoggable(LogType.DETAIL)) {
 				Logging.getLogger(LogType.DETAIL).log(String.format("Seconds: %.3f", currentSeconds));
@@ -258,38 +544,542 @@ public abstract class Simulation {
 			long secondsRunSoFar = (i + 1) * secondsBeforePrint;
 			Logging.getLogger(LogType.PROGRESS).log(String.format("Run %d of %d seconds (%.1f%%)", 
 					secondsRunSoFar, numSeconds, 100f * secondsRunSoFar / numSeconds));
+			
+			if (steadyStateDetector != null && steadyStateDetector.addSample(steadyStateSample())) {
+				Logging.getLogger(LogType.PROGRESS).log(String.format("Steady state reached at %d seconds", nominalSeconds));
+				stoppedEarly = true;
+				break;
+			}
+			
+			if (checkpointFile != null && chunksPerCheckpoint > 0 && completedChunks % chunksPerCheckpoint == 0 && completedChunks < numUpdates) {
+				writeCheckpoint(checkpointFile);
+			}
+		}
+		
+		// Always checkpoint at the end, so that the run can be extended later
+		if (checkpointFile != null) {
+			writeCheckpoint(checkpointFile);
 		}
 		
 		return stoppedEarly;
 	}
 	
+	/**
+	 * @return The numbers watched for a steady state at the current time.
+	 */
+	private double[] steadyStateSample() {
+		if (steadyStateSpecies == null) {
+			double totalPropensity = 0;
+			for (Reaction reaction: model.getReactionList()) {
+				totalPropensity += getReactionPropensity(reaction);
+			}
+			return new double[]{totalPropensity};
+		}
+		double[] sample = new double[steadyStateSpecies.size()];
+		for (int i = 0; i < sample.length; i++) {
+			sample[i] = currentState.getAllSpecies(steadyStateSpecies.get(i));
+		}
+		return sample;
+	}
+	
+	/**
+	 * Stop the run once it reaches a steady state, i.e. once the means of some numbers over the last window of print chunks 
+	 *   are all within a tolerance of their means over the window before.
+	 * @param tolerance The largest change in each mean between windows, as a fraction of the larger mean.
+	 * @param windowChunks The number of print chunks in each window.
+	 * @param speciesNames The species whose totals over all membranes are watched, or null to watch the total propensity of all reactions.
+	 * @see SteadyStateDetector
+	 */
+	public void setSteadyStateDetection(double tolerance, int windowChunks, List<String> speciesNames) {
+		this.steadyStateTolerance = tolerance;
+		this.steadyStateWindowChunks = windowChunks;
+		this.steadyStateSpecies = speciesNames;
+	}
+	
+	/**
+	 * Write checkpoints of the simulation state while running, and at the end of the run.
+	 * @param checkpointFile The file to write, which is overwritten by each checkpoint.
+	 * @param chunksPerCheckpoint Write a checkpoint every this many print chunks, or 0 to only write one at the end of the run.
+	 */
+	public void setCheckpointing(File checkpointFile, int chunksPerCheckpoint) {
+		this.checkpointFile = checkpointFile;
+		this.chunksPerCheckpoint = chunksPerCheckpoint;
+	}
+	
+	/**
+	 * Write a compact binary trace of every reaction that fires and every delayed event, instead of the text of the FULL log.
+	 * @param eventTraceFile The file to write, or null to not write a trace.
+	 * @see EventTraceWriter
+	 */
+	public void setEventTrace(File eventTraceFile) {
+		this.eventTraceFile = eventTraceFile;
+	}
+	
+	/**
+	 * Start writing the event trace, if one was requested. 
+	 * When resuming from a checkpoint, events after the checkpoint are discarded, as the resumed run will write them again.
+	 */
+	private void openEventTrace() throws InvalidSimulationException {
+		if (eventTraceFile == null) {
+			return;
+		}
+		List<Reaction> reactions = model.getReactionList();
+		List<Membrane> membranes = new ArrayList<>(currentState.getAllMembranes());
+		traceMembraneIds = new IdentityHashMap<>();
+		try {
+			if (resumedFromCheckpoint && resumedEventTraceLength >= 0 && eventTraceFile.exists()) {
+				eventTrace = EventTraceWriter.append(eventTraceFile, resumedEventTraceLength);
+			}
+			else {
+				List<String> reactionDescriptions = new ArrayList<>();
+				List<String> reactionProducts = new ArrayList<>();
+				for (Reaction reaction: reactions) {
+					reactionDescriptions.add(reaction.toString());
+					reactionProducts.add(describeProducts(reaction.getProducedSpecies()));
+				}
+				List<String> membraneTypes = new ArrayList<>();
+				List<String> membraneTags = new ArrayList<>();
+				for (Membrane membrane: membranes) {
+					membraneTypes.add(membrane.getType());
+					membraneTags.add(membrane.getUniqueTag());
+				}
+				eventTrace = EventTraceWriter.create(eventTraceFile, reactionDescriptions, reactionProducts, membraneTypes, membraneTags);
+			}
+		} catch (IOException e) {
+			throw new InvalidSimulationException("Could not write event trace file: " + eventTraceFile, e);
+		}
+		for (int i = 0; i < membranes.size(); i++) {
+			traceMembraneIds.put(membranes.get(i), i);
+		}
+	}
+	
+	/**
+	 * Add an event to the event trace, if one is being written.
+	 * @param secondsElapsed The number of seconds that the event adds to the clock.
+	 */
+	private void traceEvent(TraceEventKind kind, double secondsElapsed, Reaction reaction, Membrane membrane) throws InvalidSimulationException {
+		if (eventTrace == null) {
+			return;
+		}
+		try {
+			eventTrace.write(kind, secondsElapsed, model.getReactionId(reaction), traceMembraneIds.get(membrane));
+		} catch (IOException e) {
+			throw new InvalidSimulationException("Could not write event trace file: " + eventTraceFile, e);
+		}
+	}
+	
+	/**
+	 * Finish writing the event trace, if one is being written.
+	 */
+	private void closeEventTrace() throws InvalidSimulationException {
+		if (eventTrace == null) {
+			return;
+		}
+		try {
+			eventTrace.close();
+		} catch (IOException e) {
+			throw new InvalidSimulationException("Could not write event trace file: " + eventTraceFile, e);
+		}
+		finally {
+			eventTrace = null;
+		}
+	}
+	
+	/**
+	 * @return The given products as text, as used when describing delayed products.
+	 */
+	private static String describeProducts(Collection<StoichiometrySpecies> products) {
+		StringBuilder result = new StringBuilder();
+		String separator = "";
+		for (StoichiometrySpecies stoichSpecies: products) {
+			result.append(separator);
+			separator = ", ";
+			result.append(stoichSpecies);
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Ask the simulation to write a checkpoint and stop, at the end of the current step.
+	 * Safe to call from another thread, e.g. a shutdown hook.
+	 * @see #awaitStop(long, TimeUnit)
+	 */
+	public void requestStop() {
+		stopRequested = true;
+	}
+	
+	/**
+	 * Wait for the simulation to stop running, after calling {@link #requestStop()}.
+	 * @return True if the simulation stopped, or false if the timeout elapsed first.
+	 */
+	public boolean awaitStop(long timeout, TimeUnit unit) throws InterruptedException {
+		return stoppedLatch.await(timeout, unit);
+	}
+	
+	/**
+	 * Write the full dynamic state of the simulation to a binary file:
+	 *   the clock, the random number generator, the species in every membrane, the queue of delayed events
+	 *   and the reaction rates table. 
+	 * Resuming from this file continues the run exactly as if it had not been interrupted.
+	 * The file is written to a temporary file first, so that an interruption never leaves a partial checkpoint.
+	 * @throws InvalidSimulationException If the file could not be written.
+	 */
+	public void writeCheckpoint(File file) throws InvalidSimulationException {
+		File tempFile = new File(file.getAbsolutePath() + ".tmp");
+		List<Reaction> reactions = model.getReactionList();
+		List<Membrane> membranes = new ArrayList<>(currentState.getAllMembranes());
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+			output.writeInt(CHECKPOINT_MAGIC);
+			output.writeInt(CHECKPOINT_VERSION);
+			output.writeLong(secondsBeforePrint);
+			
+			// Enough of the model's structure to check that we are resuming the same model
+			output.writeInt(reactions.size());
+			output.writeInt(membranes.size());
+			for (Membrane membrane: membranes) {
+				output.writeUTF(membrane.getUniqueTag());
+			}
+			
+			// Clock
+			output.writeDouble(currentSeconds);
+			output.writeLong(nominalSeconds);
+			output.writeInt(completedChunks);
+			output.writeBoolean(midChunk);
+			
+			// Random number generator
+			output.writeUTF(rand.getType().name());
+			rand.writeState(output);
+			
+			// Species
+			for (Membrane membrane: membranes) {
+				membrane.writeSpeciesState(output);
+			}
+			
+			// Event queue, in the queue's internal order so that re-adding the events rebuilds the same heap
+			output.writeInt(eventQueue.size());
+			for (QueueEvent event: eventQueue) {
+				AddProductsEvent addProductsEvent = (AddProductsEvent) event;
+				output.writeDouble(addProductsEvent.getExecutionTimeSeconds());
+				output.writeInt(model.getReactionId(addProductsEvent.reaction));
+				output.writeInt(membranes.indexOf(addProductsEvent.membrane));
+			}
+			
+			// Reaction rates
+			writeEngineState(output);
+			
+			// How much of the event trace had been written at this point
+			if (eventTrace != null) {
+				eventTrace.flush();
+				output.writeLong(eventTrace.getLength());
+			}
+			else {
+				output.writeLong(-1);
+			}
+			
+			// How much of each output file had been written at this point
+			if (outputWriter != null) {
+				outputWriter.drain();
+			}
+			Map<LogType, Long> fileLengths = Logging.getTimeSeriesFileLengths();
+			output.writeInt(fileLengths.size());
+			for (Map.Entry<LogType, Long> entry: fileLengths.entrySet()) {
+				output.writeUTF(entry.getKey().name());
+				output.writeLong(entry.getValue());
+			}
+		} catch (IOException e) {
+			throw new InvalidSimulationException("Could not write checkpoint file: " + tempFile, e);
+		}
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new InvalidSimulationException("Could not write checkpoint file: " + file, e);
+		}
+		Logging.getLogger(LogType.PROGRESS).log(String.format("Wrote checkpoint at %f seconds to %s", currentSeconds, file));
+	}
+	
+	/**
+	 * Restore the state written by {@link #writeCheckpoint(File)}.
+	 * Must be called on a newly created simulation of the same model, before {@link #runSeconds(long, long, List, boolean)}.
+	 * Any rows written to the output files after the checkpoint are discarded, as the resumed run will write them again.
+	 * @throws InvalidSimulationException If the file could not be read, or was written by a different model.
+	 */
+	public void readCheckpoint(File file) throws InvalidSimulationException {
+		List<Reaction> reactions = model.getReactionList();
+		List<Membrane> membranes = new ArrayList<>(currentState.getAllMembranes());
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (input.readInt() != CHECKPOINT_MAGIC) {
+				throw new InvalidSimulationException("Not a checkpoint file: " + file, null);
+			}
+			int version = input.readInt();
+			if (version != CHECKPOINT_VERSION) {
+				throw new InvalidSimulationException(String.format("Checkpoint file %s has version %d, but expected version %d", file, version, CHECKPOINT_VERSION), null);
+			}
+			secondsBeforePrint = input.readLong();
+			
+			// Check the model matches
+			int numReactions = input.readInt();
+			int numMembranes = input.readInt();
+			if (numReactions != reactions.size() || numMembranes != membranes.size()) {
+				throw new InvalidSimulationException(String.format("Checkpoint has %d reactions and %d membranes, but model has %d reactions and %d membranes", 
+						numReactions, numMembranes, reactions.size(), membranes.size()), null);
+			}
+			for (Membrane membrane: membranes) {
+				String uniqueTag = input.readUTF();
+				if (!uniqueTag.equals(membrane.getUniqueTag())) {
+					throw new InvalidSimulationException(String.format("Checkpoint has membrane %s where model has membrane %s", uniqueTag, membrane.getUniqueTag()), null);
+				}
+			}
+			
+			// Clock
+			currentSeconds = input.readDouble();
+			nominalSeconds = input.readLong();
+			completedChunks = input.readInt();
+			resumeMidChunk = input.readBoolean();
+			
+			// Random number generator
+			String generatorName = input.readUTF();
+			if (!generatorName.equals(rand.getType().name())) {
+				throw new InvalidSimulationException(String.format("Checkpoint uses random number generator %s, but simulation uses %s", generatorName, rand.getType().name()), null);
+			}
+			rand.readState(input);
+			
+			// Species
+			for (Membrane membrane: membranes) {
+				membrane.readSpeciesState(input);
+			}
+			
+			// Event queue
+			eventQueue.clear();
+			int numEvents = input.readInt();
+			for (int i = 0; i < numEvents; i++) {
+				double executionTimeSeconds = input.readDouble();
+				Reaction reaction = reactions.get(input.readInt());
+				Membrane membrane = membranes.get(input.readInt());
+				eventQueue.add(new AddProductsEvent(executionTimeSeconds, membrane, reaction));
+			}
+			
+			// Reaction rates
+			readEngineState(input);
+			
+			// The event trace is rolled back when it is opened
+			resumedEventTraceLength = input.readLong();
+			
+			// Roll back the output files
+			Map<LogType, Long> fileLengths = new EnumMap<>(LogType.class);
+			int numFiles = input.readInt();
+			for (int i = 0; i < numFiles; i++) {
+				fileLengths.put(LogType.valueOf(input.readUTF()), input.readLong());
+			}
+			Logging.truncateTimeSeriesFiles(fileLengths);
+		} catch (IOException | IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new InvalidSimulationException("Could not read checkpoint file: " + file, e);
+		}
+		resumedFromCheckpoint = true;
+		Logging.getLogger(LogType.PROGRESS).log(String.format("Read checkpoint at %f seconds from %s", currentSeconds, file));
+	}
+	
 	/**
 	 * Print out the headings for all the requested places.
 	 */
 	private void printHeadings(List<String> namesToPrint, boolean runHours) {
-		if (Logging.isLoggable(LogType.PRINTED_SPECIES)) {
+		if (Logging.isLoggable(LogType.PRINTED_SPECIES) && writesOutputRows()) {
+			// Otherwise the headings were written by the observer that writes the log
 			printHeadingsAggregated(namesToPrint, runHours);
 		}
 		if (Logging.isLoggable(LogType.PRINTED_SPECIES_PER_MEMBRANE)) {
 			printHeadingsPerMembrane(namesToPrint, runHours);
 		}
-		if (Logging.isLoggable(LogType.PRINTED_PROPENSITIES)) {
+		if (Logging.isLoggable(LogType.PRINTED_PROPENSITIES) && writesOutputRows()) {
 			printHeadingsPropensities(runHours);
 		}
 	}
 	
+	/**
+	 * Send the printed species numbers to the given sink at each print time, whether or not the printed species log is enabled.
+	 * @param speciesRowSink The sink, or null to stop sending rows.
+	 */
+	public void setSpeciesRowSink(SpeciesRowSink speciesRowSink) {
+		if (speciesRowSinkObserver != null) {
+			removeObserver(speciesRowSinkObserver);
+			speciesRowSinkObserver = null;
+		}
+		if (speciesRowSink != null) {
+			speciesRowSinkObserver = state -> speciesRowSink.addRow(state.getRowIndex(), state.getNominalSeconds(), state.getPrintedSpeciesCounts());
+			addObserver(speciesRowSinkObserver);
+		}
+	}
+	
+	/**
+	 * Tell an observer about the results as the simulation runs, as well as writing the enabled logs.
+	 * Observers are told about each print time in the order that they were added.
+	 */
+	public void addObserver(SimulationObserver observer) {
+		observers.add(observer);
+		if (observer.observesFirings()) {
+			firingObservers.add(observer);
+		}
+	}
+	
+	/**
+	 * Stop telling an observer about the results.
+	 */
+	public void removeObserver(SimulationObserver observer) {
+		observers.remove(observer);
+		firingObservers.remove(observer);
+	}
+	
+	/**
+	 * Format and write the printed species, species per membrane and propensities logs on a background thread,
+	 *   so that the simulation only stops to copy the numbers at each print time.
+	 * @param asyncOutput
+	 */
+	public void setAsyncOutput(boolean asyncOutput) {
+		this.asyncOutput = asyncOutput;
+	}
+	
+	/**
+	 * Only print some of the membranes in the species per membrane log.
+	 * Each selector is a membrane type, a tag, a unique tag, or a range of unique tags such as macrophage_1..10.
+	 * The membranes are chosen once, when the headings are printed, so the other membranes cost nothing at each print time.
+	 * @param membraneSelectors The selectors, or null to print every membrane.
+	 */
+	public void setMembranesToPrint(List<String> membraneSelectors) {
+		this.membraneSelectors = membraneSelectors;
+	}
+	
+	/**
+	 * @param quantiles The quantiles to print in the species distribution log, each between 0 and 1.
+	 */
+	public void setDistributionQuantiles(double[] quantiles) {
+		this.distributionQuantiles = quantiles;
+	}
+	
+	/**
+	 * @param histogramBins The number of histogram bins to print in the species distribution log, at least 1.
+	 */
+	public void setDistributionHistogramBins(int histogramBins) {
+		this.distributionHistogramBins = histogramBins;
+	}
+	
 	/**
 	 * Print out the values of all the requested species.
 	 */
-	private void printSpecies(List<String> namesToPrint, boolean runHours) {
-		if (Logging.isLoggable(LogType.PRINTED_SPECIES)) {
-			printSpeciesAggregated(namesToPrint, runHours);
+	private void printSpecies(List<String> namesToPrint, boolean runHours) throws InvalidSimulationException {
+		observedState.printedSpeciesCountsValid = false;
+		for (SimulationObserver observer: observers) {
+			observer.printed(observedState);
+		}
+		if (writesOutputRows()) {
+			writeOutputRow(namesToPrint, runHours);
+			return;
 		}
 		if (Logging.isLoggable(LogType.PRINTED_SPECIES_PER_MEMBRANE)) {
 			printSpeciesOneMembrane(namesToPrint, runHours);
 		}
-		if (Logging.isLoggable(LogType.PRINTED_PROPENSITIES)) {
-			printPropensities(runHours);
+	}
+	
+	/**
+	 * @return True if the printed logs are written as rows of numbers by {@link #outputRowWriter}, rather than formatted at each print time.
+	 */
+	private boolean writesOutputRows() {
+		return asyncOutput || isBinary(LogType.PRINTED_SPECIES) || isBinary(LogType.PRINTED_SPECIES_PER_MEMBRANE) || isBinary(LogType.PRINTED_PROPENSITIES);
+	}
+	
+	/**
+	 * @return True if the given log is enabled, and writes binary rows rather than text.
+	 */
+	private static boolean isBinary(LogType logType) {
+		return Logging.getLogger(logType) instanceof ColumnarFileLogger;
+	}
+	
+	/**
+	 * @return True if the given log is enabled, and only records the numbers that have changed.
+	 */
+	private static boolean isSparse(LogType logType) {
+		return Logging.getLogger(logType) instanceof SparseFileLogger;
+	}
+	
+	/**
+	 * Copy the positions and numbers of the species per membrane columns that have changed since this was last called,
+	 *   then forget that they changed.
+	 * @return The number of columns that changed.
+	 */
+	private int copyChangedSlots(int[] columns, int[] values) {
+		int numChanged = 0;
+		for (int slot = changedSlots.nextSetBit(0); slot >= 0; slot = changedSlots.nextSetBit(slot + 1)) {
+			columns[numChanged] = slot;
+			values[numChanged] = membranesToPrint.get(slot).numSpecies(speciesNamesToPrint.get(slot), locationsToPrint.get(slot));
+			numChanged++;
+		}
+		changedSlots.clear();
+		return numChanged;
+	}
+	
+	/**
+	 * Copy the numbers for all the printed logs into a row, and either write it or pass it to {@link #outputWriter} to write.
+	 */
+	private void writeOutputRow(List<String> namesToPrint, boolean runHours) throws InvalidSimulationException {
+		boolean printSpecies = Logging.isLoggable(LogType.PRINTED_SPECIES);
+		boolean printSpeciesPerMembrane = Logging.isLoggable(LogType.PRINTED_SPECIES_PER_MEMBRANE);
+		boolean printPropensities = Logging.isLoggable(LogType.PRINTED_PROPENSITIES);
+		if (!printSpecies && !printSpeciesPerMembrane && !printPropensities) {
+			return;
+		}
+		if (outputRowWriter == null) {
+			outputRowWriter = new OutputRowWriter(namesToPrint.size(), printSpeciesPerMembrane ? membranesToPrint.size() : 0, model.getNumReactions(),
+					printSpecies ? Logging.getLogger(LogType.PRINTED_SPECIES) : null,
+					printSpeciesPerMembrane ? Logging.getLogger(LogType.PRINTED_SPECIES_PER_MEMBRANE) : null,
+					printPropensities ? Logging.getLogger(LogType.PRINTED_PROPENSITIES) : null);
+			if (asyncOutput) {
+				outputWriter = new AsyncOutputWriter(outputRowWriter);
+			}
+			else {
+				outputRow = outputRowWriter.newRow();
+			}
+		}
+		OutputRowWriter.Row row = outputWriter != null ? outputWriter.nextRow() : outputRow;
+		row.time = runHours ? nominalSeconds / (60 * 60) : nominalSeconds;
+		for (int i = 0; i < row.species.length; i++) {
+			row.species[i] = currentState.getAllSpecies(namesToPrint.get(i));
+		}
+		if (row.changedColumns != null) {
+			row.numChanged = copyChangedSlots(row.changedColumns, row.speciesPerMembrane);
+		}
+		else {
+			for (int i = 0; i < row.speciesPerMembrane.length; i++) {
+				row.speciesPerMembrane[i] = membranesToPrint.get(i).numSpecies(speciesNamesToPrint.get(i), locationsToPrint.get(i));
+			}
+		}
+		if (row.propensities.length > 0) {
+			int reactionNumber = 0;
+			for (Reaction reaction: model.getReactionList()) {
+				row.propensities[reactionNumber++] = getReactionPropensity(reaction);
+			}
+		}
+		if (outputWriter != null) {
+			outputWriter.submit(row);
+		}
+		else {
+			outputRowWriter.write(row);
+		}
+	}
+	
+	/**
+	 * Write the headings of a printed log, either as a line of text or as the columns of a binary log.
+	 * @param headingLine The headings, separated by commas.
+	 * @param timeColumn The position of the time among the headings.
+	 * @param valueType The type of all the other columns.
+	 */
+	private static void logHeadings(LogType logType, String headingLine, int timeColumn, ColumnType valueType) {
+		Logger logger = Logging.getLogger(logType);
+		if (logger instanceof ColumnarFileLogger) {
+			List<String> columnNames = Arrays.asList(headingLine.split(",", -1));
+			List<ColumnType> columnTypes = new ArrayList<>(Collections.nCopies(columnNames.size(), valueType));
+			columnTypes.set(timeColumn < 0 ? columnNames.size() + timeColumn : timeColumn, ColumnType.TIME);
+			((ColumnarFileLogger) logger).logHeadings(columnNames, columnTypes);
+		}
+		else {
+			logger.log(headingLine);
 		}
 	}
 	
@@ -308,25 +1098,54 @@ public abstract class Simulation {
 		else {
 			headingLine.append("Seconds");
 		}
-		Logging.getLogger(LogType.PRINTED_SPECIES).log(headingLine.toString());
+		logHeadings(LogType.PRINTED_SPECIES, headingLine.toString(), -1, ColumnType.INT);
 	}
 	
 	/**
-	 * Print the species concentrations for the aggregated species file.
+	 * Replace the observers that write the logs of the previous run with new ones for the enabled logs.
+	 * Each observer writes its headings when the run starts, unless the run resumes from a checkpoint.
 	 */
-	private void printSpeciesAggregated(List<String> namesToPrint, boolean runHours) {
-		StringBuilder speciesLine = new StringBuilder();
-		for (String placeName: namesToPrint) {
-			speciesLine.append(currentState.getAllSpecies(placeName));
-			speciesLine.append(",");
+	private void addLogObservers(List<String> namesToPrint, boolean runHours) throws InvalidSimulationException {
+		for (SimulationObserver observer: logObservers) {
+			removeObserver(observer);
 		}
-		if (runHours) {
-			speciesLine.append(nominalSeconds / (60 * 60));
+		logObservers.clear();
+		if (Logging.isLoggable(LogType.PRINTED_SPECIES) && !writesOutputRows()) {
+			logObservers.add(new PrintedSpeciesLog(runHours));
 		}
-		else {
-			speciesLine.append(nominalSeconds);
+		if (Logging.isLoggable(LogType.PRINTED_PROPENSITIES) && !writesOutputRows()) {
+			logObservers.add(new PropensitiesLog(runHours));
+		}
+		if (Logging.isLoggable(LogType.PRINTED_OBSERVABLES) && !model.getObservables().isEmpty()) {
+			observables = createObservables();
+			logObservers.add(new ObservablesLog(observables, runHours));
+		}
+		if (Logging.isLoggable(LogType.PRINTED_SPECIES_ENVELOPE)) {
+			// If the checkpoint was written part way through a chunk, its interval only covers the time after resuming
+			speciesEnvelopes = new SpeciesEnvelopes(currentState, namesToPrint, resumedFromCheckpoint ? Math.min(currentSeconds, nominalSeconds) : 0);
+			logObservers.add(new SpeciesEnvelopeLog(speciesEnvelopes, runHours));
+		}
+		if (Logging.isLoggable(LogType.PRINTED_SPECIES_DISTRIBUTION)) {
+			logObservers.add(new SpeciesDistributionLog(
+					new SpeciesDistributions(currentState, computeSpeciesPerMembrane(), distributionQuantiles, distributionHistogramBins), runHours));
+		}
+		if (Logging.isLoggable(LogType.PRINTED_FIRING_COUNTS)) {
+			logObservers.add(new FiringCountsLog(model.getNumReactions(), observedState.getNumMembranes(), runHours));
+		}
+		for (SimulationObserver observer: logObservers) {
+			addObserver(observer);
+		}
+	}
+	
+	/**
+	 * @return The observables of the model, watching the species of the current state.
+	 */
+	private Observables createObservables() throws InvalidSimulationException {
+		try {
+			return new Observables(currentState, model.getObservables());
+		} catch (InvalidEquationEvaluationException e) {
+			throw new InvalidSimulationException("Could not count the species in the observables", e);
 		}
-		Logging.getLogger(LogType.PRINTED_SPECIES).log(speciesLine.toString());
 	}
 	
 	/**
@@ -340,20 +1159,144 @@ public abstract class Simulation {
 		else {
 			headingLine.append("Seconds");
 		}
+		computeMembranesToPrint(headingLine);
+		logHeadings(LogType.PRINTED_SPECIES_PER_MEMBRANE, headingLine.toString(), 0, ColumnType.INT);
+	}
+	
+	/**
+	 * Stop the observables, species envelopes, stop conditions and sparse species per membrane log of the previous run from watching the species,
+	 *   as each run creates its own.
+	 * The stop conditions are created again when the run first steps, so that conditions that are already met are found straight away.
+	 */
+	private void unwatchSpecies() {
+		if (stopConditions != null) {
+			currentState.unwatchSpecies(stopConditions);
+			stopConditions = null;
+		}
+		if (observables != null) {
+			currentState.unwatchSpecies(observables);
+			observables = null;
+		}
+		if (speciesEnvelopes != null) {
+			currentState.unwatchSpecies(speciesEnvelopes);
+			speciesEnvelopes = null;
+		}
+		if (changedSlotsWatcher != null) {
+			currentState.unwatchSpecies(changedSlotsWatcher);
+			changedSlotsWatcher = null;
+			changedSlots = null;
+		}
+	}
+	
+	/**
+	 * Work out which species to print in each membrane, without printing the headings.
+	 * Used when resuming from a checkpoint, because the output file already has its headings.
+	 */
+	private void computeMembranesToPrint() {
+		computeMembranesToPrint(new StringBuilder());
+	}
+	
+	/**
+	 * Work out which species to print in each membrane, accumulating the headings into the given StringBuilder.
+	 */
+	private void computeMembranesToPrint(StringBuilder headingLine) {
 		Map<String, Set<LocatedSpecies>> speciesPerMembrane = computeSpeciesPerMembrane();
 		membranesToPrint = new ArrayList<>();
 		speciesNamesToPrint = new ArrayList<>();
 		locationsToPrint = new ArrayList<>();
-		printHeadingsOneMembrane(currentState, speciesPerMembrane, headingLine);
-		Logging.getLogger(LogType.PRINTED_SPECIES_PER_MEMBRANE).log(headingLine.toString());
+		printHeadingsOneMembrane(currentState, speciesPerMembrane, selectMembranesToPrint(), headingLine);
+		
+		if (isSparse(LogType.PRINTED_SPECIES_PER_MEMBRANE)) {
+			// Have the membranes mark their printed numbers as they change, so that each line only has to look at those numbers
+			changedSlots = new BitSet(membranesToPrint.size());
+			changedColumns = new int[membranesToPrint.size()];
+			changedValues = new int[membranesToPrint.size()];
+			changedSlotsWatcher = (slot, change) -> changedSlots.set(slot);
+			for (int i = 0; i < membranesToPrint.size(); i++) {
+				membranesToPrint.get(i).watchSpecies(locationsToPrint.get(i), speciesNamesToPrint.get(i), changedSlotsWatcher, i);
+			}
+			// None of the numbers have been written yet
+			changedSlots.set(0, membranesToPrint.size());
+		}
+	}
+	
+	/**
+	 * @return The membranes chosen by {@link #membraneSelectors}, or null to print every membrane.
+	 */
+	private Set<Membrane> selectMembranesToPrint() {
+		if (membraneSelectors == null) {
+			return null;
+		}
+		// Selectors can overlap, e.g. a type and a range of its unique tags.
+		// Ranges are kept as their bounds and compared with the number at the end of each name, however wide they are.
+		Map<String, List<String>> selectorsByName = new HashMap<>();
+		List<MembraneRange> ranges = new ArrayList<>();
+		for (String selector: membraneSelectors) {
+			Matcher range = MEMBRANE_RANGE.matcher(selector);
+			if (range.matches()) {
+				ranges.add(new MembraneRange(selector, range.group(1), Long.parseLong(range.group(2)), Long.parseLong(range.group(3))));
+			}
+			else {
+				selectorsByName.computeIfAbsent(selector, name -> new ArrayList<>()).add(selector);
+			}
+		}
+		
+		Set<Membrane> selected = Collections.newSetFromMap(new IdentityHashMap<>());
+		Set<String> usedSelectors = new HashSet<>();
+		for (Membrane membrane: currentState.getAllMembranes()) {
+			List<String> names = new ArrayList<>(membrane.getTags());
+			names.add(membrane.getType());
+			names.add(membrane.getUniqueTag());
+			for (String name: names) {
+				List<String> selectors = selectorsByName.get(name);
+				if (selectors != null) {
+					selected.add(membrane);
+					usedSelectors.addAll(selectors);
+				}
+				if (!ranges.isEmpty()) {
+					Matcher numbered = NUMBERED_NAME.matcher(name);
+					if (numbered.matches()) {
+						long number = Long.parseLong(numbered.group(2));
+						for (MembraneRange range: ranges) {
+							if (range.prefix.equals(numbered.group(1)) && range.first <= number && number <= range.last) {
+								selected.add(membrane);
+								usedSelectors.add(range.selector);
+							}
+						}
+					}
+				}
+			}
+		}
+		for (String selector: membraneSelectors) {
+			if (!usedSelectors.contains(selector)) {
+				Logging.getLogger(LogType.WARNING).log(String.format("No membranes match %s, so none of its species will be printed per membrane", selector));
+			}
+		}
+		return selected;
+	}
+	
+	/** A range of unique tags from {@link #membraneSelectors}, e.g. macrophage_1..10 */
+	private static class MembraneRange {
+		final String selector;
+		final String prefix;
+		final long first;
+		final long last;
+		
+		MembraneRange(String selector, String prefix, long first, long last) {
+			this.selector = selector;
+			this.prefix = prefix;
+			this.first = first;
+			this.last = last;
+		}
 	}
 	
 	/**
 	 * Accumulate the headings from this membrane and all its descendants into the given StringBuilder.
+	 * @param selectedMembranes The membranes to print, or null to print every membrane.
 	 */
-	private void printHeadingsOneMembrane(Membrane membrane, Map<String, Set<LocatedSpecies>> speciesPerMembrane, StringBuilder output) {
+	private void printHeadingsOneMembrane(Membrane membrane, Map<String, Set<LocatedSpecies>> speciesPerMembrane, Set<Membrane> selectedMembranes, StringBuilder output) {
 		Set<LocatedSpecies> species = speciesPerMembrane.get(membrane.getType());
-		if (species != null) {
+		if (species != null && (selectedMembranes == null || selectedMembranes.contains(membrane))) {
 			for (LocatedSpecies locatedSpecies: species) {
 				output
 				  .append(",")
@@ -368,7 +1311,7 @@ public abstract class Simulation {
 			}
 		}
 		for (Membrane childMembrane: membrane.getContainedMembranes()) {
-			printHeadingsOneMembrane(childMembrane, speciesPerMembrane, output);
+			printHeadingsOneMembrane(childMembrane, speciesPerMembrane, selectedMembranes, output);
 		}
 	}
 
@@ -376,7 +1319,13 @@ public abstract class Simulation {
 	 * Print the species concentrations for the species file per membrane.
 	 */
 	private void printSpeciesOneMembrane(List<String> namesToPrint, boolean runHours) {
-		StringBuilder speciesLine = new StringBuilder();
+		if (changedSlots != null) {
+			int numChanged = copyChangedSlots(changedColumns, changedValues);
+			((SparseFileLogger) Logging.getLogger(LogType.PRINTED_SPECIES_PER_MEMBRANE)).logRow(
+					runHours ? nominalSeconds / (60 * 60) : nominalSeconds, changedColumns, changedValues, numChanged);
+			return;
+		}
+		CsvRowWriter speciesLine = csvLine.clear();
 		if (runHours) {
 			speciesLine.append(nominalSeconds / (60 * 60));
 		}
@@ -384,10 +1333,10 @@ public abstract class Simulation {
 			speciesLine.append(nominalSeconds);
 		}
 		for (int i = 0; i < membranesToPrint.size(); i++) {
-			speciesLine.append(",");
+			speciesLine.append(',');
 			speciesLine.append(membranesToPrint.get(i).numSpecies(speciesNamesToPrint.get(i), locationsToPrint.get(i)));
 		}
-		Logging.getLogger(LogType.PRINTED_SPECIES_PER_MEMBRANE).log(speciesLine.toString());
+		speciesLine.writeTo(Logging.getLogger(LogType.PRINTED_SPECIES_PER_MEMBRANE));
 	}
 	
 	/**
@@ -456,36 +1405,71 @@ public abstract class Simulation {
 			headingLine.append(",");
 			headingLine.append("reaction" + i);
 		}
-		Logging.getLogger(LogType.PRINTED_PROPENSITIES).log(headingLine.toString());
+		logHeadings(LogType.PRINTED_PROPENSITIES, headingLine.toString(), 0, ColumnType.DOUBLE);
 	}
 	
 	/**
-	 * Print the propensities of each reaction to the output file.
+	 * Run a given number of seconds of the simulation.
+	 * @param numSeconds
+	 * @return false if we reached the time, or true if we ran out of viable reactions or met a stop condition before reaching the number of seconds.
+	 * @throws InvalidSimulationException If anything went wrong when running the simulation.
 	 */
-	private void printPropensities(boolean runHours) {
-		StringBuilder propensitiesLine = new StringBuilder();
-		if (runHours) {
-			propensitiesLine.append(nominalSeconds / (60 * 60));
+	public boolean runForSeconds(long numSeconds) throws InvalidSimulationException {
+		if (resumeMidChunk) {
+			// Resuming part way through this chunk, so its end time has already been set
+			resumeMidChunk = false;
 		}
 		else {
-			propensitiesLine.append(nominalSeconds);
+			nominalSeconds += numSeconds;
+		}
+		midChunk = true;
+		try {
+			return runUntilNominalSeconds();
 		}
-		for (Reaction reaction: model.getReactions()) {
-			propensitiesLine.append(",");
-			propensitiesLine.append(getReactionPropensity(reaction));
+		finally {
+			midChunk = false;
 		}
-		Logging.getLogger(LogType.PRINTED_PROPENSITIES).log(propensitiesLine.toString());
 	}
 	
 	/**
-	 * Run a given number of seconds of the simulation.
-	 * @param numSeconds
-	 * @return false if we reached the time, or true if we ran out of viable reactions before reaching the number of seconds.
-	 * @throws InvalidSimulationException If anything went wrong when running the simulation.
+	 * Respond to {@link #requestStop()} by writing a checkpoint (if checkpointing is enabled).
 	 */
-	public boolean runForSeconds(long numSeconds) throws InvalidSimulationException {
-		nominalSeconds += numSeconds;
+	private void stopWithCheckpoint() throws InvalidSimulationException {
+		interrupted = true;
+		if (checkpointFile != null) {
+			writeCheckpoint(checkpointFile);
+		}
+		Logging.getLogger(LogType.PROGRESS).log(String.format("Simulation interrupted at %f seconds", currentSeconds));
+	}
+	
+	/**
+	 * Run steps until the simulation time reaches {@link #nominalSeconds}.
+	 * @return false if we reached the time, or true if we ran out of viable reactions, met a stop condition or were asked to stop.
+	 */
+	private boolean runUntilNominalSeconds() throws InvalidSimulationException {
+		if (stopConditions == null && !model.getStopConditions().isEmpty()) {
+			try {
+				stopConditions = new StopConditions(currentState, model.getStopConditions());
+			} catch (InvalidEquationEvaluationException e) {
+				throw new InvalidSimulationException("Could not count the species in the stop conditions", e);
+			}
+		}
 		while (currentSeconds < nominalSeconds) {
+			if (stopRequested) {
+				stopWithCheckpoint();
+				return true;
+			}
+			if (stopConditions != null) {
+				StopCondition metCondition = stopConditions.findMetCondition();
+				if (metCondition != null) {
+					Logging.getLogger(LogType.PROGRESS).log(String.format("Stop condition met at %f seconds: %s", currentSeconds, metCondition));
+					return true;
+				}
+			}
+			if (!hasMoreEvents()) {
+				Logging.getLogger(LogType.DETAIL).log(String.format("No more events. Stopping simulation early at time %s", currentSeconds));
+				return true;
+			}
 			Double secondsElapsed = step();
 			if (secondsElapsed == null) {
 				Logging.getLogger(LogType.DETAIL).log(String.format("No more viable reactions. Stopping simulation early at time %s", currentSeconds));
@@ -540,6 +1524,14 @@ public abstract class Simulation {
 				Logging.getLogger(LogType.FULL).log(String.format("Fired reaction: %s in membrane: %s\n", 
 						reaction, chosenReaction.getLocation().getType()));
 			}
+			traceEvent(TraceEventKind.REACTION_FIRED, chosenReaction.getSecondsToFiring(), reaction, membrane);
+			if (!firingObservers.isEmpty()) {
+				int reactionId = reaction.getId();
+				int membraneId = observedState.getMembraneId(membrane);
+				for (SimulationObserver observer: firingObservers) {
+					observer.reactionFired(currentSeconds + chosenReaction.getSecondsToFiring(), reactionId, membraneId);
+				}
+			}
 			
 			return chosenReaction.getSecondsToFiring();
 		}
@@ -551,8 +1543,21 @@ public abstract class Simulation {
 			if (Logging.isLoggable(LogType.FULL)) {
 				Logging.getLogger(LogType.FULL).log(String.format("Executed queue event: %s\n", event));
 			}
+			double secondsElapsed = event.getExecutionTimeSeconds() - currentSeconds;
+			if (eventTrace != null) {
+				AddProductsEvent addProductsEvent = (AddProductsEvent) event;
+				traceEvent(TraceEventKind.PRODUCTS_ADDED, secondsElapsed, addProductsEvent.reaction, addProductsEvent.membrane);
+			}
+			if (!firingObservers.isEmpty()) {
+				AddProductsEvent addProductsEvent = (AddProductsEvent) event;
+				int reactionId = addProductsEvent.reaction.getId();
+				int membraneId = observedState.getMembraneId(addProductsEvent.membrane);
+				for (SimulationObserver observer: firingObservers) {
+					observer.productsAdded(event.getExecutionTimeSeconds(), reactionId, membraneId);
+				}
+			}
 			
-			return event.getExecutionTimeSeconds() - currentSeconds;
+			return secondsElapsed;
 		}
 		else {
 			// No reaction to fire and nothing on the queue
@@ -567,10 +1572,110 @@ public abstract class Simulation {
 	 */
 	protected abstract ChosenReaction chooseRandomReaction() throws InvalidSimulationException;
 	
+	/**
+	 * Checked before each step, for simulations whose events come from somewhere other than the model.
+	 * @return False to stop the simulation, even if there are still events on the queue.
+	 */
+	protected boolean hasMoreEvents() {
+		return true;
+	}
+	
 	/**
 	 * Recalculates the reaction propensities, as if the given reaction had just fired in the given membrane.
 	 * @param reaction 
 	 * @param membrane
 	 */
 	protected abstract void recalculatePropensitiesFrom(Reaction reaction, Membrane membrane) throws InvalidSimulationException;
+	
+	/**
+	 * The view of this simulation given to the observers.
+	 * The membranes are numbered the first time they are needed, because the tree of membranes doesn't change.
+	 */
+	private class ObservedState implements StateView {
+		
+		private List<Membrane> membranes;
+		
+		/** The printed species counts, reused for each print time and only counted if an observer asks for them */
+		private int[] printedSpeciesCounts;
+		private boolean printedSpeciesCountsValid;
+		
+		@Override
+		public int getRowIndex() {
+			return completedChunks;
+		}
+		
+		@Override
+		public long getNominalSeconds() {
+			return nominalSeconds;
+		}
+		
+		@Override
+		public double getCurrentSeconds() {
+			return currentSeconds;
+		}
+		
+		@Override
+		public List<String> getPrintedSpeciesNames() {
+			return Collections.unmodifiableList(printedSpeciesNames);
+		}
+		
+		@Override
+		public int[] getPrintedSpeciesCounts() {
+			if (!printedSpeciesCountsValid) {
+				if (printedSpeciesCounts == null || printedSpeciesCounts.length != printedSpeciesNames.size()) {
+					printedSpeciesCounts = new int[printedSpeciesNames.size()];
+				}
+				for (int i = 0; i < printedSpeciesCounts.length; i++) {
+					printedSpeciesCounts[i] = currentState.getAllSpecies(printedSpeciesNames.get(i));
+				}
+				printedSpeciesCountsValid = true;
+			}
+			return printedSpeciesCounts;
+		}
+		
+		private List<Membrane> getMembranes() {
+			if (membranes == null) {
+				membranes = new ArrayList<>(currentState.getAllMembranes());
+				for (int membraneId = 0; membraneId < membranes.size(); membraneId++) {
+					membranes.get(membraneId).setId(membraneId);
+				}
+			}
+			return membranes;
+		}
+		
+		int getMembraneId(Membrane membrane) {
+			getMembranes();
+			return membrane.getId();
+		}
+		
+		@Override
+		public int getNumMembranes() {
+			return getMembranes().size();
+		}
+		
+		@Override
+		public String getMembraneTag(int membraneId) {
+			return getMembranes().get(membraneId).getUniqueTag();
+		}
+		
+		@Override
+		public String getMembraneType(int membraneId) {
+			return getMembranes().get(membraneId).getType();
+		}
+		
+		@Override
+		public int getSpeciesCount(int membraneId, Location location, String speciesName) {
+			return getMembranes().get(membraneId).numSpecies(speciesName, location);
+		}
+		
+		@Override
+		public int getNumReactions() {
+			return model.getReactionList().size();
+		}
+		
+		@Override
+		public double getReactionPropensity(int reactionId) {
+			return Simulation.this.getReactionPropensity(model.getReactionList().get(reactionId));
+		}
+	}
 }
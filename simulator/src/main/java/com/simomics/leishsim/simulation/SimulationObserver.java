@@ -0,0 +1,55 @@
+package com.simomics.leishsim.simulation;
+
+/**
+ * Receives the results of a simulation as it runs, for code that embeds the simulator and wants the numbers without reading log files.
+ * Only {@link #printed(StateView)} must be implemented. The other callbacks do nothing unless they are overridden.
+ * All the callbacks are made on the thread that runs the simulation.
+ * @see Simulation#addObserver(SimulationObserver)
+ */
+public interface SimulationObserver {
+
+	/**
+	 * Called when {@link Simulation#runSeconds(long, long, java.util.List, boolean)} starts, before the first print time.
+	 * @param resumed True if the simulation has resumed from a checkpoint, so earlier print times were seen by a previous run.
+	 */
+	default void runStarted(StateView state, boolean resumed) {
+	}
+
+	/**
+	 * Called at each print time, including time 0 unless the simulation has resumed from a checkpoint.
+	 */
+	void printed(StateView state);
+
+	/**
+	 * @return True to be told about each reaction that fires and each time the products of a delayed reaction are added, which costs a call for every step.
+	 */
+	default boolean observesFirings() {
+		return false;
+	}
+
+	/**
+	 * Called after each reaction fires, if {@link #observesFirings()}.
+	 * Reactions with a delay add their products later, in {@link #productsAdded(double, int, int)}.
+	 * @param seconds The time at which the reaction fired.
+	 * @param reactionId The id of the reaction in the model.
+	 * @param membraneId The membrane it fired in.
+	 */
+	default void reactionFired(double seconds, int reactionId, int membraneId) {
+	}
+
+	/**
+	 * Called after the products of a delayed reaction are added from the event queue, if {@link #observesFirings()}.
+	 * @param seconds The time at which the products were added.
+	 * @param reactionId The id of the reaction in the model.
+	 * @param membraneId The membrane the reaction fired in.
+	 */
+	default void productsAdded(double seconds, int reactionId, int membraneId) {
+	}
+
+	/**
+	 * Called when {@link Simulation#runSeconds(long, long, java.util.List, boolean)} finishes without an error, after the last print time.
+	 * @param stoppedEarly True if the run finished before the requested time, e.g. because no reactions were viable or it was asked to stop.
+	 */
+	default void runFinished(StateView state, boolean stoppedEarly) {
+	}
+}
@@ -0,0 +1,42 @@
+package com.simomics.leishsim.simulation;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+
+/**
+ * Writes the species distribution log, with the time followed by the summaries of each species across each membrane type on each line.
+ */
+class SpeciesDistributionLog implements SimulationObserver {
+
+	private final SpeciesDistributions speciesDistributions;
+
+	private final boolean runHours;
+
+	/**
+	 * @param speciesDistributions Summarises the species of the simulation.
+	 * @param runHours True to write the time in hours, otherwise in seconds.
+	 */
+	SpeciesDistributionLog(SpeciesDistributions speciesDistributions, boolean runHours) {
+		this.speciesDistributions = speciesDistributions;
+		this.runHours = runHours;
+	}
+
+	@Override
+	public void runStarted(StateView state, boolean resumed) {
+		if (resumed) {
+			// The log already contains the headings and earlier rows
+			return;
+		}
+		StringBuilder headingLine = new StringBuilder(runHours ? "Hours" : "Seconds");
+		speciesDistributions.appendHeadings(headingLine);
+		Logging.getLogger(LogType.PRINTED_SPECIES_DISTRIBUTION).log(headingLine.toString());
+	}
+
+	@Override
+	public void printed(StateView state) {
+		StringBuilder speciesLine = new StringBuilder();
+		speciesLine.append(runHours ? state.getNominalSeconds() / (60 * 60) : state.getNominalSeconds());
+		speciesDistributions.appendRow(speciesLine);
+		Logging.getLogger(LogType.PRINTED_SPECIES_DISTRIBUTION).log(speciesLine.toString());
+	}
+}
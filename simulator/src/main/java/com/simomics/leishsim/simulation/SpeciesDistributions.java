@@ -0,0 +1,178 @@
+package com.simomics.leishsim.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.simomics.leishsim.model.LocatedSpecies;
+import com.simomics.leishsim.model.Location;
+
+/**
+ * Summarises the numbers of each species across all the membranes of each type, for the species distribution log.
+ * The log has the same columns however many membranes there are, so is practical for models with thousands of identical membranes.
+ *
+ * For each species of each membrane type, the columns are the mean, the variance (of the population, i.e. divided by the number of membranes),
+ *   the minimum, the maximum, the chosen quantiles (interpolated between the nearest numbers, as numpy does by default),
+ *   then a histogram of how many membranes have each number of the species.
+ * The histogram bins double in width: 0, 1, 2-3, 4-7 and so on, with the last bin holding every larger number.
+ */
+class SpeciesDistributions {
+
+	/** The quantiles printed if none are chosen */
+	static final double[] DEFAULT_QUANTILES = {0.05, 0.5, 0.95};
+
+	/** The number of histogram bins printed if none is chosen */
+	static final int DEFAULT_HISTOGRAM_BINS = 8;
+
+	/** One species at one location, in all the membranes of one type */
+	private static class Group {
+		final String speciesName;
+		final Location location;
+		/** The numbers in each membrane at the current print time, sorted when the row is written */
+		final int[] values;
+		int numValues;
+
+		Group(String speciesName, Location location, int numMembranes) {
+			this.speciesName = speciesName;
+			this.location = location;
+			this.values = new int[numMembranes];
+		}
+	}
+
+	/** The groups of each membrane type that has printed species, in the order that the types are first found */
+	private final Map<String, List<Group>> groupsPerType = new LinkedHashMap<>();
+
+	private final Membrane state;
+	private final double[] quantiles;
+	private final int[] histogram;
+
+	/**
+	 * @param state The top level membrane of the simulation. Its tree of membranes must not change.
+	 * @param speciesPerMembrane The located species to summarise for each membrane type.
+	 * @param quantiles The quantiles to print, each between 0 and 1.
+	 * @param histogramBins The number of histogram bins to print, at least 1.
+	 */
+	SpeciesDistributions(Membrane state, Map<String, Set<LocatedSpecies>> speciesPerMembrane, double[] quantiles, int histogramBins) {
+		this.state = state;
+		this.quantiles = quantiles;
+		this.histogram = new int[histogramBins];
+
+		Map<String, Integer> numMembranesPerType = new LinkedHashMap<>();
+		for (Membrane membrane: state.getAllMembranes()) {
+			numMembranesPerType.merge(membrane.getType(), 1, Integer::sum);
+		}
+		for (Map.Entry<String, Integer> entry: numMembranesPerType.entrySet()) {
+			Set<LocatedSpecies> species = speciesPerMembrane.get(entry.getKey());
+			if (species != null) {
+				List<Group> groups = new ArrayList<>();
+				for (LocatedSpecies locatedSpecies: species) {
+					groups.add(new Group(locatedSpecies.getSpeciesName(), locatedSpecies.getLocation(), entry.getValue()));
+				}
+				groupsPerType.put(entry.getKey(), groups);
+			}
+		}
+	}
+
+	/**
+	 * Add the headings of all the columns, each preceded by a comma.
+	 */
+	void appendHeadings(StringBuilder output) {
+		for (Map.Entry<String, List<Group>> entry: groupsPerType.entrySet()) {
+			for (Group group: entry.getValue()) {
+				String prefix = "," + group.speciesName + " " + group.location + " " + entry.getKey() + " ";
+				output.append(prefix).append("mean");
+				output.append(prefix).append("variance");
+				output.append(prefix).append("min");
+				output.append(prefix).append("max");
+				for (double quantile: quantiles) {
+					output.append(prefix).append('q').append(quantile);
+				}
+				for (int bin = 0; bin < histogram.length; bin++) {
+					int lowest = binLowest(bin);
+					output.append(prefix).append("hist ").append(lowest);
+					if (bin == histogram.length - 1) {
+						output.append('+');
+					}
+					else if (binLowest(bin + 1) - 1 > lowest) {
+						output.append('-').append(binLowest(bin + 1) - 1);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add the columns for the current state of the simulation, each preceded by a comma.
+	 */
+	void appendRow(StringBuilder output) {
+		// Collect the numbers of every group in one pass over the membranes
+		for (List<Group> groups: groupsPerType.values()) {
+			for (Group group: groups) {
+				group.numValues = 0;
+			}
+		}
+		for (Membrane membrane: state.getAllMembranes()) {
+			List<Group> groups = groupsPerType.get(membrane.getType());
+			if (groups != null) {
+				for (Group group: groups) {
+					group.values[group.numValues++] = membrane.numSpecies(group.speciesName, group.location);
+				}
+			}
+		}
+
+		for (List<Group> groups: groupsPerType.values()) {
+			for (Group group: groups) {
+				appendGroup(group, output);
+			}
+		}
+	}
+
+	private void appendGroup(Group group, StringBuilder output) {
+		int[] values = group.values;
+		int n = group.numValues;
+		Arrays.sort(values, 0, n);
+		Arrays.fill(histogram, 0);
+		long sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += values[i];
+			histogram[bin(values[i])]++;
+		}
+		double mean = (double) sum / n;
+		double sumSquares = 0;
+		for (int i = 0; i < n; i++) {
+			double difference = values[i] - mean;
+			sumSquares += difference * difference;
+		}
+		output.append(',').append(mean);
+		output.append(',').append(sumSquares / n);
+		output.append(',').append(values[0]);
+		output.append(',').append(values[n - 1]);
+		for (double quantile: quantiles) {
+			double position = quantile * (n - 1);
+			int below = (int) Math.floor(position);
+			int above = Math.min(below + 1, n - 1);
+			output.append(',').append(values[below] + (position - below) * (values[above] - values[below]));
+		}
+		for (int count: histogram) {
+			output.append(',').append(count);
+		}
+	}
+
+	/**
+	 * @return The histogram bin of the given number of species.
+	 */
+	private int bin(int value) {
+		int bin = value <= 0 ? 0 : 32 - Integer.numberOfLeadingZeros(value);
+		return Math.min(bin, histogram.length - 1);
+	}
+
+	/**
+	 * @return The smallest number of species in the given histogram bin.
+	 */
+	private static int binLowest(int bin) {
+		return bin == 0 ? 0 : 1 << (bin - 1);
+	}
+}
@@ -0,0 +1,68 @@
+package com.simomics.leishsim.simulation;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+
+/**
+ * Writes the species envelope log, with the time followed by the minimum, maximum, mean and last number of each printed species
+ *   since the previous print time on each line.
+ * Observes every reaction firing and delayed product, as the envelopes are updated at the end of each step.
+ */
+class SpeciesEnvelopeLog implements SimulationObserver {
+
+	private final SpeciesEnvelopes speciesEnvelopes;
+
+	private final boolean runHours;
+
+	/** The view of the running simulation, kept from the start of the run for the print time that each step belongs to */
+	private StateView state;
+
+	/**
+	 * @param speciesEnvelopes Follows the printed species of the simulation.
+	 * @param runHours True to write the time in hours, otherwise in seconds.
+	 */
+	SpeciesEnvelopeLog(SpeciesEnvelopes speciesEnvelopes, boolean runHours) {
+		this.speciesEnvelopes = speciesEnvelopes;
+		this.runHours = runHours;
+	}
+
+	@Override
+	public void runStarted(StateView state, boolean resumed) {
+		this.state = state;
+		if (resumed) {
+			// The log already contains the headings and earlier rows
+			return;
+		}
+		StringBuilder headingLine = new StringBuilder(runHours ? "Hours" : "Seconds");
+		speciesEnvelopes.appendHeadings(headingLine);
+		Logging.getLogger(LogType.PRINTED_SPECIES_ENVELOPE).log(headingLine.toString());
+	}
+
+	@Override
+	public boolean observesFirings() {
+		return true;
+	}
+
+	@Override
+	public void reactionFired(double seconds, int reactionId, int membraneId) {
+		stepFinished(seconds);
+	}
+
+	@Override
+	public void productsAdded(double seconds, int reactionId, int membraneId) {
+		stepFinished(seconds);
+	}
+
+	private void stepFinished(double seconds) {
+		// The last step of a chunk can finish after the print time, but is printed as part of the chunk
+		speciesEnvelopes.stepFinished(Math.min(seconds, state.getNominalSeconds()));
+	}
+
+	@Override
+	public void printed(StateView state) {
+		StringBuilder speciesLine = new StringBuilder();
+		speciesLine.append(runHours ? state.getNominalSeconds() / (60 * 60) : state.getNominalSeconds());
+		speciesEnvelopes.appendRow(state.getNominalSeconds(), speciesLine);
+		Logging.getLogger(LogType.PRINTED_SPECIES_ENVELOPE).log(speciesLine.toString());
+	}
+}
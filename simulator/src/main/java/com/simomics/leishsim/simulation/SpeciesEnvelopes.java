@@ -0,0 +1,127 @@
+package com.simomics.leishsim.simulation;
+
+import java.util.BitSet;
+import java.util.List;
+
+import com.simomics.leishsim.model.Location;
+
+/**
+ * Follows the total number of each printed species at every step, for the species envelope log.
+ * Each row summarises the interval since the previous print time with the minimum, maximum, time weighted mean and last number,
+ *   so that long runs can print rarely without missing short spikes.
+ *
+ * The totals are counted once, then updated from the changes reported by the membranes,
+ *   and the minimum and maximum are only updated once each step has finished, so that a species moving from one location to another
+ *   is not seen as a dip.
+ */
+class SpeciesEnvelopes implements Membrane.SpeciesWatcher {
+
+	/** The locations of a membrane that hold species, i.e. every location except around */
+	private static final Location[] OWN_LOCATIONS = {Location.contained, Location.on, Location.under};
+
+	private final List<String> speciesNames;
+
+	/** The total of each species at the end of the last step */
+	private final long[] values;
+
+	/** The changes to each total during the current step */
+	private final long[] pending;
+	private final BitSet changed;
+
+	/** The smallest and largest total of each species in the current interval */
+	private final long[] min;
+	private final long[] max;
+
+	/** The integral over time of each total since the start of the current interval, up to the time that it last changed */
+	private final double[] integrals;
+	private final double[] lastChangeSeconds;
+
+	private double intervalStartSeconds;
+
+	/**
+	 * Watch the printed species in every membrane, and count them for the first time.
+	 * @param state The top level membrane of the simulation. Its tree of membranes must not change.
+	 * @param speciesNames The printed species.
+	 * @param startSeconds The time at which the first interval starts.
+	 */
+	SpeciesEnvelopes(Membrane state, List<String> speciesNames, double startSeconds) {
+		this.speciesNames = speciesNames;
+		int numSpecies = speciesNames.size();
+		values = new long[numSpecies];
+		pending = new long[numSpecies];
+		changed = new BitSet(numSpecies);
+		min = new long[numSpecies];
+		max = new long[numSpecies];
+		integrals = new double[numSpecies];
+		lastChangeSeconds = new double[numSpecies];
+		intervalStartSeconds = startSeconds;
+		for (int i = 0; i < numSpecies; i++) {
+			for (Membrane membrane: state.getAllMembranes()) {
+				for (Location location: OWN_LOCATIONS) {
+					membrane.watchSpecies(location, speciesNames.get(i), this, i);
+				}
+			}
+			values[i] = state.getAllSpecies(speciesNames.get(i));
+			min[i] = values[i];
+			max[i] = values[i];
+			lastChangeSeconds[i] = startSeconds;
+		}
+	}
+
+	@Override
+	public void speciesChanged(int slot, int change) {
+		pending[slot] += change;
+		changed.set(slot);
+	}
+
+	/**
+	 * Apply the changes made by the step that has just finished.
+	 * @param seconds The time at the end of the step.
+	 */
+	void stepFinished(double seconds) {
+		for (int slot = changed.nextSetBit(0); slot >= 0; slot = changed.nextSetBit(slot + 1)) {
+			if (pending[slot] != 0) {
+				integrals[slot] += values[slot] * (seconds - lastChangeSeconds[slot]);
+				lastChangeSeconds[slot] = seconds;
+				values[slot] += pending[slot];
+				pending[slot] = 0;
+				min[slot] = Math.min(min[slot], values[slot]);
+				max[slot] = Math.max(max[slot], values[slot]);
+			}
+		}
+		changed.clear();
+	}
+
+	/**
+	 * Add the headings of all the columns, each preceded by a comma.
+	 */
+	void appendHeadings(StringBuilder output) {
+		for (String speciesName: speciesNames) {
+			output.append(',').append(speciesName).append(" min");
+			output.append(',').append(speciesName).append(" max");
+			output.append(',').append(speciesName).append(" mean");
+			output.append(',').append(speciesName).append(" last");
+		}
+	}
+
+	/**
+	 * Add the columns for the interval ending at the given time, each preceded by a comma, then start the next interval.
+	 * An interval with no length, such as the first print time, has the current numbers as its mean.
+	 */
+	void appendRow(double endSeconds, StringBuilder output) {
+		stepFinished(endSeconds);
+		double intervalSeconds = endSeconds - intervalStartSeconds;
+		for (int i = 0; i < values.length; i++) {
+			integrals[i] += values[i] * (endSeconds - lastChangeSeconds[i]);
+			output.append(',').append(min[i]);
+			output.append(',').append(max[i]);
+			output.append(',').append(intervalSeconds > 0 ? integrals[i] / intervalSeconds : values[i]);
+			output.append(',').append(values[i]);
+			min[i] = values[i];
+			max[i] = values[i];
+			integrals[i] = 0;
+			lastChangeSeconds[i] = endSeconds;
+		}
+		intervalStartSeconds = endSeconds;
+	}
+}
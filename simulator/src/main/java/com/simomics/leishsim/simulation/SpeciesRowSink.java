@@ -0,0 +1,18 @@
+package com.simomics.leishsim.simulation;
+
+/**
+ * Receives the numbers of each printed species every time a simulation prints its results,
+ *   for results that are collected somewhere other than the printed species log.
+ * @see Simulation#setSpeciesRowSink(SpeciesRowSink)
+ */
+public interface SpeciesRowSink {
+
+	/**
+	 * Called once per print time, including time 0.
+	 * @param rowIndex The number of print chunks that have been run, so 0 for the initial state.
+	 * @param nominalSeconds The simulation time of this row.
+	 * @param speciesCounts The total number of each printed species in the whole simulation, in the same order as the names to print.
+	 *   The array is reused for the next row, so must be copied if it is kept.
+	 */
+	void addRow(int rowIndex, long nominalSeconds, int[] speciesCounts);
+}
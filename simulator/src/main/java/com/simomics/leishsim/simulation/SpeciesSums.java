@@ -0,0 +1,129 @@
+package com.simomics.leishsim.simulation;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.simomics.leishsim.model.Location;
+import com.simomics.leishsim.model.equations.Equation;
+import com.simomics.leishsim.model.equations.Equation.InvalidEquationEvaluationException;
+import com.simomics.leishsim.model.equations.OperationExpression;
+import com.simomics.leishsim.model.equations.SpeciesSumExpression;
+import com.simomics.leishsim.model.equations.UnaryOperationExpression;
+
+/**
+ * Keeps the sums of species in some equations up to date as species change, for observables and stop conditions.
+ * Each sum of species is counted over every membrane once, when the simulation starts or resumes,
+ *   then only changed by the reactions that add or remove those species,
+ *   so evaluating the equations costs the same however many membranes there are.
+ */
+abstract class SpeciesSums implements Membrane.SpeciesWatcher {
+
+	/** The locations of a membrane that hold species, i.e. every location except around */
+	private static final Location[] OWN_LOCATIONS = {Location.contained, Location.on, Location.under};
+
+	protected final Membrane state;
+
+	/** The index in {@link #sums} of each sum of species in the equations */
+	private final Map<SpeciesSumExpression, Integer> terms = new IdentityHashMap<>();
+
+	/** The current value of each sum of species */
+	private final long[] sums;
+
+	/**
+	 * Watch all the species counted by the equations, and count them for the first time.
+	 * @param state The top level membrane of the simulation. Its tree of membranes must not change.
+	 * @param equations The equations to keep up to date.
+	 * @throws InvalidEquationEvaluationException If the species could not be counted.
+	 */
+	SpeciesSums(Membrane state, Collection<Equation> equations) throws InvalidEquationEvaluationException {
+		this.state = state;
+		for (Equation equation: equations) {
+			findTerms(equation);
+		}
+		sums = new long[terms.size()];
+		for (Map.Entry<SpeciesSumExpression, Integer> term: terms.entrySet()) {
+			watchTerm(term.getKey(), term.getValue());
+			sums[term.getValue()] = (long) term.getKey().evaluate(state);
+		}
+	}
+
+	private void findTerms(Equation equation) {
+		if (equation instanceof SpeciesSumExpression) {
+			terms.putIfAbsent((SpeciesSumExpression) equation, terms.size());
+		}
+		else if (equation instanceof OperationExpression) {
+			findTerms(((OperationExpression) equation).getLeft());
+			findTerms(((OperationExpression) equation).getRight());
+		}
+		else if (equation instanceof UnaryOperationExpression) {
+			findTerms(((UnaryOperationExpression) equation).getSubexpression());
+		}
+	}
+
+	private void watchTerm(SpeciesSumExpression term, int slot) {
+		for (String speciesName: term.getSpeciesNames()) {
+			if (term.getLocation() == null) {
+				for (Membrane membrane: state.getAllMembranes()) {
+					for (Location location: OWN_LOCATIONS) {
+						membrane.watchSpecies(location, speciesName, this, slot);
+					}
+				}
+			}
+			else {
+				for (Membrane membrane: term.getMembranes(state)) {
+					membrane.watchSpecies(term.getCountedLocation(), speciesName, this, slot);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The number of sums of species, which are the slots passed to {@link #speciesChanged(int, int)}.
+	 */
+	protected int numTerms() {
+		return sums.length;
+	}
+
+	/**
+	 * @return The slots of the sums of species in the given equation.
+	 */
+	protected BitSet termsOf(Equation equation) {
+		BitSet slots = new BitSet(sums.length);
+		if (equation instanceof SpeciesSumExpression) {
+			slots.set(terms.get(equation));
+		}
+		else if (equation instanceof OperationExpression) {
+			slots.or(termsOf(((OperationExpression) equation).getLeft()));
+			slots.or(termsOf(((OperationExpression) equation).getRight()));
+		}
+		else if (equation instanceof UnaryOperationExpression) {
+			slots.or(termsOf(((UnaryOperationExpression) equation).getSubexpression()));
+		}
+		return slots;
+	}
+
+	@Override
+	public void speciesChanged(int slot, int change) {
+		sums[slot] += change;
+	}
+
+	/**
+	 * @return The value of the equation, using the kept up to date sums instead of counting species.
+	 */
+	protected double evaluate(Equation equation) throws InvalidEquationEvaluationException {
+		if (equation instanceof SpeciesSumExpression) {
+			return sums[terms.get(equation)];
+		}
+		else if (equation instanceof OperationExpression) {
+			OperationExpression operation = (OperationExpression) equation;
+			return operation.evaluate(evaluate(operation.getLeft()), evaluate(operation.getRight()));
+		}
+		else if (equation instanceof UnaryOperationExpression) {
+			UnaryOperationExpression operation = (UnaryOperationExpression) equation;
+			return operation.evaluate(evaluate(operation.getSubexpression()));
+		}
+		return equation.evaluate(state);
+	}
+}
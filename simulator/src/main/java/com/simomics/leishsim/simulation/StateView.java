@@ -0,0 +1,64 @@
+package com.simomics.leishsim.simulation;
+
+import java.util.List;
+
+import com.simomics.leishsim.model.Location;
+
+/**
+ * A read-only view of a running simulation, given to each {@link SimulationObserver}.
+ * Membranes and reactions are identified by number: membranes in the order of {@link Membrane#getAllMembranes()} of the top level membrane,
+ *   which doesn't change while the simulation runs, and reactions by their ids in the model (the same as in the reaction numbers log).
+ * The view reads the live state of the simulation, so is only meaningful during a callback.
+ */
+public interface StateView {
+
+	/**
+	 * @return The number of print chunks that have been run, so 0 for the initial state.
+	 */
+	int getRowIndex();
+
+	/**
+	 * @return The print time that has just been reached.
+	 */
+	long getNominalSeconds();
+
+	/**
+	 * @return The simulation time, which can be a little after the print time, because steps don't stop at print times.
+	 */
+	double getCurrentSeconds();
+
+	/**
+	 * @return The names of the printed species, in the order of {@link #getPrintedSpeciesCounts()}.
+	 */
+	List<String> getPrintedSpeciesNames();
+
+	/**
+	 * @return The total number of each printed species in the whole simulation.
+	 *   The array is reused for the next print time, so must be copied if it is kept.
+	 */
+	int[] getPrintedSpeciesCounts();
+
+	int getNumMembranes();
+
+	/**
+	 * @return The unique tag of a membrane, e.g. macrophage_3.
+	 */
+	String getMembraneTag(int membraneId);
+
+	/**
+	 * @return The type of a membrane, e.g. macrophage.
+	 */
+	String getMembraneType(int membraneId);
+
+	/**
+	 * @return The number of a species in a location relative to a membrane.
+	 */
+	int getSpeciesCount(int membraneId, Location location, String speciesName);
+
+	int getNumReactions();
+
+	/**
+	 * @return The propensity of a reaction, summed over all membranes.
+	 */
+	double getReactionPropensity(int reactionId);
+}
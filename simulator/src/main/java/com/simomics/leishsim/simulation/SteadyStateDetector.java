@@ -0,0 +1,64 @@
+package com.simomics.leishsim.simulation;
+
+/**
+ * Decides when a simulation has reached a steady state, from the numbers it is given at the end of each print chunk.
+ *
+ * The last two windows of chunks are compared, and the simulation is at a steady state once the mean of every number
+ *   over the newer window is within a fraction (the tolerance) of its mean over the older window.
+ * Stochastic runs never stop changing, so this compares means rather than single values,
+ *   and the tolerance should be larger than the noise in the mean of a window.
+ */
+class SteadyStateDetector {
+
+	private final double tolerance;
+	private final int windowChunks;
+
+	/** The last two windows of samples of each number, used as a ring, indexed by number then sample */
+	private final double[][] samples;
+	private int numSamples = 0;
+
+	/**
+	 * @param numValues How many numbers are given at the end of each chunk.
+	 * @param tolerance The largest change in the mean of each number between windows, as a fraction of the larger mean.
+	 * @param windowChunks The number of chunks in each window.
+	 */
+	SteadyStateDetector(int numValues, double tolerance, int windowChunks) {
+		this.tolerance = tolerance;
+		this.windowChunks = windowChunks;
+		this.samples = new double[numValues][2 * windowChunks];
+	}
+
+	/**
+	 * Add the numbers at the end of one chunk.
+	 * @return True if the simulation is at a steady state.
+	 */
+	boolean addSample(double[] values) {
+		int position = numSamples % (2 * windowChunks);
+		for (int i = 0; i < values.length; i++) {
+			samples[i][position] = values[i];
+		}
+		numSamples++;
+		if (numSamples < 2 * windowChunks) {
+			return false;
+		}
+		for (double[] valueSamples: samples) {
+			double olderMean = windowMean(valueSamples, numSamples - 2 * windowChunks);
+			double newerMean = windowMean(valueSamples, numSamples - windowChunks);
+			if (Math.abs(newerMean - olderMean) > tolerance * Math.max(Math.abs(olderMean), Math.abs(newerMean))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The mean of the window of samples starting at the given sample number.
+	 */
+	private double windowMean(double[] valueSamples, int firstSample) {
+		double total = 0;
+		for (int sample = firstSample; sample < firstSample + windowChunks; sample++) {
+			total += valueSamples[sample % valueSamples.length];
+		}
+		return total / windowChunks;
+	}
+}
@@ -0,0 +1,97 @@
+package com.simomics.leishsim.simulation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.model.StopCondition;
+import com.simomics.leishsim.model.equations.Equation;
+import com.simomics.leishsim.model.equations.Equation.InvalidEquationEvaluationException;
+
+/**
+ * Checks the stop conditions of a model as the simulation runs.
+ * The sums of species in the conditions are kept up to date as species change (see {@link SpeciesSums}),
+ *   and a condition is only evaluated again after one of its sums has changed.
+ */
+class StopConditions extends SpeciesSums {
+
+	private final List<StopCondition> conditions;
+
+	/** The positions in {@link #conditions} of the conditions that use each sum of species, indexed by slot */
+	private final int[][] conditionsOfTerm;
+
+	/** The positions of the conditions whose sums have changed since they were last evaluated */
+	private final BitSet changedConditions;
+
+	/**
+	 * Watch all the species counted by the conditions, and count them for the first time.
+	 * @param state The top level membrane of the simulation. Its tree of membranes must not change.
+	 * @param conditions The stop conditions of the model.
+	 * @throws InvalidEquationEvaluationException If the species could not be counted.
+	 */
+	StopConditions(Membrane state, List<StopCondition> conditions) throws InvalidEquationEvaluationException {
+		super(state, equationsOf(conditions));
+		this.conditions = conditions;
+		List<List<Integer>> conditionsPerTerm = new ArrayList<>();
+		for (int slot = 0; slot < numTerms(); slot++) {
+			conditionsPerTerm.add(new ArrayList<>());
+		}
+		for (int i = 0; i < conditions.size(); i++) {
+			BitSet terms = termsOf(conditions.get(i).getLeft());
+			terms.or(termsOf(conditions.get(i).getRight()));
+			for (int slot = terms.nextSetBit(0); slot >= 0; slot = terms.nextSetBit(slot + 1)) {
+				conditionsPerTerm.get(slot).add(i);
+			}
+		}
+		conditionsOfTerm = new int[numTerms()][];
+		for (int slot = 0; slot < numTerms(); slot++) {
+			conditionsOfTerm[slot] = conditionsPerTerm.get(slot).stream().mapToInt(Integer::intValue).toArray();
+		}
+		// Every condition is evaluated the first time, in case it is already met
+		changedConditions = new BitSet(conditions.size());
+		changedConditions.set(0, conditions.size());
+	}
+
+	private static List<Equation> equationsOf(List<StopCondition> conditions) {
+		List<Equation> equations = new ArrayList<>();
+		for (StopCondition condition: conditions) {
+			equations.add(condition.getLeft());
+			equations.add(condition.getRight());
+		}
+		return equations;
+	}
+
+	@Override
+	public void speciesChanged(int slot, int change) {
+		super.speciesChanged(slot, change);
+		for (int condition: conditionsOfTerm[slot]) {
+			changedConditions.set(condition);
+		}
+	}
+
+	/**
+	 * Evaluate the conditions whose species have changed since they were last evaluated.
+	 * Conditions that can't be evaluated, e.g. because they divide by zero, are not met.
+	 * @return The first of those conditions that is met, or null if none of them are.
+	 */
+	StopCondition findMetCondition() {
+		if (changedConditions.isEmpty()) {
+			return null;
+		}
+		StopCondition metCondition = null;
+		for (int i = changedConditions.nextSetBit(0); i >= 0 && metCondition == null; i = changedConditions.nextSetBit(i + 1)) {
+			StopCondition condition = conditions.get(i);
+			try {
+				if (condition.isMet(evaluate(condition.getLeft()), evaluate(condition.getRight()))) {
+					metCondition = condition;
+				}
+			} catch (InvalidEquationEvaluationException e) {
+				Logging.getLogger(LogType.ERROR).log(String.format("Could not evaluate stop condition %s: %s", condition, e.getMessage()));
+			}
+		}
+		changedConditions.clear();
+		return metCondition;
+	}
+}
@@ -0,0 +1,141 @@
+package com.simomics.leishsim.simulation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A random number stream using the xoshiro256++ generator by David Blackman and Sebastiano Vigna.
+ * Has a period of 2^256 - 1, and can jump ahead by 2^128 or 2^192 numbers to create streams that don't overlap.
+ * @see <a href="http://prng.di.unimi.it/">xoshiro / xoroshiro generators and the PRNG shootout</a>
+ */
+public class Xoshiro256Stream implements RandomStream {
+
+	/** Polynomial for jumping ahead 2^128 numbers */
+	private static final long[] JUMP = { 0x180ec6d33cfd0abaL, 0xd5a61266f0c9392cL, 0xa9582618e03fc9aaL, 0x39abdc4529b1661cL };
+
+	/** Polynomial for jumping ahead 2^192 numbers */
+	private static final long[] LONG_JUMP = { 0x76e15d3efefdcbbfL, 0xc5004e441c522fb3L, 0x77710069854ee241L, 0x39109bb02acbe635L };
+
+	/** Converts the top 53 bits of a long to a double between 0 and 1 */
+	private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+	private long s0;
+	private long s1;
+	private long s2;
+	private long s3;
+
+	/**
+	 * @param seed Any number. The generator's state is filled from the seed using SplitMix64, as recommended by the generator's authors.
+	 */
+	public Xoshiro256Stream(long seed) {
+		long splitMix = seed;
+		s0 = splitMix64(splitMix += 0x9e3779b97f4a7c15L);
+		s1 = splitMix64(splitMix += 0x9e3779b97f4a7c15L);
+		s2 = splitMix64(splitMix += 0x9e3779b97f4a7c15L);
+		s3 = splitMix64(splitMix += 0x9e3779b97f4a7c15L);
+	}
+
+	private static long splitMix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return 64 random bits.
+	 */
+	public long nextLong() {
+		final long result = Long.rotateLeft(s0 + s3, 23) + s0;
+		final long t = s1 << 17;
+		s2 ^= s0;
+		s3 ^= s1;
+		s1 ^= s2;
+		s0 ^= s3;
+		s2 ^= t;
+		s3 = Long.rotateLeft(s3, 45);
+		return result;
+	}
+
+	@Override
+	public double nextDouble() {
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	/**
+	 * Same as calling {@link #nextDouble()} for each element, but keeps the state in local variables for the whole loop.
+	 */
+	@Override
+	public void nextDoubles(double[] values) {
+		long a = s0, b = s1, c = s2, d = s3;
+		for (int i = 0; i < values.length; i++) {
+			final long result = Long.rotateLeft(a + d, 23) + a;
+			final long t = b << 17;
+			c ^= a;
+			d ^= b;
+			b ^= c;
+			a ^= d;
+			c ^= t;
+			d = Long.rotateLeft(d, 45);
+			values[i] = (result >>> 11) * DOUBLE_UNIT;
+		}
+		s0 = a;
+		s1 = b;
+		s2 = c;
+		s3 = d;
+	}
+
+	/**
+	 * Move this stream on by 2^128 numbers. Used to give each partition of a simulation its own stream.
+	 */
+	public void jump() {
+		jump(JUMP);
+	}
+
+	/**
+	 * Move this stream on by 2^192 numbers. Used to give each replicate its own stream, within which there is room for 2^64 partitions.
+	 */
+	public void longJump() {
+		jump(LONG_JUMP);
+	}
+
+	private void jump(long[] polynomial) {
+		long j0 = 0, j1 = 0, j2 = 0, j3 = 0;
+		for (long word: polynomial) {
+			for (int bit = 0; bit < 64; bit++) {
+				if ((word & (1L << bit)) != 0) {
+					j0 ^= s0;
+					j1 ^= s1;
+					j2 ^= s2;
+					j3 ^= s3;
+				}
+				nextLong();
+			}
+		}
+		s0 = j0;
+		s1 = j1;
+		s2 = j2;
+		s3 = j3;
+	}
+
+	@Override
+	public RandomGeneratorType getType() {
+		return RandomGeneratorType.XOSHIRO256;
+	}
+
+	@Override
+	public void writeState(DataOutputStream output) throws IOException {
+		output.writeLong(s0);
+		output.writeLong(s1);
+		output.writeLong(s2);
+		output.writeLong(s3);
+	}
+
+	@Override
+	public void readState(DataInputStream input) throws IOException {
+		s0 = input.readLong();
+		s1 = input.readLong();
+		s2 = input.readLong();
+		s3 = input.readLong();
+	}
+}
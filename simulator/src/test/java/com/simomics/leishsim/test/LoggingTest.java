@@ -3,6 +3,7 @@ package com.simomics.leishsim.test;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertThat;
 
@@ -12,21 +13,27 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
 
+import com.simomics.leishsim.ColumnarFileLogger;
 import com.simomics.leishsim.Driver;
 import com.simomics.leishsim.Logging;
 import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.Logging.OutputFormat;
 import com.simomics.leishsim.TextFileLogger;
+import com.simomics.leishsim.output.ColumnType;
+import com.simomics.leishsim.output.ColumnarFileReader;
 
 /**
  * Tests of the different logging levels of the simulator.
@@ -123,6 +130,51 @@ public class LoggingTest extends OutputTest {
 		
 	}
 	
+	/**
+	 * Test that buffered log messages all reach the file, in order, when the log is flushed, and that closed logs can be written to again.
+	 */
+	@Test
+	public void bufferedLogTest() throws IOException {
+		Logging.resetLogging(Paths.get("logs").toFile(), LogType.ERROR);
+		TextFileLogger logger = new TextFileLogger("Buffered", false);
+		logger.setOutputDir(Paths.get("logs").toFile());
+		for (int i = 0; i < 10000; i++) {
+			logger.log("line " + i);
+		}
+		logger.flush();
+		List<String> lines = Files.readAllLines(logger.getLogFile().toPath());
+		assertThat(lines.size(), is(10000));
+		assertThat(lines.get(9999), is("line 9999"));
+		
+		logger.close();
+		logger.log("after close");
+		logger.close();
+		lines = Files.readAllLines(logger.getLogFile().toPath());
+		assertThat(lines.size(), is(10001));
+		assertThat(lines.get(10000), is("after close"));
+	}
+	
+	/**
+	 * Test that text logged to a binary log is reported as an error, rather than written into the binary file.
+	 */
+	@Test
+	public void textToBinaryLogTest() throws IOException, URISyntaxException {
+		Logging.resetLogging(Paths.get("logs").toFile(), LogType.PRINTED_SPECIES, true, OutputFormat.BINARY);
+		ColumnarFileLogger logger = (ColumnarFileLogger) Logging.getLogger(LogType.PRINTED_SPECIES);
+		logger.logHeadings(Arrays.asList("x", "Seconds"), Arrays.asList(ColumnType.INT, ColumnType.TIME));
+		logger.logRow(0, new int[] {1});
+		logger.log("x,Seconds");
+		logger.logBytes("1,0".getBytes(StandardCharsets.UTF_8), 0, 3);
+		logger.close();
+		
+		assertThat(readLogFile(LogType.ERROR), containsString("Can't write text to binary log"));
+		assertThat(readLogFile(LogType.ERROR), containsString("1,0"));
+		try (ColumnarFileReader reader = new ColumnarFileReader(logger.getLogFile())) {
+			assertThat(reader.nextBlock().getNumRows(), is(1));
+			assertThat(reader.nextBlock(), is(nullValue()));
+		}
+	}
+	
 	/**
 	 * Test that the FULL_STATE_AT_END log can be re-run as input to the simulator.
 	 * 
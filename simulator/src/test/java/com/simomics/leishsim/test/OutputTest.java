@@ -17,9 +17,10 @@ import org.junit.Rule;
 import org.junit.contrib.java.lang.system.SystemErrRule;
 import org.junit.contrib.java.lang.system.SystemOutRule;
 
+import com.simomics.leishsim.Driver;
+import com.simomics.leishsim.FileLogger;
 import com.simomics.leishsim.Logging;
 import com.simomics.leishsim.Logging.LogType;
-import com.simomics.leishsim.TextFileLogger;
 
 /**
  * Abstract base class for creating high-level system tests 
@@ -36,6 +37,23 @@ public class OutputTest {
 	@Rule
     public final SystemErrRule systemErrRule = new SystemErrRule().enableLog();
 	
+	/**
+	 * Run the simulator from the command line arguments shared by a test, followed by the arguments of one run.
+	 */
+	protected static void runDriver(String[] args, String... extraArgs) {
+		Driver.main(concat(args, extraArgs));
+	}
+	
+	/**
+	 * @return The strings of the first array followed by the rest.
+	 */
+	protected static String[] concat(String[] first, String... second) {
+		String[] all = new String[first.length + second.length];
+		System.arraycopy(first, 0, all, 0, first.length);
+		System.arraycopy(second, 0, all, first.length, second.length);
+		return all;
+	}
+	
 	/**
 	 * @param fileName
 	 * @return The given file name within the test model files directory 
@@ -93,7 +111,8 @@ public class OutputTest {
 	 * @return The contents of the log file
 	 */
 	protected static String readLogFile(LogType logType) throws IOException, URISyntaxException {
-		Path logFilePath = Paths.get(((TextFileLogger) Logging.getLogger(logType.name())).getLogFile().getAbsolutePath());
+		Logging.flushLogs();
+		Path logFilePath = Paths.get(((FileLogger) Logging.getLogger(logType.name())).getLogFile().getAbsolutePath());
 		return readFileFromPath(logFilePath, "\n", false);
 	}
 	
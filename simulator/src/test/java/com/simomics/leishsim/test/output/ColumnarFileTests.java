@@ -0,0 +1,119 @@
+package com.simomics.leishsim.test.output;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.simomics.leishsim.output.ColumnType;
+import com.simomics.leishsim.output.ColumnarFileReader;
+import com.simomics.leishsim.output.ColumnarFileReader.Block;
+import com.simomics.leishsim.output.ColumnarFileWriter;
+import com.simomics.leishsim.test.OutputTest;
+
+/**
+ * Tests of writing and reading binary columnar output files.
+ */
+public class ColumnarFileTests extends OutputTest {
+
+	/**
+	 * Test that rows written over several blocks, and appended later, are read back with their columns in the right places.
+	 */
+	@Test
+	public void roundTripTest() throws IOException {
+		File file = new File("columnar_round_trip.bin");
+		try (ColumnarFileWriter writer = ColumnarFileWriter.create(file, Arrays.asList("Seconds", "a", "b"), Arrays.asList(ColumnType.TIME, ColumnType.DOUBLE, ColumnType.DOUBLE), false)) {
+			for (int row = 0; row < 2000; row++) {
+				writer.writeRow(row * 10, new double[]{row, -row / 2.0});
+			}
+		}
+		try (ColumnarFileWriter writer = ColumnarFileWriter.append(file)) {
+			writer.writeRow(20000, new double[]{0.1, 0.2});
+		}
+
+		try (ColumnarFileReader reader = new ColumnarFileReader(file)) {
+			assertThat(reader.getColumnNames(), is(Arrays.asList("Seconds", "a", "b")));
+			assertThat(reader.getTimeColumn(), is(0));
+			int rowsRead = 0;
+			for (Block block = reader.nextBlock(); block != null; block = reader.nextBlock()) {
+				long[] times = block.getTimes();
+				double[] a = block.getDoubles(1);
+				double[] b = block.getDoubles(2);
+				assertThat(block.getFirstTime(), is(times[0]));
+				assertThat(block.getLastTime(), is(times[times.length - 1]));
+				for (int row = 0; row < block.getNumRows(); row++, rowsRead++) {
+					if (rowsRead < 2000) {
+						assertThat(times[row], is(rowsRead * 10L));
+						assertThat(a[row], is((double) rowsRead));
+						assertThat(b[row], is(-rowsRead / 2.0));
+					}
+					else {
+						assertThat(times[row], is(20000L));
+						assertThat(a[row], is(0.1));
+					}
+				}
+			}
+			assertThat(rowsRead, is(2001));
+		}
+	}
+
+	/**
+	 * Test that blocks outside a range of times are skipped.
+	 */
+	@Test
+	public void skipBlocksTest() throws IOException {
+		File file = new File("columnar_skip.bin");
+		try (ColumnarFileWriter writer = ColumnarFileWriter.create(file, Arrays.asList("x", "Hours"), Arrays.asList(ColumnType.INT, ColumnType.TIME), true)) {
+			for (int row = 0; row < 5000; row++) {
+				writer.writeRow(row, new int[]{row * 2});
+			}
+		}
+		try (ColumnarFileReader reader = new ColumnarFileReader(file)) {
+			assertThat(reader.hasTimestampColumn(), is(true));
+			Block block = reader.nextBlock(3000, 3000);
+			assertThat(block.getFirstTime() <= 3000 && block.getLastTime() >= 3000, is(true));
+			assertThat(block.getInts(0)[(int) (3000 - block.getFirstTime())], is(6000));
+			assertThat(reader.nextBlock(3000, 3000), is(nullValue()));
+		}
+	}
+
+	/**
+	 * Test that a log with very many columns is written in blocks of fewer rows, so that each block stays small.
+	 */
+	@Test
+	public void wideRowsTest() throws IOException {
+		File file = new File("columnar_wide.bin");
+		int numColumns = 300000;
+		List<String> columnNames = new ArrayList<>(Collections.nCopies(numColumns, "x"));
+		List<ColumnType> columnTypes = new ArrayList<>(Collections.nCopies(numColumns, ColumnType.INT));
+		columnNames.add(0, "Seconds");
+		columnTypes.add(0, ColumnType.TIME);
+		try (ColumnarFileWriter writer = ColumnarFileWriter.create(file, columnNames, columnTypes, false)) {
+			int[] values = new int[numColumns];
+			for (int row = 0; row < 10; row++) {
+				Arrays.fill(values, row);
+				writer.writeRow(row, values);
+			}
+		}
+		try (ColumnarFileReader reader = new ColumnarFileReader(file)) {
+			int rowsRead = 0;
+			for (Block block = reader.nextBlock(); block != null; block = reader.nextBlock()) {
+				assertThat(block.getNumRows(), is(lessThanOrEqualTo(4)));
+				int[] last = block.getInts(numColumns);
+				for (int row = 0; row < block.getNumRows(); row++, rowsRead++) {
+					assertThat(last[row], is(rowsRead));
+				}
+			}
+			assertThat(rowsRead, is(10));
+		}
+	}
+}
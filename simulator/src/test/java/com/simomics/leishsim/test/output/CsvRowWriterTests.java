@@ -0,0 +1,46 @@
+package com.simomics.leishsim.test.output;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.simomics.leishsim.output.CsvRowWriter;
+import com.simomics.leishsim.test.OutputTest;
+
+/**
+ * Tests of formatting lines of CSV logs.
+ */
+public class CsvRowWriterTests extends OutputTest {
+
+	/**
+	 * Test that whole numbers and text are written the same way as by a StringBuilder.
+	 */
+	@Test
+	public void wholeNumbersTest() {
+		CsvRowWriter line = new CsvRowWriter();
+		line.append("Seconds,é").append(',').append(0).append(',').append(-7).append(',').append(Integer.MAX_VALUE).append(',').append(Long.MIN_VALUE);
+		assertThat(line.toString(), is("Seconds,é,0,-7," + Integer.MAX_VALUE + "," + Long.MIN_VALUE));
+		assertThat(line.clear().append(1234567890123L).toString(), is("1234567890123"));
+	}
+
+	/**
+	 * Test that decimal numbers are written the same way as by {@link Double#toString(double)}, and read back as the same number.
+	 */
+	@Test
+	public void decimalNumbersTest() {
+		CsvRowWriter line = new CsvRowWriter();
+		for (double value: new double[]{0.0, -0.0, 1.0, 0.1, 1 / 3.0, 0.1 + 0.2, 9999999.5, 1e7, 0.001, 9.999e-4, -1.5, Double.NaN, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE}) {
+			assertThat(line.clear().append(value).toString(), is(Double.toString(value)));
+		}
+		Random random = new Random(1234);
+		for (int i = 0; i < 100000; i++) {
+			double value = i % 2 == 0 ? random.nextDouble() * Math.pow(10, random.nextInt(12) - 4) : random.nextInt(100000) / 1000.0;
+			String formatted = line.clear().append(value).toString();
+			assertThat(Double.parseDouble(formatted), is(value));
+			assertThat(formatted, is(Double.toString(value)));
+		}
+	}
+}
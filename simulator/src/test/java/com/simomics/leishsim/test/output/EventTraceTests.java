@@ -0,0 +1,80 @@
+package com.simomics.leishsim.test.output;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.TraceDecoder;
+import com.simomics.leishsim.test.OutputTest;
+
+/**
+ * Tests of writing binary event traces and decoding them to text.
+ */
+public class EventTraceTests extends OutputTest {
+
+	/**
+	 * Test that a decoded trace has the same events as the FULL log, including delayed products from the event queue.
+	 */
+	@Test
+	public void traceMatchesFullLogTest() throws IOException {
+		runSimulation("logs_trace_full", "22", LogType.FULL, "--event-trace");
+		Path decodedFile = Paths.get("logs_trace_full", "decoded.txt");
+		TraceDecoder.main("--trace-file", Paths.get("logs_trace_full", "output_Events.trace").toString(), "--output-file", decodedFile.toString());
+
+		List<String> fullLogEvents = readEvents(Paths.get("logs_trace_full", "output_Full.txt"));
+		assertThat(fullLogEvents.size(), is(greaterThan(10)));
+		assertThat("No delayed events in trace", fullLogEvents.stream().anyMatch(line -> line.startsWith("Executed queue event")), is(true));
+		assertThat("Decoded trace differs from FULL log", readEvents(decodedFile), is(fullLogEvents));
+	}
+
+	/**
+	 * Test that the trace of a run resumed from a checkpoint is the same as the trace of an uninterrupted run.
+	 */
+	@Test
+	public void resumedTraceTest() throws IOException {
+		runSimulation("logs_trace_uninterrupted", "30", LogType.PRINTED_SPECIES, "--event-trace");
+		runSimulation("logs_trace_resumed", "10", LogType.PRINTED_SPECIES, "--event-trace", "--checkpoint-every", "1");
+		runSimulation("logs_trace_resumed", "30", LogType.PRINTED_SPECIES, "--event-trace", "--resume", Paths.get("logs_trace_resumed", "checkpoint.bin").toString());
+
+		for (String logDirectory: Arrays.asList("logs_trace_uninterrupted", "logs_trace_resumed")) {
+			TraceDecoder.main("--trace-file", Paths.get(logDirectory, "output_Events.trace").toString(), "--output-file", Paths.get(logDirectory, "decoded.txt").toString());
+		}
+		List<String> uninterruptedEvents = Files.readAllLines(Paths.get("logs_trace_uninterrupted", "decoded.txt"));
+		assertThat(uninterruptedEvents.size(), is(greaterThan(100)));
+		assertThat("Resumed run traced different events to uninterrupted run", Files.readAllLines(Paths.get("logs_trace_resumed", "decoded.txt")), is(uninterruptedEvents));
+	}
+
+	private void runSimulation(String logDirectory, String numHours, LogType logLevel, String... extraArgs) {
+		String[] args = new String[]{
+				"--hours", numHours,
+				"--hours-before-print", "1",
+				"--model-file", getModelFilePath("delay_reactions_independence_20.mdsl"),
+				"--print", "a",
+				"--random-seed", "1234",
+				"--log-dir", logDirectory,
+				"--log-level", logLevel.name(),
+		};
+		runDriver(args, extraArgs);
+	}
+
+	/**
+	 * @return The lines of a log that describe events, without their timestamps.
+	 */
+	private static List<String> readEvents(Path logFile) throws IOException {
+		return Files.readAllLines(logFile).stream()
+				.map(line -> line.startsWith("[") ? line.substring(line.indexOf(']') + 1).trim() : line)
+				.filter(line -> line.startsWith("Fired reaction") || line.startsWith("Executed queue event"))
+				.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,138 @@
+package com.simomics.leishsim.test.parsing;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.model.MembraneModel;
+import com.simomics.leishsim.model.Reaction;
+import com.simomics.leishsim.parsing.CompiledModel;
+import com.simomics.leishsim.parsing.CompiledModelFile;
+import com.simomics.leishsim.parsing.ModelCache;
+import com.simomics.leishsim.parsing.SimulationFactory;
+import com.simomics.leishsim.parsing.SimulationFactory.InvalidModelException;
+import com.simomics.leishsim.simulation.Simulation;
+import com.simomics.leishsim.test.OutputTest;
+
+/**
+ * Tests of caching compiled models in files, so that they don't need to be parsed again.
+ */
+public class CompiledModelFileTests extends OutputTest {
+
+	private final File cacheDirectory = new File("test_logs", "model_cache");
+
+	@Before
+	public void clearCache() throws IOException {
+		Logging.resetLogging(new File("test_logs"), LogType.PROGRESS);
+		if (cacheDirectory.exists()) {
+			try (Stream<Path> paths = Files.walk(cacheDirectory.toPath())) {
+				for (Path path: (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that a model read from the cache is the same as the parsed model, and runs in the same way.
+	 */
+	@Test
+	public void sameAsParsedTest() throws Exception {
+		for (String modelFileName: new String[] {"stop_conditions.mdsl", "observables.mdsl", "location_context.mdsl", "redpulp_4.mdsl"}) {
+			File modelFile = new File(getModelFilePath(modelFileName));
+			CompiledModel parsed = new SimulationFactory().compileModel(modelFile, cacheDirectory);
+			assertThat(readLogFile(LogType.PROGRESS), containsString("Wrote compiled model cache file"));
+			CompiledModel cached = new SimulationFactory().compileModel(modelFile, cacheDirectory);
+			assertThat(readLogFile(LogType.PROGRESS), containsString("Read compiled model for " + modelFile.getAbsolutePath()));
+			assertThat(readLogFile(LogType.WARNING), not(containsString("Could not read the simulator's code")));
+
+			MembraneModel parsedModel = parsed.getModel();
+			MembraneModel cachedModel = cached.getModel();
+			assertThat(cachedModel.getReactionList().toString(), is(parsedModel.getReactionList().toString()));
+			for (int reactionId = 0; reactionId < parsedModel.getNumReactions(); reactionId++) {
+				Reaction parsedReaction = parsedModel.getReactionList().get(reactionId);
+				Reaction cachedReaction = cachedModel.getReactionList().get(reactionId);
+				assertThat(cachedReaction.getRateEquation().toString(), is(parsedReaction.getRateEquation().toString()));
+				assertThat(cachedReaction.getMdslLine(), is(parsedReaction.getMdslLine()));
+				assertThat(cachedModel.getDependentReactions(cachedReaction).size(), is(parsedModel.getDependentReactions(parsedReaction).size()));
+			}
+			assertThat(cachedModel.getSpeciesNames(), is(parsedModel.getSpeciesNames()));
+			assertThat(cachedModel.getParameterNames(), is(parsedModel.getParameterNames()));
+			assertThat(cachedModel.getObservables().toString(), is(parsedModel.getObservables().toString()));
+			assertThat(cachedModel.getStopConditions().toString(), is(parsedModel.getStopConditions().toString()));
+			assertThat(cachedModel.getSpeciesForTag("reactant"), is(parsedModel.getSpeciesForTag("reactant")));
+
+			Simulation parsedSimulation = SimulationFactory.createSimulation(parsed, 1234);
+			Simulation cachedSimulation = SimulationFactory.createSimulation(cached, 1234);
+			assertThat(cachedSimulation.getCurrentState().toFullStateString(), is(parsedSimulation.getCurrentState().toFullStateString()));
+			parsedSimulation.runForSeconds(600);
+			cachedSimulation.runForSeconds(600);
+			assertThat(cachedSimulation.getCurrentState().toFullStateString(), is(parsedSimulation.getCurrentState().toFullStateString()));
+			assertThat(cachedSimulation.getCurrentSeconds(), is(parsedSimulation.getCurrentSeconds()));
+		}
+	}
+
+	/**
+	 * Test that a changed model file is parsed again, and that a damaged cache file is replaced.
+	 */
+	@Test
+	public void changedModelTest() throws IOException, URISyntaxException, InvalidModelException {
+		File modelFile = new File(cacheDirectory, "model.mdsl");
+		cacheDirectory.mkdirs();
+		Files.copy(new File(getModelFilePath("observables.mdsl")).toPath(), modelFile.toPath());
+		new SimulationFactory().compileModel(modelFile, cacheDirectory);
+		String key = CompiledModelFile.cacheKey(Files.readAllBytes(modelFile.toPath()));
+
+		// Changing the model gives it a new key, so it is parsed again
+		Files.write(modelFile.toPath(), "\nparameter unused = 1 units\n".getBytes(), StandardOpenOption.APPEND);
+		String changedKey = CompiledModelFile.cacheKey(Files.readAllBytes(modelFile.toPath()));
+		assertThat(changedKey, not(is(key)));
+		CompiledModel changed = new SimulationFactory().compileModel(modelFile, cacheDirectory);
+		assertThat(changed.getModel().getParameterNames().contains("unused"), is(true));
+		assertThat(CompiledModelFile.cacheFile(cacheDirectory, changedKey).exists(), is(true));
+
+		// A damaged cache file is ignored and written again
+		File cacheFile = CompiledModelFile.cacheFile(cacheDirectory, changedKey);
+		Files.write(cacheFile.toPath(), new byte[] {1, 2, 3});
+		CompiledModel reparsed = new SimulationFactory().compileModel(modelFile, cacheDirectory);
+		assertThat(readLogFile(LogType.WARNING), containsString("Could not read compiled model cache file"));
+		assertThat(reparsed.getModel().getReactionList().toString(), is(changed.getModel().getReactionList().toString()));
+		assertThat(CompiledModelFile.read(cacheFile, changedKey).getModel().getNumReactions(), is(changed.getModel().getNumReactions()));
+	}
+
+	/**
+	 * Test that a model that fails to parse is not kept by the model cache, so asking for it again parses it again.
+	 */
+	@Test
+	public void failedModelNotCachedTest() throws Exception {
+		File modelFile = new File("test_logs", "invalid_model.mdsl");
+		Files.write(modelFile.toPath(), "this is not a reaction\n".getBytes(StandardCharsets.UTF_8));
+		ModelCache modelCache = new ModelCache();
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				modelCache.getModel(modelFile);
+				fail("Invalid model was parsed");
+			} catch (InvalidModelException e) {
+				// Expected
+			}
+		}
+		assertThat(readLogFile(LogType.PROGRESS), not(containsString("Using already parsed model")));
+	}
+}
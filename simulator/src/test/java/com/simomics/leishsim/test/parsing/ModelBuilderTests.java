@@ -0,0 +1,129 @@
+package com.simomics.leishsim.test.parsing;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.model.LocatedSpecies;
+import com.simomics.leishsim.model.Location;
+import com.simomics.leishsim.model.MembraneModel;
+import com.simomics.leishsim.model.equations.AddExpression;
+import com.simomics.leishsim.model.equations.DivideExpression;
+import com.simomics.leishsim.model.equations.LocatedSpeciesExpression;
+import com.simomics.leishsim.model.equations.MultiplyExpression;
+import com.simomics.leishsim.model.equations.NumberExpression;
+import com.simomics.leishsim.model.equations.ParameterExpression;
+import com.simomics.leishsim.parsing.CompiledModel;
+import com.simomics.leishsim.parsing.MembraneBuilder;
+import com.simomics.leishsim.parsing.ModelBuilder;
+import com.simomics.leishsim.parsing.SimulationFactory;
+import com.simomics.leishsim.parsing.SimulationFactory.InvalidModelException;
+import com.simomics.leishsim.simulation.Simulation;
+import com.simomics.leishsim.test.OutputTest;
+
+/**
+ * Tests of building models in code instead of parsing them from MDSL.
+ */
+public class ModelBuilderTests extends OutputTest {
+
+	/** The model that {@link #buildModel()} builds, written in MDSL */
+	private static final String MDSL = String.join("\n",
+			"initial tree {simulation {3 [infected] cell} {5 cell}}",
+			"parameter k = 0.5 units",
+			"parameter k2 = k * 2 units",
+			"species a contained cell = 100 units [tag_a]",
+			"species b contained infected = 10 units",
+			"species c contained simulation = 0 units",
+			"a contained cell binds b contained cell modifier k => c around cell",
+			"contained cell {",
+			"	b modifier k2 / (1 + a) => decay",
+			"}",
+			"");
+
+	private static CompiledModel buildModel() throws InvalidModelException {
+		return new ModelBuilder()
+				.initialTree(new MembraneBuilder("simulation")
+						.addMembrane(new MembraneBuilder("cell").addTag("infected"), 3)
+						.addMembrane(new MembraneBuilder("cell"), 5))
+				.parameter("k", 0.5, "units")
+				.parameter("k2", new MultiplyExpression(new ParameterExpression("k"), new NumberExpression(2)), "units")
+				.species("a", Location.contained, "cell", 100, "tag_a")
+				.species("b", Location.contained, "infected", 10)
+				.species("c", Location.contained, "simulation", 0)
+				.reaction()
+					.consumes("a", Location.contained, "cell")
+					.consumes("b", Location.contained, "cell")
+					.modifier(new ParameterExpression("k"))
+					.produces("c", Location.around, "cell")
+					.add()
+				.reaction()
+					.consumes("b", Location.contained, "cell")
+					.modifier(new DivideExpression(new ParameterExpression("k2"),
+							new AddExpression(new NumberExpression(1), new LocatedSpeciesExpression(new LocatedSpecies("a", Location.contained, "cell")))))
+					.add()
+				.build();
+	}
+
+	/**
+	 * Test that a built model is the same as the same model parsed from MDSL, and runs in the same way.
+	 */
+	@Test
+	public void sameAsParsedTest() throws Exception {
+		CompiledModel parsed = new SimulationFactory().compileModel(new ByteArrayInputStream(MDSL.getBytes(StandardCharsets.UTF_8)));
+		CompiledModel built = buildModel();
+
+		MembraneModel parsedModel = parsed.getModel();
+		MembraneModel builtModel = built.getModel();
+		assertThat(builtModel.getReactionList().toString(), is(parsedModel.getReactionList().toString()));
+		assertThat(builtModel.getSpeciesNames(), is(parsedModel.getSpeciesNames()));
+		assertThat(builtModel.getSpeciesForTag("tag_a"), is(parsedModel.getSpeciesForTag("tag_a")));
+
+		Simulation parsedSimulation = SimulationFactory.createSimulation(parsed, 1234);
+		Simulation builtSimulation = SimulationFactory.createSimulation(built, 1234);
+		assertThat(builtSimulation.printCurrentState(), is(parsedSimulation.printCurrentState()));
+		parsedSimulation.runForSeconds(3600);
+		builtSimulation.runForSeconds(3600);
+		assertThat(builtSimulation.printCurrentState(), is(parsedSimulation.printCurrentState()));
+		assertThat(builtSimulation.getCurrentSeconds(), is(parsedSimulation.getCurrentSeconds()));
+	}
+
+	/**
+	 * Test that a built model gets the same semantic checks as a parsed model.
+	 */
+	@Test
+	public void semanticChecksTest() throws IOException, URISyntaxException {
+		Logging.resetLogging(new File("test_logs"), LogType.WARNING);
+		try {
+			new ModelBuilder()
+					.initialTree(new MembraneBuilder("simulation"))
+					.reaction().consumes("a", Location.contained, "simulation").modifier(new ParameterExpression("k")).add()
+					.build();
+			fail("Model with an unlisted parameter should not build");
+		} catch (InvalidModelException e) {
+			assertThat(readLogFile(LogType.ERROR), containsString("ERROR: Parameter k used but not listed explicitly"));
+			assertThat(readLogFile(LogType.WARNING), containsString("WARNING: Species 'a contained simulation' used in reactions but not listed explicitly"));
+		}
+
+		try {
+			new ModelBuilder()
+					.initialTree(new MembraneBuilder("simulation"))
+					.species("a", Location.contained, "simulation", 1)
+					.species("a", Location.contained, "simulation", 2)
+					.build();
+			fail("Model with a duplicate species should not build");
+		} catch (InvalidModelException e) {
+			assertThat(e.getMessage(), containsString("Duplicate species definition: a contained simulation"));
+		}
+	}
+}
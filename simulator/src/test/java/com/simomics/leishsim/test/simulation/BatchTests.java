@@ -0,0 +1,110 @@
+package com.simomics.leishsim.test.simulation;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.simomics.leishsim.Driver;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.test.OutputTest;
+
+/**
+ * Tests of running several simulations from a batch manifest file.
+ */
+public class BatchTests extends OutputTest {
+
+	/**
+	 * Test that simulations in a batch run in parallel give the same results as each other when they have the same seed,
+	 *   and each write to their own log directory.
+	 */
+	@Test
+	public void batchWithSharedModelTest() throws IOException {
+		String jobArguments = String.format("--hours 10 --hours-before-print 1 --model-file %s --print a --print b --print c --print d --print e --log-level %s",
+				getModelFilePath("delay_reactions_independence_20.mdsl"), LogType.PRINTED_SPECIES.name());
+		Path manifestFile = Paths.get("batch_manifest.txt");
+		Files.write(manifestFile, Arrays.asList(
+				"# Two runs with the same seed, and one with a different seed",
+				jobArguments + " --random-seed 1234",
+				"",
+				jobArguments + " --random-seed 1234",
+				jobArguments + " --random-seed 5678 --log-dir logs_batch_other"));
+
+		Driver.main("--batch", manifestFile.toString(), "--workers", "2", "--log-dir", "logs_batch");
+
+		List<String> firstResults = readSpeciesRows(Paths.get("logs_batch", "job2"));
+		List<String> secondResults = readSpeciesRows(Paths.get("logs_batch", "job4"));
+		List<String> otherResults = readSpeciesRows(Paths.get("logs_batch_other"));
+		assertThat("Wrong number of rows printed", firstResults.size(), is(12));
+		assertThat("Simulations with the same seed printed different results", secondResults, is(firstResults));
+		assertThat("Simulations with different seeds printed the same results", otherResults, is(not(firstResults)));
+		assertTrue("Batch log not written", Files.readAllLines(Paths.get("logs_batch", "output_Progress.txt")).stream()
+				.anyMatch(line -> line.contains("Batch finished: 0 of 3 simulations failed")));
+	}
+
+	/**
+	 * Test that a simulation that fails does not stop the rest of the batch.
+	 */
+	@Test
+	public void batchContinuesAfterFailureTest() throws IOException {
+		Path manifestFile = Paths.get("batch_manifest_failure.txt");
+		Files.write(manifestFile, Arrays.asList(
+				"--hours 1 --model-file does_not_exist.mdsl",
+				"--hours 1 --not-an-option",
+				String.format("--hours 1 --model-file %s --print a --random-seed 1", getModelFilePath("delay_reactions_independence_20.mdsl"))));
+
+		Driver.main("--batch", manifestFile.toString(), "--log-dir", "logs_batch_failure");
+
+		assertThat("Successful simulation didn't print all rows", readSpeciesRows(Paths.get("logs_batch_failure", "job3")).size(), is(3));
+		assertTrue("Batch log not written", Files.readAllLines(Paths.get("logs_batch_failure", "output_Progress.txt")).stream()
+				.anyMatch(line -> line.contains("Batch finished: 2 of 3 simulations failed")));
+	}
+
+	/**
+	 * Test that quoted arguments in a manifest can contain spaces, that a line with an unclosed quote fails on its own,
+	 *   and that a missing manifest is reported as an error.
+	 */
+	@Test
+	public void batchQuotedArgumentsTest() throws IOException {
+		Path modelDirectory = Paths.get("batch model files");
+		Files.createDirectories(modelDirectory);
+		Path modelFile = modelDirectory.resolve("model with spaces.mdsl");
+		Files.copy(Paths.get(getModelFilePath("delay_reactions_independence_20.mdsl")), modelFile, StandardCopyOption.REPLACE_EXISTING);
+		Path manifestFile = Paths.get("batch_manifest_quoted.txt");
+		Files.write(manifestFile, Arrays.asList(
+				String.format("--hours 1 --model-file \"%s\" --print a --random-seed 1 --log-dir 'logs batch quoted'", modelFile),
+				String.format("--hours 1 --model-file \"%s --print a", modelFile)));
+
+		Driver.main("--batch", manifestFile.toString(), "--log-dir", "logs_batch_quoted");
+
+		assertThat("Simulation with quoted arguments didn't print all rows", readSpeciesRows(Paths.get("logs batch quoted")).size(), is(3));
+		assertTrue("Unclosed quote not reported", Files.readAllLines(Paths.get("logs_batch_quoted", "output_Errors.txt")).stream()
+				.anyMatch(line -> line.contains("Line 2 of batch manifest has an unclosed quote")));
+		assertTrue("Batch log not written", Files.readAllLines(Paths.get("logs_batch_quoted", "output_Progress.txt")).stream()
+				.anyMatch(line -> line.contains("Batch finished: 1 of 2 simulations failed")));
+
+		Driver.main("--batch", "does_not_exist.txt", "--log-dir", "logs_batch_missing");
+		assertTrue("Missing manifest not reported", Files.readAllLines(Paths.get("logs_batch_missing", "output_Errors.txt")).stream()
+				.anyMatch(line -> line.contains("Could not read batch manifest file: does_not_exist.txt")));
+	}
+
+	/**
+	 * @return The rows of the printed species file in the given directory, without their timestamps.
+	 */
+	private static List<String> readSpeciesRows(Path logDirectory) throws IOException {
+		return Files.readAllLines(logDirectory.resolve("output_Species.csv")).stream()
+				.map(line -> line.substring(line.indexOf(',') + 1))
+				.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,119 @@
+package com.simomics.leishsim.test.simulation;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.output.CsvExporter;
+import com.simomics.leishsim.test.OutputTest;
+
+/**
+ * Tests of writing checkpoints and resuming simulations from them.
+ */
+public class CheckpointTests extends OutputTest {
+
+	/**
+	 * Test that a run resumed from a checkpoint prints exactly the same results as an uninterrupted run.
+	 * Uses a model with delayed reactions, so that the event queue is part of the checkpoint.
+	 */
+	@Test
+	public void resumeMatchesUninterruptedRunTest() throws IOException, URISyntaxException {
+		runSimulation("logs_checkpoint_full", "30");
+		List<String> uninterruptedResults = readSpeciesRows("logs_checkpoint_full");
+
+		runSimulation("logs_checkpoint_resumed", "10", "--checkpoint-every", "1");
+		runSimulation("logs_checkpoint_resumed", "30", "--resume", Paths.get("logs_checkpoint_resumed", "checkpoint.bin").toString());
+		List<String> resumedResults = readSpeciesRows("logs_checkpoint_resumed");
+
+		assertThat("Resumed run printed different results to uninterrupted run", resumedResults, is(uninterruptedResults));
+	}
+
+	/**
+	 * Test that resuming from an older checkpoint discards the rows printed after that checkpoint.
+	 */
+	@Test
+	public void resumeFromOlderCheckpointTest() throws IOException, URISyntaxException {
+		runSimulation("logs_checkpoint_full", "30");
+		List<String> uninterruptedResults = readSpeciesRows("logs_checkpoint_full");
+
+		// Checkpoint at 10 hours, then carry on to 20 hours, which overwrites the checkpoint
+		Path checkpointFile = Paths.get("logs_checkpoint_older", "checkpoint.bin");
+		Path olderCheckpointFile = Paths.get("logs_checkpoint_older", "checkpoint_10_hours.bin");
+		runSimulation("logs_checkpoint_older", "10", "--checkpoint-every", "1");
+		Files.copy(checkpointFile, olderCheckpointFile, StandardCopyOption.REPLACE_EXISTING);
+		runSimulation("logs_checkpoint_older", "20", "--resume", checkpointFile.toString(), "--checkpoint-every", "1");
+
+		// Go back to 10 hours
+		runSimulation("logs_checkpoint_older", "30", "--resume", olderCheckpointFile.toString());
+		List<String> resumedResults = readSpeciesRows("logs_checkpoint_older");
+
+		assertThat("Resumed run printed different results to uninterrupted run", resumedResults, is(uninterruptedResults));
+	}
+
+	/**
+	 * Test that resuming works with the xoshiro random number generator as well as the default generator.
+	 */
+	@Test
+	public void resumeWithXoshiroTest() throws IOException, URISyntaxException {
+		runSimulation("logs_checkpoint_xoshiro_full", "30", "--rng", "XOSHIRO256");
+		List<String> uninterruptedResults = readSpeciesRows("logs_checkpoint_xoshiro_full");
+
+		runSimulation("logs_checkpoint_xoshiro_resumed", "10", "--rng", "XOSHIRO256", "--checkpoint-every", "1");
+		runSimulation("logs_checkpoint_xoshiro_resumed", "30", "--rng", "XOSHIRO256", "--resume", Paths.get("logs_checkpoint_xoshiro_resumed", "checkpoint.bin").toString());
+		List<String> resumedResults = readSpeciesRows("logs_checkpoint_xoshiro_resumed");
+
+		assertThat("Resumed run printed different results to uninterrupted run", resumedResults, is(uninterruptedResults));
+	}
+
+	/**
+	 * Test that resuming works with binary output files, which are rolled back and appended to in whole blocks.
+	 */
+	@Test
+	public void resumeWithBinaryOutputTest() throws IOException, URISyntaxException {
+		runSimulation("logs_checkpoint_binary_full", "30", "--output-format", "BINARY");
+		CsvExporter.export(Paths.get("logs_checkpoint_binary_full", "output_Species.bin").toFile(), Paths.get("logs_checkpoint_binary_full", "output_Species.csv").toFile());
+		List<String> uninterruptedResults = readSpeciesRows("logs_checkpoint_binary_full");
+
+		runSimulation("logs_checkpoint_binary_resumed", "10", "--output-format", "BINARY", "--checkpoint-every", "1");
+		runSimulation("logs_checkpoint_binary_resumed", "20", "--output-format", "BINARY", "--checkpoint-every", "1", "--resume", Paths.get("logs_checkpoint_binary_resumed", "checkpoint.bin").toString());
+		runSimulation("logs_checkpoint_binary_resumed", "30", "--output-format", "BINARY", "--resume", Paths.get("logs_checkpoint_binary_resumed", "checkpoint.bin").toString());
+		CsvExporter.export(Paths.get("logs_checkpoint_binary_resumed", "output_Species.bin").toFile(), Paths.get("logs_checkpoint_binary_resumed", "output_Species.csv").toFile());
+		List<String> resumedResults = readSpeciesRows("logs_checkpoint_binary_resumed");
+
+		assertThat(uninterruptedResults.size(), is(8));
+		assertThat("Resumed run printed different results to uninterrupted run", resumedResults, is(uninterruptedResults));
+	}
+
+	private void runSimulation(String logDirectory, String numHours, String... extraArgs) {
+		String[] args = new String[]{
+				"--hours", numHours,
+				"--hours-before-print", "5",
+				"--model-file", getModelFilePath("delay_reactions_independence_20.mdsl"),
+				"--print", "a", "--print", "b", "--print", "c", "--print", "d", "--print", "e",
+				"--random-seed", "1234",
+				"--log-dir", logDirectory,
+				"--log-level", LogType.PRINTED_SPECIES.name(),
+		};
+		runDriver(args, extraArgs);
+	}
+
+	/**
+	 * @return The rows of the printed species file in the given directory, without their timestamps.
+	 */
+	private static List<String> readSpeciesRows(String logDirectory) throws IOException {
+		return Files.readAllLines(Paths.get(logDirectory, "output_Species.csv")).stream()
+				.map(line -> line.substring(line.indexOf(',') + 1))
+				.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,226 @@
+package com.simomics.leishsim.test.simulation;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.ensemble.EnsembleStatistics;
+import com.simomics.leishsim.ensemble.PrecisionTarget;
+import com.simomics.leishsim.ensemble.SharedResultsFile;
+import com.simomics.leishsim.test.OutputTest;
+
+/**
+ * Tests of running ensembles of replicates into a shared results file.
+ */
+public class EnsembleTests extends OutputTest {
+
+	/**
+	 * Test that the results file holds the same numbers as the printed species log, for the replicate that a single run would have.
+	 */
+	@Test
+	public void resultsFileMatchesPrintedSpeciesTest() throws IOException {
+		runSimulation("logs_ensemble_single");
+		List<String> printedRows = Files.readAllLines(Paths.get("logs_ensemble_single", "output_Species.csv")).stream()
+				.map(line -> line.substring(line.indexOf(',') + 1).trim())
+				.collect(Collectors.toList());
+
+		runSimulation("logs_ensemble_in_process", "--replicates", "3");
+		SharedResultsFile results = SharedResultsFile.open(new File("logs_ensemble_in_process", "results.bin"));
+		assertThat(results.getSpeciesNames(), is(Arrays.asList("a", "b", "c")));
+		assertThat(results.getNumRows(), is(11));
+		for (int replicate = 0; replicate < results.getNumReplicates(); replicate++) {
+			assertTrue("Replicate not finished: " + replicate, results.isFinished(replicate));
+			assertThat(results.getRowsWritten(replicate), is(11));
+		}
+		assertThat("Results file differs from printed species", toRows(results, 0), is(printedRows.subList(1, printedRows.size())));
+		assertThat("Replicates have the same results", toRows(results, 1), is(not(toRows(results, 0))));
+		assertFalse("Per replicate species log written", Files.exists(Paths.get("logs_ensemble_in_process", "output_Species.csv")));
+	}
+
+	/**
+	 * Test that running replicates on worker processes gives the same results as running them all in one process.
+	 */
+	@Test
+	public void workerProcessesMatchInProcessTest() throws IOException {
+		runSimulation("logs_ensemble_in_process", "--replicates", "5");
+		SharedResultsFile inProcess = SharedResultsFile.open(new File("logs_ensemble_in_process", "results.bin"));
+
+		runSimulation("logs_ensemble_workers", "--replicates", "5", "--processes", "2");
+		SharedResultsFile workers = SharedResultsFile.open(new File("logs_ensemble_workers", "results.bin"));
+
+		for (int replicate = 0; replicate < 5; replicate++) {
+			assertTrue("Replicate not finished: " + replicate, workers.isFinished(replicate));
+			assertThat("Replicate differs: " + replicate, toRows(workers, replicate), is(toRows(inProcess, replicate)));
+		}
+	}
+
+	/**
+	 * Test that the ensemble summary gives the same means and variances as computing them directly from the results file,
+	 *   and that it can be written without keeping the results of each replicate.
+	 */
+	@Test
+	public void summaryMatchesResultsFileTest() throws IOException {
+		runSimulation("logs_ensemble_in_process", "--replicates", "4", "--quantiles", "0,0.5,1");
+		SharedResultsFile results = SharedResultsFile.open(new File("logs_ensemble_in_process", "results.bin"));
+		List<String> summary = Files.readAllLines(Paths.get("logs_ensemble_in_process", "output_Summary.csv"));
+		assertThat(summary.get(0), is("Hours,Species,Replicates,Mean,Variance,Q0.0,Q0.5,Q1.0"));
+		assertThat(summary.size(), is(1 + results.getNumRows() * 3));
+
+		List<int[][]> replicates = new ArrayList<>();
+		for (int replicate = 0; replicate < 4; replicate++) {
+			replicates.add(results.readReplicate(replicate));
+		}
+		for (int row = 0; row < results.getNumRows(); row++) {
+			for (int species = 0; species < 3; species++) {
+				String[] line = summary.get(1 + row * 3 + species).split(",");
+				assertThat(line[0], is(Long.toString(results.getRowTime(row))));
+				assertThat(line[1], is(results.getSpeciesNames().get(species)));
+				assertThat(line[2], is("4"));
+				double sum = 0, min = Double.MAX_VALUE, max = 0;
+				for (int[][] values: replicates) {
+					sum += values[species][row];
+					min = Math.min(min, values[species][row]);
+					max = Math.max(max, values[species][row]);
+				}
+				double mean = sum / 4;
+				double sumOfSquares = 0;
+				for (int[][] values: replicates) {
+					sumOfSquares += (values[species][row] - mean) * (values[species][row] - mean);
+				}
+				assertEquals(mean, Double.parseDouble(line[3]), 1e-9);
+				assertEquals(sumOfSquares / 3, Double.parseDouble(line[4]), 1e-9);
+				assertEquals(min, Double.parseDouble(line[5]), min * 0.01);
+				assertEquals(max, Double.parseDouble(line[7]), max * 0.01);
+			}
+		}
+
+		runSimulation("logs_ensemble_summary_only", "--replicates", "4", "--quantiles", "0,0.5,1", "--no-results-file");
+		assertFalse("Results file written", Files.exists(Paths.get("logs_ensemble_summary_only", "results.bin")));
+		assertThat("Summary differs without results file", Files.readAllLines(Paths.get("logs_ensemble_summary_only", "output_Summary.csv")), is(summary));
+	}
+
+	/**
+	 * Test that merging statistics of separate sets of replicates gives the same statistics as adding all the replicates to one.
+	 */
+	@Test
+	public void mergedStatisticsTest() {
+		EnsembleStatistics all = new EnsembleStatistics(1, 1, 0.01);
+		EnsembleStatistics first = new EnsembleStatistics(1, 1, 0.01);
+		EnsembleStatistics second = new EnsembleStatistics(1, 1, 0.01);
+		for (int i = 0; i < 1000; i++) {
+			int[] value = new int[]{(i * 7919) % 1000};
+			all.add(0, value);
+			(i % 3 == 0 ? first : second).add(0, value);
+		}
+		first.merge(second);
+		assertThat(first.getCount(0, 0), is(1000L));
+		assertEquals(all.getMean(0, 0), first.getMean(0, 0), 1e-9);
+		assertEquals(all.getVariance(0, 0), first.getVariance(0, 0), 1e-6);
+		for (double quantile: new double[]{0.05, 0.5, 0.95}) {
+			assertThat(first.getQuantile(0, 0, quantile), is(all.getQuantile(0, 0, quantile)));
+			// Values are 0 to 999 once each
+			double exact = Math.floor(quantile * 999);
+			assertEquals(exact, first.getQuantile(0, 0, quantile), exact * 0.01 + 1e-9);
+		}
+	}
+
+	/**
+	 * Test that an ensemble with a precision target stops once the target is met, 
+	 *   with the same replicates that a fixed size ensemble would have run.
+	 */
+	@Test
+	public void precisionTargetTest() throws IOException {
+		runSimulation("logs_ensemble_target", "--replicates", "60", "--workers", "3",
+				"--target-species", "b", "--target-time", "10", "--target-precision", "0.02");
+		List<String> summary = Files.readAllLines(Paths.get("logs_ensemble_target", "output_Summary.csv"));
+		int replicatesRun = Integer.parseInt(summary.get(summary.size() - 1).split(",")[2]);
+		assertTrue("Stopped too soon: " + replicatesRun, replicatesRun >= PrecisionTarget.MIN_REPLICATES);
+		assertTrue("Did not stop early: " + replicatesRun, replicatesRun < 60);
+		assertThat("Stopped part way through a wave", replicatesRun % 3, is(0));
+
+		SharedResultsFile target = SharedResultsFile.open(new File("logs_ensemble_target", "results.bin"));
+		assertThat(target.firstUnfinished(0, 60), is(replicatesRun));
+		runSimulation("logs_ensemble_in_process", "--replicates", Integer.toString(replicatesRun));
+		SharedResultsFile inProcess = SharedResultsFile.open(new File("logs_ensemble_in_process", "results.bin"));
+		for (int replicate = 0; replicate < replicatesRun; replicate++) {
+			assertThat("Replicate differs: " + replicate, toRows(target, replicate), is(toRows(inProcess, replicate)));
+		}
+	}
+
+	/**
+	 * Test that a results file whose replicates would be too big to map into memory is refused when it is created.
+	 */
+	@Test
+	public void resultsFileTooBigTest() {
+		File file = new File("results_too_big.bin");
+		List<String> speciesNames = Collections.nCopies(1000, "a");
+		try {
+			SharedResultsFile.create(file, 2, 1000000, speciesNames, 1, false);
+			fail("Results file with 4GB replicates should not be created");
+		} catch (IOException e) {
+			assertThat(e.getMessage(), containsString("can't hold 1000000 rows of 1000 species for each replicate"));
+		}
+		assertFalse(file.exists());
+	}
+
+	/**
+	 * Test that quantiles outside 0 to 1 are refused when the options are parsed, in the same way for the summary and distribution logs.
+	 */
+	@Test
+	public void invalidQuantilesTest() throws IOException, URISyntaxException {
+		Logging.resetLogging(new File("test_logs"), LogType.WARNING);
+		runSimulation("logs_ensemble_bad_quantiles", "--replicates", "2", "--quantiles", "0.5,2");
+		assertThat(readLogFile(LogType.ERROR), containsString("--quantiles must be between 0 and 1, but was 2"));
+		assertFalse(new File("logs_ensemble_bad_quantiles", "output_Summary.csv").exists());
+		runSimulation("logs_ensemble_bad_quantiles", "--distribution-quantiles", "0.5,x");
+		assertThat(readLogFile(LogType.ERROR), containsString("--distribution-quantiles must be numbers, but was x"));
+	}
+
+	private void runSimulation(String logDirectory, String... extraArgs) {
+		String[] args = new String[]{
+				"--hours", "10",
+				"--model-file", getModelFilePath("delay_reactions_independence_20.mdsl"),
+				"--print", "a", "--print", "b", "--print", "c",
+				"--random-seed", "1234",
+				"--log-dir", logDirectory,
+				"--log-level", LogType.PRINTED_SPECIES.name(),
+		};
+		runDriver(args, extraArgs);
+	}
+
+	/**
+	 * @return The results of one replicate formatted like the rows of the printed species log, without their timestamps.
+	 */
+	private static List<String> toRows(SharedResultsFile results, int replicate) throws IOException {
+		int[][] values = results.readReplicate(replicate);
+		List<String> rows = new ArrayList<>();
+		for (int row = 0; row < results.getNumRows(); row++) {
+			StringBuilder line = new StringBuilder();
+			for (int species = 0; species < values.length; species++) {
+				line.append(values[species][row]).append(",");
+			}
+			rows.add(line.append(results.getRowTime(row)).toString());
+		}
+		return rows;
+	}
+}
@@ -6,12 +6,15 @@ import static org.junit.Assert.assertThat;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Collections;
 
 import org.junit.Test;
 
 import com.simomics.leishsim.Driver;
 import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.model.Location;
 import com.simomics.leishsim.parsing.SimulationFactory.InvalidModelException;
+import com.simomics.leishsim.simulation.Membrane;
 import com.simomics.leishsim.test.OutputTest;
 
 /**
@@ -97,4 +100,34 @@ public class MultiMembranesTests extends OutputTest {
 			assertThat("Mass not conserved at time " + time, th1I + th1I_exp, is(10));
 		}
 	}
+	
+	/**
+	 * Test that a watcher is told about changes to the species that it watches, including species around a membrane,
+	 *   until it stops watching them.
+	 */
+	@Test
+	public void unwatchSpeciesTest() {
+		Membrane simulation = new Membrane("simulation", Collections.emptyList(), null);
+		Membrane cell = new Membrane("cell", Collections.emptyList(), simulation);
+		simulation.addMembrane(cell);
+		int[] changes = new int[2];
+		Membrane.SpeciesWatcher watcher = (slot, change) -> changes[slot] += change;
+		Membrane.SpeciesWatcher otherWatcher = (slot, change) -> { };
+		cell.watchSpecies(Location.contained, "a", watcher, 0);
+		cell.watchSpecies(Location.around, "a", watcher, 1);
+		cell.watchSpecies(Location.contained, "a", otherWatcher, 0);
+		
+		cell.addSpecies(Location.contained, "a", 3);
+		simulation.addSpecies(Location.contained, "a", 5);
+		assertThat(changes, is(new int[] {3, 5}));
+		
+		simulation.unwatchSpecies(watcher);
+		cell.addSpecies(Location.contained, "a", 3);
+		simulation.addSpecies(Location.contained, "a", 5);
+		assertThat(changes, is(new int[] {3, 5}));
+		
+		cell.watchSpecies(Location.contained, "a", watcher, 0);
+		cell.addSpecies(Location.contained, "a", -1);
+		assertThat(changes, is(new int[] {2, 5}));
+	}
 }
@@ -1,19 +1,49 @@
 package com.simomics.leishsim.test.simulation;
 
+import static org.hamcrest.CoreMatchers.both;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertThat;
-import static org.junit.matchers.JUnitMatchers.hasItems;
+import static org.junit.Assert.fail;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.Test;
 
 import com.simomics.leishsim.Driver;
+import com.simomics.leishsim.Logger;
+import com.simomics.leishsim.Logging;
+import com.simomics.leishsim.OutputExporter;
 import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.parsing.SimulationFactory;
+import com.simomics.leishsim.simulation.Simulation;
+import com.simomics.leishsim.simulation.Simulation.InvalidSimulationException;
 import com.simomics.leishsim.test.OutputTest;
 
 /**
@@ -41,4 +71,347 @@ public class PrintingTests extends OutputTest {
 		assertThat("Didn't find all species names in output", species, hasItems("Th0_exp", "Th1I_exp", "Th2_exp"));
 		assertThat("Found too many species names in output", species.size(), is(3));
 	}
+	
+	/**
+	 * Test that writing the printed logs on a background thread gives the same logs as writing them on the simulation thread.
+	 */
+	@Test
+	public void asyncOutputTest() throws IOException {
+		runSimulation("logs_sync");
+		runSimulation("logs_async", "--async-output");
+		for (String fileName: Arrays.asList("output_Species.csv", "output_SpeciesPerMembrane.csv", "output_Propensities.csv")) {
+			List<String> syncLines = readWithoutTimestamps(Paths.get("logs_sync", fileName));
+			assertThat("Log is empty: " + fileName, syncLines.size(), is(greaterThan(10)));
+			assertThat("Log differs: " + fileName, readWithoutTimestamps(Paths.get("logs_async", fileName)), is(syncLines));
+		}
+	}
+	
+	/**
+	 * Test that a failure to write a row on the background thread stops the simulation, rather than leaving it waiting for the writer.
+	 */
+	@Test(timeout = 60000)
+	public void asyncOutputFailureTest() throws Exception {
+		Logging.resetLogging(new File("test_logs"), LogType.PRINTED_SPECIES);
+		Map<String, Logger> loggers = new HashMap<>(Logging.getLoggers());
+		loggers.put(LogType.PRINTED_SPECIES.name(), new Logger() {
+			@Override
+			public void log(String message) {
+			}
+			@Override
+			public void log(String message, Throwable exception) {
+			}
+			@Override
+			public void logBytes(byte[] bytes, int offset, int length) {
+				throw new IllegalStateException("Disk full");
+			}
+		});
+		Logging.useLoggers(loggers);
+		Simulation simulation = SimulationFactory.createSimulation(new SimulationFactory().compileModel(new File(getModelFilePath("tagged_membranes.mdsl"))), 1234);
+		simulation.setAsyncOutput(true);
+		try {
+			simulation.runSeconds(60 * 60, 1, Arrays.asList("x"), false);
+			fail("Simulation should stop when its output can't be written");
+		} catch (InvalidSimulationException e) {
+			assertThat(e.getMessage(), containsString("Failed to write output"));
+			assertThat(e.getMessage(), containsString("Disk full"));
+		}
+	}
+	
+	/**
+	 * Test that binary output files, converted back to CSV, hold the same numbers as the CSV output files.
+	 */
+	@Test
+	public void binaryOutputTest() throws IOException {
+		runSimulation("logs_sync");
+		runSimulation("logs_binary", "--output-format", "BINARY");
+		OutputExporter.main("logs_binary/output_Species.bin", "logs_binary/output_SpeciesPerMembrane.bin", "logs_binary/output_Propensities.bin");
+		for (String fileName: Arrays.asList("output_Species.csv", "output_SpeciesPerMembrane.csv", "output_Propensities.csv")) {
+			List<String> csvLines = readWithoutTimestamps(Paths.get("logs_sync", fileName));
+			assertThat("Log differs: " + fileName, readWithoutTimestamps(Paths.get("logs_binary", fileName)), is(csvLines));
+		}
+	}
+	
+	/**
+	 * Test that sparse species per membrane logs, converted back to CSV, hold the same numbers as the CSV output files,
+	 *   whether they are written on the simulation thread or a background thread.
+	 */
+	@Test
+	public void sparseOutputTest() throws IOException {
+		runSimulation("logs_sync");
+		runSimulation("logs_sparse", "--output-format", "SPARSE");
+		runSimulation("logs_sparse_async", "--output-format", "SPARSE", "--async-output");
+		Path csvFile = Paths.get("logs_sync", "output_SpeciesPerMembrane.csv");
+		List<String> csvLines = readWithoutTimestamps(csvFile);
+		for (String logDirectory: Arrays.asList("logs_sparse", "logs_sparse_async")) {
+			Path sparseFile = Paths.get(logDirectory, "output_SpeciesPerMembrane.sparse.csv");
+			assertThat("Sparse log is not smaller: " + logDirectory, Files.size(sparseFile), is(lessThan(Files.size(csvFile))));
+			OutputExporter.main(sparseFile.toString());
+			assertThat("Log differs: " + logDirectory, readWithoutTimestamps(Paths.get(logDirectory, "output_SpeciesPerMembrane.csv")), is(csvLines));
+		}
+	}
+	
+	/**
+	 * Test that the species distribution log summarises the numbers in the species per membrane log, and is only written when asked for.
+	 */
+	@Test
+	public void distributionOutputTest() throws IOException {
+		runSimulation("logs_distribution", "--species-distribution", "--distribution-quantiles", "0,0.5,1", "--histogram-bins", "4");
+		runSimulation("logs_no_distribution");
+		assertThat(Files.exists(Paths.get("logs_no_distribution", "output_SpeciesDistribution.csv")), is(false));
+		List<String> perMembraneLines = Files.readAllLines(Paths.get("logs_distribution", "output_SpeciesPerMembrane.csv"));
+		List<String> distributionLines = Files.readAllLines(Paths.get("logs_distribution", "output_SpeciesDistribution.csv"));
+		assertThat(distributionLines.size(), is(perMembraneLines.size()));
+		assertThat(distributionLines.size(), is(greaterThan(10)));
+		
+		List<String> perMembraneHeadings = Arrays.asList(perMembraneLines.get(0).split(","));
+		List<String> distributionHeadings = Arrays.asList(distributionLines.get(0).split(","));
+		for (String species: Arrays.asList("x", "y", "z")) {
+			String prefix = species + " contained membrane_a";
+			assertThat(distributionHeadings, hasItems(prefix + " mean", prefix + " q0.5", prefix + " hist 0", prefix + " hist 1", prefix + " hist 2-3", prefix + " hist 4+"));
+			for (int row = 1; row < distributionLines.size(); row++) {
+				String[] perMembraneRow = perMembraneLines.get(row).split(",");
+				String[] distributionRow = distributionLines.get(row).split(",");
+				List<Integer> values = new ArrayList<>();
+				for (int column = 1; column < perMembraneHeadings.size(); column++) {
+					if (perMembraneHeadings.get(column).startsWith(prefix + "_")) {
+						values.add(Integer.parseInt(perMembraneRow[column]));
+					}
+				}
+				assertThat(values.size(), is(10));
+				values.sort(null);
+				assertThat(Double.parseDouble(distributionRow[distributionHeadings.indexOf(prefix + " mean")]),
+						is(values.stream().mapToInt(Integer::intValue).sum() / 10.0));
+				assertThat(Integer.parseInt(distributionRow[distributionHeadings.indexOf(prefix + " min")]), is(values.get(0)));
+				assertThat(Double.parseDouble(distributionRow[distributionHeadings.indexOf(prefix + " q1.0")]), is((double) values.get(9)));
+				assertThat(Double.parseDouble(distributionRow[distributionHeadings.indexOf(prefix + " q0.5")]), is((values.get(4) + values.get(5)) / 2.0));
+				assertThat(Integer.parseInt(distributionRow[distributionHeadings.indexOf(prefix + " hist 4+")]), is((int) values.stream().filter(value -> value >= 4).count()));
+			}
+		}
+	}
+	
+	/**
+	 * Test that --print-membranes prints the same columns as printing every membrane, for only the chosen membranes.
+	 */
+	@Test
+	public void printMembranesTest() throws IOException, URISyntaxException {
+		runSimulation("logs_sync");
+		runSimulation("logs_membranes_range", "--print-membranes", "membrane_a_2..4,membrane_b");
+		runSimulation("logs_membranes_tag", "--print-membranes", "a_1");
+		List<String> allLines = Files.readAllLines(Paths.get("logs_sync", "output_SpeciesPerMembrane.csv"));
+		
+		List<String> rangeLines = Files.readAllLines(Paths.get("logs_membranes_range", "output_SpeciesPerMembrane.csv"));
+		assertThat(printedMembranes(rangeLines.get(0)), is(new TreeSet<>(Arrays.asList("membrane_a_2", "membrane_a_3", "membrane_a_4", "membrane_b_1"))));
+		assertThat(rangeLines, is(selectColumns(allLines, rangeLines.get(0))));
+		
+		List<String> tagLines = Files.readAllLines(Paths.get("logs_membranes_tag", "output_SpeciesPerMembrane.csv"));
+		assertThat(printedMembranes(tagLines.get(0)).size(), is(2));
+		assertThat(tagLines, is(selectColumns(allLines, tagLines.get(0))));
+		
+		// A membrane chosen by more than one selector is printed once, and counts as a match for each of them
+		runSimulation("logs_membranes_overlap", "--print-membranes", "membrane_a_3,membrane_a_2..4,membrane_b");
+		List<String> overlapLines = Files.readAllLines(Paths.get("logs_membranes_overlap", "output_SpeciesPerMembrane.csv"));
+		assertThat(overlapLines, is(rangeLines));
+		assertThat(readLogFile(LogType.WARNING), not(containsString("No membranes match")));
+		
+		// A range is compared with each unique tag rather than listing every tag in it, so it can be as wide as the numbers allow
+		runSimulation("logs_membranes_wide", "--print-membranes", "membrane_a_2..2000000000");
+		List<String> wideLines = Files.readAllLines(Paths.get("logs_membranes_wide", "output_SpeciesPerMembrane.csv"));
+		assertThat(printedMembranes(wideLines.get(0)), hasItems("membrane_a_2", "membrane_a_3", "membrane_a_4"));
+		assertThat(printedMembranes(wideLines.get(0)), not(hasItem("membrane_a_1")));
+		assertThat(wideLines, is(selectColumns(allLines, wideLines.get(0))));
+	}
+	
+	/**
+	 * @return The unique tags of the membranes in the headings of a species per membrane log.
+	 */
+	private static Set<String> printedMembranes(String headingLine) {
+		List<String> headings = Arrays.asList(headingLine.split(","));
+		return headings.subList(1, headings.size()).stream().map(heading -> heading.substring(heading.lastIndexOf(' ') + 1)).collect(Collectors.toCollection(TreeSet::new));
+	}
+	
+	/**
+	 * @return The lines of a log with only the columns that have the given headings.
+	 */
+	private static List<String> selectColumns(List<String> lines, String headingLine) {
+		List<String> allHeadings = Arrays.asList(lines.get(0).split(","));
+		List<Integer> columns = Arrays.stream(headingLine.split(",")).map(allHeadings::indexOf).collect(Collectors.toList());
+		return lines.stream().map(line -> {
+			String[] values = line.split(",");
+			return columns.stream().map(column -> values[column]).collect(Collectors.joining(","));
+		}).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Test that observables, which are kept up to date as species change, match the numbers of species counted at each print time,
+	 *   and are only written when asked for.
+	 */
+	@Test
+	public void observablesTest() throws IOException {
+		Driver.main(new String[]{
+				"--hours", "1",
+				"--seconds-before-print", "100",
+				"--model-file", getModelFilePath("observables.mdsl"),
+				"--print", "all",
+				"--random-seed", "1234",
+				"--log-dir", "logs_observables",
+				"--log-level", LogType.PRINTED_SPECIES_PER_MEMBRANE.name(),
+				"--observables",
+		});
+		List<String> observableLines = Files.readAllLines(Paths.get("logs_observables", "output_Observables.csv"));
+		List<String> speciesLines = readWithoutTimestamps(Paths.get("logs_observables", "output_Species.csv"));
+		List<String> perMembraneLines = Files.readAllLines(Paths.get("logs_observables", "output_SpeciesPerMembrane.csv"));
+		assertThat(observableLines.get(0), is("Seconds,all_x,all_reactants,w_in_b,x_in_a_2,products"));
+		assertThat(observableLines.size(), is(speciesLines.size()));
+		assertThat(observableLines.size(), is(greaterThan(10)));
+		
+		List<String> speciesHeadings = Arrays.asList(speciesLines.get(0).split(","));
+		int wInB = Arrays.asList(perMembraneLines.get(0).split(",")).indexOf("w contained membrane_b_1");
+		for (int row = 1; row < observableLines.size(); row++) {
+			String[] observables = observableLines.get(row).split(",");
+			List<String> speciesRow = Arrays.asList(speciesLines.get(row).split(","));
+			ToIntFunction<String> species = name -> Integer.parseInt(speciesRow.get(speciesHeadings.indexOf(name)));
+			assertThat(observables[0], is(perMembraneLines.get(row).split(",")[0]));
+			assertThat(Double.parseDouble(observables[1]), is((double) species.applyAsInt("x")));
+			assertThat(Double.parseDouble(observables[2]), is((double) species.applyAsInt("x") + species.applyAsInt("y")));
+			assertThat(Double.parseDouble(observables[3]), is(Double.parseDouble(perMembraneLines.get(row).split(",")[wInB])));
+			assertThat(Double.parseDouble(observables[5]), is((species.applyAsInt("u") + species.applyAsInt("v") + species.applyAsInt("w")) * 0.5));
+		}
+		assertThat("Didn't count reactants in a_2 membranes", observableLines.get(1).split(",")[4], is("100.0"));
+		
+		// The observables log is only written when asked for, whatever the log level
+		runSimulation("logs_no_observables");
+		assertThat(Files.exists(Paths.get("logs_no_observables", "output_Observables.csv")), is(false));
+	}
+	
+	/**
+	 * Test that the species envelope log, printed rarely, holds every number printed by a run that prints often,
+	 *   and is only written when asked for.
+	 */
+	@Test
+	public void envelopeOutputTest() throws IOException {
+		runSimulation("logs_envelope", "--species-envelope");
+		runSimulation("logs_envelope_often", 5);
+		assertThat(Files.exists(Paths.get("logs_envelope_often", "output_SpeciesEnvelope.csv")), is(false));
+		List<String> envelopeLines = Files.readAllLines(Paths.get("logs_envelope", "output_SpeciesEnvelope.csv"));
+		List<String> rareLines = readWithoutTimestamps(Paths.get("logs_envelope", "output_Species.csv"));
+		List<String> oftenLines = readWithoutTimestamps(Paths.get("logs_envelope_often", "output_Species.csv"));
+		assertThat(envelopeLines.size(), is(rareLines.size()));
+		assertThat(oftenLines.size(), is(greaterThan(envelopeLines.size() * 10)));
+		
+		List<String> envelopeHeadings = Arrays.asList(envelopeLines.get(0).split(","));
+		List<String> speciesHeadings = Arrays.asList(rareLines.get(0).split(","));
+		int oftenRow = 1;
+		for (int row = 1; row < envelopeLines.size(); row++) {
+			String[] envelopeRow = envelopeLines.get(row).split(",");
+			String[] rareRow = rareLines.get(row).split(",");
+			long time = Long.parseLong(envelopeRow[0]);
+			assertThat(rareRow[rareRow.length - 1], is(envelopeRow[0]));
+			// The numbers printed often since the previous print time, including that time
+			List<String[]> oftenRows = new ArrayList<>();
+			oftenRow = Math.max(oftenRow - 1, 1);
+			while (oftenRow < oftenLines.size()) {
+				String[] oftenValues = oftenLines.get(oftenRow).split(",");
+				if (Long.parseLong(oftenValues[oftenValues.length - 1]) > time) {
+					break;
+				}
+				oftenRows.add(oftenValues);
+				oftenRow++;
+			}
+			for (String species: Arrays.asList("x", "y", "z", "w")) {
+				int speciesColumn = speciesHeadings.indexOf(species);
+				long min = Long.parseLong(envelopeRow[envelopeHeadings.indexOf(species + " min")]);
+				long max = Long.parseLong(envelopeRow[envelopeHeadings.indexOf(species + " max")]);
+				double mean = Double.parseDouble(envelopeRow[envelopeHeadings.indexOf(species + " mean")]);
+				assertThat(envelopeRow[envelopeHeadings.indexOf(species + " last")], is(rareRow[speciesColumn]));
+				assertThat(mean, is(both(greaterThanOrEqualTo((double) min)).and(lessThanOrEqualTo((double) max))));
+				for (String[] oftenValues: oftenRows) {
+					long value = Long.parseLong(oftenValues[speciesColumn]);
+					assertThat(value, is(both(greaterThanOrEqualTo(min)).and(lessThanOrEqualTo(max))));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Test that the firing counts log, printed rarely, holds the totals of the firing counts printed by a run that prints often,
+	 *   names its reactions as in the reaction numbers log, and is only written when asked for.
+	 */
+	@Test
+	public void firingCountsOutputTest() throws IOException {
+		runSimulation("logs_firings", "--firing-counts");
+		runSimulation("logs_firings_often", 5, "--firing-counts");
+		runSimulation("logs_no_firings");
+		assertThat(Files.exists(Paths.get("logs_no_firings", "output_FiringCounts.csv")), is(false));
+		List<String> rareLines = Files.readAllLines(Paths.get("logs_firings", "output_FiringCounts.csv"));
+		List<String> oftenLines = Files.readAllLines(Paths.get("logs_firings_often", "output_FiringCounts.csv"));
+		assertThat(rareLines.get(0), is("Seconds,Reaction,Membrane,Firings"));
+		assertThat(rareLines.size(), is(greaterThan(10)));
+		
+		Set<String> reactionNames = Files.readAllLines(Paths.get("logs_firings", "output_Reaction Numbers.csv")).stream()
+				.skip(1).map(line -> line.split(",")[0]).collect(Collectors.toSet());
+		Map<String, Long> rareCounts = new TreeMap<>();
+		for (String line: rareLines.subList(1, rareLines.size())) {
+			String[] values = line.split(",");
+			assertThat(reactionNames.contains(values[1]), is(true));
+			assertThat(Long.parseLong(values[3]), is(greaterThan(0L)));
+			assertThat(rareCounts.put(values[0] + "," + values[1] + "," + values[2], Long.parseLong(values[3])), is((Long) null));
+		}
+		// Add up the often printed counts over the same intervals as the rarely printed ones
+		Map<String, Long> oftenCounts = new TreeMap<>();
+		for (String line: oftenLines.subList(1, oftenLines.size())) {
+			String[] values = line.split(",");
+			long intervalEnd = (Long.parseLong(values[0]) + 99) / 100 * 100;
+			oftenCounts.merge(intervalEnd + "," + values[1] + "," + values[2], Long.parseLong(values[3]), Long::sum);
+		}
+		assertThat(oftenCounts, is(rareCounts));
+	}
+	
+	/**
+	 * Test that compressed logs decompress to the same logs as uncompressed ones.
+	 */
+	@Test
+	public void compressedOutputTest() throws IOException {
+		runSimulation("logs_sync");
+		runSimulation("logs_gzip", "--compress", "ALL:GZIP", "--compress", "PRINTED_SPECIES:GZIP_FAST");
+		for (String fileName: Arrays.asList("output_Species.csv", "output_SpeciesPerMembrane.csv", "output_Propensities.csv")) {
+			assertThat("Uncompressed log written: " + fileName, Files.exists(Paths.get("logs_gzip", fileName)), is(false));
+			List<String> csvLines = readWithoutTimestamps(Paths.get("logs_sync", fileName));
+			assertThat("Log differs: " + fileName, readWithoutTimestamps(Paths.get("logs_gzip", fileName + ".gz")), is(csvLines));
+		}
+	}
+	
+	private void runSimulation(String logDirectory, String... extraArgs) {
+		runSimulation(logDirectory, 100, extraArgs);
+	}
+	
+	private void runSimulation(String logDirectory, long secondsBeforePrint, String... extraArgs) {
+		String[] args = new String[]{
+				"--hours", "1",
+				"--seconds-before-print", Long.toString(secondsBeforePrint),
+				"--model-file", getModelFilePath("tagged_membranes.mdsl"),
+				"--print", "all",
+				"--random-seed", "1234",
+				"--log-dir", logDirectory,
+				"--log-level", LogType.PRINTED_PROPENSITIES.name(),
+		};
+		runDriver(args, extraArgs);
+	}
+	
+	/**
+	 * @return The lines of the log file, decompressed if it is a .gz file, with the timestamps of the printed species log left blank.
+	 */
+	private static List<String> readWithoutTimestamps(Path logFile) throws IOException {
+		List<String> lines;
+		if (logFile.toString().endsWith(".gz")) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(logFile)), StandardCharsets.UTF_8))) {
+				lines = reader.lines().collect(Collectors.toList());
+			}
+		}
+		else {
+			lines = Files.readAllLines(logFile);
+		}
+		return lines.stream()
+				.map(line -> line.startsWith("[") ? "," + line.substring(line.indexOf(']') + 1).substring(1).trim() : line)
+				.collect(Collectors.toList());
+	}
 }
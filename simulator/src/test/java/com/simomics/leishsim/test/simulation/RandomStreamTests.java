@@ -0,0 +1,129 @@
+package com.simomics.leishsim.test.simulation;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.simomics.leishsim.Driver;
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.simulation.RandomGeneratorType;
+import com.simomics.leishsim.simulation.RandomStream;
+import com.simomics.leishsim.simulation.Xoshiro256Stream;
+import com.simomics.leishsim.test.OutputTest;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Tests of the random number generators, and of deriving streams for replicates.
+ */
+public class RandomStreamTests extends OutputTest {
+
+	/**
+	 * Test that the xoshiro256++ generator gives the output of the reference implementation.
+	 */
+	@Test
+	public void xoshiroReferenceTest() throws IOException {
+		// Set the state to {1, 2, 3, 4}
+		ByteArrayOutputStream state = new ByteArrayOutputStream();
+		try (DataOutputStream output = new DataOutputStream(state)) {
+			for (long word = 1; word <= 4; word++) {
+				output.writeLong(word);
+			}
+		}
+		Xoshiro256Stream stream = new Xoshiro256Stream(0);
+		stream.readState(new DataInputStream(new ByteArrayInputStream(state.toByteArray())));
+
+		// rotl(s0 + s3, 23) + s0
+		assertThat(stream.nextLong(), is(41943041L));
+	}
+
+	/**
+	 * Test that generating numbers in batches gives the same numbers as generating them one at a time.
+	 */
+	@Test
+	public void batchesMatchSingleNumbersTest() {
+		for (RandomGeneratorType type: RandomGeneratorType.values()) {
+			RandomStream single = type.createStream(1234, 3, 2);
+			RandomStream batch = type.createStream(1234, 3, 2);
+			double[] batchValues = new double[100];
+			batch.nextDoubles(batchValues);
+			for (int i = 0; i < batchValues.length; i++) {
+				double value = single.nextDouble();
+				assertTrue("Number out of range: " + value, value >= 0 && value < 1);
+				assertThat(type + " batch differs at " + i, batchValues[i], is(value));
+			}
+		}
+	}
+
+	/**
+	 * Test that streams are the same each time they are derived, and different for each replicate and partition.
+	 */
+	@Test
+	public void derivedStreamsTest() {
+		for (RandomGeneratorType type: RandomGeneratorType.values()) {
+			double[] stream = firstNumbers(type.createStream(1234, 1, 1));
+			assertThat(type + " stream not repeatable", firstNumbers(type.createStream(1234, 1, 1)), is(stream));
+			assertThat(type + " replicates have the same stream", firstNumbers(type.createStream(1234, 2, 1)), is(not(stream)));
+			assertThat(type + " partitions have the same stream", firstNumbers(type.createStream(1234, 1, 2)), is(not(stream)));
+			assertThat(type + " seeds have the same stream", firstNumbers(type.createStream(1235, 1, 1)), is(not(stream)));
+		}
+	}
+
+	/**
+	 * Test that the default stream gives the same numbers as the original generator, so that old seeds give the same results.
+	 */
+	@Test
+	public void mersenneTwisterUnchangedTest() {
+		MersenneTwisterFast original = new MersenneTwisterFast(1234);
+		RandomStream stream = RandomGeneratorType.MERSENNE_TWISTER.createStream(1234, 0, 0);
+		for (int i = 0; i < 100; i++) {
+			assertThat(stream.nextDouble(), is(original.nextDouble()));
+		}
+	}
+
+	/**
+	 * Test that runs of different replicates with the same seed give different results, and that each is repeatable.
+	 */
+	@Test
+	public void replicatesTest() throws IOException {
+		List<String> replicate1 = runReplicate("logs_replicate_1a", "1");
+		assertThat("Replicate not repeatable", runReplicate("logs_replicate_1b", "1"), is(replicate1));
+		assertThat("Replicates gave the same results", runReplicate("logs_replicate_2", "2"), is(not(replicate1)));
+	}
+
+	private List<String> runReplicate(String logDirectory, String replicate) throws IOException {
+		Driver.main(new String[]{
+				"--hours", "10",
+				"--model-file", getModelFilePath("delay_reactions_independence_20.mdsl"),
+				"--print", "a", "--print", "b", "--print", "c",
+				"--random-seed", "1234",
+				"--rng", RandomGeneratorType.XOSHIRO256.name(),
+				"--replicate", replicate,
+				"--log-dir", logDirectory,
+				"--log-level", LogType.PRINTED_SPECIES.name(),
+		});
+		return Files.readAllLines(Paths.get(logDirectory, "output_Species.csv")).stream()
+				.map(line -> line.substring(line.indexOf(',') + 1))
+				.collect(Collectors.toList());
+	}
+
+	private static double[] firstNumbers(RandomStream stream) {
+		double[] values = new double[10];
+		Arrays.setAll(values, i -> stream.nextDouble());
+		return values;
+	}
+}
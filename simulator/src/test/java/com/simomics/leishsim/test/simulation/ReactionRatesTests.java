@@ -1,6 +1,7 @@
 package com.simomics.leishsim.test.simulation;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.closeTo;
 import static org.junit.Assert.assertThat;
 
 import java.io.IOException;
@@ -11,6 +12,15 @@ import org.junit.Test;
 
 import com.simomics.leishsim.Driver;
 import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.model.MembraneModel;
+import com.simomics.leishsim.model.Reaction;
+import com.simomics.leishsim.parsing.SimulationFactory;
+import com.simomics.leishsim.parsing.SimulationFactory.InvalidModelException;
+import com.simomics.leishsim.simulation.ChosenReaction;
+import com.simomics.leishsim.simulation.Membrane;
+import com.simomics.leishsim.simulation.ReactionRateTableSimulation;
+import com.simomics.leishsim.simulation.Simulation;
+import com.simomics.leishsim.simulation.Simulation.InvalidSimulationException;
 import com.simomics.leishsim.test.OutputTest;
 
 /**
@@ -60,4 +70,49 @@ public class ReactionRatesTests extends OutputTest {
 		};
 		assertThat("Rates were not calculated correctly", expectedRates, is(observedRates));
 	}
+	
+	/**
+	 * Test that the total propensity of each reaction, which is kept up to date as the rates change, 
+	 *   stays the same as adding up the rates from scratch.
+	 */
+	@Test
+	public void reactionTotalsTest() throws InvalidModelException, InvalidSimulationException {
+		Simulation parsed = new SimulationFactory().createSimulation(getClass().getResourceAsStream("/model_files/redpulp_4.mdsl"), 1234);
+		CheckedTotalsSimulation simulation = new CheckedTotalsSimulation(parsed.getModel(), parsed.getCurrentState().copy());
+		simulation.runForSeconds(100);
+		assertThat("No reactions were checked", simulation.numChecks > 0, is(true));
+	}
+	
+	/**
+	 * Compares the total propensity of every reaction with the sum of its rates every time it chooses a reaction.
+	 */
+	private static class CheckedTotalsSimulation extends ReactionRateTableSimulation {
+		
+		private int numChecks = 0;
+		
+		public CheckedTotalsSimulation(MembraneModel model, Membrane initialConditions) throws InvalidSimulationException {
+			super(model, initialConditions, 1234);
+		}
+		
+		@Override
+		protected ChosenReaction chooseRandomReaction() throws InvalidSimulationException {
+			ChosenReaction chosenReaction = super.chooseRandomReaction();
+			for (Reaction reaction: getModel().getReactionList()) {
+				double expectedTotal = 0;
+				for (Membrane membrane: currentState.getMatchingMembranes(reaction)) {
+					if (membrane.stoichiometryMatches(reaction)) {
+						expectedTotal += membrane.computeRate(reaction);
+					}
+				}
+				if (expectedTotal == 0) {
+					assertThat(String.format("Total of %s", reaction), getReactionPropensity(reaction), is(0d));
+				}
+				else {
+					assertThat(String.format("Total of %s", reaction), getReactionPropensity(reaction), closeTo(expectedTotal, Math.abs(expectedTotal) * 1e-9));
+				}
+				numChecks++;
+			}
+			return chosenReaction;
+		}
+	}
 }
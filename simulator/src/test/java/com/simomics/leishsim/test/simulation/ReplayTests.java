@@ -0,0 +1,78 @@
+package com.simomics.leishsim.test.simulation;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.test.OutputTest;
+
+/**
+ * Tests of replaying event traces to write the logs of a run again with different print options.
+ */
+public class ReplayTests extends OutputTest {
+
+	/**
+	 * Test that replaying a trace with different species and print times gives the same logs as running the simulation with those options.
+	 * Uses a model with delayed reactions, so that events from the queue are replayed too.
+	 */
+	@Test
+	public void replayWithDelaysTest() throws IOException {
+		checkReplay("delay_reactions_independence_20.mdsl", "30", "--hours-before-print", "1");
+	}
+
+	/**
+	 * Test replaying a model with many membranes, printing more often than the original run.
+	 */
+	@Test
+	public void replayManyMembranesTest() throws IOException {
+		checkReplay("tagged_membranes.mdsl", "1", "--seconds-before-print", "60");
+	}
+
+	/**
+	 * Run a model with a trace, printing only one species every 5 hours, then check that replaying its trace with the given print options
+	 *   writes the same logs as a simulation run with those options.
+	 */
+	private void checkReplay(String modelFileName, String numHours, String... printOptions) throws IOException {
+		runSimulation(modelFileName, "logs_replay_traced", numHours, LogType.PRINTED_SPECIES, "--print", "all", "--hours-before-print", "5", "--event-trace");
+		runSimulation(modelFileName, "logs_replay_expected", numHours, LogType.PRINTED_SPECIES_PER_MEMBRANE, concat(printOptions, "--print", "all"));
+		runSimulation(modelFileName, "logs_replay_replayed", numHours, LogType.PRINTED_SPECIES_PER_MEMBRANE,
+				concat(printOptions, "--print", "all", "--replay", Paths.get("logs_replay_traced", "output_Events.trace").toString()));
+
+		for (String fileName: Arrays.asList("output_Species.csv", "output_SpeciesPerMembrane.csv")) {
+			List<String> expectedLines = readWithoutTimestamps(Paths.get("logs_replay_expected", fileName));
+			assertThat("Log is empty: " + fileName, expectedLines.size(), is(greaterThan(10)));
+			assertThat("Replayed log differs: " + fileName, readWithoutTimestamps(Paths.get("logs_replay_replayed", fileName)), is(expectedLines));
+		}
+	}
+
+	private void runSimulation(String modelFileName, String logDirectory, String numHours, LogType logLevel, String... extraArgs) {
+		String[] args = new String[]{
+				"--hours", numHours,
+				"--model-file", getModelFilePath(modelFileName),
+				"--random-seed", "1234",
+				"--log-dir", logDirectory,
+				"--log-level", logLevel.name(),
+		};
+		runDriver(args, extraArgs);
+	}
+
+	/**
+	 * @return The lines of the log file, with the timestamps of the printed species log left blank.
+	 */
+	private static List<String> readWithoutTimestamps(Path logFile) throws IOException {
+		return Files.readAllLines(logFile).stream()
+				.map(line -> line.startsWith("[") ? line.substring(line.indexOf(']') + 1) : line)
+				.collect(Collectors.toList());
+	}
+}
@@ -1,14 +1,22 @@
 package com.simomics.leishsim.test.simulation;
 
+import static org.hamcrest.CoreMatchers.both;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -19,10 +27,15 @@ import org.junit.Test;
 import com.simomics.leishsim.Driver;
 import com.simomics.leishsim.Logging;
 import com.simomics.leishsim.Logging.LogType;
+import com.simomics.leishsim.model.Location;
+import com.simomics.leishsim.model.StopCondition;
 import com.simomics.leishsim.parsing.SimulationFactory;
 import com.simomics.leishsim.parsing.SimulationFactory.InvalidModelException;
+import com.simomics.leishsim.simulation.Membrane;
 import com.simomics.leishsim.simulation.Simulation;
 import com.simomics.leishsim.simulation.Simulation.InvalidSimulationException;
+import com.simomics.leishsim.simulation.SimulationObserver;
+import com.simomics.leishsim.simulation.StateView;
 import com.simomics.leishsim.test.OutputTest;
 
 /**
@@ -54,6 +67,141 @@ public class RunSimulationTests extends OutputTest {
 				new Double(halfTimeB), closeTo(initialB / 2, tolerance));
 	}
 	
+	/**
+	 * Test that a stop condition in the model ends the simulation as soon as it is met, and records why it stopped.
+	 */
+	@Test
+	public void stopConditionTest() throws InvalidModelException, InvalidSimulationException, IOException, URISyntaxException {
+		Driver.main(new String[]{ 
+				"--hours", "10",
+				"--seconds-before-print", "100",
+				"--model-file", getModelFilePath("stop_conditions.mdsl"),
+				"--print", "all",
+				"--random-seed", "1234",
+				"--log-level", LogType.PRINTED_SPECIES.name(),
+		});
+		String progress = readLogFile(LogType.PROGRESS);
+		assertThat(progress, containsString("reactant == 0"));
+		assertThat(progress, not(containsString("Run 36000 of 36000 seconds")));
+		Map<String, Integer> lastState = getLineOfSpeciesFile(-1);
+		assertThat(lastState.get("x") + lastState.get("y"), is(0));
+		assertThat(lastState.get("z"), is(greaterThan(0)));
+		
+		// A condition that is already met stops the simulation before any reactions fire
+		Simulation simulation = new SimulationFactory().createSimulation(getClass().getResourceAsStream("/model_files/stop_conditions.mdsl"), 1234);
+		for (Membrane membrane: simulation.getCurrentState().getAllMembranes()) {
+			membrane.addSpecies(Location.contained, "x", -membrane.numSpecies("x", Location.contained));
+			membrane.addSpecies(Location.contained, "y", -membrane.numSpecies("y", Location.contained));
+		}
+		assertThat(simulation.runForSeconds(100), is(true));
+		assertThat(simulation.getCurrentSeconds(), is(0d));
+		
+		// Each run checks the conditions again, so running a simulation that has already met a condition stops it straight away
+		Simulation rerun = new SimulationFactory().createSimulation(getClass().getResourceAsStream("/model_files/stop_conditions.mdsl"), 1234);
+		assertThat(rerun.runSeconds(36000, 100, Arrays.asList("x", "y", "z"), false), is(true));
+		assertThat(rerun.getCurrentState().getAllSpecies("z"), is(greaterThan(0)));
+		assertThat(rerun.runSeconds(36000, 100, Arrays.asList("x", "y", "z"), false), is(true));
+		assertThat(rerun.getCurrentSeconds(), is(0d));
+		
+		// "stop" and "when" are separate keywords, so any spacing or a line break can come between them
+		String model = new String(Files.readAllBytes(Paths.get(getModelFilePath("stop_conditions.mdsl"))), StandardCharsets.UTF_8);
+		String spacedModel = model.replace("stop when w", "stop   when w").replace("stop when reactant", "stop\nwhen reactant");
+		assertThat(spacedModel, not(containsString("stop when")));
+		List<StopCondition> spacedConditions = new SimulationFactory().compileModel(new ByteArrayInputStream(spacedModel.getBytes(StandardCharsets.UTF_8))).getModel().getStopConditions();
+		List<StopCondition> conditions = new SimulationFactory().compileModel(new ByteArrayInputStream(model.getBytes(StandardCharsets.UTF_8))).getModel().getStopConditions();
+		assertThat(spacedConditions.toString(), is(conditions.toString()));
+	}
+	
+	/**
+	 * Test that a run stops once its species settle at a steady state, but not when the tolerance is too small for the noise.
+	 */
+	@Test
+	public void steadyStateTest() throws InvalidModelException, InvalidSimulationException, IOException, URISyntaxException {
+		Driver.main(new String[]{ 
+				"--hours", "1000",
+				"--hours-before-print", "1",
+				"--model-file", getModelFilePath("steady_state.mdsl"),
+				"--print", "x",
+				"--random-seed", "1234",
+				"--steady-state-tolerance", "0.05",
+				"--steady-state-species", "x",
+				"--log-level", LogType.PRINTED_SPECIES.name(),
+		});
+		assertThat(readLogFile(LogType.PROGRESS), containsString("Steady state reached at"));
+		int numRows = readLogFile(LogType.PRINTED_SPECIES).split("\n").length - 1;
+		assertThat(numRows, is(both(greaterThan(20)).and(lessThan(100))));
+		
+		Driver.main(new String[]{ 
+				"--hours", "30",
+				"--hours-before-print", "1",
+				"--model-file", getModelFilePath("steady_state.mdsl"),
+				"--print", "x",
+				"--random-seed", "1234",
+				"--steady-state-tolerance", "0",
+				"--steady-state-window", "5",
+				"--log-level", LogType.PRINTED_SPECIES.name(),
+		});
+		assertThat(readLogFile(LogType.PROGRESS), not(containsString("Steady state reached at")));
+		assertThat(readLogFile(LogType.PROGRESS), containsString("Run 108000 of 108000 seconds"));
+	}
+	
+	/**
+	 * Test that an observer is told about every print time and every reaction firing, 
+	 *   and that the firings add up to the changes in the printed species.
+	 */
+	@Test
+	public void observerTest() throws InvalidModelException, InvalidSimulationException {
+		Simulation simulation = new SimulationFactory().createSimulation(getClass().getResourceAsStream("/model_files/observables.mdsl"), 1234);
+		List<int[]> printedCounts = new ArrayList<>();
+		List<int[]> firingsAtPrintTimes = new ArrayList<>();
+		int[] firings = new int[3];
+		boolean[] finished = new boolean[1];
+		simulation.addObserver(new SimulationObserver() {
+			@Override
+			public void runStarted(StateView state, boolean resumed) {
+				assertThat(resumed, is(false));
+				assertThat(state.getPrintedSpeciesNames(), is(Arrays.asList("x", "y", "z")));
+			}
+			
+			@Override
+			public void printed(StateView state) {
+				assertThat(state.getRowIndex(), is(printedCounts.size()));
+				assertThat(state.getNominalSeconds(), is(100L * printedCounts.size()));
+				printedCounts.add(state.getPrintedSpeciesCounts().clone());
+				firingsAtPrintTimes.add(firings.clone());
+			}
+			
+			@Override
+			public boolean observesFirings() {
+				return true;
+			}
+			
+			@Override
+			public void reactionFired(double seconds, int reactionId, int membraneId) {
+				firings[reactionId]++;
+				assertThat(membraneId, is(both(greaterThanOrEqualTo(0)).and(lessThan(12))));
+			}
+			
+			@Override
+			public void runFinished(StateView state, boolean stoppedEarly) {
+				assertThat(stoppedEarly, is(false));
+				assertThat(state.getMembraneType(0), is("simulation"));
+				finished[0] = true;
+			}
+		});
+		simulation.runSeconds(3600, 100, Arrays.asList("x", "y", "z"), false);
+		
+		assertThat(finished[0], is(true));
+		assertThat(printedCounts.size(), is(37));
+		assertThat(firingsAtPrintTimes.get(36)[0], is(greaterThan(0)));
+		for (int row = 0; row < printedCounts.size(); row++) {
+			for (int species = 0; species < 3; species++) {
+				// Each reaction uses up one of its species, in the same order as the printed species
+				assertThat(printedCounts.get(0)[species] - printedCounts.get(row)[species], is(firingsAtPrintTimes.get(row)[species]));
+			}
+		}
+	}
+	
 	/**
 	 * Test that we can run the IFNg pathway file
 	 */